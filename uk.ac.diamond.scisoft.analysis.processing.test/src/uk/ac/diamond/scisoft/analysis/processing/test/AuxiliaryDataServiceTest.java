@@ -0,0 +1,250 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
+import org.eclipse.dawnsci.analysis.api.io.ScanFileHolderException;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.AbstractFileLoader;
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+import uk.ac.diamond.scisoft.analysis.processing.OperationContextImpl;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataRequest;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataService;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IAuxiliaryDataOperation;
+import uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor.Junk1Dto1DOperation;
+import uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor.Junk2Dto2DOperation;
+
+public class AuxiliaryDataServiceTest {
+
+	private static final String EXTENSION = "auxcount";
+	private static final String DATA = "data";
+	private static final int[] SHAPE = new int[] {3, 4, 5};
+
+	/**
+	 * Number of reads of data from files loaded by {@link CountingLoader}
+	 */
+	private static final AtomicInteger READS = new AtomicInteger();
+
+	private static String filePath;
+
+	@BeforeClass
+	public static void before() throws Exception {
+		LoaderFactory.registerLoader(EXTENSION, CountingLoader.class);
+
+		File tmp = File.createTempFile("AuxiliaryData", "." + EXTENSION);
+		tmp.deleteOnExit();
+		filePath = tmp.getAbsolutePath();
+	}
+
+	@AfterClass
+	public static void after() {
+		LoaderFactory.clearLoader(EXTENSION);
+	}
+
+	@Test
+	public void testScope() {
+		Junk1Dto1DOperation op1 = new Junk1Dto1DOperation();
+		Junk2Dto2DOperation op2 = new Junk2Dto2DOperation();
+		Junk1Dto1DOperation other = new Junk1Dto1DOperation();
+
+		AuxiliaryDataService unscoped = AuxiliaryDataService.getService(op1);
+		Assert.assertSame(unscoped, AuxiliaryDataService.getService(null));
+
+		IOperationContext context = new OperationContextImpl();
+		context.setSeries(op1, op2);
+		AuxiliaryDataService service = AuxiliaryDataService.open(context);
+		Assert.assertNotSame(unscoped, service);
+		Assert.assertSame(service, AuxiliaryDataService.getService(op1));
+		Assert.assertSame(service, AuxiliaryDataService.getService(op2));
+		Assert.assertSame(unscoped, AuxiliaryDataService.getService(other));
+
+		service.close();
+		Assert.assertSame(unscoped, AuxiliaryDataService.getService(op1));
+		Assert.assertSame(unscoped, AuxiliaryDataService.getService(op2));
+	}
+
+	@Test
+	public void testFailureNotCached() {
+		Junk1Dto1DOperation op = new Junk1Dto1DOperation();
+		IOperationContext context = new OperationContextImpl();
+		context.setSeries(op);
+		AuxiliaryDataService service = AuxiliaryDataService.open(context);
+		try {
+			for (int i = 0; i < 2; i++) {
+				try {
+					service.getLazyDataset(op, "/no/such/file.nxs", "/entry/data");
+					Assert.fail("Missing file should throw");
+				} catch (OperationException e) {
+					Assert.assertTrue(e.getMessage().contains("/no/such/file.nxs"));
+				}
+			}
+		} finally {
+			service.close();
+		}
+	}
+
+	@Test
+	public void testRequestEquality() {
+		AuxiliaryDataRequest a = AuxiliaryDataRequest.createMean("a.nxs", "/entry/data", new int[] {1, 2}, 0, 10);
+		Assert.assertEquals(a, AuxiliaryDataRequest.createMean("a.nxs", "/entry/data", new int[] {1, 2}, 0, 10));
+		Assert.assertEquals(a.hashCode(), AuxiliaryDataRequest.createMean("a.nxs", "/entry/data", new int[] {1, 2}, 0, 10).hashCode());
+		Assert.assertFalse(a.equals(AuxiliaryDataRequest.createMean("a.nxs", "/entry/data", new int[] {1, 2}, 0, null)));
+		Assert.assertFalse(a.equals(AuxiliaryDataRequest.createMean("a.nxs", "/entry/data", new int[] {0, 1}, 0, 10)));
+		Assert.assertFalse(AuxiliaryDataRequest.createLazy("a.nxs", "/entry/data").equals(AuxiliaryDataRequest.createFull("a.nxs", "/entry/data")));
+	}
+
+	@Test
+	public void testLoadedOnce() throws Exception {
+		final AuxiliaryDataRequest request = AuxiliaryDataRequest.createMean(filePath, DATA, new int[] {1, 2}, null, null);
+
+		// reads needed to resolve the request once
+		READS.set(0);
+		Dataset expected = AuxiliaryDataService.getService(null).getDataset(null, request);
+		int single = READS.get();
+		Assert.assertTrue(single > 0);
+
+		final IOperation[] ops = new IOperation[] {new Junk1Dto1DOperation(), new Junk2Dto2DOperation()};
+		IOperationContext context = new OperationContextImpl();
+		context.setSeries(ops);
+		AuxiliaryDataService service = AuxiliaryDataService.open(context);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			READS.set(0);
+			// each slice of each operation asks for the data
+			List<Future<Dataset>> results = new ArrayList<Future<Dataset>>();
+			for (int i = 0; i < 20; i++) {
+				final IOperation op = ops[i % ops.length];
+				results.add(pool.submit(new Callable<Dataset>() {
+					@Override
+					public Dataset call() throws Exception {
+						return AuxiliaryDataService.getService(op).getDataset(op, request);
+					}
+				}));
+			}
+
+			Dataset first = results.get(0).get();
+			Assert.assertEquals(expected, first);
+			for (Future<Dataset> r : results) {
+				Assert.assertSame(first, r.get());
+			}
+			Assert.assertEquals("Data should be read for one resolution only", single, READS.get());
+		} finally {
+			pool.shutdownNow();
+			service.close();
+		}
+	}
+
+	@Test
+	public void testPrefetch() throws Exception {
+		AuxiliaryDataRequest request = AuxiliaryDataRequest.createFull(filePath, DATA);
+		PrefetchingOperation op = new PrefetchingOperation(Collections.singletonList(request));
+		Junk2Dto2DOperation other = new Junk2Dto2DOperation();
+
+		IOperationContext context = new OperationContextImpl();
+		context.setSeries(op, other);
+		READS.set(0);
+		AuxiliaryDataService service = AuxiliaryDataService.open(context);
+		try {
+			int prefetched = READS.get();
+			Assert.assertTrue("Declared data should be read when service is opened", prefetched > 0);
+
+			Dataset d = AuxiliaryDataService.getService(op).getDataset(op, request);
+			Assert.assertArrayEquals(SHAPE, d.getShape());
+			Assert.assertSame(d, AuxiliaryDataService.getService(other).getDataset(other, request));
+			Assert.assertEquals("Prefetched data should not be read again", prefetched, READS.get());
+		} finally {
+			service.close();
+		}
+	}
+
+	private static Dataset createData() {
+		Dataset data = DatasetFactory.createRange(SHAPE[0] * SHAPE[1] * SHAPE[2], Dataset.FLOAT64);
+		data.setShape(SHAPE);
+		return data;
+	}
+
+	/**
+	 * Operation that declares the data it uses
+	 */
+	private static class PrefetchingOperation extends Junk1Dto1DOperation implements IAuxiliaryDataOperation {
+		private final Collection<AuxiliaryDataRequest> requests;
+
+		public PrefetchingOperation(Collection<AuxiliaryDataRequest> requests) {
+			this.requests = requests;
+		}
+
+		@Override
+		public Collection<AuxiliaryDataRequest> getAuxiliaryDataRequests(IOperationContext context) throws Exception {
+			return requests;
+		}
+	}
+
+	/**
+	 * Loader that gives a lazy dataset whose reads are counted
+	 */
+	public static class CountingLoader extends AbstractFileLoader {
+
+		public CountingLoader(String fileName) {
+			setFile(fileName);
+		}
+
+		@Override
+		protected void clearMetadata() {
+			metadata = null;
+		}
+
+		@Override
+		public DataHolder loadFile() throws ScanFileHolderException {
+			DataHolder holder = new DataHolder();
+			holder.addDataset(DATA, new LazyDataset(DATA, Dataset.FLOAT64, SHAPE.clone(), new CountingLazyLoader()));
+			return holder;
+		}
+	}
+
+	private static class CountingLazyLoader implements ILazyLoader {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public IDataset getDataset(IMonitor mon, SliceND slice) throws Exception {
+			READS.incrementAndGet();
+			return createData().getSliceView(slice);
+		}
+
+		@Override
+		public boolean isFileReadable() {
+			return true;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
+import org.eclipse.dawnsci.analysis.api.processing.IExecutionVisitor;
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationService;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.api.processing.model.EmptyModel;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.OperationServiceImpl;
+import uk.ac.diamond.scisoft.analysis.processing.operations.AverageFastestOperation;
+import uk.ac.diamond.scisoft.analysis.processing.operations.AverageSectionsOfFastestModel;
+import uk.ac.diamond.scisoft.analysis.processing.operations.AverageSectionsOfFastestOperation;
+import uk.ac.diamond.scisoft.analysis.processing.operations.AveragingOperation;
+import uk.ac.diamond.scisoft.analysis.processing.runner.OperationRunnerImpl;
+import uk.ac.diamond.scisoft.analysis.processing.runner.SeriesRunner;
+
+/**
+ * Checks averaging operations give the same results in series and in parallel
+ */
+public class AveragingOperationsTest {
+
+	private static IOperationService service;
+	private static Dataset data;
+
+	@BeforeClass
+	public static void before() throws Exception {
+		service = new OperationServiceImpl();
+		OperationRunnerImpl.setRunner(ExecutionType.SERIES,   new SeriesRunner());
+		OperationRunnerImpl.setRunner(ExecutionType.PARALLEL, new SeriesRunner());
+
+		data = Random.rand(0.0, 10.0, 6, 4, 8, 8);
+	}
+
+	@Test
+	public void testAverageAll() throws Exception {
+		AveragingOperation<EmptyModel> op = new AveragingOperation<EmptyModel>();
+		op.setModel(new EmptyModel());
+		Dataset expected = data.mean(0).mean(0);
+
+		for (ExecutionType type : new ExecutionType[] {ExecutionType.SERIES, ExecutionType.PARALLEL}) {
+			List<IDataset> results = run(op, type);
+			assertEquals(1, results.size());
+			assertClose(expected, results.get(0));
+		}
+	}
+
+	@Test
+	public void testAverageFastest() throws Exception {
+		AverageFastestOperation op = new AverageFastestOperation();
+		op.setModel(new EmptyModel());
+
+		List<Dataset> expected = new ArrayList<Dataset>();
+		for (int i = 0; i < 6; i++) {
+			expected.add(data.getSliceView(new Slice(i, i + 1), null, null, null).mean(1).squeeze());
+		}
+
+		for (ExecutionType type : new ExecutionType[] {ExecutionType.SERIES, ExecutionType.PARALLEL}) {
+			List<IDataset> results = run(op, type);
+			assertEquals(6, results.size());
+			assertAllFound(expected, results);
+		}
+	}
+
+	@Test
+	public void testAverageSectionsOfFastest() throws Exception {
+		AverageSectionsOfFastestOperation op = new AverageSectionsOfFastestOperation();
+		AverageSectionsOfFastestModel model = new AverageSectionsOfFastestModel();
+		model.setNumber(2);
+		op.setModel(model);
+
+		List<Dataset> expected = new ArrayList<Dataset>();
+		for (int i = 0; i < 6; i++) {
+			for (int j = 0; j < 4; j += 2) {
+				expected.add(data.getSliceView(new Slice(i, i + 1), new Slice(j, j + 2), null, null).mean(1).squeeze());
+			}
+		}
+
+		for (ExecutionType type : new ExecutionType[] {ExecutionType.SERIES, ExecutionType.PARALLEL}) {
+			List<IDataset> results = run(op, type);
+			assertEquals(12, results.size());
+			assertAllFound(expected, results);
+		}
+	}
+
+	private static List<IDataset> run(IOperation<?, ?> op, ExecutionType type) throws Exception {
+		final List<IDataset> results = Collections.synchronizedList(new ArrayList<IDataset>());
+
+		final IOperationContext context = service.createContext();
+		context.setData(data);
+		context.setDataDimensions(new int[]{2,3});
+		context.setExecutionType(type);
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				if (result != null && result.getData() != null) {
+					results.add(result.getData());
+				}
+			}
+		});
+		context.setSeries(op);
+		service.execute(context);
+		return results;
+	}
+
+	private static void assertAllFound(List<Dataset> expected, List<IDataset> results) {
+		for (IDataset r : results) {
+			boolean found = false;
+			for (Dataset e : expected) {
+				if (isClose(e, r)) {
+					found = true;
+					break;
+				}
+			}
+			assertTrue("Unexpected average", found);
+		}
+	}
+
+	private static void assertClose(Dataset expected, IDataset result) {
+		assertTrue("Unexpected average", isClose(expected, result));
+	}
+
+	private static boolean isClose(Dataset expected, IDataset result) {
+		IDataset r = result.getSliceView().squeeze();
+		for (int i = 0; i < 8; i++) {
+			for (int j = 0; j < 8; j++) {
+				if (Math.abs(expected.getDouble(i, j) - r.getDouble(i, j)) > 1e-10) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+}
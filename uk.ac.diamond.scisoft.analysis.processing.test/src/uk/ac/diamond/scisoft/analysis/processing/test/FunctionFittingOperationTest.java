@@ -0,0 +1,208 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dawb.common.services.ServiceManager;
+import org.dawnsci.persistence.PersistenceServiceCreator;
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.persistence.IPersistenceService;
+import org.eclipse.dawnsci.analysis.api.persistence.IPersistentFile;
+import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
+import org.eclipse.dawnsci.analysis.api.processing.IExecutionVisitor;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationService;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.api.roi.IROI;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
+import uk.ac.diamond.scisoft.analysis.processing.Activator;
+import uk.ac.diamond.scisoft.analysis.processing.operations.FunctionFittingModel;
+import uk.ac.diamond.scisoft.analysis.processing.operations.FunctionFittingOperation;
+import uk.ac.diamond.scisoft.analysis.processing.runner.OperationRunnerImpl;
+import uk.ac.diamond.scisoft.analysis.processing.runner.SeriesRunner;
+
+public class FunctionFittingOperationTest {
+
+	private static final int POINTS = 100;
+	private static final double FWHM = 6;
+	private static final double AREA = 100;
+	private static final double GUESS = 20;
+
+	private static IOperationService service;
+	private static String functionFile;
+
+	@BeforeClass
+	public static void before() throws Exception {
+		service = (IOperationService)Activator.getService(IOperationService.class);
+		service.createOperations(service.getClass().getClassLoader(), "uk.ac.diamond.scisoft.analysis.processing.operations");
+
+		OperationRunnerImpl.setRunner(ExecutionType.SERIES,   new SeriesRunner());
+		OperationRunnerImpl.setRunner(ExecutionType.PARALLEL, new SeriesRunner());
+
+		ServiceManager.setService(IPersistenceService.class, PersistenceServiceCreator.createPersistenceService());
+
+		final File tmp = File.createTempFile("FunctionFitting", ".nxs");
+		tmp.deleteOnExit();
+		tmp.delete();
+		functionFile = tmp.getAbsolutePath();
+
+		IPersistenceService ps = (IPersistenceService) ServiceManager.getService(IPersistenceService.class);
+		IPersistentFile pf = ps.createPersistentFile(functionFile);
+		try {
+			Map<String, IFunction> functions = new HashMap<String, IFunction>();
+			functions.put("fit", new Gaussian(GUESS, FWHM, AREA));
+			pf.setFunctions(functions);
+			Map<String, IROI> rois = new HashMap<String, IROI>();
+			rois.put("fit_region", new RectangularROI(0, 0, POINTS, 1, 0));
+			pf.setROIs(rois);
+		} finally {
+			pf.close();
+		}
+	}
+
+	@Test
+	public void testSeedAlongFastestDimension() throws Exception {
+		// peak moves further than the initial guess can reach along the fastest dimension only
+		int[] shape = new int[] {2, 15};
+		double[][] posn = new double[shape[0]][shape[1]];
+		for (int i = 0; i < shape[0]; i++) {
+			for (int j = 0; j < shape[1]; j++) {
+				posn[i][j] = GUESS + 4 * j;
+			}
+		}
+
+		Map<String, Double> fitted = fit(createPeaks(posn), ExecutionType.SERIES);
+
+		assertEquals(shape[0] * shape[1], fitted.size());
+		for (int i = 0; i < shape[0]; i++) {
+			for (int j = 0; j < shape[1]; j++) {
+				// start of slower dimension must not be seeded from end of previous line
+				assertEquals("Position at " + i + "," + j, posn[i][j], fitted.get(i + "," + j), 0.1);
+			}
+		}
+	}
+
+	@Test
+	public void testDivergingSeededFitFallsBack() throws Exception {
+		double[][] posn = new double[][] {{GUESS, GUESS + 1, Double.NaN, GUESS + 2, GUESS + 3}};
+
+		Map<String, Double> fitted = fit(createPeaks(posn), ExecutionType.SERIES);
+
+		assertEquals(posn[0].length, fitted.size());
+		// seeded fit of NaNs diverges, as does the fall back fit, so following fits start from the guess
+		assertTrue(Double.isNaN(fitted.get("0,2")));
+		for (int j : new int[] {0, 1, 3, 4}) {
+			assertEquals("Position at " + j, posn[0][j], fitted.get("0," + j), 0.1);
+		}
+	}
+
+	@Test
+	public void testSeedsNotSharedBetweenThreads() throws Exception {
+		int[] shape = new int[] {4, 25};
+		double[][] posn = new double[shape[0]][shape[1]];
+		for (int i = 0; i < shape[0]; i++) {
+			for (int j = 0; j < shape[1]; j++) {
+				posn[i][j] = GUESS + 0.5 * j + i;
+			}
+		}
+		Dataset data = createPeaks(posn);
+
+		Map<String, Double> serial = fit(data, ExecutionType.SERIES);
+		Map<String, Double> parallel = fit(data, ExecutionType.PARALLEL);
+
+		assertEquals(shape[0] * shape[1], parallel.size());
+		for (int i = 0; i < shape[0]; i++) {
+			for (int j = 0; j < shape[1]; j++) {
+				String p = i + "," + j;
+				assertEquals("Position at " + p, posn[i][j], parallel.get(p), 0.1);
+				assertEquals("Position at " + p, serial.get(p), parallel.get(p), 0.01);
+			}
+		}
+	}
+
+	/**
+	 * @param posn positions of peaks
+	 * @return dataset of peaks with last dimension holding each peak
+	 */
+	private Dataset createPeaks(double[][] posn) {
+		Dataset x = DatasetFactory.createRange(POINTS, Dataset.FLOAT64);
+		Dataset data = DatasetFactory.zeros(new int[] {posn.length, posn[0].length, POINTS}, Dataset.FLOAT64);
+		for (int i = 0; i < posn.length; i++) {
+			for (int j = 0; j < posn[i].length; j++) {
+				Dataset peak;
+				if (Double.isNaN(posn[i][j])) {
+					peak = DatasetFactory.zeros(new int[] {POINTS}, Dataset.FLOAT64);
+					peak.fill(Double.NaN);
+				} else {
+					peak = new Gaussian(posn[i][j], FWHM, AREA).calculateValues(x);
+				}
+				peak.setShape(1, 1, POINTS);
+				data.setSlice(peak, new int[] {i, j, 0}, new int[] {i + 1, j + 1, POINTS}, null);
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Fit each peak, seeding from previous fit
+	 * @param data
+	 * @param type
+	 * @return map of fitted positions keyed by slice position
+	 * @throws Exception
+	 */
+	private Map<String, Double> fit(Dataset data, ExecutionType type) throws Exception {
+		FunctionFittingOperation op = (FunctionFittingOperation) service.create("uk.ac.diamond.scisoft.analysis.processing.operations.FunctionFittingOperation");
+		FunctionFittingModel model = new FunctionFittingModel();
+		model.setFilePath(functionFile);
+		model.setSeedFromPrevious(true);
+		op.setModel(model);
+
+		final Map<String, Double> fitted = new ConcurrentHashMap<String, Double>();
+		final IOperationContext context = service.createContext();
+		context.setData(data);
+		context.setDataDimensions(new int[] {2});
+		context.setSeries(op);
+		context.setExecutionType(type);
+		context.setParallelTimeout(Long.MAX_VALUE);
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				Slice[] slice = result.getData().getFirstMetadata(SliceFromSeriesMetadata.class).getSliceFromInput();
+				String p = slice[0].getStart() + "," + slice[1].getStart();
+				for (Serializable s : result.getAuxData()) {
+					IDataset d = (IDataset) s;
+					if (d.getName().endsWith("_posn")) {
+						fitted.put(p, d.getDouble());
+					}
+				}
+			}
+		});
+		service.execute(context);
+		return fitted;
+	}
+}
@@ -11,7 +11,9 @@ package uk.ac.diamond.scisoft.analysis.processing.test;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
 import org.eclipse.dawnsci.analysis.api.processing.IExecutionVisitor;
@@ -22,11 +24,13 @@ import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.model.ValueModel;
 import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 
 import uk.ac.diamond.scisoft.analysis.processing.Activator;
+import uk.ac.diamond.scisoft.analysis.processing.OperationContextImpl;
 import uk.ac.diamond.scisoft.analysis.processing.OperationServiceImpl;
 import uk.ac.diamond.scisoft.analysis.processing.actor.actors.OperationTransformer;
 import uk.ac.diamond.scisoft.analysis.processing.actor.runner.GraphRunner;
@@ -191,6 +195,152 @@ public class OperationsTest {
 		if ( counter != 24 ) throw new Exception("The counter is "+counter);
 	}
 
+	@Test
+	public void testBatchedAddAndSubtractOnStack() throws Exception {
+						
+		final IOperation add      = service.findFirst("add");
+		final IOperation subtract = service.findFirst("subtractOperation");
+		
+		final OperationContextImpl context = (OperationContextImpl) service.createContext();
+		final IDataset data = Random.rand(0.0, 10.0, 25, 64);
+		context.setData(data);
+		context.setDataDimensions(new int[]{1});
+		context.setBatchSize(10);
+		
+		subtract.setModel(new ValueModel(100));
+		add.setModel(new ValueModel(101));
+		
+		counter = 0;
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				counter++;
+				SliceFromSeriesMetadata ssm = result.getData().getMetadata(SliceFromSeriesMetadata.class).get(0);
+				int n = ssm.getSliceInfo().getSliceNumber();
+				for (int j = 0; j < result.getData().getShape()[1]; j++) {
+				    if (Math.abs(result.getData().getDouble(0,j) - data.getDouble(n,j) - 1) > 1e-12) throw new Exception("Incorrect value found!");
+				}
+			}			
+		});
+		context.setSeries(subtract, add);
+		service.execute(context);	
+		if ( counter != 25 ) throw new Exception("The counter is "+counter);
+	}
+
+	@Test
+	public void testBatchedNormalizeOnStack() throws Exception {
+
+		final IOperation normalize = service.create("uk.ac.diamond.scisoft.analysis.processing.operations.oned.MinMaxNormalize");
+
+		final OperationContextImpl context = (OperationContextImpl) service.createContext();
+		final IDataset data = Random.rand(0.0, 10.0, 25, 64);
+		context.setData(data);
+		context.setDataDimensions(new int[]{1});
+		context.setBatchSize(10);
+
+		counter = 0;
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				counter++;
+				SliceFromSeriesMetadata ssm = result.getData().getMetadata(SliceFromSeriesMetadata.class).get(0);
+				int n = ssm.getSliceInfo().getSliceNumber();
+				int size = data.getShape()[1];
+				double min = Double.POSITIVE_INFINITY;
+				double max = Double.NEGATIVE_INFINITY;
+				for (int j = 0; j < size; j++) {
+					min = Math.min(min, data.getDouble(n, j));
+					max = Math.max(max, data.getDouble(n, j));
+				}
+				for (int j = 0; j < size; j++) {
+				    if (Math.abs(result.getData().getDouble(0,j) - (data.getDouble(n,j) - min) / (max - min)) > 1e-12) throw new Exception("Incorrect value found!");
+				}
+			}
+		});
+		context.setSeries(normalize);
+		service.execute(context);
+		if ( counter != 25 ) throw new Exception("The counter is "+counter);
+	}
+
+	@Test
+	public void testBatchedNotifiesAndCancels() throws Exception {
+
+		final IOperation add      = service.findFirst("add");
+		final IOperation subtract = service.findFirst("subtractOperation");
+
+		final OperationContextImpl context = (OperationContextImpl) service.createContext();
+		context.setData(Random.rand(0.0, 10.0, 25, 64));
+		context.setDataDimensions(new int[]{1});
+		context.setBatchSize(10);
+
+		subtract.setModel(new ValueModel(100));
+		add.setModel(new ValueModel(101));
+
+		counter = 0;
+		final AtomicInteger notified = new AtomicInteger();
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void notify(IOperation intermeadiateData, OperationData data) {
+				notified.incrementAndGet();
+			}
+
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				counter++;
+			}
+		});
+		context.setSeries(subtract, add);
+		service.execute(context);
+		// every operation is notified of every slice, whether or not its output is stored
+		if ( counter != 25 ) throw new Exception("The counter is "+counter);
+		assertEquals(50, notified.get());
+
+		// cancelling part way through a batch stops at the next slice
+		counter = 0;
+		context.setMonitor(new IMonitor.Stub() {
+			@Override
+			public boolean isCancelled() {
+				return counter >= 3;
+			}
+		});
+		service.execute(context);
+		assertEquals(3, counter);
+	}
+
+	@Test
+	public void testBatchedSpectraTiming() throws Exception {
+
+		final IOperation add      = service.findFirst("add");
+		final IOperation subtract = service.findFirst("subtractOperation");
+		final IOperation normalize = service.create("uk.ac.diamond.scisoft.analysis.processing.operations.oned.MinMaxNormalize");
+
+		// small map of XRF spectra
+		final OperationContextImpl context = (OperationContextImpl) service.createContext();
+		context.setData(Random.rand(0.0, 10.0, 2000, 4096));
+		context.setDataDimensions(new int[]{1});
+
+		subtract.setModel(new ValueModel(100));
+		add.setModel(new ValueModel(101));
+
+		context.setVisitor(new IExecutionVisitor.Stub() {
+			@Override
+			public void executed(OperationData result, IMonitor monitor) throws Exception {
+				counter++;
+			}
+		});
+		context.setSeries(subtract, add, normalize);
+
+		for (int batchSize : new int[] {1, 100}) {
+			context.setBatchSize(batchSize);
+			counter = 0;
+			long before = System.currentTimeMillis();
+			service.execute(context);
+			long after = System.currentTimeMillis();
+			System.out.println("spectra with batch size " + batchSize + " in " + (after-before));
+			if ( counter != 2000 ) throw new Exception("The counter is "+counter);
+		}
+	}
+
 	@Test
 	public void testSimpleAddAndSubtractOnStackParallel() throws Exception {
 						
@@ -0,0 +1,60 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelineMetrics;
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelineMetrics.OperationMetrics;
+import uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor.Junk1Dto1DOperation;
+import uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor.Junk2Dto2DOperation;
+
+public class PipelineMetricsTest {
+
+	@Test
+	public void testRecording() {
+		PipelineMetrics metrics = new PipelineMetrics(new IOperation<?, ?>[] {new Junk2Dto2DOperation(), new Junk1Dto1DOperation()}, ExecutionType.SERIES);
+		metrics.start();
+		DoubleDataset in = new DoubleDataset(10, 10);
+		DoubleDataset out = new DoubleDataset(10);
+		for (int i = 1; i <= 100; i++) {
+			metrics.recordOperation(0, i * 1000000l, in, in);
+			metrics.recordOperation(1, 2000000l, in, out);
+			metrics.recordVisitor(500000l);
+			metrics.recordSlice(i * 1000000l + 2500000l);
+		}
+		metrics.stop();
+
+		Assert.assertEquals(100, metrics.getSliceCount());
+		Assert.assertEquals(50, metrics.getVisitorTime(), 1e-9);
+		Assert.assertTrue(metrics.getSlicesPerSecond() > 0);
+
+		OperationMetrics first = metrics.getOperationMetrics().get(0);
+		Assert.assertEquals(100, first.getCount());
+		Assert.assertEquals(5050, first.getTotalTime(), 1e-9);
+		Assert.assertEquals(50, first.getTimePercentile(50), 1e-9);
+		Assert.assertEquals(99, first.getTimePercentile(99), 1e-9);
+		Assert.assertEquals(100, first.getMaxTime(), 1e-9);
+		Assert.assertEquals(100 * 800, first.getInputBytes());
+		Assert.assertEquals(0, first.getAllocatedBytes()); // output is input
+
+		OperationMetrics second = metrics.getOperationMetrics().get(1);
+		Assert.assertEquals(100 * 80, second.getOutputBytes());
+		Assert.assertEquals(100 * 80, second.getAllocatedBytes());
+
+		String json = metrics.toJSON();
+		Assert.assertTrue(json.contains("\"slices\": 100"));
+		Assert.assertTrue(json.contains("\"name\": \"" + second.getName() + "\""));
+	}
+}
@@ -0,0 +1,149 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.io.ILazyLoader;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyDataset;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceViewIterator;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceVisitor;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.processing.runner.ReadAheadSlicer;
+
+public class ReadAheadSlicerTest {
+
+	private static SliceViewIterator createIterator(int slices) {
+		DoubleDataset data = new DoubleDataset(slices, 10);
+		return new SliceViewIterator(data, new SliceND(data.getShape()), new int[] {1});
+	}
+
+	@Test
+	public void testAllVisited() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		new ReadAheadSlicer(3, 2).visit(createIterator(50), new SliceVisitor() {
+			@Override
+			public void visit(IDataset slice) throws Exception {
+				int r = running.incrementAndGet();
+				synchronized (maxRunning) {
+					maxRunning.set(Math.max(r, maxRunning.get()));
+				}
+				Thread.sleep(2);
+				count.incrementAndGet();
+				running.decrementAndGet();
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		});
+
+		Assert.assertEquals(50, count.get());
+		Assert.assertTrue(maxRunning.get() <= 3);
+	}
+
+	@Test
+	public void testSlicesInFlightBounded() throws Exception {
+		final int threads = 3;
+		final int bufferSize = 2;
+		final AtomicInteger inFlight = new AtomicInteger();
+		final AtomicInteger maxInFlight = new AtomicInteger();
+
+		// count slices from when they are read until they have been visited
+		final int[] shape = new int[] {60, 10};
+		LazyDataset data = new LazyDataset("data", Dataset.FLOAT64, shape, new ILazyLoader() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public IDataset getDataset(IMonitor mon, SliceND slice) throws Exception {
+				int n = inFlight.incrementAndGet();
+				synchronized (maxInFlight) {
+					maxInFlight.set(Math.max(n, maxInFlight.get()));
+				}
+				return new DoubleDataset(slice.getShape());
+			}
+
+			@Override
+			public boolean isFileReadable() {
+				return true;
+			}
+		});
+
+		final AtomicInteger count = new AtomicInteger();
+		new ReadAheadSlicer(threads, bufferSize).visit(new SliceViewIterator(data, new SliceND(shape), new int[] {1}), new SliceVisitor() {
+			@Override
+			public void visit(IDataset slice) throws Exception {
+				Thread.sleep(5);
+				count.incrementAndGet();
+				inFlight.decrementAndGet();
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return false;
+			}
+		});
+
+		Assert.assertEquals(shape[0], count.get());
+		Assert.assertTrue("Slices read but not visited were " + maxInFlight.get(),
+				maxInFlight.get() <= bufferSize + threads + 1);
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		try {
+			new ReadAheadSlicer(2, 1).visit(createIterator(50), new SliceVisitor() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public void visit(IDataset slice) throws Exception {
+					if (count.incrementAndGet() == 7) throw new IllegalStateException("Failed slice");
+				}
+
+				@Override
+				public boolean isCancelled() {
+					return false;
+				}
+			});
+			Assert.fail("Failure of slice should be thrown");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("Failed slice", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		new ReadAheadSlicer(2, 1).visit(createIterator(1000), new SliceVisitor() {
+			@Override
+			public void visit(IDataset slice) throws Exception {
+				count.incrementAndGet();
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return count.get() >= 10;
+			}
+		});
+
+		Assert.assertTrue(count.get() < 1000);
+	}
+}
@@ -0,0 +1,42 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.Atomic;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+
+/**
+ * Zeroes its input in place, overwriting the output of the previous operation
+ */
+@Atomic
+public class Junk2Dto2DInPlaceOperation extends Junk2Dto2DOperation {
+
+	@Override
+	public String getId() {
+		return "uk.ac.diamond.scisoft.analysis.processing.test.executionvisitor.Junk2Dto2DInPlaceOperation";
+	}
+
+	@Override
+	public String getName(){
+		return "Junk2Dto2DInPlaceOperation";
+	}
+
+	@Override
+	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
+		Dataset d = DatasetUtils.convertToDataset(input);
+		d.imultiply(0);
+		return new OperationData(d);
+	}
+}
@@ -25,6 +25,7 @@ import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.Random;
 import org.eclipse.dawnsci.analysis.dataset.metadata.AxesMetadataImpl;
+import org.eclipse.dawnsci.nexus.NexusFile;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -111,6 +112,81 @@ public class NexusFileExecutionVisitorTest {
 		
 	}
 	
+	@Test
+	public void Process3DStackAs2DTo1DBatched() throws Exception {
+		
+		int[] inputShape = new int[] {10,1000,1100};
+		
+		ILazyDataset lazy = getLazyDataset(inputShape,1);
+		
+		final IOperationContext context = service.createContext();
+		context.setData(lazy);
+		context.setDataDimensions(new int[]{1,2});
+		
+		Junk2Dto2DOperation op22 = new Junk2Dto2DOperation();
+		op22.setModel(new Junk2Dto2Dmodel());
+		Junk2Dto1DOperation op21 = new Junk2Dto1DOperation();
+		op21.setModel(new Junk1DModel());
+		
+		final File tmp = File.createTempFile("Test", ".h5");
+		tmp.deleteOnExit();
+		tmp.createNewFile();
+
+		NexusFileExecutionVisitor visitor = new NexusFileExecutionVisitor(tmp.getAbsolutePath());
+		visitor.setBatchSize(3);
+		visitor.setCompression(NexusFile.COMPRESSION_NONE);
+		context.setVisitor(visitor);
+		context.setSeries(op22,op21);
+		context.setExecutionType(type);
+		service.execute(context);
+
+		IDataHolder dh = LoaderFactory.getData(tmp.getAbsolutePath());
+		assertArrayEquals(new int[]{inputShape[0],op21.getModel().getxDim()}, dh.getLazyDataset("/entry/result/data").getShape());
+		assertArrayEquals(new int[]{inputShape[0]}, dh.getLazyDataset("/entry/result/Axis_0").getShape());
+
+		for (int i = 0; i < inputShape[0]; i++) {
+			testDataset(op21, i + ",:", dh.getLazyDataset("/entry/result/data"));
+		}
+	}
+	
+	@Test
+	public void Process3DStackAs2DTo2DBatchedInPlace() throws Exception {
+		
+		int[] inputShape = new int[] {10,1000,1100};
+		
+		ILazyDataset lazy = getLazyDataset(inputShape,1);
+		
+		final IOperationContext context = service.createContext();
+		context.setData(lazy);
+		context.setDataDimensions(new int[]{1,2});
+		
+		Junk2Dto2DOperation op22 = new Junk2Dto2DOperation();
+		op22.setModel(new Junk2Dto2Dmodel());
+		op22.setStoreOutput(true);
+		Junk2Dto2DInPlaceOperation opInPlace = new Junk2Dto2DInPlaceOperation();
+		opInPlace.setModel(new Junk2Dto2Dmodel());
+		
+		final File tmp = File.createTempFile("Test", ".h5");
+		tmp.deleteOnExit();
+		tmp.createNewFile();
+
+		NexusFileExecutionVisitor visitor = new NexusFileExecutionVisitor(tmp.getAbsolutePath());
+		visitor.setBatchSize(3);
+		context.setVisitor(visitor);
+		context.setSeries(op22,opInPlace);
+		context.setExecutionType(type);
+		service.execute(context);
+
+		// intermediate slices held for a batch must not see the later in place change
+		IDataHolder dh = LoaderFactory.getData(tmp.getAbsolutePath());
+		ILazyDataset inter = dh.getLazyDataset("/entry/intermediate/0-Junk2Dto2DOperation/data");
+		assertArrayEquals(new int[]{inputShape[0],op22.getModel().getxDim(),op22.getModel().getyDim()}, inter.getShape());
+
+		for (int i = 0; i < inputShape[0]; i++) {
+			testDataset(op22, i + ",:,:", inter);
+		}
+	}
+	
 	@Test
 	public void Process4DStackAs2DTo1D() throws Exception {
 		
@@ -50,6 +50,15 @@ public class NexusFileMultiThreadedRunnerTest {
 	
 	@Test
 	public void TestMultipleAxesNotWritten() throws Exception {
+		runAndCheck(0);
+	}
+
+	@Test
+	public void TestQueuedWriter() throws Exception {
+		runAndCheck(4);
+	}
+
+	private void runAndCheck(int queueSize) throws Exception {
 		
 		int[] inputShape = new int[] {30,1000};
 		
@@ -75,7 +84,7 @@ public class NexusFileMultiThreadedRunnerTest {
 		tmp.deleteOnExit();
 		tmp.createNewFile();
 		
-		context.setVisitor(new NexusFileExecutionVisitor(tmp.getAbsolutePath()));
+		context.setVisitor(new NexusFileExecutionVisitor(tmp.getAbsolutePath(), false, queueSize));
 		context.setSeries(op1, op2, op3);
 		context.setExecutionType(ExecutionType.PARALLEL);
 		service.execute(context);
@@ -88,6 +97,7 @@ public class NexusFileMultiThreadedRunnerTest {
 		assertFalse(dh.contains("/entry/intermediate/0-Junk1Dto1DOperation/Junk1Dax1"));
 		assertTrue(dh.contains("/entry/result/Junk1Dax"));
 		assertFalse(dh.contains("/entry/result/Junk1Dax1"));
+		assertArrayEquals(new int[] {30, 20}, dh.getLazyDataset("/entry/result/data").getShape());
 		
 		
 
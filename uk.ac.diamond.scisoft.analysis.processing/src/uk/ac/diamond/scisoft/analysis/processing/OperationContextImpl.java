@@ -18,6 +18,8 @@ import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.model.IOperationModel;
 
 import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelineMetrics;
+import uk.ac.diamond.scisoft.analysis.utils.ThreadUtils;
 
 public class OperationContextImpl implements IOperationContext {
 
@@ -57,11 +59,42 @@ public class OperationContextImpl implements IOperationContext {
 	 */
 	private int                  poolSize=1;
 	
+	/**
+	 * The number of slices PARALLEL runs may read ahead of the worker threads. If 0 (the default)
+	 * the slicer's own pool is used and reading is not limited. If greater than 0 slices are read
+	 * on a dedicated thread and reading waits while the buffer is full, which bounds the memory in flight.
+	 */
+	private int sliceBufferSize = 0;
+	
+	/**
+	 * The number of worker threads used for PARALLEL runs with a slice buffer. Defaults to the
+	 * number of processors but at least two.
+	 */
+	private int parallelThreads = ThreadUtils.getDefaultThreads();
+	
+	/**
+	 * The number of slices SERIES runs give at once to operations that can process stacks of
+	 * slices (see IBatchOperation). Defaults to 1, which gives every operation single slices.
+	 */
+	private int batchSize = 1;
+	
 	/**
 	 * Defaults to ExecutionType.SERIES
 	 */
 	private ExecutionType executionType = ExecutionType.SERIES;
 	
+	/**
+	 * If true, timings and data sizes are recorded while running. Off by default
+	 */
+	private boolean profiling = false;
+	
+	/**
+	 * If true and profiling, metrics are written as JSON next to the NeXus output file
+	 */
+	private boolean metricsReport = false;
+	
+	private volatile PipelineMetrics metrics;
+	
 	/* (non-Javadoc)
 	 * @see uk.ac.diamond.scisoft.analysis.processing.IOperationContext#getSeries()
 	 */
@@ -243,6 +276,33 @@ public class OperationContextImpl implements IOperationContext {
 	public void setPoolSize(int slugCount) {
 		this.poolSize = slugCount;
 	}
+	public int getSliceBufferSize() {
+		return sliceBufferSize;
+	}
+	/**
+	 * @param sliceBufferSize number of slices read ahead in PARALLEL runs (0 for no limit)
+	 */
+	public void setSliceBufferSize(int sliceBufferSize) {
+		this.sliceBufferSize = sliceBufferSize;
+	}
+	public int getBatchSize() {
+		return batchSize;
+	}
+	/**
+	 * @param batchSize number of slices given at once to batch operations in SERIES runs
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	public int getParallelThreads() {
+		return parallelThreads;
+	}
+	/**
+	 * @param parallelThreads number of worker threads in PARALLEL runs with a slice buffer
+	 */
+	public void setParallelThreads(int parallelThreads) {
+		this.parallelThreads = parallelThreads;
+	}
 
 	@Override
 	public int[] getDataDimensions() {
@@ -262,5 +322,29 @@ public class OperationContextImpl implements IOperationContext {
 	public ILiveOperationInfo getLiveInfo() {
 		return liveInfo;
 	}
+	public boolean isProfiling() {
+		return profiling;
+	}
+	public void setProfiling(boolean profiling) {
+		this.profiling = profiling;
+	}
+	public boolean isMetricsReport() {
+		return metricsReport;
+	}
+	/**
+	 * @param metricsReport if true, metrics of profiled runs are written to a JSON file next to the NeXus output
+	 */
+	public void setMetricsReport(boolean metricsReport) {
+		this.metricsReport = metricsReport;
+	}
+	/**
+	 * @return metrics of current or last run (null if not profiling)
+	 */
+	public PipelineMetrics getMetrics() {
+		return metrics;
+	}
+	public void setMetrics(PipelineMetrics metrics) {
+		this.metrics = metrics;
+	}
 
 }
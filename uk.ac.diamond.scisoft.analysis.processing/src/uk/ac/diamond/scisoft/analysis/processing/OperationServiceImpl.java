@@ -8,6 +8,8 @@
  */
 package uk.ac.diamond.scisoft.analysis.processing;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,6 +52,9 @@ import org.eclipse.dawnsci.macro.api.MacroEventObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataService;
+import uk.ac.diamond.scisoft.analysis.processing.runner.PipelineMetrics;
+import uk.ac.diamond.scisoft.analysis.processing.visitor.NexusFileExecutionVisitor;
 import uk.ac.diamond.scisoft.analysis.utils.ClassUtils;
 
 /**
@@ -99,6 +104,7 @@ public class OperationServiceImpl implements IOperationService {
 		}
 		
 		
+		AuxiliaryDataService auxiliary = null;
 		// We check the pipeline ranks are ok
 		try {
 	        
@@ -107,8 +113,9 @@ public class OperationServiceImpl implements IOperationService {
 	        if (context.getLiveInfo() == null) it = new SliceViewIterator(context.getData(), context.getSlicing(), context.getDataDimensions());
 	        else it = new DynamicSliceViewIterator((IDynamicDataset)context.getData(), context.getLiveInfo().getKeys(), context.getLiveInfo().getComplete());
 			assert(it.hasNext());
-	        IDataset firstSlice = it.next().getSlice();
-	        validate(firstSlice, context.getSeries());
+	        // Only the shape and metadata are needed so the slice is not read here
+	        ILazyDataset firstSlice = it.next();
+	        validateShape(firstSlice.getShape(), context.getSeries());
 	
 			List<SliceFromSeriesMetadata> meta = firstSlice.getMetadata(SliceFromSeriesMetadata.class);
 			// Bug in getMetadata(...) that sometimes the wrong metadata type can be returned.
@@ -131,10 +138,17 @@ public class OperationServiceImpl implements IOperationService {
 			
 			for (IOperation op : context.getSeries()) op.init();
 			
+			// Data from other files is shared by all operations and slices of this run
+			auxiliary = AuxiliaryDataService.open(context);
+			
+			PipelineMetrics metrics = createMetrics(context);
+			
 			IOperationRunner runner = rservice.getRunner(context.getExecutionType());
 			runner.init(context);
 			runner.execute();
 			
+			if (metrics != null) reportMetrics(context, metrics);
+			
 			// We send some macro commands, to tell people how to drive the service with
 			// macros.
 			sendMacroCommands(context);
@@ -155,11 +169,35 @@ public class OperationServiceImpl implements IOperationService {
 				}
 			}
 			
+			if (auxiliary != null) auxiliary.close();
 			for (IOperation op : context.getSeries()) op.dispose();
 		}
 
 	}
 	
+	private PipelineMetrics createMetrics(IOperationContext context) {
+		if (!(context instanceof OperationContextImpl)) return null;
+		OperationContextImpl c = (OperationContextImpl) context;
+		PipelineMetrics metrics = c.isProfiling() ? new PipelineMetrics(context.getSeries(), context.getExecutionType()) : null;
+		c.setMetrics(metrics);
+		return metrics;
+	}
+	
+	private void reportMetrics(IOperationContext context, PipelineMetrics metrics) {
+		logger.info("Pipeline metrics: {}", metrics);
+		if (!((OperationContextImpl) context).isMetricsReport() || !(context.getVisitor() instanceof NexusFileExecutionVisitor)) return;
+		
+		String path = ((NexusFileExecutionVisitor) context.getVisitor()).getFilePath();
+		if (path == null) return;
+		int dot = path.lastIndexOf('.');
+		path = (dot > path.lastIndexOf(File.separatorChar) ? path.substring(0, dot) : path) + "_metrics.json";
+		try {
+			metrics.writeJSON(path);
+		} catch (IOException e) {
+			logger.error("Could not write pipeline metrics to " + path, e);
+		}
+	}
+	
 	private static int count = 0;
 	/**
 	 * Constructs a macro by mirroring the context into the python layer. 
@@ -254,17 +292,25 @@ public class OperationServiceImpl implements IOperationService {
 	 */
 	public void validate( IDataset firstSlice,
 			              IOperation<? extends IOperationModel, ? extends OperationData>... series) throws InvalidRankException, OperationException {
+		validateShape(firstSlice == null ? null : firstSlice.getShape(), series);
+	}
+
+	/**
+	 * @param shape - of first slice, may be null
+	 * @param series
+	 */
+	private void validateShape(int[] shape,
+			              IOperation<? extends IOperationModel, ? extends OperationData>... series) throws InvalidRankException, OperationException {
 		       
-//		if (firstSlice==null) firstSlice = Random.rand(new int[]{1024, 1024});
         if (series[0].getInputRank()==OperationRank.SAME) {
         	throw new InvalidRankException(series[0], "The input rank may not be "+OperationRank.SAME);
         }
         
         int[] squeezedShape = null;
         
-        if (firstSlice != null) squeezedShape = AbstractDataset.squeezeShape(firstSlice.getShape(), false);
+        if (shape != null) squeezedShape = AbstractDataset.squeezeShape(shape, false);
         
-        if (series[0].getInputRank().isDiscrete() && firstSlice != null) {
+        if (series[0].getInputRank().isDiscrete() && shape != null) {
         	
 	        if (squeezedShape.length != series[0].getInputRank().getRank()) {
 	        	InvalidRankException e = new InvalidRankException(series[0], "The slicing results in a dataset of rank "+squeezedShape.length+" but the input rank of '"+series[0].getDescription()+"' is "+series[0].getInputRank().getRank());
@@ -274,7 +320,7 @@ public class OperationServiceImpl implements IOperationService {
         
         
         OperationRank firstRank = OperationRank.ANY;
-        if (firstSlice != null) firstRank = OperationRank.get(squeezedShape.length);
+        if (shape != null) firstRank = OperationRank.get(squeezedShape.length);
         
         if (series.length > 1) {
         	
@@ -8,11 +8,15 @@
  */
 package uk.ac.diamond.scisoft.analysis.processing.operations;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.metadata.AxesMetadata;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
@@ -20,23 +24,38 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperationBase;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
 
-import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataRequest;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataService;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IAuxiliaryDataOperation;
 
-public class ARPESAxisConversion extends AbstractOperationBase<ARPESAxisConversionModel, OperationData> {
+public class ARPESAxisConversion extends AbstractOperationBase<ARPESAxisConversionModel, OperationData> implements IAuxiliaryDataOperation {
 	
+	private static final String PHOTON_ENERGY = "/entry1/instrument/monochromator/energy";
+
 	@Override
 	public String getId() {
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.ARPESAxisConversion";
 	}
 
+	@Override
+	public Collection<AuxiliaryDataRequest> getAuxiliaryDataRequests(IOperationContext context) throws Exception {
+		SourceInformation source = AuxiliaryDataService.getSourceInformation(context);
+		if (source == null) {
+			return null;
+		}
+		return Collections.singletonList(AuxiliaryDataRequest.createFull(source.getFilePath(), PHOTON_ENERGY));
+	}
+
 	@Override
 	public OperationData execute(IDataset slice, IMonitor monitor) throws OperationException {
 		
 		// get the photon energy
 		IDataset photon_energy;
 		try {
-			photon_energy = LoaderFactory.getDataSet(getSliceSeriesMetadata(slice).getSourceInfo().getFilePath(), "/entry1/instrument/monochromator/energy", null);
+			String path = getSliceSeriesMetadata(slice).getSourceInfo().getFilePath();
+			photon_energy = AuxiliaryDataService.getService(this).getDataset(this, AuxiliaryDataRequest.createFull(path, PHOTON_ENERGY));
 		} catch (Exception e) {
 			throw new OperationException(this, "There is no photon energy specified in the data file");
 		}
@@ -0,0 +1,109 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.eclipse.dawnsci.analysis.api.processing.IExportOperation;
+import org.eclipse.dawnsci.analysis.api.processing.model.IOperationModel;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+
+/**
+ * Base class for operations which average groups of slices. Each thread sums its slices of a
+ * group in double precision and the sums are added when the group is complete.
+ *
+ * @param <T> model
+ */
+public abstract class AbstractAveragingOperation<T extends IOperationModel> extends AbstractReductionOperation<T, AbstractAveragingOperation.Sum> implements IExportOperation {
+
+	/**
+	 * Partial sum of slices
+	 */
+	protected static class Sum {
+		private final Dataset sum;
+		private int count;
+
+		private Sum(IDataset input) {
+			Dataset d = DatasetUtils.convertToDataset(input);
+			sum = DatasetFactory.zeros(d, Dataset.FLOAT64);
+			sum.iadd(d);
+			count = 1;
+		}
+
+		/**
+		 * @return average of slices (which replaces the sum)
+		 */
+		public Dataset getAverage() {
+			return sum.idivide(count);
+		}
+	}
+
+	@Override
+	protected Sum create(IDataset input) {
+		return new Sum(input);
+	}
+
+	@Override
+	protected void add(Sum partial, IDataset input) {
+		partial.sum.iadd(input);
+		partial.count++;
+	}
+
+	@Override
+	protected void merge(Sum partial, Sum other) {
+		partial.sum.iadd(other.sum);
+		partial.count += other.count;
+	}
+
+	/**
+	 * Add slice to a group's average
+	 * @param key identifies group
+	 * @param expected number of slices in group
+	 * @param input
+	 * @return average when given slice completes the group, otherwise null
+	 */
+	protected Dataset average(Object key, int expected, IDataset input) {
+		Sum s = reduce(key, expected, input);
+		return s == null ? null : s.getAverage();
+	}
+
+	/**
+	 * @param ssm
+	 * @param ignored dimension to leave out
+	 * @return position of slice in output along its non-data dimensions except the given one
+	 */
+	protected static int[] getPosition(SliceFromSeriesMetadata ssm, int ignored) {
+		Slice[] slices = ssm.getSliceInOutput();
+		int[] position = new int[slices.length];
+		for (int i = 0; i < slices.length; i++) {
+			if (i != ignored && !ssm.isDataDimension(i)) {
+				position[i] = slices[i].getStart();
+			}
+		}
+		return position;
+	}
+
+	protected static int calculateFastestDimension(int[] dataDims, int[] shape) {
+		int[] dd = dataDims.clone();
+		Arrays.sort(dd);
+
+		for (int i = shape.length-1; i > -1; i--) {
+			int key = Arrays.binarySearch(dd, i);
+			if (key < 0) return i;
+		}
+
+		return -1;
+	}
+}
@@ -19,6 +19,8 @@ import org.eclipse.dawnsci.analysis.api.processing.model.ValueModel;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperationBase;
 
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IBatchOperation;
+
 /**
  * Maths operations are bascially just for testing at the moment.
  * 
@@ -27,7 +29,7 @@ import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperationBase;
  * @author Matthew Gerring
  *
  */
-public abstract class AbstractMathsOperation<T extends ValueModel, D extends OperationData> extends AbstractOperationBase<ValueModel, OperationData> {
+public abstract class AbstractMathsOperation<T extends ValueModel, D extends OperationData> extends AbstractOperationBase<ValueModel, OperationData> implements IBatchOperation {
 
 	/**
 	 * TODO This operation is only an example.
@@ -45,6 +47,18 @@ public abstract class AbstractMathsOperation<T extends ValueModel, D extends Ope
 		}
 	}
 	
+	/**
+	 * Value is applied to each element so stacks are processed in the same way as slices
+	 */
+	@Override
+	public IDataset executeBatch(IDataset batch, IMonitor monitor) throws OperationException {
+		try {
+			return operation(batch, model.getValue());
+		} catch (Exception e) {
+			throw new OperationException(this, e);
+		}
+	}
+	
 	protected abstract IDataset operation(IDataset a, Object value);
 
 	
@@ -0,0 +1,123 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.processing.OperationData;
+import org.eclipse.dawnsci.analysis.api.processing.model.IOperationModel;
+import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
+
+/**
+ * Base class for operations which reduce several slices to one output, e.g. averaging or summing.
+ * <p>
+ * Slices are grouped by a key and each group expects a known number of slices. Slices may arrive
+ * in any order and from any number of threads (as happens with {@code ExecutionType.PARALLEL}):
+ * each thread adds to a partial result that no other thread is using at the time and, when the
+ * last slice of a group has been added, the partial results of the group are merged and returned.
+ *
+ * @param <T> model
+ * @param <P> partial result
+ */
+public abstract class AbstractReductionOperation<T extends IOperationModel, P> extends AbstractOperation<T, OperationData> {
+
+	private final ConcurrentMap<Object, Reduction<P>> reductions = new ConcurrentHashMap<Object, Reduction<P>>();
+
+	/**
+	 * @param input first slice to be added to a new partial result
+	 * @return partial result holding given slice
+	 */
+	protected abstract P create(IDataset input);
+
+	/**
+	 * Add slice to partial result
+	 * @param partial
+	 * @param input
+	 */
+	protected abstract void add(P partial, IDataset input);
+
+	/**
+	 * Merge a partial result into another
+	 * @param partial
+	 * @param other
+	 */
+	protected abstract void merge(P partial, P other);
+
+	@Override
+	public void init() {
+		reductions.clear();
+	}
+
+	/**
+	 * Add slice to a group's reduction
+	 * @param key identifies group
+	 * @param expected number of slices in group
+	 * @param input
+	 * @return merged result when given slice completes the group, otherwise null
+	 */
+	protected P reduce(Object key, int expected, IDataset input) {
+		Reduction<P> r = reductions.get(key);
+		if (r == null) {
+			Reduction<P> n = new Reduction<P>();
+			r = reductions.putIfAbsent(key, n);
+			if (r == null) {
+				r = n;
+			}
+		}
+
+		P partial = r.idle.poll();
+		if (partial == null) {
+			partial = create(input);
+		} else {
+			add(partial, input);
+		}
+		r.idle.offer(partial);
+
+		// every other thread has returned its partial before counting its slice
+		if (r.count.incrementAndGet() != expected) {
+			return null;
+		}
+
+		reductions.remove(key, r);
+		P result = r.idle.poll();
+		P other;
+		while ((other = r.idle.poll()) != null) {
+			merge(result, other);
+		}
+		return result;
+	}
+
+	/**
+	 * @param values
+	 * @return key for given values
+	 */
+	protected static Object createKey(int... values) {
+		return Arrays.asList(toObjects(values));
+	}
+
+	private static Integer[] toObjects(int[] values) {
+		Integer[] objects = new Integer[values.length];
+		for (int i = 0; i < values.length; i++) {
+			objects[i] = values[i];
+		}
+		return objects;
+	}
+
+	private static class Reduction<P> {
+		private final Queue<P> idle = new ConcurrentLinkedQueue<P>();
+		private final AtomicInteger count = new AtomicInteger();
+	}
+}
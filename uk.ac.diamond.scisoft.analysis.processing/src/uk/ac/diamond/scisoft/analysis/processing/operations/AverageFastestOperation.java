@@ -9,24 +9,17 @@
 
 package uk.ac.diamond.scisoft.analysis.processing.operations;
 
-import java.util.Arrays;
-
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
-import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
-import org.eclipse.dawnsci.analysis.api.processing.IExportOperation;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.api.processing.model.EmptyModel;
-import org.eclipse.dawnsci.analysis.dataset.impl.RunningAverage;
-import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
 
-public class AverageFastestOperation extends AbstractOperation<EmptyModel, OperationData> implements IExportOperation {
+public class AverageFastestOperation extends AbstractAveragingOperation<EmptyModel> {
 
-	private RunningAverage average;
-	private int fastestDimension = -1;;
+	private volatile int fastestDimension = -1;
 	
 	@Override
 	public String getId() {
@@ -45,7 +38,7 @@ public class AverageFastestOperation extends AbstractOperation<EmptyModel, Opera
 
 	@Override
 	public void init(){
-		average = null;
+		super.init();
 		fastestDimension = -1;
 	}
 	
@@ -53,21 +46,17 @@ public class AverageFastestOperation extends AbstractOperation<EmptyModel, Opera
 
 		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(input);
 		
-		if (average == null) {
-			average = new RunningAverage(input);
-			if (fastestDimension < 0) fastestDimension = calculateFastestDimension(ssm.getDataDimensions(),ssm.getSubSampledShape());
-			if (fastestDimension < 0) throw new OperationException(this, "Cannot average this data, it has no, non-data dimensions!");
-		} else {
-			average.update(input);
-		}
+		int fastest = fastestDimension;
+		if (fastest < 0) fastestDimension = fastest = calculateFastestDimension(ssm.getDataDimensions(),ssm.getSubSampledShape());
+		if (fastest < 0) throw new OperationException(this, "Cannot average this data, it has no, non-data dimensions!");
+		
+		IDataset out = average(createKey(getPosition(ssm, fastest)), ssm.getSubSampledShape()[fastest], input);
 		
-		if (isLastSlice(ssm.getSliceInOutput(), ssm.getSubSampledShape(), fastestDimension)) {
-			IDataset out = average.getCurrentAverage();
+		if (out != null) {
 			copyMetadata(input, out);
 			out.clearMetadata(SliceFromSeriesMetadata.class);
-			average = null;
 			SliceFromSeriesMetadata outsmm = ssm.clone();
-			outsmm.reducedDimensionToSingular(fastestDimension);
+			outsmm.reducedDimensionToSingular(fastest);
 
 			out.setMetadata(outsmm);
 			
@@ -76,21 +65,5 @@ public class AverageFastestOperation extends AbstractOperation<EmptyModel, Opera
 		
 		return null;
 	}
-	
-	private int calculateFastestDimension(int[] dataDims, int[] shape) {
-		int[] dd = dataDims.clone();
-		Arrays.sort(dd);
-		
-		for (int i = shape.length-1; i > -1; i--) {
-			int key = Arrays.binarySearch(dd, i);
-			if (key < 0) return i;
-		}
-		
-		return -1;	
-	}
-	
-	private boolean isLastSlice(Slice[] outputSlice, int[] outputShape, int dim) {
-		return (outputSlice[dim].getStart().intValue() == outputShape[dim]-1);
-	}
 
 }
@@ -9,26 +9,17 @@
 
 package uk.ac.diamond.scisoft.analysis.processing.operations;
 
-import java.util.Arrays;
-
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
-import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
-import org.eclipse.dawnsci.analysis.api.processing.IExportOperation;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.RunningAverage;
-import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
 
-public class AverageSectionsOfFastestOperation extends AbstractOperation<AverageSectionsOfFastestModel, OperationData> implements IExportOperation{
+public class AverageSectionsOfFastestOperation extends AbstractAveragingOperation<AverageSectionsOfFastestModel> {
 
-	private RunningAverage average;
-	private int fastestDimension = -1;
-	int currentInAverage = 0;
-	int currentStart = 0;
+	private volatile int fastestDimension = -1;
 	
 	@Override
 	public String getId() {
@@ -47,20 +38,19 @@ public class AverageSectionsOfFastestOperation extends AbstractOperation<Average
 
 	@Override
 	public void init(){
-		average = null;
+		super.init();
 		fastestDimension = -1;
-		currentInAverage = 0;
-		currentStart = 0;
 	}
 	
 	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
 
 		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(input);
 		
-		if (fastestDimension < 0) fastestDimension = calculateFastestDimension(ssm.getDataDimensions(),ssm.getSubSampledShape());
-		if (fastestDimension < 0) throw new OperationException(this, "Cannot average this data, it has no, non-data dimensions!");
+		int fastest = fastestDimension;
+		if (fastest < 0) fastestDimension = fastest = calculateFastestDimension(ssm.getDataDimensions(),ssm.getSubSampledShape());
+		if (fastest < 0) throw new OperationException(this, "Cannot average this data, it has no, non-data dimensions!");
 		
-		int outs = ssm.getSliceInfo().getSubSampledShape()[fastestDimension];
+		int outs = ssm.getSliceInfo().getSubSampledShape()[fastest];
 		
 		int start = model.getStart() == null ? 0 : model.getStart();
 		int stop = model.getStop() == null ? outs : model.getStop();
@@ -71,41 +61,32 @@ public class AverageSectionsOfFastestOperation extends AbstractOperation<Average
 			stop = start +  n*number;
 		}
 		
-		int dataStart = ssm.getSliceInOutput()[fastestDimension].getStart();
+		int dataStart = ssm.getSliceInOutput()[fastest].getStart();
 		
-		int size = ssm.getSubSampledShape()[fastestDimension];
+		int size = ssm.getSubSampledShape()[fastest];
 		
 		int endSize = (size - stop) + start + ((stop-start)/number);
-		 
 		
-		if (average == null) {
-			
-			if (dataStart < start || dataStart >= stop) {
-				SliceFromSeriesMetadata ussm = ssm.clone();
-				ussm.getSliceInfo().reducedDimension(fastestDimension, endSize, currentStart);
-				IDataset out = input.getSliceView();
-				out.clearMetadata(SliceFromSeriesMetadata.class);
-				out.setMetadata(ussm);
-				currentStart++;
-				return new OperationData(out);
-
-			}
-			
-			average = new RunningAverage(input);
-			currentInAverage++;
-
-		} else {
-			average.update(input);
-			currentInAverage++;
+		// slices outside the averaged range are passed through
+		if (dataStart < start || dataStart >= stop) {
+			int outStart = dataStart < start ? dataStart : dataStart - stop + start + ((stop-start)/number);
+			SliceFromSeriesMetadata ussm = ssm.clone();
+			ussm.getSliceInfo().reducedDimension(fastest, endSize, outStart);
+			IDataset out = input.getSliceView();
+			out.clearMetadata(SliceFromSeriesMetadata.class);
+			out.setMetadata(ussm);
+			return new OperationData(out);
 		}
 		
-		if (currentInAverage == number) {
+		int section = (dataStart - start) / number;
+		int[] position = getPosition(ssm, fastest);
+		position[fastest] = section;
+		
+		Dataset out = average(createKey(position), number, input);
+		
+		if (out != null) {
 			SliceFromSeriesMetadata ussm = ssm.clone();
-			ussm.getSliceInfo().reducedDimension(fastestDimension, endSize, currentStart);
-			currentInAverage = 0;
-			currentStart++;
-			Dataset out = average.getCurrentAverage();
-			average = null;
+			ussm.getSliceInfo().reducedDimension(fastest, endSize, start + section);
 			out.clearMetadata(SliceFromSeriesMetadata.class);
 			out.setMetadata(ussm);
 			return new OperationData(out);
@@ -114,16 +95,4 @@ public class AverageSectionsOfFastestOperation extends AbstractOperation<Average
 
 		return null;
 	}
-	
-	private int calculateFastestDimension(int[] dataDims, int[] shape) {
-		int[] dd = dataDims.clone();
-		Arrays.sort(dd);
-		
-		for (int i = shape.length-1; i > -1; i--) {
-			int key = Arrays.binarySearch(dd, i);
-			if (key < 0) return i;
-		}
-		
-		return -1;	
-	}
 }
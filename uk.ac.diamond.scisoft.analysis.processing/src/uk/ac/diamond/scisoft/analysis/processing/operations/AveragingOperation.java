@@ -3,44 +3,30 @@ package uk.ac.diamond.scisoft.analysis.processing.operations;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
-import org.eclipse.dawnsci.analysis.api.processing.IExportOperation;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.api.processing.model.EmptyModel;
-import org.eclipse.dawnsci.analysis.dataset.impl.RunningAverage;
-import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
 
-public class AveragingOperation<T extends EmptyModel> extends AbstractOperation<EmptyModel, OperationData> implements IExportOperation{
+public class AveragingOperation<T extends EmptyModel> extends AbstractAveragingOperation<EmptyModel> {
 
-	private RunningAverage average;
+	private static final Object KEY = new Object();
 	
 	@Override
 	public String getId() {
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.AveragingOperation";
 	}
 	
-	@Override
-	public void init(){
-		average = null;
-	}
-	
 	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
 		
 		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(input);
 		
-		if (average == null) {
-			average = new RunningAverage(input);
-		} else {
-			average.update(input);
-		}
+		IDataset out = average(KEY, ssm.getTotalSlices(), input);
 		
-		if (average.getCount() == ssm.getTotalSlices()) {
-			IDataset out = average.getCurrentAverage();
+		if (out != null) {
 			copyMetadata(input, out);
 			out.clearMetadata(SliceFromSeriesMetadata.class);
-			average = null;
 			SliceFromSeriesMetadata outsmm = ssm.clone();
 			for (int i = 0; i < ssm.getParent().getRank(); i++) {
 				
@@ -37,6 +37,9 @@ public class FittingModel extends AbstractOperationModel {
 	private boolean autostopping;
 	private boolean backgrounddominated;
 
+	@OperationModelField(label = "Fit peaks in parallel", hint = "Fit identified peaks concurrently with an optimizer for each thread")
+	private boolean parallel;
+
 	public FittingModel() {
 		
 	}
@@ -139,6 +142,14 @@ public class FittingModel extends AbstractOperationModel {
 		this.backgrounddominated = backgrounddominated;
 	}
 
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
 	public IOptimizer createOptimizer() throws Exception {
 		return optimizerClass.getConstructor(double.class, Long.class).newInstance(quality, seed);
 	}
@@ -21,7 +21,10 @@ import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperationBase;
 
 import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter;
+import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter.IOptimizerFactory;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.IdentifiedPeak;
+import uk.ac.diamond.scisoft.analysis.optimize.IOptimizer;
 
 public class FittingOperation extends AbstractOperationBase<FittingModel, OperationData> {
 
@@ -39,12 +42,30 @@ public class FittingOperation extends AbstractOperationBase<FittingModel, Operat
 			if (d.getRank() != 1) {
 				d = d.getSliceView().squeeze(true);
 			}
-			List<CompositeFunction> fittedPeakList = Generic1DFitter.fitPeakFunctions(DatasetUtils.convertToDataset(model.getxAxis()), 
-					                                                                  d, 
-					                                                                  model.getPeak(), model.createOptimizer(),
-					                                                                  model.getSmoothing(), model.getNumberOfPeaks(),
-					                                                                  model.getThreshold(), 
-					                                                                  model.isAutostopping(), model.isBackgrounddominated(), monitor);
+			List<CompositeFunction> fittedPeakList;
+			if (model.isParallel()) {
+				IOptimizerFactory factory = new IOptimizerFactory() {
+					@Override
+					public IOptimizer createOptimizer() throws Exception {
+						return model.createOptimizer();
+					}
+				};
+				fittedPeakList = Generic1DFitter.fitPeakFunctions((List<IdentifiedPeak>) null, DatasetUtils.convertToDataset(model.getxAxis()), 
+						                                          d, 
+						                                          model.getPeak(), factory,
+						                                          model.getSmoothing(), model.getNumberOfPeaks(),
+						                                          model.getThreshold(), 
+						                                          model.isAutostopping(), model.isBackgrounddominated(), monitor,
+						                                          false);
+			} else {
+				fittedPeakList = Generic1DFitter.fitPeakFunctions((List<IdentifiedPeak>) null, DatasetUtils.convertToDataset(model.getxAxis()), 
+						                                          d, 
+						                                          model.getPeak(), model.createOptimizer(),
+						                                          model.getSmoothing(), model.getNumberOfPeaks(),
+						                                          model.getThreshold(), 
+						                                          model.isAutostopping(), model.isBackgrounddominated(), monitor,
+						                                          false);
+			}
 			
 	        // Same original data but with some fitted peaks added to auxillary data.
 			return new OperationData(d, (Serializable)fittedPeakList);
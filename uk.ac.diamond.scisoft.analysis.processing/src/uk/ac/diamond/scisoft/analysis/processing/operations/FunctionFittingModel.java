@@ -22,6 +22,9 @@ public class FunctionFittingModel extends AbstractOperationModel {
 	
 	private FIT_ALGORITHMS optimiser = FIT_ALGORITHMS.APACHELEVENBERGMAQUARDT;
 
+	@OperationModelField(hint="Start each fit from the result of the neighbouring slice along the fastest scan dimension", label = "Seed From Previous Fit")
+	private boolean seedFromPrevious = false;
+
 	public FIT_ALGORITHMS getOptimiser() {
 		return optimiser;
 	}
@@ -30,6 +33,14 @@ public class FunctionFittingModel extends AbstractOperationModel {
 		firePropertyChange("optimiser", this.optimiser, this.optimiser = optimiser);
 	}
 
+	public boolean isSeedFromPrevious() {
+		return seedFromPrevious;
+	}
+
+	public void setSeedFromPrevious(boolean seedFromPrevious) {
+		firePropertyChange("seedFromPrevious", this.seedFromPrevious, this.seedFromPrevious = seedFromPrevious);
+	}
+
 	public String getFilePath() {
 		return filePath;
 	}
@@ -23,6 +23,7 @@ import org.dawb.common.services.ServiceManager;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IDataBasedFunction;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IFunction;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
@@ -43,6 +44,7 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.metadata.AxesMetadataImpl;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
 
 import uk.ac.diamond.scisoft.analysis.fitting.FittingConstants.FIT_ALGORITHMS;
 import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter;
@@ -57,6 +59,7 @@ public class FunctionFittingOperation extends AbstractOperation<FunctionFittingM
 
 	
 	private volatile FitInformation info;
+	private volatile ThreadLocal<Seed> seeds = new ThreadLocal<Seed>();
 	private PropertyChangeListener listener;
 	
 	@Override
@@ -64,15 +67,22 @@ public class FunctionFittingOperation extends AbstractOperation<FunctionFittingM
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.FunctionFittingOperation";
 	}
 	
+	@Override
+	public void init() {
+		super.init();
+		seeds = new ThreadLocal<Seed>();
+	}
+
 	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
 		
 		FitInformation finfo = getFitInformation(model);
-		Add copy = null;
-		try {
-			copy = (Add)finfo.original.copy();
-		} catch (Exception e1) {
-			throw new OperationException(this, "Could not copy function!");
+		int[] position = null;
+		Add seed = null;
+		if (model.isSeedFromPrevious()) {
+			position = getPosition(input);
+			seed = getSeed(finfo, position);
 		}
+		Add copy = copyFunction(seed == null ? finfo.original : seed);
 				
 
 			ILazyDataset[] firstAxes = getFirstAxes(input);
@@ -97,10 +107,28 @@ public class FunctionFittingOperation extends AbstractOperation<FunctionFittingM
 			
 			try {
 				outfit = doFit(traceROI[0], traceROI[1], copy, model.getOptimiser());
+				if (seed != null) { // a fit from a seed can diverge so check it
+					success = isFinite(outfit);
+				}
 			} catch (Exception e) {
 				success = false;
+			}
+
+			if (!success && seed != null) { // fall back to initial guess
+				copy = copyFunction(finfo.original);
+				try {
+					outfit = doFit(traceROI[0], traceROI[1], copy, model.getOptimiser());
+					success = isFinite(outfit);
+				} catch (Exception e) {
+					success = false;
+				}
+			}
+			if (!success) {
 				outfit = copy;
 			}
+			if (position != null) { // only start the next fit from finite values
+				setSeed(finfo, position, success && isFinite(outfit) ? outfit : null);
+			}
 				
 				List<IDataset> params = new ArrayList<IDataset>();
 				Map<String,Integer> nameMap = new HashMap<String,Integer>();
@@ -160,6 +188,82 @@ public class FunctionFittingOperation extends AbstractOperation<FunctionFittingM
 				
 	}
 	
+	private Add copyFunction(Add function) {
+		try {
+			return (Add) function.copy();
+		} catch (Exception e1) {
+			throw new OperationException(this, "Could not copy function!");
+		}
+	}
+
+	private static boolean isFinite(Add function) {
+		for (IParameter p : function.getParameters()) {
+			double v = p.getValue();
+			if (Double.isNaN(v) || Double.isInfinite(v)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param input
+	 * @return position of slice in output (non-data dimensions only) or null if not known
+	 */
+	private int[] getPosition(IDataset input) {
+		SliceFromSeriesMetadata ssm = getSliceSeriesMetadata(input);
+		if (ssm == null) {
+			return null;
+		}
+		Slice[] slices = ssm.getSliceInOutput();
+		int[] position = new int[slices.length];
+		for (int i = 0; i < slices.length; i++) {
+			position[i] = ssm.isDataDimension(i) ? -1 : slices[i].getStart();
+		}
+		return position;
+	}
+
+	/**
+	 * Get function fitted to previous slice in this thread if it neighbours the given position
+	 * along the fastest (last non-data) dimension
+	 * @param finfo
+	 * @param position
+	 * @return fitted function or null
+	 */
+	private Add getSeed(FitInformation finfo, int[] position) {
+		Seed seed = seeds.get();
+		if (seed == null || position == null || seed.info != finfo || seed.position.length != position.length) {
+			return null;
+		}
+
+		int fastest = position.length - 1;
+		while (fastest >= 0 && position[fastest] < 0) {
+			fastest--;
+		}
+		if (fastest < 0) {
+			return null;
+		}
+		for (int i = 0; i < position.length; i++) {
+			int delta = Math.abs(position[i] - seed.position[i]);
+			if (i == fastest ? delta != 1 : delta != 0) {
+				return null;
+			}
+		}
+		return seed.function;
+	}
+
+	private void setSeed(FitInformation finfo, int[] position, Add fitted) {
+		if (fitted == null) {
+			seeds.remove();
+			return;
+		}
+		Seed seed = new Seed();
+		seed.info = finfo;
+		seed.position = position;
+		seed.function = copyFunction(fitted);
+		seeds.set(seed);
+	}
+
 	private FitInformation getFitInformation(FunctionFittingModel model) {
 		FitInformation localInfo = info;
 		if (localInfo == null) {
@@ -290,4 +394,13 @@ public class FunctionFittingOperation extends AbstractOperation<FunctionFittingM
 		public Add original;
 		public double[] points;
 	}
+
+	/**
+	 * Result of last successful fit in a thread
+	 */
+	private static class Seed {
+		public FitInformation info;
+		public int[] position;
+		public Add function;
+	}
 }
@@ -1,26 +1,38 @@
 package uk.ac.diamond.scisoft.analysis.processing.operations.backgroundsubtraction;
 
-import java.io.FileNotFoundException;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
-import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
-import org.eclipse.dawnsci.analysis.dataset.impl.LazyMaths;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
 
-import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataRequest;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataService;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IAuxiliaryDataOperation;
 
-public class SubtractBackgroupImageOperation extends AbstractImageSubtrationOperation<SubtractBackgroundImageModel> {
+public class SubtractBackgroupImageOperation extends AbstractImageSubtrationOperation<SubtractBackgroundImageModel> implements IAuxiliaryDataOperation {
 
 	
 	@Override
 	public String getId() {
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.SubtractBackgroupImageOperation";
 	}
+
+	@Override
+	public Collection<AuxiliaryDataRequest> getAuxiliaryDataRequests(IOperationContext context) throws Exception {
+		SourceInformation source = AuxiliaryDataService.getSourceInformation(context);
+		if (source == null || model.getFilePath() == null) {
+			return null;
+		}
+		return Collections.singletonList(AuxiliaryDataRequest.createLazy(model.getFilePath(), source.getDatasetName()));
+	}
 	
 	@Override
 	protected Dataset getImage(IDataset input) throws OperationException {
@@ -32,18 +44,18 @@ public class SubtractBackgroupImageOperation extends AbstractImageSubtrationOper
 		try {
 			String dsName = ssm.getSourceInfo().getDatasetName();
 			if (model.getFilePath() == null) throw new OperationException(this,"File path not set!");
-			IDataHolder dh = LoaderFactory.getData(model.getFilePath());
-			ILazyDataset lzBg = dh.getLazyDataset(dsName);
+			AuxiliaryDataService service = AuxiliaryDataService.getService(this);
+			ILazyDataset lzBg = service.getLazyDataset(this, model.getFilePath(), dsName);
 			
 			if (Arrays.equals(lzBg.getShape(), ssm.getSourceInfo().getParent().getShape())) {
 				bg = DatasetUtils.convertToDataset(lzBg.getSlice(ssm.getSliceFromInput())).squeeze();
 			} else {
-				bg = LazyMaths.mean(lzBg, ssm.getDataDimensions()).squeeze();
+				bg = service.getDataset(this, AuxiliaryDataRequest.createMean(model.getFilePath(), dsName, ssm.getDataDimensions(), null, null));
 				image = bg;
 			}
 			
-		}catch (FileNotFoundException e) {
-			throw new OperationException(this, "Background file not found!");
+		} catch (OperationException e) {
+			throw e;
 		} catch (Exception e) {
 			throw new OperationException(this, e.getMessage());
 		}
@@ -0,0 +1,51 @@
+package uk.ac.diamond.scisoft.analysis.processing.operations.expressions;
+
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.eclipse.dawnsci.analysis.api.expressions.IExpressionEngine;
+import org.eclipse.dawnsci.analysis.api.expressions.IExpressionService;
+
+/**
+ * Expression that is parsed once by its own engine and can then be evaluated many times
+ * with different variables. Engines are not thread-safe so each instance must only be
+ * used by one thread
+ */
+class CompiledExpression {
+
+	private final String expression;
+	private final IExpressionEngine engine;
+
+	/**
+	 * @param expression
+	 * @throws Exception if no engine is available or expression cannot be parsed
+	 */
+	CompiledExpression(String expression) throws Exception {
+		IExpressionService service = ExpressionServiceHolder.getExpressionService();
+		if (service == null) {
+			throw new IllegalStateException("No expression service available");
+		}
+		this.expression = expression;
+		engine = service.getExpressionEngine();
+		engine.createExpression(expression);
+	}
+
+	/**
+	 * @return expression text
+	 */
+	String getExpression() {
+		return expression;
+	}
+
+	/**
+	 * @param variables to load into engine before evaluation
+	 * @return result of expression
+	 * @throws Exception
+	 */
+	Object evaluate(Map<String, Object> variables) throws Exception {
+		for (Entry<String, Object> e : variables.entrySet()) {
+			engine.addLoadedVariable(e.getKey(), e.getValue());
+		}
+		return engine.evaluate();
+	}
+}
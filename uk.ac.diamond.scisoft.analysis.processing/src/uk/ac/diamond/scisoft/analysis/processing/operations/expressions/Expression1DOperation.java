@@ -1,10 +1,10 @@
 package uk.ac.diamond.scisoft.analysis.processing.operations.expressions;
 
-import org.dawb.common.services.ServiceManager;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
-import org.eclipse.dawnsci.analysis.api.expressions.IExpressionEngine;
-import org.eclipse.dawnsci.analysis.api.expressions.IExpressionService;
 import org.eclipse.dawnsci.analysis.api.metadata.AxesMetadata;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
@@ -17,30 +17,29 @@ import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 
 public class Expression1DOperation<T extends Expression1DModel> extends AbstractOperation<Expression1DModel ,OperationData> {
 
-	IExpressionEngine engine;
-	
+	// expressions compiled by each thread, keyed by expression text
+	private volatile ThreadLocal<Map<String, CompiledExpression>> expressions = new ThreadLocal<Map<String, CompiledExpression>>();
+
 	@Override
 	public String getId() {
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.expressions.Expression1DOperation";
 	}
-	
+
+	@Override
+	public void init() {
+		super.init();
+		expressions = new ThreadLocal<Map<String, CompiledExpression>>();
+	}
+
 	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
 		
-		if (engine == null) {
-			try {
-				IExpressionService service = ExpressionServiceHolder.getExpressionService();
-				engine = service.getExpressionEngine();
-			} catch (Exception e) {
-				throw new OperationException(this, e.getMessage());
-			}
-		}
-		
-		engine.addLoadedVariable("data", input);
-		IDataset[] axes = addAxesToEngine(input);
+		Map<String, Object> variables = new HashMap<String, Object>();
+		variables.put("data", input);
+		IDataset[] axes = addAxes(input, variables);
 		
-		IDataset outdata = evaluateData(input, model.getDataExpression(),1);
+		IDataset outdata = evaluateData(input, model.getDataExpression(), 1, variables);
 		
-		IDataset outaxis = evaluateData(axes[0], model.getAxisExpressionX(), 1);
+		IDataset outaxis = evaluateData(axes[0], model.getAxisExpressionX(), 1, variables);
 		
 		outdata.setName("custom_expression");
 		if (model.getAxisExpressionX() != null && !model.getAxisExpressionX().isEmpty()) outaxis.setName("custom_x_axis");
@@ -62,46 +61,62 @@ public class Expression1DOperation<T extends Expression1DModel> extends Abstract
 		return OperationRank.ONE;
 	}
 	
-	protected IDataset[] addAxesToEngine(IDataset input) {
+	protected IDataset[] addAxes(IDataset input, Map<String, Object> variables) {
 		//1D should be in [0]
 		ILazyDataset[] axes = getFirstAxes(input);
 		IDataset axis;
 		if (axes != null && axes[0] != null) {
 			axis= axes[0].getSlice();
-			engine.addLoadedVariable("xaxis", axis);
 		} else {
 			axis = DatasetFactory.createRange(input.getSize(), Dataset.FLOAT64);
-			engine.addLoadedVariable("xaxis", axis);
 		}
+		variables.put("xaxis", axis);
 		
 		return new IDataset[]{axis};
 	}
 	
-	protected IDataset evaluateData(IDataset input, String expression, int expectedRank) throws OperationException {
-		if (expression ==  null || expression.isEmpty()) {
-			return input;
-		} else {
-			IDataset outdata = null;
-			try {
-				engine.createExpression(expression);
-			} catch (Exception e) {
-				throw new OperationException(this, e.getMessage());
-			}
-			
+	/**
+	 * Get expression compiled by the current thread, compiling it if this has not been done
+	 * @param expression
+	 * @return compiled expression
+	 * @throws OperationException
+	 */
+	protected CompiledExpression getCompiledExpression(String expression) throws OperationException {
+		ThreadLocal<Map<String, CompiledExpression>> local = expressions;
+		Map<String, CompiledExpression> compiled = local.get();
+		if (compiled == null) {
+			compiled = new HashMap<String, CompiledExpression>();
+			local.set(compiled);
+		}
+		CompiledExpression ce = compiled.get(expression);
+		if (ce == null) {
 			try {
-				Object ob =engine.evaluate();
-				if (ob instanceof IDataset && ((IDataset)ob).getRank() == expectedRank) {
-					outdata = (IDataset)ob;
-				} else {
-					throw new OperationException(this, expression = " :expression returned invalid object");
-				}
+				ce = new CompiledExpression(expression);
 			} catch (Exception e) {
 				throw new OperationException(this, e.getMessage());
 			}
-			
-			return outdata;
+			compiled.put(expression, ce);
 		}
-		
+		return ce;
+	}
+	
+	protected IDataset evaluateData(IDataset input, String expression, int expectedRank, Map<String, Object> variables) throws OperationException {
+		if (expression ==  null || expression.isEmpty()) {
+			return input;
+		}
+
+		CompiledExpression ce = getCompiledExpression(expression);
+		Object ob;
+		try {
+			ob = ce.evaluate(variables);
+		} catch (Exception e) {
+			throw new OperationException(this, e.getMessage());
+		}
+
+		if (ob instanceof IDataset && ((IDataset)ob).getRank() == expectedRank) {
+			return (IDataset)ob;
+		}
+		throw new OperationException(this, expression + " :expression returned invalid object");
 	}
 	
 //	protected IDataset evaluateAxis() {
@@ -1,41 +1,56 @@
 package uk.ac.diamond.scisoft.analysis.processing.operations.expressions;
 
+import java.util.Arrays;
+import java.util.Map;
+
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
-import org.eclipse.dawnsci.analysis.api.expressions.IExpressionEngine;
 import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationUtils;
 
 public class Expression2DDiffractionOperation extends Expression2DOperation<Expression2DModel> {
-	
+
 	@Override
 	public String getId() {
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.expressions.Expression2DDiffractionOperation";
 	}
 
-	IDiffractionMetadata meta = null;
-	IDataset q = null;
-	IDataset tth = null;
-	IDataset az = null;
+	// replaced as a whole so threads always see a consistent set of arrays
+	private volatile DiffractionArrays arrays = null;
 
-	protected void addAdditionalValues(IDataset input, IExpressionEngine engine) throws OperationException {
+	protected void addAdditionalValues(IDataset input, Map<String, Object> variables) throws OperationException {
 		IDiffractionMetadata md = getFirstDiffractionMetadata(input);
 		if (md == null) throw new OperationException(this, "No detector calibration information!");
-		if (!md.equals(meta)) {
-			meta = md;
-			
+		DiffractionArrays a = arrays;
+		if (a == null || !a.matches(md, input.getShape())) {
+			a = new DiffractionArrays(md, input.getShape());
+			arrays = a;
+		}
+
+		variables.put("q", a.q);
+		variables.put("tth", a.tth);
+		variables.put("azimuth", a.az);
+		variables.put("energy", 1/(md.getDiffractionCrystalEnvironment().getWavelength()*0.0806554465));
+	}
+
+	private static class DiffractionArrays {
+		private final IDiffractionMetadata meta;
+		private final int[] shape;
+		private final IDataset q;
+		private final IDataset tth;
+		private final IDataset az;
+
+		private DiffractionArrays(IDiffractionMetadata meta, int[] shape) {
+			this.meta = meta;
+			this.shape = shape;
 			q = PixelIntegrationUtils.generateQArray(meta);
 			tth = PixelIntegrationUtils.generate2ThetaArrayRadians(meta);
-			az = PixelIntegrationUtils.generateAzimuthalArray(input.getShape(), md, true);
+			az = PixelIntegrationUtils.generateAzimuthalArray(shape, meta, true);
 		}
-		
-		if (meta == null) throw new OperationException(this, "No detector calibration information!");
-		
-		engine.addLoadedVariable("q", q);
-		engine.addLoadedVariable("tth", tth);
-		engine.addLoadedVariable("azimuth", az);
-		engine.addLoadedVariable("energy", 1/(meta.getDiffractionCrystalEnvironment().getWavelength()*0.0806554465));
+
+		private boolean matches(IDiffractionMetadata md, int[] shape) {
+			return md.equals(meta) && Arrays.equals(shape, this.shape);
 		}
-	
+	}
 }
@@ -1,11 +1,11 @@
 package uk.ac.diamond.scisoft.analysis.processing.operations.expressions;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
-import org.eclipse.dawnsci.analysis.api.expressions.IExpressionEngine;
-import org.eclipse.dawnsci.analysis.api.expressions.IExpressionService;
 import org.eclipse.dawnsci.analysis.api.metadata.AxesMetadata;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
@@ -24,22 +24,14 @@ public class Expression2DOperation<T extends Expression2DModel> extends Expressi
 	
 	protected OperationData process(IDataset input, IMonitor monitor) throws OperationException {
 		
-		if (engine == null) {
-			try {
-				IExpressionService service = ExpressionServiceHolder.getExpressionService();
-				engine = service.getExpressionEngine();
-			} catch (Exception e) {
-				throw new OperationException(this, e.getMessage());
-			}
-		}
-		
-		engine.addLoadedVariable("data", input);
-		IDataset[] axes = addAxesToEngine(input);
-		addAdditionalValues(input,engine);
+		Map<String, Object> variables = new HashMap<String, Object>();
+		variables.put("data", input);
+		IDataset[] axes = addAxes(input, variables);
+		addAdditionalValues(input, variables);
 		
-		IDataset outdata = evaluateData(input, model.getDataExpression(),2);
-		IDataset outaxisx = evaluateData(axes[0], model.getAxisExpressionX(), axes[0].getRank());
-		IDataset outaxisy = evaluateData(axes[1], ((Expression2DModel)model).getAxisExpressionY(), axes[1].getRank());
+		IDataset outdata = evaluateData(input, model.getDataExpression(), 2, variables);
+		IDataset outaxisx = evaluateData(axes[0], model.getAxisExpressionX(), axes[0].getRank(), variables);
+		IDataset outaxisy = evaluateData(axes[1], ((Expression2DModel)model).getAxisExpressionY(), axes[1].getRank(), variables);
 		
 		outdata.setName("custom_expression");
 		if (((Expression2DModel)model).getAxisExpressionY() != null && !((Expression2DModel)model).getAxisExpressionY().isEmpty()) outaxisy.setName("custom_y_axis");
@@ -70,7 +62,7 @@ public class Expression2DOperation<T extends Expression2DModel> extends Expressi
 		return OperationRank.TWO;
 	}
 	
-	protected IDataset[] addAxesToEngine(IDataset input) {
+	protected IDataset[] addAxes(IDataset input, Map<String, Object> variables) {
 		//1D should be in [0]
 		ILazyDataset[] axes = getFirstAxes(input);
 		IDataset axisx = null;
@@ -91,13 +83,13 @@ public class Expression2DOperation<T extends Expression2DModel> extends Expressi
 		if (axisx == null) axisx = DatasetFactory.createRange(input.getShape()[0], Dataset.FLOAT64);
 		if (axisy == null) axisy = DatasetFactory.createRange(input.getShape()[1], Dataset.FLOAT64);
 		
-		engine.addLoadedVariable("xaxis", axisx);
-		engine.addLoadedVariable("yaxis", axisy);
+		variables.put("xaxis", axisx);
+		variables.put("yaxis", axisy);
 		
 		return new IDataset[]{axisx,axisy};
 	}
 	
-	protected void addAdditionalValues(IDataset input, IExpressionEngine engine) throws OperationException {
+	protected void addAdditionalValues(IDataset input, Map<String, Object> variables) throws OperationException {
 		//do nothing
 	}
 }
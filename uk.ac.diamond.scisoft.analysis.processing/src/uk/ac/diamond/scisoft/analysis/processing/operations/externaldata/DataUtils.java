@@ -20,6 +20,8 @@ import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.LazyMaths;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
 
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataRequest;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataService;
 import uk.ac.diamond.scisoft.analysis.processing.operations.utils.ProcessingUtils;
 
 public class DataUtils {
@@ -49,6 +51,18 @@ public class DataUtils {
 		return data;
 	}
 	
+	/**
+	 * Get mean of frames in range from a dataset in another file. The mean is only calculated
+	 * once per run of a pipeline and so must not be modified
+	 * @param input
+	 * @param start
+	 * @param end
+	 * @param path
+	 * @param name
+	 * @param op
+	 * @return mean
+	 * @throws OperationException
+	 */
 	public static Dataset getExternalFrameAverage(IDataset input, Integer start, Integer end, String path, String name, IOperation op) throws OperationException {
 		SliceFromSeriesMetadata ssm = input.getFirstMetadata(SliceFromSeriesMetadata.class);
 		
@@ -63,15 +77,11 @@ public class DataUtils {
 			dataDims = new int[]{dataDims[0]};
 		}
 		
-		Dataset subtrahend = null;
-		
+		AuxiliaryDataService service = AuxiliaryDataService.getService(op);
 		if (lz.getRank() == dataDims.length) {
-			subtrahend = DatasetUtils.sliceAndConvertLazyDataset(lz);
-		} else {
-			subtrahend = LazyMaths.mean(s, e, lz, dataDims).squeeze();
+			return service.getDataset(op, AuxiliaryDataRequest.createFull(path, name));
 		}
-		
-		return subtrahend;
+		return service.getDataset(op, AuxiliaryDataRequest.createMean(path, name, dataDims, s, e));
 	}
 	
 	public static Dataset getExternalFrameMatching(IDataset input, Integer start, Integer end, String path, String name, IOperation op) throws OperationException {
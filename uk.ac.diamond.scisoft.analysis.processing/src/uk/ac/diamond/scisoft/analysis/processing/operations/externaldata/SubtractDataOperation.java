@@ -9,21 +9,36 @@
 
 package uk.ac.diamond.scisoft.analysis.processing.operations.externaldata;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.processing.Atomic;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 
 import uk.ac.diamond.scisoft.analysis.processing.operations.ErrorPropagationUtils;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.AuxiliaryDataRequest;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IAuxiliaryDataOperation;
 
 @Atomic
-public class SubtractDataOperation extends FrameMathsOperation<ExternalDataSelectedFramesModel> {
+public class SubtractDataOperation extends FrameMathsOperation<ExternalDataSelectedFramesModel> implements IAuxiliaryDataOperation {
 	
 	@Override
 	public String getId() {
 		return "uk.ac.diamond.scisoft.analysis.processing.operations.backgroundsubtraction.SubtractDataOperation";
 	}
 
+	@Override
+	public Collection<AuxiliaryDataRequest> getAuxiliaryDataRequests(IOperationContext context) throws Exception {
+		String path = ((ExternalDataSelectedFramesModel)model).getFilePath();
+		if (path == null) {
+			return null;
+		}
+		return Collections.singletonList(AuxiliaryDataRequest.createLazy(path, ((ExternalDataSelectedFramesModel)model).getDatasetName()));
+	}
+
 	@Override
 	protected Dataset getData(IDataset ds) {
 		String path = ((ExternalDataSelectedFramesModel)model).getFilePath();
@@ -0,0 +1,31 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package uk.ac.diamond.scisoft.analysis.processing.operations.image;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+
+import uk.ac.diamond.scisoft.analysis.dataset.function.Median;
+
+/**
+ * Median filter an image with a running median (truncating the kernel at the image edges)
+ * so it does not need an image filter service
+ */
+public class RunningMedianFilterOperation extends AbstractSimpleImageOperation<KernelWidthModel> {
+
+	@Override
+	public String getId() {
+		return "uk.ac.diamond.scisoft.analysis.processing.operations.image.RunningMedianFilterOperation";
+	}
+
+	@Override
+	public IDataset processImage(IDataset dataset, IMonitor monitor) {
+		return new Median(((KernelWidthModel) model).getWidth()).value(dataset).get(0);
+	}
+}
@@ -11,6 +11,7 @@ package uk.ac.diamond.scisoft.analysis.processing.operations.oned;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.Slice;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.api.processing.Atomic;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
@@ -18,11 +19,14 @@ import org.eclipse.dawnsci.analysis.api.processing.OperationException;
 import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.api.processing.model.EmptyModel;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IBatchOperation;
+
 @Atomic
-public class MinMaxNormalize extends AbstractOperation<EmptyModel, OperationData> {
+public class MinMaxNormalize extends AbstractOperation<EmptyModel, OperationData> implements IBatchOperation {
 	
 	@Override
 	public String getId() {
@@ -53,6 +57,27 @@ public class MinMaxNormalize extends AbstractOperation<EmptyModel, OperationData
 		return new OperationData(output);
 		
 	}
+
+	/**
+	 * Each row of the stack is normalised in place in a single copy of the stack. Stacks have
+	 * no errors and the runner sets the axes of each row
+	 */
+	@Override
+	public IDataset executeBatch(IDataset batch, IMonitor monitor) throws OperationException {
+		Dataset input = DatasetUtils.convertToDataset(batch);
+		Dataset output = DatasetUtils.cast(input, Dataset.FLOAT64);
+		if (output == input) output = output.clone();
+
+		int n = output.getShapeRef()[0];
+		for (int i = 0; i < n; i++) {
+			Dataset row = output.getSliceView(new Slice(i, i + 1));
+			double minim = (Double) row.min(true);
+			double range = (Double) row.max(true) - minim;
+			row.isubtract(minim);
+			row.idivide(range);
+		}
+		return output;
+	}
 	
 	@Override
 	public OperationRank getInputRank() {
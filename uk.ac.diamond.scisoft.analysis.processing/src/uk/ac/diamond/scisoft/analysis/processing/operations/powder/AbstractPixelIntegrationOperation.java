@@ -46,7 +46,7 @@ public abstract class AbstractPixelIntegrationOperation<T extends PixelIntegrati
 
 		if (md == null) throw new OperationException(this, "No detector geometry information!");
 		
-		if (metadata == null || (!metadata.getDiffractionCrystalEnvironment().equals(md.getDiffractionCrystalEnvironment())&& !metadata.getDetector2DProperties().equals(md.getDetector2DProperties()))) {
+		if (metadata == null || !metadata.getDiffractionCrystalEnvironment().equals(md.getDiffractionCrystalEnvironment()) || !metadata.getDetector2DProperties().equals(md.getDetector2DProperties())) {
 			metadata = md;
 			cache = null;
 		}
@@ -60,7 +60,7 @@ public abstract class AbstractPixelIntegrationOperation<T extends PixelIntegrati
 
 		}
 
-		final List<Dataset> out = PixelIntegration.integrate(input,m,lcache);
+		final List<Dataset> out = PixelIntegration.integrate(input,m,lcache,((PixelIntegrationModel)model).isParallelIntegration());
 
 		Dataset data = out.remove(1);
 
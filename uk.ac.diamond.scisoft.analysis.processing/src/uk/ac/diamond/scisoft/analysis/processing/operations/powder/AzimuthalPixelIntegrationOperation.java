@@ -19,7 +19,7 @@ import org.eclipse.dawnsci.analysis.dataset.metadata.AxesMetadataImpl;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.IPixelIntegrationCache;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationBean;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationCache;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationCacheManager;
 
 @Atomic
 public class AzimuthalPixelIntegrationOperation<T extends AzimuthalPixelIntegrationModel> extends AbstractPixelIntegrationOperation<AzimuthalPixelIntegrationModel> {
@@ -55,6 +55,7 @@ public class AzimuthalPixelIntegrationOperation<T extends AzimuthalPixelIntegrat
 				if (lcache == null) {
 					PixelIntegrationBean bean = new PixelIntegrationBean();
 					bean.setUsePixelSplitting(model.isPixelSplitting());
+					bean.setUseLookupTable(model.isLookupTable());
 					if (model.getNumberOfBins() != null) bean.setNumberOfBinsRadial(model.getNumberOfBins());
 					bean.setxAxis(((AzimuthalPixelIntegrationModel)model).getAxisType());
 					bean.setRadialRange(model.getRadialRange());
@@ -63,7 +64,7 @@ public class AzimuthalPixelIntegrationOperation<T extends AzimuthalPixelIntegrat
 					bean.setTo1D(true);
 					bean.setLog(model.isLogRadial());
 					bean.setShape(shape);
-					cache = lcache = new PixelIntegrationCache(metadata, bean);
+					cache = lcache = PixelIntegrationCacheManager.getCache(metadata, bean);
 				}
 			}
 		}
@@ -19,7 +19,7 @@ import org.eclipse.dawnsci.analysis.dataset.metadata.AxesMetadataImpl;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.IPixelIntegrationCache;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationBean;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationCache;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationCacheManager;
 
 @Atomic
 public class CakePixelIntegrationOperation extends AbstractPixelIntegrationOperation<CakePixelIntegrationModel> {
@@ -60,6 +60,7 @@ public class CakePixelIntegrationOperation extends AbstractPixelIntegrationOpera
 				if (lcache == null) {
 					PixelIntegrationBean bean = new PixelIntegrationBean();
 					bean.setUsePixelSplitting(model.isPixelSplitting());
+					bean.setUseLookupTable(model.isLookupTable());
 					if (model.getNumberOfBins()!=null)bean.setNumberOfBinsRadial(model.getNumberOfBins());
 					if (((CakePixelIntegrationModel)model).getNumberOfBins2ndAxis() != null) bean.setNumberOfBinsAzimuthal(((CakePixelIntegrationModel)model).getNumberOfBins2ndAxis());
 					bean.setxAxis(((CakePixelIntegrationModel)model).getAxisType());
@@ -69,7 +70,7 @@ public class CakePixelIntegrationOperation extends AbstractPixelIntegrationOpera
 					bean.setTo1D(false);
 					bean.setShape(shape);
 					bean.setLog(model.isLogRadial());
-					cache = lcache = new PixelIntegrationCache(metadata, bean);
+					cache = lcache = PixelIntegrationCacheManager.getCache(metadata, bean);
 				}
 			}
 		}
@@ -27,6 +27,28 @@ public abstract class PixelIntegrationModel extends AbstractOperationModel {
 	
 	@OperationModelField(label = "Log Radial Axis", hint="Integrates onto a log axis, has no effect on radial integration")
 	private boolean logRadial = false;
+	
+	@OperationModelField(label = "Use lookup table", hint="Precompute a sparse pixel to bin table once for the geometry, faster when integrating many frames")
+	private boolean lookupTable = false;
+
+	@OperationModelField(label = "Multi-threaded", hint="Split each image into tiles integrated on several threads, reduces latency when integrating single large images")
+	private boolean parallelIntegration = false;
+
+	public boolean isParallelIntegration() {
+		return parallelIntegration;
+	}
+
+	public void setParallelIntegration(boolean parallelIntegration) {
+		firePropertyChange("parallelIntegration", this.parallelIntegration, this.parallelIntegration = parallelIntegration);
+	}
+
+	public boolean isLookupTable() {
+		return lookupTable;
+	}
+
+	public void setLookupTable(boolean lookupTable) {
+		firePropertyChange("lookupTable", this.lookupTable, this.lookupTable = lookupTable);
+	}
 
 	public boolean isLogRadial() {
 		return logRadial;
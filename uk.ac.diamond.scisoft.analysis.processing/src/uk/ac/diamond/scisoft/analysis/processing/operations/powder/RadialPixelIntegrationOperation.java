@@ -14,7 +14,7 @@ import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.IPixelIntegrationCache;
 import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationBean;
-import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationCache;
+import uk.ac.diamond.scisoft.analysis.diffraction.powder.PixelIntegrationCacheManager;
 
 @Atomic
 public class RadialPixelIntegrationOperation extends AzimuthalPixelIntegrationOperation<AzimuthalPixelIntegrationModel> {
@@ -40,6 +40,7 @@ public class RadialPixelIntegrationOperation extends AzimuthalPixelIntegrationOp
 				if (lcache == null) {
 					PixelIntegrationBean bean = new PixelIntegrationBean();
 					bean.setUsePixelSplitting(model.isPixelSplitting());
+					bean.setUseLookupTable(model.isLookupTable());
 					if (model.getNumberOfBins() != null) bean.setNumberOfBinsAzimuthal(model.getNumberOfBins());
 					bean.setxAxis(((AzimuthalPixelIntegrationModel)model).getAxisType());
 					bean.setRadialRange(model.getRadialRange());
@@ -48,7 +49,7 @@ public class RadialPixelIntegrationOperation extends AzimuthalPixelIntegrationOp
 					bean.setTo1D(true);
 					bean.setShape(shape);
 					
-					cache = lcache = new PixelIntegrationCache(metadata, bean);
+					cache = lcache = PixelIntegrationCacheManager.getCache(metadata, bean);
 				}
 			}
 		}
@@ -23,6 +23,7 @@ import org.eclipse.dawnsci.analysis.dataset.roi.ROIUtils;
 import org.eclipse.dawnsci.analysis.dataset.roi.RectangularROI;
 
 import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+import uk.ac.diamond.scisoft.analysis.roi.SummedAreaTable;
 
 public abstract class AbstractTwoBoxMeanOperation<T extends TwoBoxModel> extends AbstractOperation<TwoBoxModel, OperationData> {
 
@@ -50,9 +51,14 @@ public abstract class AbstractTwoBoxMeanOperation<T extends TwoBoxModel> extends
 //		Dataset[] b1 = ROIProfile.boxMean(data, mask, box1, false);
 //		Dataset[] b2 = ROIProfile.boxMean(data, mask, box2, false);
 		
-		long t = System.currentTimeMillis();
-		Dataset out = result(getMeanFromBox(input,box1), getMeanFromBox(input,box2));
-		System.out.println(System.currentTimeMillis()-t);
+		Dataset out;
+		if (SummedAreaTable.isWorthwhile(input.getShape(), new int[][] {getStart(box1), getStart(box2)},
+				new int[][] {getStop(box1), getStop(box2)})) {
+			SummedAreaTable table = SummedAreaTable.create(input);
+			out = result(getMeanFromBox(table,box1), getMeanFromBox(table,box2));
+		} else {
+			out = result(getMeanFromBox(input,box1), getMeanFromBox(input,box2));
+		}
 		
 		return new OperationData(input, out);
 	}
@@ -70,6 +76,27 @@ public abstract class AbstractTwoBoxMeanOperation<T extends TwoBoxModel> extends
 		return (double)slice.mean(true);
 	}
 	
+	/**
+	 * @param table
+	 * @param roi
+	 * @return mean of unmasked values in box ignoring NaNs
+	 */
+	public static double getMeanFromBox(SummedAreaTable table, RectangularROI roi){
+		return table.getMean(getStart(roi), getStop(roi));
+	}
+	
+	//data set shape corresponds to plot [y,x]
+	private static int[] getStart(RectangularROI roi) {
+		int[] spt = roi.getIntPoint();
+		return new int[] {spt[1], spt[0]};
+	}
+	
+	private static int[] getStop(RectangularROI roi) {
+		int[] spt = roi.getIntPoint();
+		int[] len = roi.getIntLengths();
+		return new int[] {spt[1] + len[1], spt[0] + len[0]};
+	}
+	
 	public static Dataset getSliceFromBox(IDataset input, RectangularROI roi){
 		//data set shape corresponds to plot [y,x]
 		int[] spt = roi.getIntPoint();
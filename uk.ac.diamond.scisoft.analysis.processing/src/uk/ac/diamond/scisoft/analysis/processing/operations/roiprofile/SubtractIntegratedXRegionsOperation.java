@@ -22,11 +22,15 @@ import org.eclipse.dawnsci.analysis.api.processing.OperationRank;
 import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Comparisons;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.metadata.AxesMetadataImpl;
 import org.eclipse.dawnsci.analysis.dataset.operations.AbstractOperation;
 
+import uk.ac.diamond.scisoft.analysis.roi.SummedAreaTable;
+
 @Atomic
 public class SubtractIntegratedXRegionsOperation extends AbstractOperation<SubtractIntegratedXRegionsModel, OperationData> {
 
@@ -54,29 +58,36 @@ public class SubtractIntegratedXRegionsOperation extends AbstractOperation<Subtr
 		
 		AxesMetadata axm = input.getFirstMetadata(AxesMetadata.class);
 		
-		Dataset signal = null;
-		Dataset b0 = null;
-		Dataset b1 = null;
+		int[][] ranges;
 		ILazyDataset[] axis1 = null;
 		
 		if (axm == null || axm.getAxis(1) == null || axm.getAxis(1)[0] == null) {
-			signal = getMean(input,(int)Math.round(signalRange[0]), (int)Math.round(signalRange[1]));
-			b0 = getMean(input,(int)Math.round(backGroundRange0[0]), (int)Math.round(backGroundRange0[1]));
-			b1 = getMean(input,(int)Math.round(backGroundRange1[0]), (int)Math.round(backGroundRange1[1]));
+			ranges = new int[][] {getRange(signalRange), getRange(backGroundRange0), getRange(backGroundRange1)};
 		} else {
 			
 			Dataset x = DatasetUtils.sliceAndConvertLazyDataset(axm.getAxis(1)[0]);
 			x.squeeze();
 			
-			signal = getMean(input,x,signalRange);
-			b0 = getMean(input,x,backGroundRange0);
-			b1 = getMean(input,x,backGroundRange1);
+			ranges = new int[][] {getRange(x,signalRange), getRange(x,backGroundRange0), getRange(x,backGroundRange1)};
 			ILazyDataset[] axis = axm.getAxis(0);
 			axis1 = axis.clone();
 			for (int i = 0; i < axis1.length; i++) axis1[i] = axis1[i] == null ? null : axis1[i].getSliceView().squeezeEnds();
 			
 		}
 		
+		int[] shape = input.getShape();
+		int[][] starts = new int[ranges.length][];
+		int[][] stops = new int[ranges.length][];
+		for (int i = 0; i < ranges.length; i++) {
+			starts[i] = new int[] {0, ranges[i][0]};
+			stops[i] = new int[] {shape[0], ranges[i][1]};
+		}
+		SummedAreaTable table = SummedAreaTable.isWorthwhile(shape, starts, stops) ? SummedAreaTable.create(input) : null;
+		
+		Dataset signal = getMean(input, table, ranges[0]);
+		Dataset b0 = getMean(input, table, ranges[1]);
+		Dataset b1 = getMean(input, table, ranges[2]);
+		
 		if (signal == null || b0 == null || b1 == null) throw new OperationException(this, "Could not get sections of data!");
 		
 		signal.isubtract((b0.iadd(b1).idivide(2)));
@@ -92,29 +103,42 @@ public class SubtractIntegratedXRegionsOperation extends AbstractOperation<Subtr
 		
 	}
 	
-	private Dataset getMean(IDataset input, Dataset x, double[] vals) {
+	private int[] getRange(Dataset x, double[] vals) {
 		
 		int x0 = Maths.abs(Maths.subtract(x, vals[0])).argMin();
 		int x1 = Maths.abs(Maths.subtract(x, vals[1])).argMin();
 		
-		return getMean(input, x0, x1);
+		return x0 < x1 ? new int[] {x0,x1} : new int[] {x1,x0};
 		
 	}
 	
-	private Dataset getMean(IDataset input, int i0, int i1) {
-		int[] startStop = i0 < i1 ? new int[] {i0,i1} : new int[] {i1,i0}; 
-		SliceND s = new SliceND(input.getShape());
-		s.setSlice(1, startStop[0], startStop[1], 1);
-		Dataset d = DatasetUtils.convertToDataset(input.getSlice(s));
-		MaskMetadata mmd = d.getFirstMetadata(MaskMetadata.class);
-		if (mmd != null) {
-			Dataset m = DatasetUtils.sliceAndConvertLazyDataset(mmd.getMask());
-			if (m instanceof BooleanDataset) {
-				d.setByBoolean(Double.NaN, Comparisons.logicalNot(m));
+	private int[] getRange(double[] vals) {
+		int i0 = (int)Math.round(vals[0]);
+		int i1 = (int)Math.round(vals[1]);
+		
+		return i0 < i1 ? new int[] {i0,i1} : new int[] {i1,i0};
+	}
+	
+	private Dataset getMean(IDataset input, SummedAreaTable table, int[] startStop) {
+		Dataset mean;
+		if (table != null) {
+			int rows = table.getShape()[0];
+			double[] means = table.getMeanProfile(new int[] {0, startStop[0]}, new int[] {rows, startStop[1]}, 1);
+			mean = means == null ? DatasetFactory.zeros(new int[] {rows}, Dataset.FLOAT64) : new DoubleDataset(means);
+		} else {
+			SliceND s = new SliceND(input.getShape());
+			s.setSlice(1, startStop[0], startStop[1], 1);
+			Dataset d = DatasetUtils.convertToDataset(input.getSlice(s));
+			MaskMetadata mmd = d.getFirstMetadata(MaskMetadata.class);
+			if (mmd != null) {
+				Dataset m = DatasetUtils.sliceAndConvertLazyDataset(mmd.getMask());
+				if (m instanceof BooleanDataset) {
+					d.setByBoolean(Double.NaN, Comparisons.logicalNot(m));
+				}
+				
 			}
-			
+			mean = d.mean(true,1);
 		}
-		Dataset mean = d.mean(true,1);
 		
 		DatasetUtils.makeFinite(mean);
 		
@@ -0,0 +1,209 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations.utils;
+
+import java.util.Arrays;
+
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+
+/**
+ * Request for a dataset held in a file other than the one being processed. Requests are
+ * immutable and equal when they ask for the same data so they can be used as cache keys
+ */
+public class AuxiliaryDataRequest {
+
+	public enum Type {
+		/**
+		 * Lazy dataset, i.e. the file is opened but no data is read
+		 */
+		LAZY,
+		/**
+		 * Whole dataset or a slice of it
+		 */
+		FULL,
+		/**
+		 * Mean over frames
+		 */
+		MEAN,
+	}
+
+	private final Type type;
+	private final String filePath;
+	private final String datasetName;
+	private final SliceND slice;
+	private final int[] dataDimensions;
+	private final Integer start;
+	private final Integer end;
+
+	private AuxiliaryDataRequest(Type type, String filePath, String datasetName, SliceND slice, int[] dataDimensions, Integer start, Integer end) {
+		this.type = type;
+		this.filePath = filePath;
+		this.datasetName = datasetName;
+		this.slice = slice == null ? null : slice.clone();
+		this.dataDimensions = dataDimensions == null ? null : dataDimensions.clone();
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * @param filePath
+	 * @param datasetName
+	 * @return request for lazy dataset
+	 */
+	public static AuxiliaryDataRequest createLazy(String filePath, String datasetName) {
+		return new AuxiliaryDataRequest(Type.LAZY, filePath, datasetName, null, null, null, null);
+	}
+
+	/**
+	 * @param filePath
+	 * @param datasetName
+	 * @return request for whole of dataset
+	 */
+	public static AuxiliaryDataRequest createFull(String filePath, String datasetName) {
+		return new AuxiliaryDataRequest(Type.FULL, filePath, datasetName, null, null, null, null);
+	}
+
+	/**
+	 * @param filePath
+	 * @param datasetName
+	 * @param slice
+	 * @return request for slice of dataset
+	 */
+	public static AuxiliaryDataRequest createSlice(String filePath, String datasetName, SliceND slice) {
+		return new AuxiliaryDataRequest(Type.FULL, filePath, datasetName, slice, null, null, null);
+	}
+
+	/**
+	 * @param filePath
+	 * @param datasetName
+	 * @param dataDimensions dimensions of each frame
+	 * @param start first frame (can be null for all frames)
+	 * @param end last frame (can be null for all frames)
+	 * @return request for (squeezed) mean of frames
+	 */
+	public static AuxiliaryDataRequest createMean(String filePath, String datasetName, int[] dataDimensions, Integer start, Integer end) {
+		return new AuxiliaryDataRequest(Type.MEAN, filePath, datasetName, null, dataDimensions, start, end);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	public String getDatasetName() {
+		return datasetName;
+	}
+
+	/**
+	 * @return slice (can be null)
+	 */
+	public SliceND getSlice() {
+		return slice;
+	}
+
+	/**
+	 * @return data dimensions of mean (can be null)
+	 */
+	public int[] getDataDimensions() {
+		return dataDimensions;
+	}
+
+	/**
+	 * @return first frame of mean (can be null)
+	 */
+	public Integer getStart() {
+		return start;
+	}
+
+	/**
+	 * @return last frame of mean (can be null)
+	 */
+	public Integer getEnd() {
+		return end;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + type.hashCode();
+		result = prime * result + ((filePath == null) ? 0 : filePath.hashCode());
+		result = prime * result + ((datasetName == null) ? 0 : datasetName.hashCode());
+		if (slice != null) {
+			result = prime * result + Arrays.hashCode(slice.getStart());
+			result = prime * result + Arrays.hashCode(slice.getStop());
+			result = prime * result + Arrays.hashCode(slice.getStep());
+		}
+		result = prime * result + Arrays.hashCode(dataDimensions);
+		result = prime * result + ((start == null) ? 0 : start.hashCode());
+		result = prime * result + ((end == null) ? 0 : end.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		AuxiliaryDataRequest other = (AuxiliaryDataRequest) obj;
+		if (type != other.type)
+			return false;
+		if (filePath == null) {
+			if (other.filePath != null)
+				return false;
+		} else if (!filePath.equals(other.filePath))
+			return false;
+		if (datasetName == null) {
+			if (other.datasetName != null)
+				return false;
+		} else if (!datasetName.equals(other.datasetName))
+			return false;
+		if (slice == null) {
+			if (other.slice != null)
+				return false;
+		} else if (other.slice == null || !Arrays.equals(slice.getShape(), other.slice.getShape())
+				|| !Arrays.equals(slice.getStart(), other.slice.getStart())
+				|| !Arrays.equals(slice.getStop(), other.slice.getStop())
+				|| !Arrays.equals(slice.getStep(), other.slice.getStep()))
+			return false;
+		if (!Arrays.equals(dataDimensions, other.dataDimensions))
+			return false;
+		if (start == null) {
+			if (other.start != null)
+				return false;
+		} else if (!start.equals(other.start))
+			return false;
+		if (end == null) {
+			if (other.end != null)
+				return false;
+		} else if (!end.equals(other.end))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append(type).append(" of ").append(datasetName).append(" in ").append(filePath);
+		if (slice != null) {
+			s.append(" sliced by ").append(slice);
+		}
+		if (type == Type.MEAN) {
+			s.append(" over frames ").append(start).append(" to ").append(end);
+		}
+		return s.toString();
+	}
+}
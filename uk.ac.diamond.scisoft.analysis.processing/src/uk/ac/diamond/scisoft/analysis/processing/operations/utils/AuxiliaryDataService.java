@@ -0,0 +1,264 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations.utils;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.LazyMaths;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
+
+/**
+ * Resolves requests for data held in other files. A service is opened for each run of a
+ * pipeline and is shared by its operations so each request is resolved once for the run,
+ * however many slices or threads ask for it. Operations that are not part of an open run
+ * get a service that does not cache.
+ * <p>
+ * Resolved datasets are shared so must not be modified.
+ */
+public class AuxiliaryDataService {
+
+	private static final Logger logger = LoggerFactory.getLogger(AuxiliaryDataService.class);
+
+	private static final Map<IOperation, AuxiliaryDataService> services = new IdentityHashMap<>();
+
+	private static final AuxiliaryDataService UNCACHED = new AuxiliaryDataService(null);
+
+	private final IOperation[] series;
+	private final ConcurrentMap<AuxiliaryDataRequest, FutureTask<ILazyDataset>> cache;
+
+	private AuxiliaryDataService(IOperation[] series) {
+		this.series = series;
+		cache = series == null ? null : new ConcurrentHashMap<AuxiliaryDataRequest, FutureTask<ILazyDataset>>();
+	}
+
+	/**
+	 * Open service for run of given context and resolve any data declared by its operations
+	 * @param context
+	 * @return service (which must be closed after the run)
+	 */
+	public static AuxiliaryDataService open(IOperationContext context) {
+		IOperation[] series = context.getSeries();
+		AuxiliaryDataService service = new AuxiliaryDataService(series.clone());
+		synchronized (services) {
+			for (IOperation op : series) {
+				services.put(op, service);
+			}
+		}
+
+		for (IOperation op : series) {
+			if (op instanceof IAuxiliaryDataOperation) {
+				try {
+					service.prefetch(op, ((IAuxiliaryDataOperation) op).getAuxiliaryDataRequests(context));
+				} catch (Exception e) {
+					logger.warn("Could not get auxiliary data for {}: {}", op.getName(), e.getMessage());
+				}
+			}
+		}
+		return service;
+	}
+
+	/**
+	 * Close service and release its data
+	 */
+	public void close() {
+		if (series == null) {
+			return;
+		}
+		synchronized (services) {
+			for (IOperation op : series) {
+				if (services.get(op) == this) {
+					services.remove(op);
+				}
+			}
+		}
+		cache.clear();
+	}
+
+	/**
+	 * @param op
+	 * @return service for run that operation is part of
+	 */
+	public static AuxiliaryDataService getService(IOperation op) {
+		if (op != null) {
+			synchronized (services) {
+				AuxiliaryDataService service = services.get(op);
+				if (service != null) {
+					return service;
+				}
+			}
+		}
+		return UNCACHED;
+	}
+
+	/**
+	 * @param context
+	 * @return source information of data in context or null if it is not available
+	 */
+	public static SourceInformation getSourceInformation(IOperationContext context) {
+		try {
+			List<SliceFromSeriesMetadata> md = context.getData().getMetadata(SliceFromSeriesMetadata.class);
+			return md == null || md.isEmpty() ? null : md.get(0).getSourceInfo();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Resolve requests. Those that fail are logged and are attempted again when next asked for
+	 * @param op
+	 * @param requests (can be null)
+	 */
+	public void prefetch(IOperation op, Collection<AuxiliaryDataRequest> requests) {
+		if (requests == null || cache == null) {
+			return;
+		}
+		for (AuxiliaryDataRequest r : requests) {
+			try {
+				resolve(op, r);
+			} catch (OperationException e) {
+				logger.warn("Could not resolve {}: {}", r, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @param op
+	 * @param filePath
+	 * @param datasetName
+	 * @return lazy dataset
+	 * @throws OperationException if file cannot be opened or dataset is not in it
+	 */
+	public ILazyDataset getLazyDataset(IOperation op, String filePath, String datasetName) throws OperationException {
+		return resolve(op, AuxiliaryDataRequest.createLazy(filePath, datasetName));
+	}
+
+	/**
+	 * @param op
+	 * @param request
+	 * @return dataset
+	 * @throws OperationException if data cannot be read
+	 */
+	public Dataset getDataset(IOperation op, AuxiliaryDataRequest request) throws OperationException {
+		if (request.getType() == AuxiliaryDataRequest.Type.LAZY) {
+			throw new IllegalArgumentException("Lazy requests do not give datasets");
+		}
+		return (Dataset) resolve(op, request);
+	}
+
+	/**
+	 * @return number of requests resolved or being resolved
+	 */
+	int getCacheSize() {
+		return cache == null ? 0 : cache.size();
+	}
+
+	private ILazyDataset resolve(final IOperation op, final AuxiliaryDataRequest request) throws OperationException {
+		if (cache == null) {
+			return load(op, request);
+		}
+
+		FutureTask<ILazyDataset> f = cache.get(request);
+		if (f == null) {
+			FutureTask<ILazyDataset> nf = new FutureTask<ILazyDataset>(new Callable<ILazyDataset>() {
+				@Override
+				public ILazyDataset call() throws Exception {
+					return load(op, request);
+				}
+			});
+			f = cache.putIfAbsent(request, nf);
+			if (f == null) {
+				f = nf;
+				nf.run();
+			}
+		}
+
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			cache.remove(request, f);
+			Throwable c = e.getCause();
+			if (c instanceof OperationException) {
+				throw (OperationException) c;
+			}
+			throw new OperationException(op, c);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationException(op, e);
+		}
+	}
+
+	private ILazyDataset load(IOperation op, AuxiliaryDataRequest request) throws OperationException {
+		if (request.getType() == AuxiliaryDataRequest.Type.LAZY) {
+			return loadLazyDataset(op, request.getFilePath(), request.getDatasetName());
+		}
+
+		ILazyDataset lz = resolve(op, AuxiliaryDataRequest.createLazy(request.getFilePath(), request.getDatasetName()));
+		try {
+			switch (request.getType()) {
+			case FULL:
+				if (request.getSlice() == null) {
+					return DatasetUtils.sliceAndConvertLazyDataset(lz);
+				}
+				return DatasetUtils.convertToDataset(lz.getSlice(request.getSlice()));
+			case MEAN:
+				if (request.getStart() == null && request.getEnd() == null) {
+					return LazyMaths.mean(lz, request.getDataDimensions()).squeeze();
+				}
+				int s = request.getStart() == null ? 0 : request.getStart();
+				int e = request.getEnd() == null ? Integer.MAX_VALUE - 1 : request.getEnd();
+				return LazyMaths.mean(s, e, lz, request.getDataDimensions()).squeeze();
+			default:
+				throw new IllegalArgumentException("Unknown type of request");
+			}
+		} catch (OperationException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new OperationException(op, "Error reading " + request + ": " + e.getMessage());
+		}
+	}
+
+	private static ILazyDataset loadLazyDataset(IOperation op, String filePath, String datasetName) throws OperationException {
+		IDataHolder dh = null;
+
+		try {
+			dh = LoaderFactory.getData(filePath);
+		} catch (Exception e) {
+			//ignore
+		}
+
+		if (dh == null) throw new OperationException(op,"Error opening file: " + filePath);
+
+		ILazyDataset lz = dh.getLazyDataset(datasetName);
+
+		if (lz == null) throw new OperationException(op,"Error reading dataset: " + datasetName);
+
+		return lz;
+	}
+}
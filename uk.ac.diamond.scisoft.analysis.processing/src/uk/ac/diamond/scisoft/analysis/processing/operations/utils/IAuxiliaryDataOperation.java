@@ -0,0 +1,28 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations.utils;
+
+import java.util.Collection;
+
+import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
+
+/**
+ * Operation that reads data from other files. The data it declares is resolved
+ * by {@link AuxiliaryDataService} before the first slice is processed
+ */
+public interface IAuxiliaryDataOperation {
+
+	/**
+	 * @param context of run
+	 * @return requests for data that will be used (can be null or empty)
+	 * @throws Exception
+	 */
+	public Collection<AuxiliaryDataRequest> getAuxiliaryDataRequests(IOperationContext context) throws Exception;
+}
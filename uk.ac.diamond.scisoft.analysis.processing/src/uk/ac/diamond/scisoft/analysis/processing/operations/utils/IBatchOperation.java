@@ -0,0 +1,37 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.operations.utils;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+
+/**
+ * Operation that can process a stack of slices in one call. When a run has a batch size
+ * greater than one, the operations at the start of its series that implement this are given
+ * stacks of slices instead of single slices.
+ * <p>
+ * A stack has the slices in its first dimension followed by the data dimensions. Its metadata
+ * should not be relied on and it has no errors. Each slice of the result should have the shape
+ * of its input slice, as the runner gives it the metadata of that slice.
+ * <p>
+ * The stack must not be modified, as slices of it are passed to the visitor after
+ * later operations of the batch have run.
+ */
+public interface IBatchOperation {
+
+	/**
+	 * @param batch stack of slices
+	 * @param monitor
+	 * @return stack of results, in the same order (or null to give no result for any slice)
+	 * @throws OperationException
+	 */
+	public IDataset executeBatch(IDataset batch, IMonitor monitor) throws OperationException;
+}
@@ -10,33 +10,22 @@
 package uk.ac.diamond.scisoft.analysis.processing.operations.utils;
 
 import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
-import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
 import org.eclipse.dawnsci.analysis.api.processing.IOperation;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
-import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
-
-import uk.ac.diamond.scisoft.analysis.io.LoaderFactory;
 
 public class ProcessingUtils {
 	
+	/**
+	 * Get lazy dataset from file. When the operation is running in a pipeline, the dataset
+	 * is only opened once for the whole run
+	 * @param op
+	 * @param filepath
+	 * @param datasetName
+	 * @return lazy dataset
+	 * @throws OperationException
+	 */
 	public static ILazyDataset getLazyDataset(IOperation op, String filepath, String datasetName) throws OperationException {
-		
-		IDataHolder dh = null;
-		
-		try {
-			dh = LoaderFactory.getData(filepath);
-		} catch (Exception e) {
-			//ignore
-		}
-		
-		if (dh == null) throw new OperationException(op,"Error opening file: " + filepath);
-		
-		ILazyDataset lz = dh.getLazyDataset(datasetName);
-		
-		if (lz == null) throw new OperationException(op,"Error reading dataset: " + datasetName);
-		
-		return lz;
-		
+		return AuxiliaryDataService.getService(op).getLazyDataset(op, filepath, datasetName);
 	}
 
 }
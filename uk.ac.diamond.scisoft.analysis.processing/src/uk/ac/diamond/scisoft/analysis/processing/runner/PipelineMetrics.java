@@ -0,0 +1,454 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.runner;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
+import org.eclipse.dawnsci.analysis.api.processing.IOperation;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+
+/**
+ * Timings and data sizes recorded while running a pipeline. Operations are timed
+ * separately from the execution visitor (i.e. file writing) and, for parallel runs,
+ * from the time worker threads spend waiting for slices.
+ * <p>
+ * Recording methods are thread-safe. Percentiles are estimated from a fixed size
+ * sample of timings so memory use does not grow with the number of slices.
+ */
+public class PipelineMetrics {
+
+	private static final int MAX_SAMPLES = 4096;
+	private static final double NS_PER_MS = 1e6;
+
+	private final ExecutionType executionType;
+	private final OperationMetrics[] operations;
+	private final Timing slices = new Timing();
+	private final AtomicLong visitorTime = new AtomicLong();
+	private final AtomicLong queueWaitTime = new AtomicLong();
+	private final AtomicLong queueWaits = new AtomicLong();
+	private final AtomicLong readStallTime = new AtomicLong();
+	private volatile long startTime;
+	private volatile long stopTime;
+
+	/**
+	 * @param series operations in pipeline
+	 * @param executionType
+	 */
+	public PipelineMetrics(IOperation<?, ?>[] series, ExecutionType executionType) {
+		this.executionType = executionType;
+		operations = new OperationMetrics[series.length];
+		for (int i = 0; i < series.length; i++) {
+			operations[i] = new OperationMetrics(series[i].getId(), series[i].getName());
+		}
+	}
+
+	/**
+	 * Call when run starts
+	 */
+	public void start() {
+		startTime = System.nanoTime();
+		stopTime = 0;
+	}
+
+	/**
+	 * Call when run finishes
+	 */
+	public void stop() {
+		stopTime = System.nanoTime();
+	}
+
+	/**
+	 * @param index of operation in series
+	 * @param nanos time taken to execute operation
+	 * @param input to operation
+	 * @param output of operation (can be null)
+	 */
+	public void recordOperation(int index, long nanos, IDataset input, IDataset output) {
+		long in = getBytes(input);
+		long out = getBytes(output);
+		operations[index].record(nanos, in, out, output != null && output != input ? out : 0);
+	}
+
+	/**
+	 * @param nanos time taken to process whole slice including visitor
+	 */
+	public void recordSlice(long nanos) {
+		slices.record(nanos);
+	}
+
+	/**
+	 * @param nanos time spent in execution visitor
+	 */
+	public void recordVisitor(long nanos) {
+		visitorTime.addAndGet(nanos);
+	}
+
+	/**
+	 * @param nanos time a worker thread waited for its next slice
+	 */
+	public void recordQueueWait(long nanos) {
+		queueWaitTime.addAndGet(nanos);
+		queueWaits.incrementAndGet();
+	}
+
+	/**
+	 * @param nanos time the slice reader waited for space in its buffer
+	 */
+	public void recordReadStall(long nanos) {
+		readStallTime.addAndGet(nanos);
+	}
+
+	/**
+	 * @param d
+	 * @return estimated size of dataset in bytes
+	 */
+	public static long getBytes(IDataset d) {
+		if (d == null) {
+			return 0;
+		}
+		if (d instanceof Dataset) {
+			return ((Dataset) d).getNbytes();
+		}
+		return d.getSize() * 8l;
+	}
+
+	public ExecutionType getExecutionType() {
+		return executionType;
+	}
+
+	/**
+	 * @return metrics of each operation in order of series
+	 */
+	public List<OperationMetrics> getOperationMetrics() {
+		return Collections.unmodifiableList(Arrays.asList(operations));
+	}
+
+	/**
+	 * @return number of slices processed
+	 */
+	public long getSliceCount() {
+		return slices.getCount();
+	}
+
+	/**
+	 * @param p percentile (0 to 100)
+	 * @return estimated percentile of slice times in ms
+	 */
+	public double getSliceTimePercentile(double p) {
+		return slices.getPercentile(p);
+	}
+
+	/**
+	 * @return wall time of run (so far) in ms
+	 */
+	public double getWallTime() {
+		long start = startTime;
+		if (start == 0) {
+			return 0;
+		}
+		long stop = stopTime;
+		return ((stop == 0 ? System.nanoTime() : stop) - start) / NS_PER_MS;
+	}
+
+	/**
+	 * @return slices processed per second
+	 */
+	public double getSlicesPerSecond() {
+		double t = getWallTime();
+		return t > 0 ? 1000 * getSliceCount() / t : 0;
+	}
+
+	/**
+	 * @return total time spent in execution visitor in ms
+	 */
+	public double getVisitorTime() {
+		return visitorTime.get() / NS_PER_MS;
+	}
+
+	/**
+	 * @return total time worker threads waited for slices in ms
+	 */
+	public double getQueueWaitTime() {
+		return queueWaitTime.get() / NS_PER_MS;
+	}
+
+	/**
+	 * @return number of waits for slices
+	 */
+	public long getQueueWaitCount() {
+		return queueWaits.get();
+	}
+
+	/**
+	 * @return total time slice reader was held back by slow workers in ms
+	 */
+	public double getReadStallTime() {
+		return readStallTime.get() / NS_PER_MS;
+	}
+
+	/**
+	 * @return metrics as JSON object
+	 */
+	public String toJSON() {
+		StringBuilder s = new StringBuilder();
+		s.append("{\n");
+		s.append("  \"executionType\": ").append(quote(String.valueOf(executionType))).append(",\n");
+		s.append("  \"wallTimeMs\": ").append(format(getWallTime())).append(",\n");
+		s.append("  \"slices\": ").append(getSliceCount()).append(",\n");
+		s.append("  \"slicesPerSecond\": ").append(format(getSlicesPerSecond())).append(",\n");
+		s.append("  \"sliceTimeMs\": ");
+		appendTiming(s, slices);
+		s.append(",\n");
+		s.append("  \"visitorTimeMs\": ").append(format(getVisitorTime())).append(",\n");
+		s.append("  \"queueWaitTimeMs\": ").append(format(getQueueWaitTime())).append(",\n");
+		s.append("  \"queueWaits\": ").append(getQueueWaitCount()).append(",\n");
+		s.append("  \"readStallTimeMs\": ").append(format(getReadStallTime())).append(",\n");
+		s.append("  \"operations\": [");
+		for (int i = 0; i < operations.length; i++) {
+			OperationMetrics o = operations[i];
+			s.append(i == 0 ? "\n" : ",\n");
+			s.append("    {\"id\": ").append(quote(o.getId()));
+			s.append(", \"name\": ").append(quote(o.getName()));
+			s.append(", \"count\": ").append(o.getCount());
+			s.append(", \"timeMs\": ");
+			appendTiming(s, o.timing);
+			s.append(", \"inputBytes\": ").append(o.getInputBytes());
+			s.append(", \"outputBytes\": ").append(o.getOutputBytes());
+			s.append(", \"allocatedBytes\": ").append(o.getAllocatedBytes());
+			s.append("}");
+		}
+		s.append(operations.length == 0 ? "]\n" : "\n  ]\n");
+		s.append("}\n");
+		return s.toString();
+	}
+
+	/**
+	 * Write metrics to file as JSON
+	 * @param path
+	 * @throws IOException
+	 */
+	public void writeJSON(String path) throws IOException {
+		try (Writer w = new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8)) {
+			w.write(toJSON());
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder s = new StringBuilder();
+		s.append(String.format(Locale.ROOT, "%d slices in %.1f ms (%.2f slices/s), visitor %.1f ms, waiting %.1f ms, read stalled %.1f ms",
+				getSliceCount(), getWallTime(), getSlicesPerSecond(), getVisitorTime(), getQueueWaitTime(), getReadStallTime()));
+		for (OperationMetrics o : operations) {
+			s.append('\n').append(o);
+		}
+		return s.toString();
+	}
+
+	private static void appendTiming(StringBuilder s, Timing t) {
+		s.append("{\"total\": ").append(format(t.getTotal()));
+		s.append(", \"mean\": ").append(format(t.getMean()));
+		s.append(", \"p50\": ").append(format(t.getPercentile(50)));
+		s.append(", \"p90\": ").append(format(t.getPercentile(90)));
+		s.append(", \"p99\": ").append(format(t.getPercentile(99)));
+		s.append(", \"max\": ").append(format(t.getMax()));
+		s.append("}");
+	}
+
+	private static String format(double v) {
+		return String.format(Locale.ROOT, "%.3f", v);
+	}
+
+	private static String quote(String v) {
+		if (v == null) {
+			return "null";
+		}
+		StringBuilder s = new StringBuilder("\"");
+		for (int i = 0; i < v.length(); i++) {
+			char c = v.charAt(i);
+			switch (c) {
+			case '"':
+				s.append("\\\"");
+				break;
+			case '\\':
+				s.append("\\\\");
+				break;
+			default:
+				if (c < 0x20) {
+					s.append(String.format("\\u%04x", (int) c));
+				} else {
+					s.append(c);
+				}
+			}
+		}
+		return s.append('"').toString();
+	}
+
+	/**
+	 * Count, total and maximum of times with a reservoir sample for percentiles
+	 */
+	private static class Timing {
+		private final long[] samples = new long[MAX_SAMPLES];
+		private final Random random = new Random(0);
+		private long count;
+		private long total;
+		private long max;
+
+		synchronized void record(long nanos) {
+			if (count < MAX_SAMPLES) {
+				samples[(int) count] = nanos;
+			} else {
+				long r = (long) (random.nextDouble() * (count + 1));
+				if (r < MAX_SAMPLES) {
+					samples[(int) r] = nanos;
+				}
+			}
+			count++;
+			total += nanos;
+			max = Math.max(max, nanos);
+		}
+
+		synchronized long getCount() {
+			return count;
+		}
+
+		synchronized double getTotal() {
+			return total / NS_PER_MS;
+		}
+
+		synchronized double getMean() {
+			return count == 0 ? 0 : total / (count * NS_PER_MS);
+		}
+
+		synchronized double getMax() {
+			return max / NS_PER_MS;
+		}
+
+		double getPercentile(double p) {
+			long[] sorted;
+			synchronized (this) {
+				sorted = Arrays.copyOf(samples, (int) Math.min(count, MAX_SAMPLES));
+			}
+			if (sorted.length == 0) {
+				return 0;
+			}
+			Arrays.sort(sorted);
+			int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+			return sorted[Math.max(0, Math.min(sorted.length - 1, i))] / NS_PER_MS;
+		}
+	}
+
+	/**
+	 * Metrics of an operation in the pipeline
+	 */
+	public static class OperationMetrics {
+		private final String id;
+		private final String name;
+		private final Timing timing = new Timing();
+		private final AtomicLong inputBytes = new AtomicLong();
+		private final AtomicLong outputBytes = new AtomicLong();
+		private final AtomicLong allocatedBytes = new AtomicLong();
+
+		private OperationMetrics(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+
+		private void record(long nanos, long in, long out, long allocated) {
+			timing.record(nanos);
+			inputBytes.addAndGet(in);
+			outputBytes.addAndGet(out);
+			allocatedBytes.addAndGet(allocated);
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return number of times operation was executed
+		 */
+		public long getCount() {
+			return timing.getCount();
+		}
+
+		/**
+		 * @return total execution time in ms
+		 */
+		public double getTotalTime() {
+			return timing.getTotal();
+		}
+
+		/**
+		 * @return mean execution time in ms
+		 */
+		public double getMeanTime() {
+			return timing.getMean();
+		}
+
+		/**
+		 * @return maximum execution time in ms
+		 */
+		public double getMaxTime() {
+			return timing.getMax();
+		}
+
+		/**
+		 * @param p percentile (0 to 100)
+		 * @return estimated percentile of execution times in ms
+		 */
+		public double getTimePercentile(double p) {
+			return timing.getPercentile(p);
+		}
+
+		/**
+		 * @return total size of inputs in bytes
+		 */
+		public long getInputBytes() {
+			return inputBytes.get();
+		}
+
+		/**
+		 * @return total size of outputs in bytes
+		 */
+		public long getOutputBytes() {
+			return outputBytes.get();
+		}
+
+		/**
+		 * @return estimate of bytes allocated, i.e. total size of outputs that are not their inputs
+		 */
+		public long getAllocatedBytes() {
+			return allocatedBytes.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT, "%s: %d in %.1f ms (p50 %.2f ms, p99 %.2f ms), in %d B, out %d B, allocated %d B",
+					name, getCount(), getTotalTime(), getTimePercentile(50), getTimePercentile(99),
+					getInputBytes(), getOutputBytes(), getAllocatedBytes());
+		}
+	}
+}
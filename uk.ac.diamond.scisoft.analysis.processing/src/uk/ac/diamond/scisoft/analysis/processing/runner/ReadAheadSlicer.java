@@ -0,0 +1,169 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.runner;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.slicer.ISliceViewIterator;
+import org.eclipse.dawnsci.analysis.dataset.slicer.SliceVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Visits slices in parallel with a bounded number in memory.
+ * <p>
+ * Slices are read on a dedicated thread into a buffer of fixed size and handed to a
+ * work-stealing pool. Reading stops while the buffer is full and a slice is only taken
+ * from it when a worker is free, so when the visitor falls behind the reader waits rather
+ * than decoding more data. At most buffer size + thread count + 1 slices are held at once.
+ */
+public class ReadAheadSlicer {
+
+	private static final Logger logger = LoggerFactory.getLogger(ReadAheadSlicer.class);
+
+	private static final long POLL_MS = 100;
+
+	private static final Object END = new Object();
+
+	private static final ForkJoinWorkerThreadFactory WORKER_FACTORY = new ForkJoinWorkerThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			t.setName("Slice worker " + count.incrementAndGet());
+			return t;
+		}
+	};
+
+	private final int threads;
+	private final int bufferSize;
+	private PipelineMetrics metrics;
+
+	/**
+	 * @param threads number of worker threads
+	 * @param bufferSize number of slices that can be read ahead of workers
+	 */
+	public ReadAheadSlicer(int threads, int bufferSize) {
+		if (threads < 1 || bufferSize < 1) {
+			throw new IllegalArgumentException("Number of threads and buffer size must be positive");
+		}
+		this.threads = threads;
+		this.bufferSize = bufferSize;
+	}
+
+	/**
+	 * @param metrics to record time reader waits for workers in (can be null)
+	 */
+	public void setMetrics(PipelineMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Visit all slices from iterator. Returns when every slice has been visited, the visitor
+	 * is cancelled or a slice fails to be read or visited.
+	 * @param iterator
+	 * @param visitor
+	 * @throws Exception first failure in reading or visiting a slice
+	 */
+	public void visit(final ISliceViewIterator iterator, final SliceVisitor visitor) throws Exception {
+		final BlockingQueue<Object> buffer = new ArrayBlockingQueue<Object>(bufferSize);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final Semaphore workers = new Semaphore(threads);
+		final ForkJoinPool pool = new ForkJoinPool(threads, WORKER_FACTORY, null, true);
+
+		// not interrupted on stopping as that can close channels of files being read
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!isStopped() && iterator.hasNext()) {
+						if (!put(iterator.next().getSlice())) return;
+					}
+				} catch (Throwable e) {
+					failure.compareAndSet(null, e);
+				}
+				put(END);
+			}
+
+			private boolean isStopped() {
+				return stopped.get() || failure.get() != null || visitor.isCancelled();
+			}
+
+			private boolean put(Object item) {
+				try {
+					if (buffer.offer(item)) return true;
+					long start = System.nanoTime();
+					while (!buffer.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+						if (isStopped()) return false;
+					}
+					if (metrics != null) metrics.recordReadStall(System.nanoTime() - start);
+					return true;
+				} catch (InterruptedException e) {
+					return false;
+				}
+			}
+		}, "Slice reader");
+		reader.setDaemon(true);
+		reader.start();
+
+		try {
+			while (true) {
+				workers.acquire();
+				Object item = buffer.take();
+				if (item == END || failure.get() != null || visitor.isCancelled()) {
+					workers.release();
+					break;
+				}
+
+				final IDataset slice = (IDataset) item;
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (failure.get() == null) visitor.visit(slice);
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							workers.release();
+						}
+					}
+				});
+			}
+		} finally {
+			stopped.set(true);
+			buffer.clear();
+			try {
+				workers.acquire(threads);
+			} finally {
+				pool.shutdown();
+			}
+			reader.join();
+		}
+
+		Throwable e = failure.get();
+		if (e != null) {
+			logger.error("Parallel slicing failed", e);
+			if (e instanceof Exception) throw (Exception) e;
+			throw (Error) e;
+		}
+	}
+}
@@ -2,11 +2,17 @@ package uk.ac.diamond.scisoft.analysis.processing.runner;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.IDynamicDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.Slice;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.metadata.AxesMetadata;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
 import org.eclipse.dawnsci.analysis.api.processing.ExecutionType;
 import org.eclipse.dawnsci.analysis.api.processing.IExecutionVisitor;
 import org.eclipse.dawnsci.analysis.api.processing.IOperation;
@@ -14,6 +20,8 @@ import org.eclipse.dawnsci.analysis.api.processing.IOperationContext;
 import org.eclipse.dawnsci.analysis.api.processing.IOperationRunner;
 import org.eclipse.dawnsci.analysis.api.processing.OperationData;
 import org.eclipse.dawnsci.analysis.api.processing.OperationException;
+import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.slicer.DynamicSliceViewIterator;
 import org.eclipse.dawnsci.analysis.dataset.slicer.ISliceViewIterator;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SliceFromSeriesMetadata;
@@ -22,6 +30,9 @@ import org.eclipse.dawnsci.analysis.dataset.slicer.SliceVisitor;
 import org.eclipse.dawnsci.analysis.dataset.slicer.Slicer;
 import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
 
+import uk.ac.diamond.scisoft.analysis.processing.OperationContextImpl;
+import uk.ac.diamond.scisoft.analysis.processing.operations.utils.IBatchOperation;
+
 /**
  * Runs a pipeline by looping the services of operations.
  * 
@@ -31,11 +42,21 @@ import org.eclipse.dawnsci.analysis.dataset.slicer.SourceInformation;
  * If you have averaging or branching, you will need to consider using a 
  * graph to execute your operations.
  * 
+ * In SERIES mode with a batch size greater than one, the operations at the start
+ * of the series which implement {@link IBatchOperation} are given stacks of slices.
+ * The results are then split into slices for the rest of the series. Only the reading
+ * of the input and those operations are done once per batch: the visitor, and the
+ * metadata and OperationData it is given, are still needed for every slice.
+ *
  * @author Matthew Gerring
  *
  */
 public class SeriesRunner implements IOperationRunner {
 
+	/**
+	 * Shortest time in ms between progress messages, so cheap slices are not dominated by them
+	 */
+	private static final long PROGRESS_INTERVAL = 200;
 
 	private IOperationContext context;
 
@@ -56,115 +77,366 @@ public class SeriesRunner implements IOperationRunner {
 			logger.error("Source not obtainable. Hope this is just a unit test...");
 		}
 		
-		final SourceInformation finalSource = ssource;
+		final PipelineMetrics metrics = context instanceof OperationContextImpl ? ((OperationContextImpl) context).getMetrics() : null;
 		
 		// Create the slice visitor
-		SliceVisitor sv = new SliceVisitor() {
+		PipelineVisitor sv = new PipelineVisitor(visitor, ssource, metrics);
+
+		visitor.init(context.getSeries(), context.getData());
+		long start = System.currentTimeMillis();
+		if (metrics != null) metrics.start();
 
-			@Override
-			public void visit(IDataset slice) throws Exception {
 
-				List<SliceFromSeriesMetadata> meta = slice.getMetadata(SliceFromSeriesMetadata.class);
-				SliceFromSeriesMetadata ssm = meta!=null && meta.size()>0 ? meta.get(0) : null;
-				SliceFromSeriesMetadata fullssm = null;
-				if (ssm!=null) {
-					fullssm = new SliceFromSeriesMetadata(finalSource, ssm.getSliceInfo());
-					slice.setMetadata(fullssm);
-				}
+		ISliceViewIterator iterator = null;
 
-				if (context.getMonitor() != null && context.getMonitor().isCancelled()) return;
+		if (context.getLiveInfo() != null) {
+			iterator = new DynamicSliceViewIterator((IDynamicDataset)context.getData(), context.getLiveInfo().getKeys(), context.getLiveInfo().getComplete());
+		} else {
+			iterator = new SliceViewIterator(context.getData(), context.getSlicing(), context.getDataDimensions());
+		}
 
-				SourceInformation si = fullssm!=null ? fullssm.getSourceInfo() : null;
-				String path = si == null ? "" : si.getFilePath();
-				if (path == null) path = "";
+		if (context.getExecutionType()==ExecutionType.SERIES) {
+			int batchSize = context instanceof OperationContextImpl ? ((OperationContextImpl) context).getBatchSize() : 1;
+			int batched = getBatchOperationCount();
+			if (batchSize > 1 && batched > 0 && context.getLiveInfo() == null && context.getData().getError() == null) {
+				visitBatches(iterator, sv, batchSize, batched);
+			} else {
+				Slicer.visit(iterator,sv);
+			}
+		} else if (context.getExecutionType()==ExecutionType.PARALLEL) {
+			int bufferSize = context instanceof OperationContextImpl ? ((OperationContextImpl) context).getSliceBufferSize() : 0;
+			if (bufferSize > 0) {
+				ReadAheadSlicer slicer = new ReadAheadSlicer(((OperationContextImpl) context).getParallelThreads(), bufferSize);
+				slicer.setMetrics(metrics);
+				slicer.visit(iterator, sv);
+			} else {
+				Slicer.visitParallel(iterator,sv);
+			}
+		} else {
+			throw new OperationException(context.getSeries()[0], "The edges are needed to execute a graph using ptolemy!");
+		}
+		if (metrics != null) metrics.stop();
+		logger.debug("Data ran in: " +(System.currentTimeMillis()-start)/1000. + " s");
+
+	}
+
+	/**
+	 * @return number of operations at start of series which can process stacks of slices
+	 */
+	private int getBatchOperationCount() {
+		int count = 0;
+		for (IOperation<?,?> op : context.getSeries()) {
+			if (!(op instanceof IBatchOperation)) break;
+			count++;
+		}
+		return count;
+	}
+
+	private void visitBatches(ISliceViewIterator iterator, PipelineVisitor sv, int batchSize, int batched) throws Exception {
+		List<ILazyDataset> views = new ArrayList<ILazyDataset>(batchSize);
+		while (iterator.hasNext()) {
+			if (sv.isCancelled()) return;
+			views.add(iterator.next());
+			if (views.size() == batchSize) {
+				sv.visitBatch(views, batched);
+				views.clear();
+			}
+		}
+		if (!views.isEmpty() && !sv.isCancelled()) sv.visitBatch(views, batched);
+	}
+
+	@Override
+	public ExecutionType[] getExecutionTypes() {
+		return new ExecutionType[]{ExecutionType.SERIES, ExecutionType.PARALLEL};
+	}
+
+	private class PipelineVisitor implements SliceVisitor {
+
+		private final IExecutionVisitor visitor;
+		private final SourceInformation source;
+		private final PipelineMetrics metrics;
+		private final boolean parallel;
+		private final ThreadLocal<Long> lastSliceEnd = new ThreadLocal<Long>();
+		private final AtomicLong lastProgress = new AtomicLong();
+
+		PipelineVisitor(IExecutionVisitor visitor, SourceInformation source, PipelineMetrics metrics) {
+			this.visitor  = visitor;
+			this.source   = source;
+			this.metrics  = metrics;
+			this.parallel = context.getExecutionType() == ExecutionType.PARALLEL;
+		}
+
+		@Override
+		public void visit(IDataset slice) throws Exception {
+
+			long sliceStart = System.nanoTime();
+			if (metrics != null && parallel) {
+				Long end = lastSliceEnd.get();
+				if (end != null) metrics.recordQueueWait(sliceStart - end);
+			}
+
+			SliceFromSeriesMetadata fullssm = createMetadata(getSeriesMetadata(slice));
+			if (fullssm != null) slice.setMetadata(fullssm);
+
+			if (isCancelled()) return;
+
+			OperationData  data = new OperationData(slice, (Serializable[])null);
+			run(data, 0, fullssm, sliceStart, 1);
+		}
+
+		/**
+		 * Run batch operations on a stack of slices then the rest of the series on each slice
+		 * @param views of slices
+		 * @param batched number of batch operations at start of series
+		 * @throws Exception
+		 */
+		void visitBatch(List<ILazyDataset> views, int batched) throws Exception {
+
+			long batchStart = System.nanoTime();
+			if (isCancelled()) return;
 				
-				String current = "";
-				if (fullssm != null) {
-					try {
-						current = Slice.createString(ssm.getSliceFromInput());
-					} catch (Exception e) {
-						//ignore
-					}
+			IOperation<?,?>[] series = context.getSeries();
+			int n = views.size();
+			IDataset result = readBatch(views);
+			IDataset[] outputs = new IDataset[batched];
+			SliceFromSeriesMetadata firstssm = createMetadata(getSeriesMetadata(views.get(0)));
+			for (int j = 0; j < batched; j++) {
+				IOperation<?,?> op = series[j];
+				updateProgress(op, firstssm);
+
+				long opStart = System.nanoTime();
+				IDataset out = ((IBatchOperation) op).executeBatch(result, context.getMonitor());
+				if (metrics != null) metrics.recordOperation(j, System.nanoTime() - opStart, result, out);
+
+				if (out == null) {
+					result = null;
+					break;
 				}
+				outputs[j] = out;
+				if (!op.isPassUnmodifiedData()) result = out;
+			}
 
-				OperationData  data = new OperationData(slice, (Serializable[])null);
-				long start = System.currentTimeMillis();
-				for (IOperation<?,?> i : context.getSeries()) {
-
-					if (context.getMonitor() != null) {
-						String update = "";
-						if (fullssm != null) {
-							try {
-								String filePath = fullssm.getFilePath();
-								File f = new File(filePath);
-								String name = f.getName();
-								String s = Slice.createString(fullssm.getSliceFromInput());
-								update = name+ " ["+ s + "] " + i.getName();
-							} catch (Exception e) {
-								logger.error("Could not update progress: " + e.getMessage());
-							}
-						}
-						context.getMonitor().subTask(update);
-						
-					}
+			// slices of a stack either all have axes or none do
+			List<AxesMetadata> axes = views.get(0).getMetadata(AxesMetadata.class);
+			boolean withAxes = axes != null && !axes.isEmpty();
+
+			// share of batch time given to each slice
+			long batchTime = (System.nanoTime() - batchStart) / n;
+			for (int i = 0; i < n; i++) {
+				if (isCancelled()) return;
+
+				long sliceStart = System.nanoTime() - batchTime;
+				ILazyDataset view = views.get(i);
+				SliceFromSeriesMetadata fullssm = i == 0 ? firstssm : createMetadata(getSeriesMetadata(view));
 
-					OperationData tmp = i.execute(data.getData(), context.getMonitor());
-					//TODO only set metadata if doesnt already contain it!
-					//TODO continue if null;
+				for (int j = 0; j < batched && outputs[j] != null; j++) {
+					long visitStart = System.nanoTime();
+					visitor.notify(series[j], new OperationData(getRow(outputs[j], i, view, fullssm, withAxes))); // Optionally send intermediate result
+					if (metrics != null) metrics.recordVisitor(System.nanoTime() - visitStart);
+				}
+				OperationData data = result == null ? null : new OperationData(getRow(result, i, view, fullssm, withAxes), (Serializable[])null);
+				run(data, batched, fullssm, sliceStart, i == n - 1 ? n : 0);
+			}
+		}
+
+		/**
+		 * Run operations from given index and pass result to visitor
+		 * @param data (can be null if an earlier operation gave no result)
+		 * @param from index of first operation to run
+		 * @param fullssm
+		 * @param sliceStart
+		 * @param work units of work to report to monitor
+		 * @throws Exception
+		 */
+		private void run(OperationData data, int from, SliceFromSeriesMetadata fullssm, long sliceStart, int work) throws Exception {
+			SliceFromSeriesMetadata sliceMeta = fullssm;
+			IOperation<?,?>[] series = context.getSeries();
+			long start = System.currentTimeMillis();
+			for (int index = from; index < series.length && data != null; index++) {
+				IOperation<?,?> i = series[index];
+				updateProgress(i, fullssm);
+
+				long opStart = System.nanoTime();
+				OperationData tmp = i.execute(data.getData(), context.getMonitor());
+				if (metrics != null) metrics.recordOperation(index, System.nanoTime() - opStart, data.getData(), tmp == null ? null : tmp.getData());
+				//TODO only set metadata if doesnt already contain it!
+				//TODO continue if null;
 					
-					if (tmp == null) {
-						data = null;
-						break;
-					}
+				if (tmp == null) {
+					data = null;
+					break;
+				}
 					
-					List<SliceFromSeriesMetadata> md = tmp.getData().getMetadata(SliceFromSeriesMetadata.class);
+				List<SliceFromSeriesMetadata> md = tmp.getData().getMetadata(SliceFromSeriesMetadata.class);
 					
-					if (md == null || md.isEmpty())  {
-						tmp.getData().setMetadata(fullssm);
-					} else {
-						fullssm = md.get(0);
-					}
+				if (md == null || md.isEmpty())  {
+					tmp.getData().setMetadata(fullssm);
+				} else {
+					fullssm = md.get(0);
+				}
 					
-					visitor.notify(i, tmp); // Optionally send intermediate result
-					data = i.isPassUnmodifiedData() ? data : tmp;
+				long visitStart = System.nanoTime();
+				visitor.notify(i, tmp); // Optionally send intermediate result
+				if (metrics != null) metrics.recordVisitor(System.nanoTime() - visitStart);
+				data = i.isPassUnmodifiedData() ? data : tmp;
+			}
+			if (logger.isDebugEnabled()) {
+				String current = "";
+				if (sliceMeta != null) {
+					try {
+						current = Slice.createString(sliceMeta.getSliceFromInput());
+					} catch (Exception e) {
+						//ignore
+					}
 				}
 				logger.debug("Slice " + current + " ran in: " +(System.currentTimeMillis()-start)/1000. + " s : Thread" +Thread.currentThread().toString());
-				if (context.getMonitor() != null) context.getMonitor().worked(1);
-				visitor.executed(data, context.getMonitor()); // Send result.
 			}
+			if (context.getMonitor() != null && work > 0) context.getMonitor().worked(work);
+			long visitStart = System.nanoTime();
+			visitor.executed(data, context.getMonitor()); // Send result.
+			if (metrics != null) {
+				long end = System.nanoTime();
+				metrics.recordVisitor(end - visitStart);
+				metrics.recordSlice(end - sliceStart);
+				lastSliceEnd.set(end);
+			}
+		}
+
+		private void updateProgress(IOperation<?,?> i, SliceFromSeriesMetadata fullssm) {
+			IMonitor monitor = context.getMonitor();
+			if (monitor == null) return;
+			long now = System.currentTimeMillis();
+			long last = lastProgress.get();
+			if (now - last < PROGRESS_INTERVAL || !lastProgress.compareAndSet(last, now)) return;
 
-			@Override
-			public boolean isCancelled() {
-				return context.getMonitor()!=null ? context.getMonitor().isCancelled() : false;
+			String update = "";
+			if (fullssm != null) {
+				try {
+					String filePath = fullssm.getFilePath();
+					File f = new File(filePath);
+					String name = f.getName();
+					String s = Slice.createString(fullssm.getSliceFromInput());
+					update = name+ " ["+ s + "] " + i.getName();
+				} catch (Exception e) {
+					logger.error("Could not update progress: " + e.getMessage());
+				}
 			}
-		};
+			monitor.subTask(update);
+		}
 
-		visitor.init(context.getSeries(), context.getData());
-		long start = System.currentTimeMillis();
-		
-		
-		ISliceViewIterator iterator = null;
-		
-		if (context.getLiveInfo() != null) {
-			iterator = new DynamicSliceViewIterator((IDynamicDataset)context.getData(), context.getLiveInfo().getKeys(), context.getLiveInfo().getComplete());
-		} else {
-			iterator = new SliceViewIterator(context.getData(), context.getSlicing(), context.getDataDimensions());
+		private SliceFromSeriesMetadata getSeriesMetadata(ILazyDataset data) throws Exception {
+			List<SliceFromSeriesMetadata> meta = data.getMetadata(SliceFromSeriesMetadata.class);
+			return meta!=null && meta.size()>0 ? meta.get(0) : null;
 		}
-		
-		if (context.getExecutionType()==ExecutionType.SERIES) {
-			Slicer.visit(iterator,sv);
-		} else if (context.getExecutionType()==ExecutionType.PARALLEL) {
-			Slicer.visitParallel(iterator,sv);
-		} else {
-			throw new OperationException(context.getSeries()[0], "The edges are needed to execute a graph using ptolemy!");
+
+		private SliceFromSeriesMetadata createMetadata(SliceFromSeriesMetadata ssm) {
+			return ssm == null ? null : new SliceFromSeriesMetadata(source, ssm.getSliceInfo());
 		}
-		logger.debug("Data ran in: " +(System.currentTimeMillis()-start)/1000. + " s");
-		
-	}
 
-	@Override
-	public ExecutionType[] getExecutionTypes() {
-		return new ExecutionType[]{ExecutionType.SERIES, ExecutionType.PARALLEL};
+		/**
+		 * Read slices as a stack. Slices next to each other in one dimension before the data dimensions
+		 * are read as a single block, others are read one by one
+		 * @param views
+		 * @return stack of slices
+		 * @throws Exception
+		 */
+		private IDataset readBatch(List<ILazyDataset> views) throws Exception {
+			int n = views.size();
+			int[] dataDims = context.getDataDimensions();
+			int[] shape = views.get(0).getShape();
+			int[] rowShape = new int[dataDims.length + 1];
+			rowShape[0] = 1;
+			for (int k = 0; k < dataDims.length; k++) rowShape[k + 1] = shape[dataDims[k]];
+
+			SliceND block = getBlock(views, dataDims);
+			if (block != null) {
+				IDataset stack = context.getData().getSlice(block);
+				rowShape[0] = n;
+				stack.setShape(rowShape);
+				return stack;
+			}
+
+			IDataset[] rows = new IDataset[n];
+			for (int i = 0; i < n; i++) {
+				rows[i] = views.get(i).getSlice();
+				rows[i].setShape(rowShape);
+			}
+			return DatasetUtils.concatenate(rows, 0);
+		}
+
+		/**
+		 * @param views
+		 * @param dataDims
+		 * @return region of input holding all slices or null if they are not next to each
+		 * other in a single dimension before the data dimensions
+		 * @throws Exception
+		 */
+		private SliceND getBlock(List<ILazyDataset> views, int[] dataDims) throws Exception {
+			SliceND[] slices = new SliceND[views.size()];
+			for (int i = 0; i < slices.length; i++) {
+				SliceFromSeriesMetadata ssm = getSeriesMetadata(views.get(i));
+				if (ssm == null) return null;
+				slices[i] = ssm.getSliceFromInput();
+			}
+
+			int[] start = slices[0].getStart().clone();
+			int[] stop  = slices[0].getStop().clone();
+			int[] step  = slices[0].getStep();
+			int dim = 0;
+			if (slices.length > 1) {
+				while (dim < start.length && slices[1].getStart()[dim] == start[dim]) dim++;
+			} else {
+				while (dim < start.length && stop[dim] - start[dim] != 1) dim++;
+			}
+			if (dim == start.length || step[dim] != 1) return null;
+			for (int d : dataDims) {
+				if (d <= dim) return null;
+			}
+
+			for (int i = 0; i < slices.length; i++) {
+				int[] s = slices[i].getStart();
+				int[] e = slices[i].getStop();
+				for (int d = 0; d < start.length; d++) {
+					if (d == dim) {
+						if (s[d] != start[d] + i || e[d] != s[d] + 1) return null;
+					} else if (s[d] != start[d] || e[d] != stop[d]) {
+						return null;
+					}
+				}
+			}
+			stop[dim] = start[dim] + slices.length;
+			return new SliceND(context.getData().getShape(), start, stop, step);
+		}
+
+		/**
+		 * @param stack
+		 * @param i
+		 * @param view of input slice
+		 * @param fullssm
+		 * @param withAxes if true, input slice has axes
+		 * @return view of slice of stack, with shape and metadata of input slice where possible
+		 * @throws Exception
+		 */
+		private IDataset getRow(IDataset stack, int i, ILazyDataset view, SliceFromSeriesMetadata fullssm, boolean withAxes) throws Exception {
+			IDataset row = stack.getSliceView(new Slice(i, i + 1));
+			int[] shape = view.getShape();
+			if (row.getSize() == AbstractDataset.calcSize(shape)) {
+				row.setShape(shape);
+				if (withAxes) {
+					List<AxesMetadata> axes = view.getMetadata(AxesMetadata.class);
+					if (axes != null && !axes.isEmpty()) row.setMetadata(axes.get(0));
+				}
+			} else {
+				row = row.squeeze();
+			}
+			if (fullssm != null) row.setMetadata(fullssm);
+			return row;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return context.getMonitor()!=null ? context.getMonitor().isCancelled() : false;
+		}
 	}
 
 }
@@ -12,6 +12,9 @@ package uk.ac.diamond.scisoft.analysis.processing.visitor;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -70,6 +73,8 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 	private final String LIVE = "live";
 	private final String FINISHED = "finished";
 
+	public static final String BATCH_SIZE_PROPERTY = "uk.ac.diamond.scisoft.analysis.processing.visitor.batchsize";
+
 	private Map<IOperation, AtomicBoolean> firstNotifyMap;
 	private Map<IOperation, Integer> positionMap;
 	private AtomicBoolean firstNonNullExecution = new AtomicBoolean(true);
@@ -84,13 +89,68 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 	
 	private boolean swmring = false;
 
+	private int queueSize = 0;
+	private QueuedFileWriter writer;
+
+	private static final long CHUNK_BYTES = 1024 * 1024;
+	private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+	private int compression = NexusFile.COMPRESSION_LZW_L1;
+	private int batchSize = Integer.getInteger(BATCH_SIZE_PROPERTY, 1);
+	private Map<String, PendingWrites> pending = new HashMap<String, PendingWrites>();
+
 	private final static Logger logger = LoggerFactory.getLogger(NexusFileExecutionVisitor.class);
 	
 	public NexusFileExecutionVisitor(String filePath, boolean swmr) {
+		this(filePath, swmr, 0);
+	}
+
+	/**
+	 * @param filePath
+	 * @param swmr
+	 * @param queueSize if positive, results are handed to a queue of this size and written
+	 * by a single writer thread so that processing threads do not wait on file writes
+	 */
+	public NexusFileExecutionVisitor(String filePath, boolean swmr, int queueSize) {
 		this.filePath = filePath;
 		firstNotifyMap = new ConcurrentHashMap<IOperation, AtomicBoolean>();
 		positionMap = new ConcurrentHashMap<IOperation, Integer>();
 		this.swmring = swmr;
+		this.queueSize = queueSize;
+		if (swmr) batchSize = 1; // live readers expect each slice as soon as it is processed
+	}
+
+	/**
+	 * Set compression used for new datasets
+	 * @param compression either {@link NexusFile#COMPRESSION_NONE} or {@link NexusFile#COMPRESSION_LZW_L1}
+	 */
+	public void setCompression(int compression) {
+		this.compression = compression;
+	}
+
+	public int getCompression() {
+		return compression;
+	}
+
+	/**
+	 * Set number of slices of each dataset to gather in memory before they are written.
+	 * Consecutive slices are then written with one call. By default each slice is written
+	 * straight away, as held slices are lost if processing stops before they are written
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return path of output file
+	 */
+	public String getFilePath() {
+		return filePath;
 	}
 	
 	public NexusFileExecutionVisitor(String filePath) {
@@ -137,7 +197,16 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 			}
 		}
 		
-
+		if (queueSize > 0) {
+			writer = new QueuedFileWriter("Nexus file writer", queueSize, new QueuedFileWriter.WriteTask() {
+				@Override
+				public void write() throws Exception {
+					synchronized (nexusFile) {
+						nexusFile.flush();
+					}
+				}
+			});
+		}
 	}
 
 	/**
@@ -174,9 +243,27 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 	}
 
 	@Override
-	public void executed(OperationData result, IMonitor monitor) throws Exception {
+	public void executed(final OperationData result, IMonitor monitor) throws Exception {
 		
 		if (result == null) return;
+
+		if (writer != null) {
+			writer.submit(new QueuedFileWriter.WriteTask() {
+				@Override
+				public void write() throws Exception {
+					writeResult(result);
+				}
+			});
+			return;
+		}
+
+		writeResult(result);
+		synchronized (nexusFile) {
+			nexusFile.flush();
+		}
+	}
+
+	private void writeResult(OperationData result) throws Exception {
 		//not threadsafe but closer
 		boolean fNNE = firstNonNullExecution.getAndSet(false);
 		
@@ -189,7 +276,7 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 		updateAxes(integrated, slices, shape, dataDims, results,fNNE);
 		integrated.setName("data");
 		synchronized (nexusFile) {
-			appendData(integrated,nexusFile.getGroup(results,false), slices,shape, nexusFile);
+			appendData(integrated,nexusFile.getGroup(results,false), results, slices,shape, nexusFile);
 		}
 		if (fNNE){
 			synchronized (nexusFile) {
@@ -201,17 +288,36 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 				}
 			}
 		}
-		synchronized (nexusFile) {
-			nexusFile.flush();
-		}
 	}
 
 	@Override
-	public void notify(IOperation<? extends IOperationModel, ? extends OperationData> intermeadiateData, OperationData data) {
+	public void notify(final IOperation<? extends IOperationModel, ? extends OperationData> intermeadiateData, final OperationData data) {
 		//make groups on first pass
 
 		if (!intermeadiateData.isStoreOutput() && (data.getAuxData() == null || data.getAuxData()[0] == null)) return;
 
+		if (writer != null) {
+			try {
+				writer.submit(new QueuedFileWriter.WriteTask() {
+					@Override
+					public void write() throws Exception {
+						writeIntermediate(intermeadiateData, data);
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.error("Interrupted while queueing intermediate data", e);
+			} catch (Exception e) {
+				logger.error("Cannot write intermediate data", e);
+			}
+			return;
+		}
+
+		writeIntermediate(intermeadiateData, data);
+	}
+
+	private void writeIntermediate(IOperation<? extends IOperationModel, ? extends OperationData> intermeadiateData, OperationData data) {
+
 		boolean first = firstNotifyMap.get(intermeadiateData).getAndSet(false);
 
 		String position = String.valueOf(positionMap.get(intermeadiateData));
@@ -233,13 +339,14 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 		if (intermeadiateData.isStoreOutput()) {
 			try {
 				GroupNode group;
+				String groupPath = intermediate + "/" + position + "-" + intermeadiateData.getName();
 				synchronized (nexusFile) {
-					group = nexusFile.getGroup(intermediate + "/" + position + "-" + intermeadiateData.getName(), true);	
+					group = nexusFile.getGroup(groupPath, true);	
 				}
 				Dataset d = DatasetUtils.convertToDataset(data.getData());
 				
 				synchronized (nexusFile) {d.setName("data");
-					appendData(d,group, slices,shape, nexusFile);
+					appendData(d,group, groupPath, slices,shape, nexusFile);
 				}
 				if (first){
 					synchronized (nexusFile) {
@@ -275,7 +382,7 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 						
 						ds.setName("data");
 						synchronized (nexusFile) {
-							appendData(ds,group, slices,shape, nexusFile);
+							appendData(ds,group, "/"+ENTRY + "/" + AUX_GROUP +  "/" + position + "-" + intermeadiateData.getName() +"/"+  dsName, slices,shape, nexusFile);
 							if (first){
 								nexusFile.addAttribute(group,new AttributeImpl("signal",ds.getName()));
 							}
@@ -448,25 +555,24 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 		try {
 			dn = file.getData(group+"/"+dataset.getName());
 		} catch (Exception e) {
-			createWriteableLazy(dataset, file.getGroup(group, true));
+			createWriteableLazy(dataset, file.getGroup(group, true), new long[] {oShape[axisDim]});
 			dn = file.getData(group+"/"+dataset.getName());
 		}
 
-		ILazyWriteableDataset wds = dn.getWriteableDataset();
-		SliceND s = new SliceND(dataset.getShape(),determineMaxShape(dataset),new Slice[]{oSlice[axisDim]});
-		wds.setSlice(null, dataset, s);
+		write(group+"/"+dataset.getName(), dn, dataset, new Slice[]{oSlice[axisDim]});
 	}
 
 	/**
 	 * Write the data into the correct position, in the correct dataset
 	 * @param dataset
 	 * @param group
+	 * @param groupPath path of group
 	 * @param oSlice
 	 * @param oShape
 	 * @param file
 	 * @throws Exception
 	 */
-	private void appendData(Dataset dataset, GroupNode group, Slice[] oSlice, int[] oShape, NexusFile file) throws Exception {
+	private void appendData(Dataset dataset, GroupNode group, String groupPath, Slice[] oSlice, int[] oShape, NexusFile file) throws Exception {
 		
 		if (AbstractDataset.squeezeShape(dataset.getShape(), false).length == 0) {
 			//padding slice and shape does not play nice with single values of rank != 0
@@ -493,13 +599,11 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 		if (group.containsDataNode(dataset.getName())){
 			dn = file.getData(group,dataset.getName());
 		} else {
-			createWriteableLazy(dataset, group);
+			createWriteableLazy(dataset, group, newShape);
 			dn = file.getData(group,dataset.getName());
 		}
 
-		ILazyWriteableDataset wds = dn.getWriteableDataset();
-		SliceND s = new SliceND(dataset.getShape(),determineMaxShape(dataset),sliceOut);
-		wds.setSlice(null, dataset, s);
+		write(groupPath + "/" + dataset.getName(), dn, dataset, sliceOut);
 
 
 		ILazyDataset error = dataset.getError();
@@ -511,14 +615,12 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 			if (group.containsDataNode(e.getName())){
 				dn = file.getData(group,e.getName());
 			} else {
-				createWriteableLazy(e, group);
+				createWriteableLazy(e, group, newShape);
 				nexusFile.addAttribute(group, new AttributeImpl(dataset.getName() + NexusTreeUtils.NX_UNCERTAINTY_SUFFIX, e.getName()));
 				dn = file.getData(group,e.getName());
 			}
 
-			ILazyWriteableDataset wdse = dn.getWriteableDataset();
-			s = new SliceND(e.getShape(),determineMaxShape(e),sliceOut);
-			wdse.setSlice(null, e, s);
+			write(groupPath + "/" + e.getName(), dn, e, sliceOut);
 		}
 
 		return;
@@ -527,15 +629,33 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 	@Override
 	public void close() throws Exception {
 		
+		if (writer != null) {
+			try {
+				writer.close();
+			} finally {
+				writer = null;
+				closeFile();
+			}
+			return;
+		}
+
+		closeFile();
+	}
+
+	private void closeFile() throws Exception {
 		if (nexusFile != null) {
 			
-			if (swmring) {
-				DataNode dn = nexusFile.getData(Node.SEPARATOR + ENTRY + Node.SEPARATOR + LIVE + Node.SEPARATOR + FINISHED);
-				dn.getWriteableDataset().setSlice(null, DatasetFactory.ones(new int[]{1}, Dataset.INT32), new SliceND(dn.getWriteableDataset().getShape()));
+			try {
+				writePending();
+			} finally {
+				if (swmring) {
+					DataNode dn = nexusFile.getData(Node.SEPARATOR + ENTRY + Node.SEPARATOR + LIVE + Node.SEPARATOR + FINISHED);
+					dn.getWriteableDataset().setSlice(null, DatasetFactory.ones(new int[]{1}, Dataset.INT32), new SliceND(dn.getWriteableDataset().getShape()));
+				}
+
+				nexusFile.flush();
+				nexusFile.close();
 			}
-			
-			nexusFile.flush();
-			nexusFile.close();
 		}
 
 	}
@@ -663,15 +783,90 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 	}
 	
 	private void createWriteableLazy(IDataset dataset, GroupNode group) throws Exception {
+		createWriteableLazy(dataset, group, null);
+	}
+
+	/**
+	 * @param dataset
+	 * @param group
+	 * @param finalShape expected shape of complete dataset, can be null
+	 * @throws Exception
+	 */
+	private void createWriteableLazy(IDataset dataset, GroupNode group, long[] finalShape) throws Exception {
 
 		Dataset d = DatasetUtils.convertToDataset(dataset);
 		int[] mx = determineMaxShape(d);
 
-		ILazyWriteableDataset lwds = new LazyWriteableDataset(d.getName(), d.getDtype(), d.getShape(), mx, d.getShape(), null);
+		ILazyWriteableDataset lwds = new LazyWriteableDataset(d.getName(), d.getDtype(), d.getShape(), mx, determineChunking(d, mx, finalShape), null);
 		
-		nexusFile.createData(group, lwds, NexusFile.COMPRESSION_LZW_L1);
+		nexusFile.createData(group, lwds, compression);
 
 	}
+
+	/**
+	 * Chunk each written slice together with its neighbours along the unlimited (sliced)
+	 * dimensions, fastest first, until the chunk is about {@value #CHUNK_BYTES} bytes or
+	 * spans the expected extent of those dimensions
+	 * @param d slice of data
+	 * @param maxShape
+	 * @param finalShape can be null
+	 * @return chunk shape
+	 */
+	private int[] determineChunking(Dataset d, int[] maxShape, long[] finalShape) {
+		int[] chunk = d.getShape().clone();
+		long bytes = Math.max(1, d.getNbytes());
+		for (int i = chunk.length - 1; i >= 0 && bytes < CHUNK_BYTES; i--) {
+			if (maxShape[i] != -1) continue;
+			long n = CHUNK_BYTES / bytes;
+			if (finalShape != null && finalShape.length == chunk.length && finalShape[i] > 0) {
+				n = Math.min(n, finalShape[i]);
+			}
+			if (n > 1) {
+				chunk[i] = (int) n;
+				bytes *= n;
+			}
+		}
+		return chunk;
+	}
+
+	/**
+	 * Write slice now or hold it until enough slices of the same dataset have been
+	 * gathered to be written together
+	 * @param path of dataset
+	 * @param dn
+	 * @param data
+	 * @param slice position in dataset
+	 * @throws Exception
+	 */
+	private void write(String path, DataNode dn, Dataset data, Slice[] slice) throws Exception {
+		if (batchSize <= 1) {
+			dn.getWriteableDataset().setSlice(null, data, new SliceND(data.getShape(), determineMaxShape(data), slice));
+			return;
+		}
+
+		PendingWrites p = pending.get(path);
+		if (p == null) {
+			p = new PendingWrites(dn.getWriteableDataset(), determineMaxShape(data));
+			pending.put(path, p);
+		}
+		p.add(data, slice);
+		if (p.size() >= batchSize || p.getNbytes() >= MAX_PENDING_BYTES) {
+			p.write();
+		}
+	}
+
+	/**
+	 * Write all slices which are being held
+	 * @throws Exception
+	 */
+	private void writePending() throws Exception {
+		synchronized (nexusFile) {
+			for (PendingWrites p : pending.values()) {
+				p.write();
+			}
+			pending.clear();
+		}
+	}
 	
 	private int[] determineMaxShape(Dataset d) {
 		int[] maxShape = d.getShape().clone();
@@ -679,4 +874,124 @@ public class NexusFileExecutionVisitor implements IExecutionVisitor {
 		return maxShape;
 	}
 
+	/**
+	 * Slices of one dataset waiting to be written
+	 */
+	private static class PendingWrites {
+		private final ILazyWriteableDataset wds;
+		private final int[] maxShape;
+		private final List<Dataset> data = new ArrayList<Dataset>();
+		private final List<Slice[]> slices = new ArrayList<Slice[]>();
+		private long nbytes = 0;
+
+		PendingWrites(ILazyWriteableDataset wds, int[] maxShape) {
+			this.wds = wds;
+			this.maxShape = maxShape;
+		}
+
+		void add(Dataset d, Slice[] s) {
+			data.add(d.clone()); // operations can change their output in place once it has been passed on
+			slices.add(s);
+			nbytes += d.getNbytes();
+		}
+
+		int size() {
+			return data.size();
+		}
+
+		long getNbytes() {
+			return nbytes;
+		}
+
+		/**
+		 * Write slices, joining any which are consecutive along the one dimension in which they differ
+		 * @throws Exception
+		 */
+		void write() throws Exception {
+			try {
+				final int dim = findMergeDimension();
+				if (dim < 0) {
+					for (int i = 0; i < data.size(); i++) {
+						write(data.get(i), slices.get(i));
+					}
+					return;
+				}
+
+				List<Integer> order = new ArrayList<Integer>();
+				for (int i = 0; i < data.size(); i++) {
+					order.add(i);
+				}
+				Collections.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer a, Integer b) {
+						return Integer.compare(slices.get(a)[dim].getStart(), slices.get(b)[dim].getStart());
+					}
+				});
+
+				int n = order.size();
+				for (int i = 0; i < n;) {
+					int start = slices.get(order.get(i))[dim].getStart();
+					int j = i + 1;
+					while (j < n && slices.get(order.get(j))[dim].getStart() == start + j - i) {
+						j++;
+					}
+					if (j - i == 1) {
+						write(data.get(order.get(i)), slices.get(order.get(i)));
+					} else {
+						IDataset[] run = new IDataset[j - i];
+						for (int k = i; k < j; k++) {
+							run[k - i] = data.get(order.get(k));
+						}
+						Slice[] s = slices.get(order.get(i)).clone();
+						s[dim] = new Slice(start, start + j - i, 1);
+						write(DatasetUtils.concatenate(run, dim), s);
+					}
+					i = j;
+				}
+			} finally {
+				data.clear();
+				slices.clear();
+				nbytes = 0;
+			}
+		}
+
+		private void write(Dataset d, Slice[] s) throws Exception {
+			wds.setSlice(null, d, new SliceND(d.getShape(), maxShape, s));
+		}
+
+		/**
+		 * @return dimension in which all slices are single and differ, or -1 if they
+		 * differ in more than one dimension or none
+		 */
+		private int findMergeDimension() {
+			if (data.size() < 2) return -1;
+
+			Slice[] first = slices.get(0);
+			int dim = -1;
+			for (int i = 0; i < first.length; i++) {
+				for (Slice[] s : slices) {
+					if (!isEqual(first[i], s[i])) {
+						if (dim >= 0) return -1;
+						dim = i;
+						break;
+					}
+				}
+			}
+			if (dim < 0) return -1;
+
+			for (int k = 0; k < data.size(); k++) {
+				Slice s = slices.get(k)[dim];
+				int[] shape = data.get(k).getShapeRef();
+				if (shape.length != first.length || shape[dim] != 1) return -1;
+				if (s.getStart() == null || s.getStop() == null || s.getStep() != 1 || s.getStop() - s.getStart() != 1) return -1;
+			}
+			return dim;
+		}
+
+		private static boolean isEqual(Slice a, Slice b) {
+			if (a.getStep() != b.getStep()) return false;
+			if (a.getStart() == null ? b.getStart() != null : !a.getStart().equals(b.getStart())) return false;
+			return a.getStop() == null ? b.getStop() == null : a.getStop().equals(b.getStop());
+		}
+	}
 }
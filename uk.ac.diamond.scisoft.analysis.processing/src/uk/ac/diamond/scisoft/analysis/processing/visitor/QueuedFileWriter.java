@@ -0,0 +1,143 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.processing.visitor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs file writing tasks, in the order they were submitted, on a single dedicated thread.
+ * <p>
+ * Submitting threads only block when the bounded queue is full. After each batch of
+ * queued tasks has been run the batch action (e.g. a flush) is called once.
+ */
+class QueuedFileWriter {
+
+	private final static Logger logger = LoggerFactory.getLogger(QueuedFileWriter.class);
+
+	interface WriteTask {
+		void write() throws Exception;
+	}
+
+	private static final long OFFER_WAIT = 100; // in ms
+
+	private static final WriteTask STOP = new WriteTask() {
+		@Override
+		public void write() {
+		}
+	};
+
+	private final BlockingQueue<WriteTask> queue;
+	private final WriteTask batchAction;
+	private final Thread thread;
+	private volatile Exception failure;
+
+	/**
+	 * @param name of writer thread
+	 * @param capacity maximum number of tasks waiting to be run
+	 * @param batchAction run after each batch of tasks, can be null
+	 */
+	QueuedFileWriter(String name, int capacity, WriteTask batchAction) {
+		queue = new ArrayBlockingQueue<WriteTask>(capacity);
+		this.batchAction = batchAction;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		}, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queue task, waiting if the queue is full
+	 * @param task
+	 * @throws Exception if an earlier task failed
+	 */
+	void submit(WriteTask task) throws Exception {
+		checkFailure();
+		enqueue(task);
+	}
+
+	/**
+	 * Wait for all queued tasks to be run then stop the writer thread
+	 * @throws Exception if any task failed
+	 */
+	void close() throws Exception {
+		enqueue(STOP);
+		thread.join();
+		checkFailure();
+	}
+
+	/**
+	 * Wait for space in queue while the writer thread is still running
+	 * @param task
+	 * @throws Exception if the writer thread has stopped
+	 */
+	private void enqueue(WriteTask task) throws Exception {
+		while (!queue.offer(task, OFFER_WAIT, TimeUnit.MILLISECONDS)) {
+			if (!thread.isAlive()) {
+				checkFailure();
+				throw new IllegalStateException("File writer has stopped");
+			}
+		}
+	}
+
+	private void checkFailure() throws Exception {
+		Exception e = failure;
+		if (e != null) {
+			throw e;
+		}
+	}
+
+	private void drain() {
+		List<WriteTask> batch = new ArrayList<WriteTask>();
+		boolean stopping = false;
+		while (!stopping) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				logger.error("File writer interrupted", e);
+				failure = e;
+				return;
+			}
+			queue.drainTo(batch);
+			for (WriteTask t : batch) {
+				if (t == STOP) {
+					stopping = true;
+					continue;
+				}
+				run(t);
+			}
+			batch.clear();
+			if (batchAction != null) {
+				run(batchAction);
+			}
+		}
+	}
+
+	private void run(WriteTask t) {
+		try {
+			t.write();
+		} catch (Exception e) {
+			logger.error("Could not write to file", e);
+			if (failure == null) {
+				failure = e;
+			}
+		}
+	}
+}
@@ -11,8 +11,14 @@ package uk.ac.diamond.scisoft.analysis.dataset.function;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
+
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.PositionIterator;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
+import org.eclipse.dawnsci.analysis.dataset.impl.Stats;
 import org.junit.Test;
 
 public class MedianTest {
@@ -31,5 +37,52 @@ public class MedianTest {
 		assertEquals(filterResults.getDouble(5),6, 1e-8);
 	}
 
-	
+	@Test
+	public void testLine() {
+		Random.seed(12371);
+		Dataset d = Random.rand(237);
+		for (int w : new int[] {1, 2, 7, 30, 500}) {
+			checkWindows(d, w);
+		}
+		checkWindows(Random.randint(0, 10, new int[] {101}), 9);
+	}
+
+	@Test
+	public void testImage() {
+		Random.seed(12371);
+		checkWindows(Random.rand(23, 31), 5);
+		checkWindows(Random.randint(-30, 300, new int[] {23, 31}), 5);
+		checkWindows(Random.randint(0, 10, new int[] {23, 31}), 8);
+		checkWindows(Random.randint(0, 2 * Median.MAX_HISTOGRAM_RANGE, new int[] {12, 14}), 3);
+	}
+
+	@Test
+	public void testNaNs() {
+		Random.seed(12371);
+		Dataset d = Random.rand(12, 14);
+		d.set(Double.NaN, 3, 4);
+		checkWindows(d, 3);
+	}
+
+	private static void checkWindows(Dataset d, int width) {
+		Dataset f = new Median(width).value(d).get(0);
+		assertEquals(d.getDtype(), f.getDtype());
+
+		int w = width / 2;
+		int rank = d.getRank();
+		int[] shape = d.getShapeRef();
+		int[] start = new int[rank];
+		int[] stop = new int[rank];
+		PositionIterator it = d.getPositionIterator();
+		int[] pos = it.getPos();
+		while (it.hasNext()) {
+			for (int i = 0; i < rank; i++) {
+				start[i] = Math.max(pos[i] - w, 0);
+				stop[i] = Math.min(pos[i] + w + 1, shape[i]);
+			}
+			Dataset e = DatasetFactory.zeros(new int[] {1}, f.getDtype());
+			e.set(Stats.median(d.getSlice(start, stop, null)), 0);
+			assertEquals("At " + Arrays.toString(pos), e.getDouble(0), f.getDouble(pos), 1e-12);
+		}
+	}
 }
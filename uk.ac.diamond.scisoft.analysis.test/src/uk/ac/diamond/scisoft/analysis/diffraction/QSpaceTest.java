@@ -97,4 +97,27 @@ public class QSpaceTest {
 			Assert.assertEquals(ttheta, qspace.scatteringAngle(qa), pixdelta);
 		}
 	}
+
+	@Test
+	public void testPixelQSpace() {
+		int[] shape = new int[] {20, 30};
+		PixelQSpace pixels = new PixelQSpace(qspace, shape);
+		Assert.assertFalse(pixels.isCalculated());
+		Assert.assertTrue(pixels.matches(new QSpace(detprops.clone(), new DiffractionCrystalEnvironment(wavelength)), shape));
+		Assert.assertFalse(pixels.matches(qspace, new int[] {20, 31}));
+		Assert.assertFalse(pixels.matches(new QSpace(detprops, new DiffractionCrystalEnvironment(wavelength + 0.1)), shape));
+
+		pixels.calculate(qspace);
+		Assert.assertTrue(pixels.isCalculated());
+		Vector3d qa = new Vector3d();
+		Vector3d qb = new Vector3d();
+		for (int y = 0; y < shape[0]; y += 3) {
+			for (int x = 0; x < shape[1]; x += 7) {
+				qspace.qFromPixelPosition(x + 0.5, y + 0.5, qa);
+				pixels.qFromPixelPosition(x, y, qb);
+				Assert.assertTrue(qa.epsilonEquals(qb, 1e-12));
+				Assert.assertEquals(qspace.calculateSolidAngle(x, y), pixels.calculateSolidAngle(x, y), 1e-15);
+			}
+		}
+	}
 }
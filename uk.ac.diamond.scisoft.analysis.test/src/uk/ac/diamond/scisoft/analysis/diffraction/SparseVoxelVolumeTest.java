@@ -0,0 +1,145 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyWriteableDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
+import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class SparseVoxelVolumeTest {
+
+	@Test
+	public void testAdd() {
+		SparseVoxelVolume volume = new SparseVoxelVolume(new int[] {40, 50, 60});
+		Assert.assertEquals(0, volume.getNumberOfBricks());
+
+		volume.add(new int[] {1, 2, 3}, 2.5, 0.5);
+		volume.add(new int[] {1, 2, 3}, 1.5, 0.25);
+		volume.add(new int[] {1, 2, 4}, 1, 1);
+		Assert.assertEquals(1, volume.getNumberOfBricks());
+		Assert.assertEquals(4, volume.getValue(new int[] {1, 2, 3}), 1e-15);
+		Assert.assertEquals(0.75, volume.getWeight(new int[] {1, 2, 3}), 1e-15);
+		Assert.assertEquals(1, volume.getValue(new int[] {1, 2, 4}), 1e-15);
+		Assert.assertEquals(0, volume.getValue(new int[] {2, 1, 3}), 1e-15);
+
+		volume.add(new int[] {39, 49, 59}, 3, 1);
+		Assert.assertEquals(2, volume.getNumberOfBricks());
+		Assert.assertEquals(3, volume.getValue(new int[] {39, 49, 59}), 1e-15);
+		Assert.assertEquals(0, volume.getValue(new int[] {20, 20, 20}), 1e-15);
+
+		// outside volume
+		volume.add(new int[] {40, 0, 0}, 3, 1);
+		volume.add(new int[] {-1, 0, 0}, 3, 1);
+		Assert.assertEquals(2, volume.getNumberOfBricks());
+	}
+
+	@Test
+	public void testMerge() {
+		SparseVoxelVolume volume = new SparseVoxelVolume(new int[] {40, 50, 60});
+		SparseVoxelVolume other = volume.createEmpty();
+
+		volume.add(new int[] {1, 2, 3}, 2, 1);
+		other.add(new int[] {1, 2, 3}, 3, 1);
+		other.add(new int[] {30, 2, 3}, 5, 1);
+		volume.add(other);
+
+		Assert.assertEquals(2, volume.getNumberOfBricks());
+		Assert.assertEquals(0, other.getNumberOfBricks());
+		Assert.assertEquals(5, volume.getValue(new int[] {1, 2, 3}), 1e-15);
+		Assert.assertEquals(2, volume.getWeight(new int[] {1, 2, 3}), 1e-15);
+		Assert.assertEquals(5, volume.getValue(new int[] {30, 2, 3}), 1e-15);
+	}
+
+	@Test
+	public void testNonZeroBounds() {
+		SparseVoxelVolume volume = new SparseVoxelVolume(new int[] {40, 50, 60});
+		Assert.assertNull(volume.getNonZeroBounds());
+
+		volume.add(new int[] {5, 20, 33}, 1, 1);
+		volume.add(new int[] {17, 3, 34}, 1, 1);
+		volume.add(new int[] {18, 4, 35}, 1, 0);
+
+		int[][] bounds = volume.getNonZeroBounds();
+		Assert.assertArrayEquals(new int[] {5, 3, 33}, bounds[0]);
+		Assert.assertArrayEquals(new int[] {18, 21, 35}, bounds[1]);
+	}
+
+	@Test
+	public void testMergeWithBudget() {
+		SparseVoxelVolume volume = new SparseVoxelVolume(new int[] {64, 64, 64});
+		volume.setPartialBudget(3);
+		SparseVoxelVolume a = volume.createEmpty();
+		SparseVoxelVolume b = volume.createEmpty();
+
+		a.add(new int[] {1, 1, 1}, 1, 1);
+		a.add(new int[] {17, 1, 1}, 1, 1);
+		b.add(new int[] {1, 1, 1}, 2, 1);
+		Assert.assertEquals(2, a.getNumberOfBricks());
+		Assert.assertEquals(1, b.getNumberOfBricks());
+
+		// over budget so bricks are moved out of partial volume
+		b.add(new int[] {33, 1, 1}, 4, 1);
+		Assert.assertEquals(1, b.getNumberOfBricks());
+		Assert.assertEquals(0, b.getValue(new int[] {1, 1, 1}), 1e-15);
+		a.add(new int[] {49, 1, 1}, 8, 1);
+		Assert.assertEquals(1, a.getNumberOfBricks());
+
+		volume.add(new int[] {1, 1, 1}, 16, 1);
+		volume.add(a);
+		volume.add(b);
+		Assert.assertEquals(4, volume.getNumberOfBricks());
+		Assert.assertEquals(19, volume.getValue(new int[] {1, 1, 1}), 1e-15);
+		Assert.assertEquals(3, volume.getWeight(new int[] {1, 1, 1}), 1e-15);
+		Assert.assertEquals(1, volume.getValue(new int[] {17, 1, 1}), 1e-15);
+		Assert.assertEquals(4, volume.getValue(new int[] {33, 1, 1}), 1e-15);
+		Assert.assertEquals(8, volume.getValue(new int[] {49, 1, 1}), 1e-15);
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		SparseVoxelVolume volume = new SparseVoxelVolume(new int[] {40, 50, 60});
+		volume.add(new int[] {1, 2, 3}, 3, 2);
+		volume.add(new int[] {20, 30, 40}, 5, 1);
+		volume.add(new int[] {21, 30, 40}, 5, 0);
+		volume.add(new int[] {39, 49, 59}, 7, 1); // outside box
+
+		int[] start = new int[] {1, 2, 3};
+		int[] stop = new int[] {22, 31, 41};
+		final DoubleDataset output = new DoubleDataset(21, 29, 38);
+		output.fill(-1);
+		ILazyWriteableDataset lazy = mock(ILazyWriteableDataset.class);
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) {
+				Object[] args = invocation.getArguments();
+				output.setSlice(args[1], new SliceND(output.getShapeRef(), (int[]) args[2], (int[]) args[3], null));
+				return null;
+			}
+		}).when(lazy).setSlice(any(IMonitor.class), any(IDataset.class), any(int[].class), any(int[].class), any(int[].class));
+
+		volume.write(lazy, start, stop);
+		Assert.assertEquals(0, volume.getNumberOfBricks());
+		Assert.assertEquals(1.5, output.getDouble(0, 0, 0), 1e-15);
+		Assert.assertEquals(5, output.getDouble(19, 28, 37), 1e-15);
+		Assert.assertEquals(0, output.getDouble(20, 28, 37), 1e-15);
+		Assert.assertEquals(0, output.getDouble(1, 1, 1), 1e-15); // in a written brick
+		Assert.assertEquals(-1, output.getDouble(20, 0, 0), 1e-15); // not in any brick
+	}
+}
@@ -0,0 +1,79 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.roi.XAxis;
+
+public class PixelIntegrationCacheManagerTest extends AbstractPixelIntegrationTestBase {
+
+	@After
+	public void tearDown() {
+		PixelIntegrationCacheManager.clear();
+		PixelIntegrationCacheManager.setMaximumBytes(512L*1024*1024);
+	}
+
+	@Test
+	public void testSharedGeometry() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setxAxis(XAxis.Q);
+
+		PixelIntegrationCache first = PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean);
+		PixelIntegrationCache second = PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(-1, bean.getNumberOfBinsRadial());
+
+		bean.setNumberOfBinsRadial(1000);
+		PixelIntegrationCache third = PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean);
+		Assert.assertNotSame(first, third);
+		Assert.assertEquals(1000, third.getNumberOfBinsXAxis());
+
+		IDiffractionMetadata moved = getDiffractionMetadata();
+		moved.getDetector2DProperties().setBeamCentreCoords(new double[] {1000, 1000});
+		Assert.assertNotSame(third, PixelIntegrationCacheManager.getCache(moved, bean));
+		Assert.assertEquals(3, PixelIntegrationCacheManager.getNumberOfCaches());
+	}
+
+	@Test
+	public void testEviction() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setxAxis(XAxis.Q);
+
+		PixelIntegrationCache first = PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean);
+		long bytes = PixelIntegrationCacheManager.getBytesHeld();
+		Assert.assertTrue(bytes > 0);
+
+		PixelIntegrationCacheManager.setMaximumBytes(bytes);
+		bean.setNumberOfBinsRadial(1000);
+		PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean);
+		Assert.assertEquals(1, PixelIntegrationCacheManager.getNumberOfCaches());
+
+		bean.setNumberOfBinsRadial(-1);
+		Assert.assertNotSame(first, PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean));
+	}
+
+	@Test
+	public void testLookupTableCounted() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setxAxis(XAxis.Q);
+		bean.setUseLookupTable(true);
+
+		PixelIntegrationCache cache = PixelIntegrationCacheManager.getCache(getDiffractionMetadata(), bean);
+		long bytes = PixelIntegrationCacheManager.getBytesHeld();
+
+		PixelIntegrationLookupTable table = cache.getLookupTable(null);
+		Assert.assertNotNull(table);
+		Assert.assertEquals(bytes + table.getNbytes(), PixelIntegrationCacheManager.getBytesHeld());
+	}
+}
@@ -0,0 +1,124 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.util.List;
+
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.roi.XAxis;
+
+public class PixelIntegrationLookupTableTest extends AbstractPixelIntegrationTestBase {
+
+	@Test
+	public void testNonSplitting1D() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setUsePixelSplitting(false);
+		bean.setxAxis(XAxis.Q);
+		compare(bean, false);
+		bean.setAzimuthalRange(new double[]{-180,-170});
+		compare(bean, true);
+	}
+
+	@Test
+	public void testSplitting1D() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setUsePixelSplitting(true);
+		bean.setxAxis(XAxis.Q);
+		compare(bean, false);
+		bean.setAzimuthalRange(new double[]{-180,-170});
+		compare(bean, true);
+	}
+
+	@Test
+	public void testNonSplitting2D() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setTo1D(false);
+		bean.setNumberOfBinsAzimuthal(180);
+		bean.setUsePixelSplitting(false);
+		bean.setxAxis(XAxis.Q);
+		compare(bean, false);
+		compare(bean, true);
+	}
+
+	@Test
+	public void testSplitting2D() {
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setTo1D(false);
+		bean.setNumberOfBinsAzimuthal(180);
+		bean.setUsePixelSplitting(true);
+		bean.setxAxis(XAxis.Q);
+		compare(bean, false);
+		compare(bean, true);
+	}
+
+	@Test
+	public void testMaskChange() {
+		Dataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+
+		PixelIntegrationBean bean = new PixelIntegrationBean();
+		bean.setUseLookupTable(true);
+		PixelIntegrationCache cache = new PixelIntegrationCache(getDiffractionMetadata(), bean);
+
+		Dataset mask = getMask(data.getShape());
+		PixelIntegrationLookupTable table = cache.getLookupTable(mask);
+		Assert.assertSame(table, cache.getLookupTable(mask.clone()));
+
+		PixelIntegrationLookupTable unmasked = cache.getLookupTable(null);
+		Assert.assertNotSame(table, unmasked);
+		Assert.assertTrue(unmasked.getNumberOfEntries() > table.getNumberOfEntries());
+
+		// tables for both masks are kept
+		Assert.assertSame(table, cache.getLookupTable(mask));
+		Assert.assertSame(unmasked, cache.getLookupTable(null));
+
+		// mask changed in place
+		mask.set(!mask.getBoolean(0, 0), 0, 0);
+		PixelIntegrationLookupTable changed = cache.getLookupTable(mask);
+		Assert.assertNotSame(table, changed);
+		Assert.assertSame(changed, cache.getLookupTable(mask));
+	}
+
+	private void compare(PixelIntegrationBean bean, boolean useMask) {
+		Dataset data = getData();
+		if (data == null) {
+			Assert.fail("Could not load test data");
+			return;
+		}
+
+		IDiffractionMetadata meta = getDiffractionMetadata();
+		Dataset mask = useMask ? getMask(data.getShape()) : null;
+
+		PixelIntegrationBean direct = bean.clone();
+		direct.setUseLookupTable(false);
+		List<Dataset> expected = PixelIntegration.integrate(data, mask, new PixelIntegrationCache(meta, direct));
+
+		PixelIntegrationBean lookup = bean.clone();
+		lookup.setUseLookupTable(true);
+		PixelIntegrationCache cache = new PixelIntegrationCache(meta, lookup);
+		//second pass reuses the table
+		for (int i = 0; i < 2; i++) {
+			List<Dataset> actual = PixelIntegration.integrate(data, mask, cache);
+			Assert.assertEquals(expected.size(), actual.size());
+			Assert.assertArrayEquals(expected.get(1).getShape(), actual.get(1).getShape());
+			double max = Maths.abs(expected.get(1)).max().doubleValue();
+			double delta = Maths.abs(Maths.subtract(expected.get(1), actual.get(1))).max().doubleValue();
+			Assert.assertEquals(0, delta/max, 1e-5);
+		}
+	}
+}
@@ -10,10 +10,12 @@
 package uk.ac.diamond.scisoft.analysis.fitting;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IPeak;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
@@ -24,14 +26,17 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Random;
 import org.junit.Before;
 import org.junit.Test;
 
+import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter.IOptimizerFactory;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.CompositeFunction;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.FunctionFactory;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.Gaussian;
+import uk.ac.diamond.scisoft.analysis.fitting.functions.IdentifiedPeak;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.Lorentzian;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.PearsonVII;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.PseudoVoigt;
 import uk.ac.diamond.scisoft.analysis.optimize.GeneticAlg;
 import uk.ac.diamond.scisoft.analysis.optimize.IOptimizer;
+import uk.ac.diamond.scisoft.analysis.utils.ThreadUtils;
 
 public abstract class Generic1DFitterTestBase {
 	static final int dataRange = 550;
@@ -206,5 +211,43 @@ public abstract class Generic1DFitterTestBase {
 		}
 	}
 
+	@Test
+	public void testParallelFitting() throws Exception {
+		int[] peakPos = defaultPeakPos.clone();
+		DoubleDataset data = generateGaussianPeaks(peakPos.length);
+		Class<? extends IPeak> peakClass = FunctionFactory.getPeakFunctionClass("Gaussian");
+
+		List<CompositeFunction> serial = Generic1DFitter.fitPeakFunctions((List<IdentifiedPeak>) null, xAxis, data, peakClass,
+				createOptimizer(), smoothing, numPeaks, threshold, autoStopping, backgroundDominated, null, false);
+		final AtomicInteger created = new AtomicInteger();
+		List<CompositeFunction> parallel = Generic1DFitter.fitPeakFunctions((List<IdentifiedPeak>) null, xAxis, data, peakClass,
+				new IOptimizerFactory() {
+					@Override
+					public IOptimizer createOptimizer() {
+						created.incrementAndGet();
+						return Generic1DFitterTestBase.this.createOptimizer();
+					}
+				}, smoothing, numPeaks, threshold, autoStopping, backgroundDominated, null, false);
+
+		assertTrue("An optimizer should be created for each thread, not each peak", created.get() <= ThreadUtils.getDefaultThreads());
+
+		assertEquals("The number of peaks found in parallel was not the same as found serially", serial.size(), parallel.size());
+		double[] serialPos = new double[serial.size()];
+		double[] parallelPos = new double[parallel.size()];
+		for (int i = 0; i < serialPos.length; i++) {
+			serialPos[i] = serial.get(i).getPeak(0).getPosition();
+			parallelPos[i] = parallel.get(i).getPeak(0).getPosition();
+		}
+		Arrays.sort(serialPos);
+		Arrays.sort(parallelPos);
+		Arrays.sort(peakPos);
+
+		assertEquals("The number of peaks found was not the same as generated", peakPos.length, parallelPos.length);
+		for (int k = 0; k < parallelPos.length; k++) {
+			assertEquals(peakPos[k], parallelPos[k], delta);
+			assertEquals(serialPos[k], parallelPos[k], delta);
+		}
+	}
+
 	abstract public IOptimizer createOptimizer();
 }
@@ -0,0 +1,119 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.fitting.functions;
+
+import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Check analytic partial derivatives against numerical approximations
+ */
+public class PartialDerivativeTest {
+
+	private static final double REL_TOL = 1e-5;
+
+	private static void checkDerivatives(AFunction f, DoubleDataset x) {
+		CoordinatesIterator it = f.getIterator(x);
+		int n = f.getNoOfParameters();
+		IParameter[] params = f.getParameters();
+		DoubleDataset values = new DoubleDataset(it.getShape());
+		DoubleDataset[] derivatives = new DoubleDataset[n];
+		for (int i = 0; i < n; i++) {
+			derivatives[i] = new DoubleDataset(it.getShape());
+		}
+		f.fillWithValuesAndPartialDerivatives(params, values, derivatives, it);
+		checkClose(f.getName() + " values", f.calculateValues(x), values);
+
+		for (int i = 0; i < n; i++) {
+			IParameter p = params[i];
+			DoubleDataset expected = new DoubleDataset(it.getShape());
+			f.calcNumericalDerivativeDataset(AFunction.A_TOLERANCE, AFunction.R_TOLERANCE, p, expected, it);
+			String name = f.getName() + " " + p.getName();
+			checkClose(name, expected, f.calculatePartialDerivativeValues(p, x));
+			checkClose(name, expected, derivatives[i]);
+			if (f instanceof FermiGauss) { // single point values are not convolved
+				continue;
+			}
+			for (int j = 0; j < x.getSize(); j++) {
+				Assert.assertEquals(name, expected.get(j), f.partialDeriv(p, x.get(j)), REL_TOL * Math.max(1, Math.abs(expected.get(j))));
+			}
+		}
+	}
+
+	private static void checkClose(String name, DoubleDataset expected, DoubleDataset actual) {
+		double[] e = expected.getData();
+		double[] a = actual.getData();
+		double max = 1;
+		for (double v : e) {
+			max = Math.max(max, Math.abs(v));
+		}
+		Assert.assertArrayEquals(name, e, a, REL_TOL * max);
+	}
+
+	@Test
+	public void testPeaks() {
+		DoubleDataset x = DoubleDataset.createRange(-2, 6, 0.25);
+		checkDerivatives(new Gaussian(1.5, 1.2, 3), x);
+		checkDerivatives(new Lorentzian(1.5, 1.2, 3), x);
+		checkDerivatives(new PseudoVoigt(1.5, 1.2, 3, 0.8, 0.3), x);
+		checkDerivatives(new PearsonVII(new double[] {1.5, 1.2, 3, 1.7}), x);
+		checkDerivatives(new Voigt(1.5, 1.2, 3, 0.8), x);
+		checkDerivatives(new Fano(1.5, 1.2, 3, 0.7), x);
+	}
+
+	@Test
+	public void testEdges() {
+		DoubleDataset x = DoubleDataset.createRange(-2, 6, 0.25);
+		checkDerivatives(new Fermi(1.5, 0.4, 2, 0.5), x);
+		checkDerivatives(new Box(0.5, 0.3, 3, 0.4, 2), x);
+		checkDerivatives(new FermiGauss(1.5, 300, 0.5, 2, 0.1, 0.2), DoubleDataset.createRange(0.5, 2.5, 0.01));
+	}
+
+	@Test
+	public void testStep() {
+		Step f = new Step();
+		f.setParameterValues(0.5, 1, 4, 2, 3, 0.5, 0.5);
+		DoubleDataset x = new DoubleDataset(new double[] {0, 1.5, 2.5, 5});
+		Assert.assertArrayEquals(new double[] {1, 1, 1, 1}, f.calculatePartialDerivativeValues(f.getParameter(0), x).getData(), 0);
+		Assert.assertArrayEquals(new double[] {0, 1, 1, 0}, f.calculatePartialDerivativeValues(f.getParameter(3), x).getData(), 0);
+		Assert.assertArrayEquals(new double[] {0, 0, 1, 0}, f.calculatePartialDerivativeValues(f.getParameter(4), x).getData(), 0);
+		Assert.assertArrayEquals(new double[] {0, 0, 0, 0}, f.calculatePartialDerivativeValues(f.getParameter(1), x).getData(), 0);
+	}
+
+	@Test
+	public void testAdd() {
+		DoubleDataset x = DoubleDataset.createRange(-2, 6, 0.25);
+		Add f = new Add();
+		f.addFunction(new Gaussian(1.5, 1.2, 3));
+		f.addFunction(new Lorentzian(3.5, 0.8, 2));
+		f.addFunction(new StraightLine(new double[] {0.2, -1}));
+		checkDerivatives(f, x);
+
+		// shared parameter
+		Gaussian g = new Gaussian(1.5, 1.2, 3);
+		Lorentzian l = new Lorentzian(3.5, 0.8, 2);
+		l.setParameter(1, g.getParameter(1));
+		f = new Add();
+		f.addFunction(g);
+		f.addFunction(l);
+		checkDerivatives(f, x);
+	}
+
+	@Test
+	public void testNumericalDefault() {
+		Quadratic f = new Quadratic(new double[] {0.5, -1, 2});
+		double[] derivatives = new double[3];
+		Assert.assertEquals(f.val(3), f.calcValueAndPartialDerivatives(derivatives, 3), 1e-12);
+		Assert.assertArrayEquals(new double[] {9, 3, 1}, derivatives, 1e-6);
+		Assert.assertEquals(3, f.analyticPartialDeriv(f.getParameter(1), 3), 1e-6);
+	}
+}
@@ -0,0 +1,138 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CBFByteOffsetDecoderTest {
+
+	private static final String FOOTER = "\r\n--CIF-BINARY-FORMAT-SECTION----\r\n;\r\n";
+	private static final int[] VALUES = {0, 1, -1, 127, -127, 200, -32000, 40000, 5, Integer.MAX_VALUE, Integer.MIN_VALUE + 1, 3};
+
+	@Test
+	public void testDecode() throws Exception {
+		CBFByteOffsetDecoder decoder = CBFByteOffsetDecoder.create(ByteBuffer.wrap(createFile(VALUES, "x-CBF_BYTE_OFFSET")));
+		Assert.assertNotNull(decoder);
+		Assert.assertEquals(VALUES.length, decoder.getNumberOfElements());
+
+		int[] out = new int[VALUES.length];
+		decoder.decode(out, 0, 4, 1, 4);
+		Assert.assertArrayEquals(VALUES, out);
+		Assert.assertEquals(Integer.MAX_VALUE, decoder.getMax());
+		Assert.assertEquals(Integer.MIN_VALUE + 1, decoder.getMin());
+	}
+
+	@Test
+	public void testReorientation() throws Exception {
+		CBFByteOffsetDecoder decoder = CBFByteOffsetDecoder.create(ByteBuffer.wrap(createFile(VALUES, "x-CBF_BYTE_OFFSET")));
+		int rows = 3;
+		int cols = 4;
+
+		// reverse rows
+		int[] out = new int[VALUES.length];
+		decoder.decode(out, (rows - 1) * cols, -cols, 1, cols);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				Assert.assertEquals(VALUES[r * cols + c], out[(rows - 1 - r) * cols + c]);
+			}
+		}
+
+		// transpose
+		decoder.decode(out, 0, 1, rows, cols);
+		for (int r = 0; r < rows; r++) {
+			for (int c = 0; c < cols; c++) {
+				Assert.assertEquals(VALUES[r * cols + c], out[c * rows + r]);
+			}
+		}
+	}
+
+	@Test
+	public void testOpen() throws Exception {
+		File file = File.createTempFile("byteoffset", ".cbf");
+		file.deleteOnExit();
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(createFile(VALUES, "x-CBF_BYTE_OFFSET"));
+		} finally {
+			os.close();
+		}
+
+		CBFByteOffsetDecoder decoder = CBFByteOffsetDecoder.open(file.getAbsolutePath());
+		int[] out = new int[VALUES.length];
+		decoder.decode(out, 0, 4, 1, 4);
+		Assert.assertArrayEquals(VALUES, out);
+	}
+
+	@Test
+	public void testOtherCompression() throws Exception {
+		Assert.assertNull(CBFByteOffsetDecoder.create(ByteBuffer.wrap(createFile(VALUES, "x-CBF_PACKED"))));
+	}
+
+	@Test(expected=java.io.IOException.class)
+	public void testTruncated() throws Exception {
+		byte[] bytes = createFile(VALUES, "x-CBF_BYTE_OFFSET");
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, bytes.length - FOOTER.length() - 8).slice();
+		CBFByteOffsetDecoder.create(buffer).decode(new int[VALUES.length], 0, 4, 1, 4);
+	}
+
+	private static byte[] createFile(int[] values, String conversion) throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		String header = "###CBF: VERSION 1.5\r\n\r\ndata_test\r\n\r\n_array_data.data\r\n;\r\n"
+				+ "--CIF-BINARY-FORMAT-SECTION--\r\n"
+				+ "Content-Type: application/octet-stream;\r\n"
+				+ "     conversions=\"" + conversion + "\"\r\n"
+				+ "Content-Transfer-Encoding: BINARY\r\n"
+				+ "X-Binary-Size: 0\r\n"
+				+ "X-Binary-ID: 1\r\n"
+				+ "X-Binary-Element-Type: \"signed 32-bit integer\"\r\n"
+				+ "X-Binary-Element-Byte-Order: LITTLE_ENDIAN\r\n"
+				+ "X-Binary-Number-of-Elements: " + values.length + "\r\n"
+				+ "X-Binary-Size-Fastest-Dimension: 4\r\n"
+				+ "X-Binary-Size-Second-Dimension: 3\r\n\r\n";
+		os.write(header.getBytes("US-ASCII"));
+		os.write(new byte[] {0x0c, 0x1a, 0x04, (byte) 0xd5});
+
+		long previous = 0;
+		for (int v : values) {
+			long delta = v - previous;
+			if (delta > Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+				os.write((int) delta);
+			} else {
+				os.write(0x80);
+				if (delta > Short.MIN_VALUE && delta <= Short.MAX_VALUE) {
+					writeLittleEndian(os, delta, 2);
+				} else {
+					writeLittleEndian(os, Short.MIN_VALUE, 2);
+					if (delta > Integer.MIN_VALUE && delta <= Integer.MAX_VALUE) {
+						writeLittleEndian(os, delta, 4);
+					} else {
+						writeLittleEndian(os, Integer.MIN_VALUE, 4);
+						writeLittleEndian(os, delta, 8);
+					}
+				}
+			}
+			previous = v;
+		}
+		os.write(FOOTER.getBytes("US-ASCII"));
+		return os.toByteArray();
+	}
+
+	private static void writeLittleEndian(ByteArrayOutputStream os, long value, int bytes) {
+		for (int i = 0; i < bytes; i++) {
+			os.write((int) (value >> (8 * i)));
+		}
+	}
+}
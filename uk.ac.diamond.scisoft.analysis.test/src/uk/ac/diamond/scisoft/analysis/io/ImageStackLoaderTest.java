@@ -216,6 +216,48 @@ public class ImageStackLoaderTest {
 	
 	}
 	
+	@Test
+	public void testParallelAndReadAhead() throws Exception {
+		String testScratchDirectoryName = IOTestUtils.setUpTest(ImageStackLoaderTest.class, "testParallelAndReadAhead", true);
+
+		int[] multipliers= new int[]{2,3,4,5,6,7,8};
+		String[] imageFilenames = makeFiles(testScratchDirectoryName, multipliers);
+		int[] dimensions = new int[] { imageFilenames.length };
+		ImageStackLoader loader = new ImageStackLoader(dimensions, imageFilenames);
+		loader.setReadAhead(3);
+		int[] shape = loader.getShape();
+
+		//walk through images in order
+		for( int i=0; i< multipliers.length;i++)
+		{
+			int[] stop = new int[] { i+1, sizex, sizey };
+			int[] start = new int[] { i, 0, 0 };
+			Dataset dataset = loader.getDataset(null, new SliceND(shape, start, stop, null));
+			assertArrayEquals(new int[] { 1, sizex, sizey }, dataset.getShape());
+			assertEquals(multipliers[i], dataset.getInt(0, sizex-1, sizex-1));
+		}
+
+		//and backwards
+		for( int i=multipliers.length-1; i>=0;i--)
+		{
+			int[] stop = new int[] { i+1, sizex, sizey };
+			int[] start = new int[] { i, 0, 0 };
+			Dataset dataset = loader.getDataset(null, new SliceND(shape, start, stop, null));
+			assertEquals(multipliers[i], dataset.getInt(0, sizex-1, sizex-1));
+		}
+
+		SliceND all = new SliceND(shape, new int[] { 1, 0, 0 }, shape, new int[] { 2, 1, 1 });
+		loader.setParallel(true);
+		Dataset parallel = loader.getDataset(null, all);
+		loader.setParallel(false);
+		loader.setReadAhead(0);
+		Dataset serial = loader.getDataset(null, all);
+		assertEquals(serial, parallel);
+		for( int i=0; i< parallel.getShapeRef()[0];i++) {
+			assertEquals(multipliers[2*i+1], parallel.getInt(i, sizex-1, sizex-1));
+		}
+	}
+
 	String [] makeFiles(String testScratchDirectoryName, int[] multipliers) throws ScanFileHolderException{
 		String [] filePaths = new String[multipliers.length];
 		for( int i =0 ; i< multipliers.length;i++){
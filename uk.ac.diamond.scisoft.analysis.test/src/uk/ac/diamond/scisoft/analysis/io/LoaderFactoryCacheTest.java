@@ -0,0 +1,76 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.cache.DataCache;
+
+public class LoaderFactoryCacheTest extends LoaderThreadTestBase {
+
+	private static final String FILE1 = "testfiles/gda/analysis/io/SRSLoaderTest/96356.dat";
+	private static final String FILE2 = "testfiles/gda/analysis/io/SRSLoaderTest/34146.dat";
+
+	private IDataHolder[] holders;
+	private int maximumEntries;
+
+	@Before
+	public void setUp() {
+		LoaderFactory.clear();
+		LoaderFactory.getDataCache().resetStatistics();
+		maximumEntries = LoaderFactory.getDataCache().getMaximumEntries();
+	}
+
+	@After
+	public void tearDown() {
+		LoaderFactory.getDataCache().setMaximumEntries(maximumEntries);
+		LoaderFactory.clear();
+	}
+
+	@Test
+	public void testConcurrentLoadsCoalesce() throws Exception {
+		holders = new IDataHolder[10];
+		testWithNThreads(holders.length);
+
+		for (IDataHolder h : holders) Assert.assertSame(holders[0], h);
+		Assert.assertEquals(1, LoaderFactory.getDataCache().getLoadCount());
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		DataCache<IDataHolder> cache = LoaderFactory.getDataCache();
+		IDataHolder first = LoaderFactory.getData(FILE1, null);
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertSame(first, LoaderFactory.getData(FILE1, null));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertEquals(1, cache.getLoadCount());
+		Assert.assertTrue(cache.getTotalLoadTime() > 0);
+	}
+
+	@Test
+	public void testBoundedEntries() throws Exception {
+		DataCache<IDataHolder> cache = LoaderFactory.getDataCache();
+		cache.setMaximumEntries(1);
+		LoaderFactory.getData(FILE1, null);
+		LoaderFactory.getData(FILE2, null);
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertNull(LoaderFactory.fetchData(FILE1, true));
+	}
+
+	@Override
+	protected void doTestOfDataSet(int index) throws Exception {
+		holders[index] = LoaderFactory.getData(FILE1, null);
+	}
+}
@@ -0,0 +1,126 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io.cache;
+
+import java.io.File;
+
+import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.junit.Assert;
+import org.junit.Test;
+
+import uk.ac.diamond.scisoft.analysis.io.DataHolder;
+
+public class DataCacheTest {
+
+	private static final DataCache.Weigher<String> LENGTH = new DataCache.Weigher<String>() {
+		@Override
+		public long weigh(String value) {
+			return value.length();
+		}
+	};
+
+	@Test
+	public void testByteBudget() {
+		DataCache<String> cache = new DataCache<String>(LENGTH);
+		cache.setMaximumBytes(10);
+
+		Assert.assertTrue(cache.recordSoftReference(cache.createCacheKey("a", false), "aaaa"));
+		Assert.assertTrue(cache.recordSoftReference(cache.createCacheKey("b", false), "bbbb"));
+		Assert.assertEquals(8, cache.getBytesHeld());
+
+		Assert.assertTrue(cache.recordSoftReference(cache.createCacheKey("c", false), "cccc"));
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(8, cache.getBytesHeld());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertNull(cache.fetchData("a", false));
+
+		Assert.assertTrue(cache.isTooLarge("dddddddddddd"));
+		Assert.assertFalse(cache.isTooLarge("dddd"));
+		Assert.assertFalse(cache.recordSoftReference(cache.createCacheKey("d", false), "dddddddddddd"));
+		Assert.assertEquals(8, cache.getBytesHeld());
+
+		cache.clear();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getBytesHeld());
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() {
+		DataCache<String> cache = new DataCache<String>(LENGTH);
+		cache.setEvictionPolicy(DataCache.EvictionPolicy.LRU);
+		cache.setMaximumBytes(2);
+
+		cache.recordSoftReference(cache.createCacheKey("a", false), "a");
+		cache.recordSoftReference(cache.createCacheKey("b", false), "b");
+		Assert.assertEquals("a", cache.fetchData("a", false));
+		cache.recordSoftReference(cache.createCacheKey("c", false), "c");
+
+		Assert.assertEquals("a", cache.fetchData("a", false));
+		Assert.assertNull(cache.fetchData("b", false));
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testLeastFrequentlyUsed() {
+		DataCache<String> cache = new DataCache<String>(LENGTH);
+		cache.setEvictionPolicy(DataCache.EvictionPolicy.LFU);
+		cache.setMaximumBytes(2);
+
+		cache.recordSoftReference(cache.createCacheKey("a", false), "a");
+		cache.recordSoftReference(cache.createCacheKey("b", false), "b");
+		cache.fetchData("a", false);
+		cache.fetchData("a", false);
+		cache.fetchData("b", false);
+		cache.recordSoftReference(cache.createCacheKey("c", false), "c");
+
+		Assert.assertEquals("a", cache.fetchData("a", false));
+		Assert.assertNull(cache.fetchData("b", false));
+	}
+
+	@Test
+	public void testModifiedFile() throws Exception {
+		File file = File.createTempFile("cache", ".dat");
+		file.deleteOnExit();
+		String path = file.getAbsolutePath();
+		file.setLastModified(1000000000000l);
+
+		DataCache<String> cache = new DataCache<String>(LENGTH);
+		cache.recordSoftReference(cache.createCacheKey(path, false), "old");
+		Assert.assertEquals("old", cache.fetchData(path, false));
+
+		file.setLastModified(2000000000000l);
+		Assert.assertNull(cache.fetchData(path, false));
+		cache.clearModified();
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals(0, cache.getBytesHeld());
+
+		file.setLastModified(3000000000000l);
+		cache.recordSoftReference(cache.createCacheKey(path, false), "new");
+		file.setLastModified(4000000000000l);
+		cache.recordSoftReference(cache.createCacheKey(path, false), "newer");
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals(5, cache.getBytesHeld());
+	}
+
+	@Test
+	public void testDataHolderWeight() {
+		DataHolder holder = new DataHolder();
+		holder.addDataset("a", new DoubleDataset(100));
+		holder.addDataset("b", new DoubleDataset(50));
+		holder.setFilePath("holder");
+
+		DataCache<IDataHolder> cache = new DataCache<IDataHolder>();
+		cache.setMaximumBytes(2000);
+		cache.cacheData(holder);
+		Assert.assertEquals(150 * 8, cache.getBytesHeld());
+	}
+}
@@ -9,10 +9,17 @@
 
 package uk.ac.diamond.scisoft.analysis.roi;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Comparisons;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Random;
 import org.eclipse.dawnsci.analysis.dataset.roi.GridPreferences;
 import org.eclipse.dawnsci.analysis.dataset.roi.GridROI;
 import org.eclipse.dawnsci.analysis.dataset.roi.LinearROI;
@@ -59,6 +66,43 @@ public class ROIProfileTest {
 		}
 	}
 
+	@Test
+	public void testBoxFromTable() {
+		Random.seed(1235);
+		Dataset input = Random.rand(20, 30);
+		BooleanDataset mask = (BooleanDataset) Comparisons.greaterThan(Random.rand(20, 30), 0.2);
+		SummedAreaTable table = new SummedAreaTable(input, mask);
+		for (RectangularROI roi : new RectangularROI[] {new RectangularROI(0, 0, 1, 1, 0), new RectangularROI(3, 5, 10, 7, 0),
+				new RectangularROI(-2, 15, 40, 20, 0)}) {
+			Dataset[] expected = ROIProfile.box(input, mask, roi);
+			Dataset[] actual = ROIProfile.box(table, roi);
+			for (int i = 0; i < 2; i++) {
+				assertArrayEquals(expected[i].getShape(), actual[i].getShape());
+				for (int j = 0; j < expected[i].getSize(); j++) {
+					assertEquals(expected[i].getDouble(j), actual[i].getDouble(j), 1e-12);
+				}
+			}
+
+			int[] spt = roi.getIntPoint();
+			int[] len = roi.getIntLengths();
+			int[] start = new int[] {Math.max(spt[1], 0), Math.max(spt[0], 0)};
+			int[] stop = new int[] {Math.min(spt[1] + len[1], 20), Math.min(spt[0] + len[0], 30)};
+			Dataset box = ROIProfile.nanalize(input.getSlice(start, stop, null), (BooleanDataset) mask.getSlice(start, stop, null));
+			assertEquals((Double) box.mean(true), table.getMean(start, stop), 1e-6);
+			assertEquals(((Number) mask.getSlice(start, stop, null).cast(Dataset.INT32).sum()).doubleValue(), table.getCount(start, stop), 0);
+		}
+		assertNull(ROIProfile.box(table, new RectangularROI(40, 40, 2, 2, 0)));
+	}
+
+	@Test
+	public void testTableWorthwhile() {
+		int[] shape = new int[] {20, 30};
+		assertFalse(SummedAreaTable.isWorthwhile(shape, new int[][] {{0, 0}, {5, 5}}, new int[][] {{2, 2}, {10, 10}}));
+		assertTrue(SummedAreaTable.isWorthwhile(shape, new int[][] {{0, 0}, {0, 15}}, new int[][] {{20, 10}, {20, 30}}));
+		// boxes are clipped to the frame
+		assertFalse(SummedAreaTable.isWorthwhile(shape, new int[][] {{-100, -100}}, new int[][] {{5, 5}}));
+	}
+
 	@Test
 	public void testSector() {
 		DoubleDataset input = new DoubleDataset(new double[] { 0.0, 1.0, 1.0, 1.0 }, 2, 2);
@@ -287,6 +287,26 @@ public class FaddeevaTest {
 				errmax = im_err;
 			printf("Currently %d = %g\n", i, errmax);
 		}
+
+		// primitive and bulk evaluation must match
+		double[] zr = new double[z.length];
+		double[] zi = new double[z.length];
+		for (int i = 0; i < z.length; ++i) {
+			zr[i] = creal(z[i]);
+			zi[i] = cimag(z[i]);
+		}
+		double[] wr = new double[z.length];
+		double[] wi = new double[z.length];
+		Faddeeva.w(zr, zi, 0., wr, wi);
+		double[] out = new double[3];
+		for (int i = 0; i < z.length; ++i) {
+			Complex fw = Faddeeva.w(z[i], 0.);
+			Faddeeva.w(zr[i], zi[i], 0., out, 1);
+			Assert.assertEquals("Real part " + i, creal(fw), out[1], 0);
+			Assert.assertEquals("Imaginary part " + i, cimag(fw), out[2], 0);
+			Assert.assertEquals("Bulk real part " + i, creal(fw), wr[i], 0);
+			Assert.assertEquals("Bulk imaginary part " + i, cimag(fw), wi[i], 0);
+		}
 		if (errmax > 1e-13) {
 			Assert.fail("FAILURE -- relative error too large = " + errmax);
 		}
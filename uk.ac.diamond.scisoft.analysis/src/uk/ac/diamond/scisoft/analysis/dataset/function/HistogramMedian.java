@@ -0,0 +1,103 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.dataset.function;
+
+import java.util.Arrays;
+
+/**
+ * Median of a window of integers in a limited range that changes by adding and removing single values.
+ * This holds a histogram of the window (as in Huang's median filter) with a coarse histogram over it
+ * so finding the median takes O(sqrt(range)) steps whatever the number of values in the window.
+ */
+class HistogramMedian {
+	private final int shift;
+	private final int[] fine;
+	private final int[] coarse;
+	private int n;
+
+	/**
+	 * @param range number of bins. Values must lie in [0, range)
+	 */
+	HistogramMedian(int range) {
+		int bits = 32 - Integer.numberOfLeadingZeros(Math.max(range - 1, 1));
+		shift = (bits + 1) / 2;
+		fine = new int[range];
+		coarse = new int[((range - 1) >> shift) + 1];
+	}
+
+	/**
+	 * @return number of values in window
+	 */
+	int size() {
+		return n;
+	}
+
+	/**
+	 * @param value
+	 */
+	void add(int value) {
+		fine[value]++;
+		coarse[value >> shift]++;
+		n++;
+	}
+
+	/**
+	 * @param value that was added
+	 */
+	void remove(int value) {
+		fine[value]--;
+		coarse[value >> shift]--;
+		n--;
+	}
+
+	/**
+	 * @param k
+	 * @return k-th smallest value (zero-based) in window
+	 */
+	int select(int k) {
+		int b = 0;
+		int c;
+		while (k >= (c = coarse[b])) {
+			k -= c;
+			b++;
+		}
+		int i = b << shift;
+		while (k >= (c = fine[i])) {
+			k -= c;
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * @return median of values in window (mean of middle two values when there is an even number)
+	 * or NaN if window is empty
+	 */
+	double median() {
+		if (n == 0) {
+			return Double.NaN;
+		}
+		int k = (n - 1) / 2;
+		int m = select(k);
+		if ((n & 1) != 0) {
+			return m;
+		}
+		return (m + select(k + 1)) * 0.5;
+	}
+
+	/**
+	 * Remove all values
+	 */
+	void clear() {
+		Arrays.fill(fine, 0);
+		Arrays.fill(coarse, 0);
+		n = 0;
+	}
+}
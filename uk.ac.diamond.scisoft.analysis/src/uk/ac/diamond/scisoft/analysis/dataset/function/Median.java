@@ -10,24 +10,39 @@
 package uk.ac.diamond.scisoft.analysis.dataset.function;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.PositionIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.Stats;
 import org.eclipse.dawnsci.analysis.dataset.impl.function.DatasetToDatasetFunction;
 
+/**
+ * Median filter for 1D and 2D datasets. The window is truncated at the edges of a dataset.
+ * <p>
+ * Lines are filtered with a running median that is updated as the window slides. Images of
+ * integers whose range is no more than {@value #MAX_HISTOGRAM_RANGE} are filtered with a sliding
+ * histogram (Huang's method) and other images with a running median over each row of windows.
+ * Datasets containing NaNs or with more than one element per item are filtered by sorting each window.
+ */
 public class Median implements DatasetToDatasetFunction {
-	
+
+	/**
+	 * Largest range of integer values filtered with histograms
+	 */
+	public static final int MAX_HISTOGRAM_RANGE = 1 << 16;
+
 	private final int window;
 
 	/**
 	 * This class applies median filter to the input datasets
 	 * 
-	 * @param window 
+	 * @param window width of (square) window
 	 */
 	public Median(int window) {
 		if (window <= 0) {
@@ -47,31 +62,187 @@ public class Median implements DatasetToDatasetFunction {
 		
 		for (IDataset idataset : datasets) {
 			Dataset dataset = DatasetUtils.convertToDataset(idataset);
-			final int dt = dataset.getDtype();
-			final int is = dataset.getElementsPerItem();
-			final int[] ishape = dataset.getShape();
+			final int rank = dataset.getRank();
 			
-			if (ishape.length > 1)
-				throw new IllegalArgumentException("Only 1D input datasets are supported");
+			if (rank < 1 || rank > 2)
+				throw new IllegalArgumentException("Only 1D or 2D input datasets are supported");
 			
-			Dataset filtered = DatasetFactory.zeros(is , ishape, dt);
-			
-			final PositionIterator iterPos = filtered.getPositionIterator();
-			final int[] pos = iterPos.getPos();
-			final int size = dataset.getSize();
-			final int[] start = new int[1];
-			final int[] stop = new int[1];
-			final int[] step = new int[] {1};
-			while (iterPos.hasNext()) {
-				int idx = pos[0];
-				start[0] = Math.max(idx - this.window, 0);
-				stop[0] = Math.min(idx + this.window + 1, size); // exclusive
-				
-				filtered.set(Stats.median(dataset.getSlice(start, stop, step)), pos);
+			Dataset filtered = null;
+			if (dataset.getElementsPerItem() == 1) {
+				filtered = DatasetFactory.zeros(dataset.getShape(), dataset.getDtype());
+				if (rank == 1 || !filterWithHistogram(dataset, filtered)) {
+					double[] values = getValues(dataset);
+					if (values == null) {
+						filtered = null;
+					} else if (rank == 1) {
+						filter(values, filtered);
+					} else {
+						filter(values, dataset.getShapeRef(), filtered);
+					}
+				}
+			}
+			if (filtered == null) {
+				filtered = filterBySorting(dataset);
 			}
 			
 			result.add(filtered);
 		}
 		return result;
 	}
+
+	/**
+	 * @param dataset
+	 * @return values of dataset or null if it contains NaNs
+	 */
+	private static double[] getValues(Dataset dataset) {
+		double[] values = new double[dataset.getSize()];
+		IndexIterator it = dataset.getIterator();
+		int i = 0;
+		while (it.hasNext()) {
+			double v = dataset.getElementDoubleAbs(it.index);
+			if (Double.isNaN(v)) {
+				return null;
+			}
+			values[i++] = v;
+		}
+		return values;
+	}
+
+	private void filter(double[] values, Dataset filtered) {
+		final int size = values.length;
+		final int length = 2 * window + 1;
+		RunningMedian median = new RunningMedian(Math.min(length, size));
+		int start = 0;
+		int stop = 0;
+		for (int i = 0; i < size; i++) {
+			int nStart = Math.max(i - window, 0);
+			int nStop = Math.min(i + window + 1, size); // exclusive
+			for (; start < nStart; start++) {
+				median.remove(start % length);
+			}
+			for (; stop < nStop; stop++) {
+				median.add(stop % length, values[stop]);
+			}
+			filtered.setObjectAbs(i, median.median());
+		}
+	}
+
+	private void filter(double[] values, int[] shape, Dataset filtered) {
+		final int rows = shape[0];
+		final int cols = shape[1];
+		final int length = 2 * window + 1;
+		final int wRows = Math.min(length, rows);
+		RunningMedian median = new RunningMedian(wRows * length);
+		int i = 0;
+		for (int r = 0; r < rows; r++) {
+			final int rStart = Math.max(r - window, 0);
+			final int rStop = Math.min(r + window + 1, rows);
+			median.clear();
+			int start = 0;
+			int stop = 0;
+			for (int c = 0; c < cols; c++) {
+				int nStart = Math.max(c - window, 0);
+				int nStop = Math.min(c + window + 1, cols);
+				for (; start < nStart; start++) {
+					int id = start % length;
+					for (int j = rStart; j < rStop; j++, id += length) {
+						median.remove(id);
+					}
+				}
+				for (; stop < nStop; stop++) {
+					int id = stop % length;
+					for (int j = rStart, k = rStart * cols + stop; j < rStop; j++, k += cols, id += length) {
+						median.add(id, values[k]);
+					}
+				}
+				filtered.setObjectAbs(i++, median.median());
+			}
+		}
+	}
+
+	/**
+	 * Filter image of integers with a histogram
+	 * @return false if dataset is not of integers or its range is too great
+	 */
+	private boolean filterWithHistogram(Dataset dataset, Dataset filtered) {
+		switch (dataset.getDtype()) {
+		case Dataset.INT8:
+		case Dataset.INT16:
+		case Dataset.INT32:
+		case Dataset.INT64:
+			break;
+		default:
+			return false;
+		}
+		long min = dataset.min().longValue();
+		long max = dataset.max().longValue();
+		if (max - min >= MAX_HISTOGRAM_RANGE) {
+			return false;
+		}
+
+		final int[] shape = dataset.getShapeRef();
+		final int rows = shape[0];
+		final int cols = shape[1];
+		int[] bins = new int[dataset.getSize()];
+		IndexIterator it = dataset.getIterator();
+		for (int i = 0; it.hasNext(); i++) {
+			bins[i] = (int) (dataset.getElementLongAbs(it.index) - min);
+		}
+
+		HistogramMedian median = new HistogramMedian((int) (max - min + 1));
+		int i = 0;
+		for (int r = 0; r < rows; r++) {
+			final int rStart = Math.max(r - window, 0);
+			final int rStop = Math.min(r + window + 1, rows);
+			int start = 0;
+			int stop = 0;
+			for (int c = 0; c < cols; c++) {
+				int nStart = Math.max(c - window, 0);
+				int nStop = Math.min(c + window + 1, cols);
+				for (; start < nStart; start++) {
+					for (int k = rStart * cols + start; k < rStop * cols; k += cols) {
+						median.remove(bins[k]);
+					}
+				}
+				for (; stop < nStop; stop++) {
+					for (int k = rStart * cols + stop; k < rStop * cols; k += cols) {
+						median.add(bins[k]);
+					}
+				}
+				filtered.setObjectAbs(i++, min + median.median());
+			}
+			for (; start < stop; start++) { // empty histogram for next row
+				for (int k = rStart * cols + start; k < rStop * cols; k += cols) {
+					median.remove(bins[k]);
+				}
+			}
+		}
+		return true;
+	}
+
+	private Dataset filterBySorting(Dataset dataset) {
+		final int dt = dataset.getDtype();
+		final int is = dataset.getElementsPerItem();
+		final int[] ishape = dataset.getShape();
+		final int rank = ishape.length;
+
+		Dataset filtered = DatasetFactory.zeros(is , ishape, dt);
+		
+		final PositionIterator iterPos = filtered.getPositionIterator();
+		final int[] pos = iterPos.getPos();
+		final int[] start = new int[rank];
+		final int[] stop = new int[rank];
+		final int[] step = new int[rank];
+		Arrays.fill(step, 1);
+		while (iterPos.hasNext()) {
+			for (int i = 0; i < rank; i++) {
+				int idx = pos[i];
+				start[i] = Math.max(idx - this.window, 0);
+				stop[i] = Math.min(idx + this.window + 1, ishape[i]); // exclusive
+			}
+			
+			filtered.set(Stats.median(dataset.getSlice(start, stop, step)), pos);
+		}
+		return filtered;
+	}
 }
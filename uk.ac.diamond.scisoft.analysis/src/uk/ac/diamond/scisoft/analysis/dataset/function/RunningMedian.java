@@ -0,0 +1,213 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.dataset.function;
+
+/**
+ * Median of a window of values that changes by adding and removing single values. The lower half
+ * of the values is kept in a max-heap and the upper half in a min-heap so each change is O(log n).
+ * <p>
+ * Each value in the window is given an identifier in [0, capacity) by the caller so it can be removed
+ * later. Values must not be NaNs.
+ */
+class RunningMedian {
+	private final double[] values; // by identifier
+	private final int[] where; // heap position of each identifier: i in lower heap, ~i in upper heap
+	private final int[] lower; // max-heap of identifiers
+	private final int[] upper; // min-heap of identifiers
+	private int nLower;
+	private int nUpper;
+
+	/**
+	 * @param capacity maximum number of values in window
+	 */
+	RunningMedian(int capacity) {
+		values = new double[capacity];
+		where = new int[capacity];
+		lower = new int[capacity];
+		upper = new int[capacity];
+	}
+
+	/**
+	 * @return number of values in window
+	 */
+	int size() {
+		return nLower + nUpper;
+	}
+
+	/**
+	 * Add value to window
+	 * @param id identifier that is not in use
+	 * @param value
+	 */
+	void add(int id, double value) {
+		values[id] = value;
+		if (nLower == 0 || value <= values[lower[0]]) {
+			lower[nLower] = id;
+			where[id] = nLower;
+			siftUpLower(nLower++);
+		} else {
+			upper[nUpper] = id;
+			where[id] = ~nUpper;
+			siftUpUpper(nUpper++);
+		}
+		balance();
+	}
+
+	/**
+	 * Remove value from window
+	 * @param id identifier of value
+	 */
+	void remove(int id) {
+		int i = where[id];
+		if (i >= 0) {
+			int last = lower[--nLower];
+			if (i < nLower) {
+				lower[i] = last;
+				where[last] = i;
+				siftDownLower(i);
+				siftUpLower(where[last]);
+			}
+		} else {
+			i = ~i;
+			int last = upper[--nUpper];
+			if (i < nUpper) {
+				upper[i] = last;
+				where[last] = ~i;
+				siftDownUpper(i);
+				siftUpUpper(~where[last]);
+			}
+		}
+		balance();
+	}
+
+	/**
+	 * @return median of values in window (mean of middle two values when there is an even number)
+	 * or NaN if window is empty
+	 */
+	double median() {
+		if (nLower == 0) {
+			return Double.NaN;
+		}
+		double m = values[lower[0]];
+		return nLower > nUpper ? m : (m + values[upper[0]]) * 0.5;
+	}
+
+	/**
+	 * Remove all values
+	 */
+	void clear() {
+		nLower = 0;
+		nUpper = 0;
+	}
+
+	private void balance() {
+		if (nLower > nUpper + 1) {
+			int id = lower[0];
+			int last = lower[--nLower];
+			if (nLower > 0) {
+				lower[0] = last;
+				where[last] = 0;
+				siftDownLower(0);
+			}
+			upper[nUpper] = id;
+			where[id] = ~nUpper;
+			siftUpUpper(nUpper++);
+		} else if (nUpper > nLower) {
+			int id = upper[0];
+			int last = upper[--nUpper];
+			if (nUpper > 0) {
+				upper[0] = last;
+				where[last] = ~0;
+				siftDownUpper(0);
+			}
+			lower[nLower] = id;
+			where[id] = nLower;
+			siftUpLower(nLower++);
+		}
+	}
+
+	private void siftUpLower(int i) {
+		int id = lower[i];
+		double v = values[id];
+		while (i > 0) {
+			int p = (i - 1) >> 1;
+			int pid = lower[p];
+			if (values[pid] >= v) {
+				break;
+			}
+			lower[i] = pid;
+			where[pid] = i;
+			i = p;
+		}
+		lower[i] = id;
+		where[id] = i;
+	}
+
+	private void siftDownLower(int i) {
+		int id = lower[i];
+		double v = values[id];
+		int half = nLower >> 1;
+		while (i < half) {
+			int c = 2 * i + 1;
+			int r = c + 1;
+			if (r < nLower && values[lower[r]] > values[lower[c]]) {
+				c = r;
+			}
+			int cid = lower[c];
+			if (v >= values[cid]) {
+				break;
+			}
+			lower[i] = cid;
+			where[cid] = i;
+			i = c;
+		}
+		lower[i] = id;
+		where[id] = i;
+	}
+
+	private void siftUpUpper(int i) {
+		int id = upper[i];
+		double v = values[id];
+		while (i > 0) {
+			int p = (i - 1) >> 1;
+			int pid = upper[p];
+			if (values[pid] <= v) {
+				break;
+			}
+			upper[i] = pid;
+			where[pid] = ~i;
+			i = p;
+		}
+		upper[i] = id;
+		where[id] = ~i;
+	}
+
+	private void siftDownUpper(int i) {
+		int id = upper[i];
+		double v = values[id];
+		int half = nUpper >> 1;
+		while (i < half) {
+			int c = 2 * i + 1;
+			int r = c + 1;
+			if (r < nUpper && values[upper[r]] < values[upper[c]]) {
+				c = r;
+			}
+			int cid = upper[c];
+			if (v <= values[cid]) {
+				break;
+			}
+			upper[i] = cid;
+			where[cid] = ~i;
+			i = c;
+		}
+		upper[i] = id;
+		where[id] = ~i;
+	}
+}
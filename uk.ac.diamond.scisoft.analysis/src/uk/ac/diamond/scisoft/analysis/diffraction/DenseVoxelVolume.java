@@ -0,0 +1,62 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+
+/**
+ * Volume held in a pair of datasets for values and weights
+ */
+class DenseVoxelVolume implements VoxelVolume {
+	private final DoubleDataset map;
+	private final DoubleDataset weight;
+
+	/**
+	 * @param map dataset that holds the voxel values
+	 * @param weight dataset that holds the relative contributions from each pixel
+	 */
+	DenseVoxelVolume(DoubleDataset map, DoubleDataset weight) {
+		this.map = map;
+		this.weight = weight;
+	}
+
+	@Override
+	public int[] getShape() {
+		return map.getShapeRef();
+	}
+
+	@Override
+	public void add(int[] pos, double value, double w) {
+		final int index = map.get1DIndex(pos);
+		map.setAbs(index, map.getAbs(index) + value);
+		weight.setAbs(index, weight.getAbs(index) + w);
+	}
+
+	@Override
+	public DenseVoxelVolume createEmpty() {
+		int[] shape = map.getShapeRef();
+		return new DenseVoxelVolume((DoubleDataset) DatasetFactory.zeros(shape, Dataset.FLOAT64),
+				(DoubleDataset) DatasetFactory.zeros(shape, Dataset.FLOAT64));
+	}
+
+	@Override
+	public void add(VoxelVolume other) {
+		DenseVoxelVolume o = (DenseVoxelVolume) other;
+		map.iadd(o.map);
+		weight.iadd(o.weight);
+	}
+
+	@Override
+	public long getEmptyBytes() {
+		return 2 * 8l * map.getSize();
+	}
+}
@@ -11,7 +11,16 @@ package uk.ac.diamond.scisoft.analysis.diffraction;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.measure.unit.SI;
 import javax.vecmath.Vector3d;
@@ -34,11 +43,14 @@ import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.impl.PositionIterator;
 import org.eclipse.dawnsci.hdf5.HDF5FileFactory;
 import org.eclipse.dawnsci.hdf5.HDF5Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import uk.ac.diamond.scisoft.analysis.crystallography.MillerSpace;
 import uk.ac.diamond.scisoft.analysis.dataset.function.BicubicInterpolator;
 import uk.ac.diamond.scisoft.analysis.io.NexusHDF5Loader;
 import uk.ac.diamond.scisoft.analysis.io.NexusTreeUtils;
+import uk.ac.diamond.scisoft.analysis.utils.ThreadUtils;
 
 /**
  * Intensity value splitter that splits an image pixel value and adds the pieces to close-by voxels
@@ -46,20 +58,30 @@ import uk.ac.diamond.scisoft.analysis.io.NexusTreeUtils;
 interface PixelSplitter {
 	/**
 	 * Spread a pixel intensity value over voxels near position
-	 * @param volume dataset that holds the voxel values
-	 * @param weight dataset that holds the relative contributions from each pixel
+	 * @param volume volume that holds the voxel values and the relative contributions from each pixel
 	 * @param vsize voxel size in reciprocal space
 	 * @param dh offset in reciprocal space from voxel corner
 	 * @param pos position in volume
 	 * @param value pixel intensity to split
 	 */
-	public void splitValue(DoubleDataset volume, DoubleDataset weight, final double[] vsize, final Vector3d dh, final int[] pos, final double value);
+	public void splitValue(VoxelVolume volume, final double[] vsize, final Vector3d dh, final int[] pos, final double value);
 }
 
 /**
  * Map datasets in a Nexus file from image coordinates to Miller space
+ * <p>
+ * Images are mapped by a number of threads given by the system property {@value #THREADS_PROPERTY}
+ * (defaults to the number of processors) where each thread adds to its own partial volume.
+ * <p>
+ * When the system property {@value #SPARSE_PROPERTY} is true, volumes saved to file are held as
+ * bricks of voxels that are allocated when first used so mostly empty volumes can be mapped finely.
  */
 public class MillerSpaceMapper {
+	private static final Logger logger = LoggerFactory.getLogger(MillerSpaceMapper.class);
+
+	public static final String THREADS_PROPERTY = "uk.ac.diamond.scisoft.analysis.diffraction.mapper.threads";
+	public static final String SPARSE_PROPERTY = "uk.ac.diamond.scisoft.analysis.diffraction.mapper.sparse";
+
 	private String detectorPath;
 	private String timePath; // path to exposure dataset
 	private String dataPath;
@@ -92,6 +114,13 @@ public class MillerSpaceMapper {
 	private boolean hasDeleted;
 	private boolean listMillerEntries;
 
+	private int threads = Integer.getInteger(THREADS_PROPERTY, Runtime.getRuntime().availableProcessors());
+	private static final int READ_AHEAD = 2; // number of images per thread to read ahead
+	private boolean sparse = Boolean.getBoolean(SPARSE_PROPERTY);
+
+	private final Map<Tree, List<ScanPointGeometry>> geometries = new IdentityHashMap<>();
+	private PixelQSpace pixels; // for last detector geometry read
+
 	private static final String VOLUME_NAME = "volume";
 	private static final String MILLER_VOLUME_DATA_PATH = "/entry1/reciprocal_space";
 	private static final String[] MILLER_VOLUME_AXES = new String[] {"h-axis", "k-axis", "l-axis"};
@@ -106,16 +135,15 @@ public class MillerSpaceMapper {
 	 */
 	static class NonSplitter implements PixelSplitter {
 		@Override
-		public void splitValue(DoubleDataset volume, DoubleDataset weight, final double[] vsize, Vector3d dh, int[] pos, double value) {
-			addToDataset(volume, pos, value);
-			addToDataset(weight, pos, 1);
+		public void splitValue(VoxelVolume volume, final double[] vsize, Vector3d dh, int[] pos, double value) {
+			volume.add(pos, value, 1);
 		}
 	}
 
 	/**
 	 * Split pixel over eight voxels with weight determined by 1/distance
 	 */
-	static class InverseSplitter implements PixelSplitter {
+	static class InverseSplitter implements PixelSplitter, Cloneable {
 		/**
 		 * Weight function of distance squared
 		 * @param squaredDistance 
@@ -128,6 +156,19 @@ public class MillerSpaceMapper {
 		double[] weights = new double[8];
 		double factor;
 
+		/**
+		 * @return copy that can be used in another thread
+		 */
+		InverseSplitter copy() {
+			try {
+				InverseSplitter s = (InverseSplitter) clone();
+				s.weights = new double[8];
+				return s;
+			} catch (CloneNotSupportedException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
 		/**
 		 * Calculate weights
 		 * @param vd size of voxel
@@ -163,23 +204,21 @@ public class MillerSpaceMapper {
 		}
 
 		@Override
-		public void splitValue(DoubleDataset volume, DoubleDataset weight, final double[] vsize, Vector3d dh, int[] pos, double value) {
+		public void splitValue(VoxelVolume volume, final double[] vsize, Vector3d dh, int[] pos, double value) {
 			calcWeights(vsize, dh.x, dh.y, dh.z);
-			int[] vShape = volume.getShapeRef();
+			int[] vShape = volume.getShape();
 
 			double w;
 			int[] lpos = pos.clone();
 
 			w = factor * weights[0];
-			addToDataset(volume, lpos, w * value);
-			addToDataset(weight, lpos, w);
+			volume.add(lpos, w * value, w);
 
 			lpos[0]++;
 			if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 				w = factor * weights[1];
 				if (w > 0) {
-					addToDataset(volume, lpos, w * value);
-					addToDataset(weight, lpos, w);
+					volume.add(lpos, w * value, w);
 				}
 			}
 			lpos[0]--;
@@ -188,16 +227,14 @@ public class MillerSpaceMapper {
 			if (lpos[1] >= 0 && lpos[1] < vShape[1]) {
 				w = factor * weights[2];
 				if (w > 0) {
-					addToDataset(volume, lpos, w * value);
-					addToDataset(weight, lpos, w);
+					volume.add(lpos, w * value, w);
 				}
 
 				lpos[0]++;
 				if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 					w = factor * weights[3];
 					if (w > 0) {
-						addToDataset(volume, lpos, w * value);
-						addToDataset(weight, lpos, w);
+						volume.add(lpos, w * value, w);
 					}
 				}
 				lpos[0]--;
@@ -208,16 +245,14 @@ public class MillerSpaceMapper {
 			if (lpos[2] >= 0 && lpos[2] < vShape[2]) {
 				w = factor * weights[4];
 				if (w > 0) {
-					addToDataset(volume, lpos, w * value);
-					addToDataset(weight, lpos, w);
+					volume.add(lpos, w * value, w);
 				}
 
 				lpos[0]++;
 				if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 					w = factor * weights[5];
 					if (w > 0) {
-						addToDataset(volume, lpos, w * value);
-						addToDataset(weight, lpos, w);
+						volume.add(lpos, w * value, w);
 					}
 				}
 				lpos[0]--;
@@ -226,16 +261,14 @@ public class MillerSpaceMapper {
 				if (lpos[1] >= 0 && lpos[1] < vShape[1]) {
 					w = factor * weights[6];
 					if (w > 0) {
-						addToDataset(volume, lpos, w * value);
-						addToDataset(weight, lpos, w);
+						volume.add(lpos, w * value, w);
 					}
 
 					lpos[0]++;
 					if (lpos[0] >= 0 && lpos[0] < vShape[0]) {
 						w = factor * weights[7];
 						if (w > 0) {
-							addToDataset(volume, lpos, w * value);
-							addToDataset(weight, lpos, w);
+							volume.add(lpos, w * value, w);
 						}
 					}
 				}
@@ -327,13 +360,45 @@ public class MillerSpaceMapper {
 	}
 
 	/**
-	 * Set pixel value splitter
+	 * Set pixel value splitter. Other than the splitters defined here, it must be safe to use
+	 * from more than one thread when mapping with more than one thread
 	 * @param splitter
 	 */
 	public void setSplitter(PixelSplitter splitter) {
 		this.splitter = splitter;
 	}
 
+	/**
+	 * Set number of threads used to map images. Each thread beyond the first needs memory
+	 * for its own partial volume so fewer threads may be used
+	 * @param threads
+	 */
+	public void setNumberOfThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return number of threads used to map images
+	 */
+	public int getNumberOfThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set to hold volumes saved to file as bricks of voxels that are allocated when first used
+	 * @param sparse
+	 */
+	public void setSparseVolume(boolean sparse) {
+		this.sparse = sparse;
+	}
+
+	/**
+	 * @return true if volumes saved to file are held as bricks of voxels
+	 */
+	public boolean isSparseVolume() {
+		return sparse;
+	}
+
 	private int[] copyParameters(boolean mapQ) {
 		if (mapQ) {
 			vDel = qDel;
@@ -386,6 +451,7 @@ public class MillerSpaceMapper {
 		l.setFile(filePath);
 		Tree tree = l.loadFile().getTree();
 		PositionIterator[] iters = getPositionIterators(tree);
+		clearGeometries();
 	
 		if (findImageBB) {
 			Arrays.fill(vMin, Double.POSITIVE_INFINITY);
@@ -406,7 +472,8 @@ public class MillerSpaceMapper {
 		DoubleDataset map = (DoubleDataset) DatasetFactory.zeros(vShape, Dataset.FLOAT64);
 		DoubleDataset weight = (DoubleDataset) DatasetFactory.zeros(vShape, Dataset.FLOAT64);
 
-		mapToASpace(mapQ, tree, iters, map, weight);
+		mapToASpace(mapQ, tree, iters, new DenseVoxelVolume(map, weight));
+		clearGeometries();
 
 		Maths.dividez(map, weight, map); // normalize by tally
 	
@@ -423,7 +490,7 @@ public class MillerSpaceMapper {
 		return map;
 	}
 
-	private void mapToASpace(boolean mapQ, Tree tree, PositionIterator[] iters, DoubleDataset map, DoubleDataset weight) throws ScanFileHolderException {
+	private void mapToASpace(boolean mapQ, Tree tree, PositionIterator[] iters, VoxelVolume volume) throws ScanFileHolderException {
 		int[] dshape = iters[0].getShape();
 	
 		Dataset trans = NexusTreeUtils.parseAttenuator(attenuatorPath, tree);
@@ -463,7 +530,7 @@ public class MillerSpaceMapper {
 			upSampler = new BicubicInterpolator(ishape);
 		}
 
-		mapImages(mapQ, tree, trans, images, iters, map, weight, ishape, upSampler);
+		mapImages(mapQ, tree, trans, images, iters, volume, ishape, upSampler);
 	}
 
 	private void listToASpace(Tree tree, PositionIterator[] iters, ILazyWriteableDataset lazy) throws ScanFileHolderException {
@@ -515,13 +582,15 @@ public class MillerSpaceMapper {
 		int[] pos = iter.getPos();
 		int[] stop = iter.getStop().clone();
 		int srank = pos.length - 2;
+		int index = 0;
 
 		while (iter.hasNext() && diter.hasNext()) {
-			DetectorProperties dp = NexusTreeUtils.parseDetector(detectorPath, tree, dpos)[0];
+			ScanPointGeometry g = getGeometry(tree, index++, dpos);
+			DetectorProperties dp = g.detector;
 			for (int i = 0; i < srank; i++) {
 				stop[i] = pos[i] + 1;
 			}
-			DiffractionSample sample = NexusTreeUtils.parseSample(samplePath, tree, dpos);
+			DiffractionSample sample = g.sample;
 			DiffractionCrystalEnvironment env = sample.getDiffractionCrystalEnvironment();
 			QSpace qspace = new QSpace(dp, env);
 			if (qDel != null) {
@@ -625,55 +694,275 @@ public class MillerSpaceMapper {
 	}
 
 	private void mapImages(boolean mapQ, Tree tree, Dataset trans, ILazyDataset images, PositionIterator[] iters,
-			DoubleDataset map, DoubleDataset weight, int[] ishape, BicubicInterpolator upSampler) {
+			VoxelVolume volume, int[] ishape, BicubicInterpolator upSampler) throws ScanFileHolderException {
 		PositionIterator diter = iters[0];
 		PositionIterator iter = iters[1];
 		iter.reset();
 		diter.reset();
+
+		VoxelVolume[] partials = threads > 1 ? createPartialVolumes(volume, threads - 1) : null;
+		if (partials != null && partials.length > 0) {
+			mapImagesInParallel(mapQ, tree, trans, images, iters, volume, partials, ishape, upSampler);
+			return;
+		}
+
 		int[] dpos = diter.getPos();
 		int[] pos = iter.getPos();
 		int[] stop = iter.getStop().clone();
-		int rank  = pos.length;
-		int srank = rank - 2;
-		MillerSpace mspace = null;
+		int srank = pos.length - 2;
+		int index = 0;
 
 		while (iter.hasNext() && diter.hasNext()) {
-			DetectorProperties dp = NexusTreeUtils.parseDetector(detectorPath, tree, dpos)[0];
-			dp.setHPxSize(dp.getHPxSize() / scale);
-			dp.setVPxSize(dp.getVPxSize() / scale);
-			if (upSampler != null) {
-				dp.setPx(ishape[0]);
-				dp.setPy(ishape[1]);
+			ScanImage si = readImage(mapQ, tree, trans, images, index++, dpos, pos, stop, ishape, upSampler != null);
+			int[] s = prepareImage(si, srank, ishape, upSampler);
+			if (s != null) {
+				mapImage(s, si.qspace, si.pixels, si.mspace, si.image, volume, splitter, sMin, sMax);
 			}
-			for (int i = 0; i < srank; i++) {
-				stop[i] = pos[i] + 1;
+		}
+	}
+
+	/**
+	 * Map images using a pool of workers that each add to their own partial volume. Images are
+	 * read ahead of the workers on the calling thread and the partial volumes are added to the
+	 * given volume at the end
+	 */
+	private void mapImagesInParallel(boolean mapQ, Tree tree, Dataset trans, ILazyDataset images, PositionIterator[] iters,
+			VoxelVolume volume, VoxelVolume[] partials, final int[] ishape, final BicubicInterpolator upSampler) throws ScanFileHolderException {
+		PositionIterator diter = iters[0];
+		PositionIterator iter = iters[1];
+		int[] dpos = diter.getPos();
+		int[] pos = iter.getPos();
+		int[] stop = iter.getStop().clone();
+		final int srank = pos.length - 2;
+
+		int n = partials.length + 1;
+		final BlockingQueue<ScanImage> queue = new ArrayBlockingQueue<>(READ_AHEAD * n);
+		ExecutorService pool = ThreadUtils.createDaemonThreadPool("Miller space mapper", n);
+
+		try {
+			List<Future<int[][]>> futures = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				final VoxelVolume tvolume = i == 0 ? volume : partials[i - 1];
+				futures.add(pool.submit(new Callable<int[][]>() {
+					@Override
+					public int[][] call() throws Exception {
+						PixelSplitter tsplitter = copySplitter(splitter);
+						BicubicInterpolator tupSampler = upSampler == null ? null : new BicubicInterpolator(ishape);
+						int[] tMin = sMin == null ? null : sMin.clone();
+						int[] tMax = sMax == null ? null : sMax.clone();
+						ScanImage si;
+						while ((si = queue.take()) != END) {
+							int[] s = prepareImage(si, srank, ishape, tupSampler);
+							if (s != null) {
+								mapImage(s, si.qspace, si.pixels, si.mspace, si.image, tvolume, tsplitter, tMin, tMax);
+							}
+						}
+						return new int[][] {tMin, tMax};
+					}
+				}));
 			}
-			DiffractionSample sample = NexusTreeUtils.parseSample(samplePath, tree, dpos);
-			DiffractionCrystalEnvironment env = sample.getDiffractionCrystalEnvironment();
-			QSpace qspace = new QSpace(dp, env);
-			if (!mapQ) {
-				mspace = new MillerSpace(sample.getUnitCell(), env.getOrientation());
+
+			int index = 0;
+			while (iter.hasNext() && diter.hasNext()) {
+				put(queue, readImage(mapQ, tree, trans, images, index++, dpos, pos, stop, ishape, upSampler != null), futures);
 			}
-			Dataset image = DatasetUtils.convertToDataset(images.getSlice(pos, stop, null));
-			if (trans != null) {
-				if (trans.getSize() == 1) {
-					image.idivide(trans.getElementDoubleAbs(0));
-				} else {
-					image.idivide(trans.getDouble(dpos));
+			for (int i = 0; i < n; i++) {
+				put(queue, END, futures);
+			}
+
+			for (Future<int[][]> f : futures) {
+				int[][] bounds = f.get();
+				if (reduceToNonZeroBB) {
+					for (int i = 0; i < 3; i++) {
+						sMin[i] = Math.min(sMin[i], bounds[0][i]);
+						sMax[i] = Math.max(sMax[i], bounds[1][i]);
+					}
 				}
 			}
-			int[] s = Arrays.copyOfRange(image.getShapeRef(), srank, rank);
-			image.setShape(s);
-			if (image.max().doubleValue() <= 0) {
-				System.err.println("Skipping image at " + Arrays.toString(pos));
-				continue;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ScanFileHolderException("Mapping of images was interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof Error) { // in particular, OutOfMemoryError
+				throw (Error) t;
 			}
-			if (upSampler != null) {
-				image = upSampler.value(image).get(0);
-				s = ishape;
+			throw new ScanFileHolderException("Could not map images", t);
+		} finally {
+			pool.shutdownNow();
+		}
+
+		for (VoxelVolume p : partials) {
+			volume.add(p);
+		}
+	}
+
+	/**
+	 * Queue image for workers
+	 * @throws ExecutionException if any worker has failed
+	 */
+	private static void put(BlockingQueue<ScanImage> queue, ScanImage si, List<Future<int[][]>> futures) throws InterruptedException, ExecutionException {
+		while (!queue.offer(si, 100, TimeUnit.MILLISECONDS)) {
+			for (Future<int[][]> f : futures) {
+				if (f.isDone()) {
+					f.get();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Create empty partial volumes that fit in half the memory currently available
+	 * @param volume
+	 * @param n maximum number of partial volumes
+	 * @return partial volumes
+	 */
+	private static VoxelVolume[] createPartialVolumes(VoxelVolume volume, int n) {
+		long size = volume.getEmptyBytes();
+		if (size > 0) {
+			Runtime rt = Runtime.getRuntime();
+			long available = rt.maxMemory() - rt.totalMemory() + rt.freeMemory();
+			n = (int) Math.min(n, available / (2 * size));
+		}
+
+		List<VoxelVolume> partials = new ArrayList<>();
+		try {
+			for (int i = 0; i < n; i++) {
+				partials.add(volume.createEmpty());
 			}
-			mapImage(s, qspace, mspace, image, map, weight);
+		} catch (IllegalArgumentException | OutOfMemoryError e) {
+			logger.info("There is only enough memory for {} partial volumes", partials.size());
 		}
+		return partials.toArray(new VoxelVolume[partials.size()]);
+	}
+
+	private static PixelSplitter copySplitter(PixelSplitter splitter) {
+		return splitter instanceof InverseSplitter ? ((InverseSplitter) splitter).copy() : splitter;
+	}
+
+	/**
+	 * Detector and sample parsed from Nexus tree at a scan point
+	 */
+	private static class ScanPointGeometry {
+		private final DetectorProperties detector;
+		private final DiffractionSample sample;
+
+		private ScanPointGeometry(DetectorProperties detector, DiffractionSample sample) {
+			this.detector = detector;
+			this.sample = sample;
+		}
+	}
+
+	/**
+	 * Get geometry at scan point. The tree is parsed once for each point and the geometry is kept
+	 * for later passes over the scan
+	 * @param tree
+	 * @param index of point in scan order
+	 * @param dpos position in scan
+	 * @return geometry (do not modify)
+	 */
+	private ScanPointGeometry getGeometry(Tree tree, int index, int[] dpos) {
+		List<ScanPointGeometry> list = geometries.get(tree);
+		if (list == null) {
+			list = new ArrayList<>();
+			geometries.put(tree, list);
+		}
+		if (index < list.size()) {
+			return list.get(index);
+		}
+
+		ScanPointGeometry g = new ScanPointGeometry(NexusTreeUtils.parseDetector(detectorPath, tree, dpos)[0],
+				NexusTreeUtils.parseSample(samplePath, tree, dpos));
+		if (index == list.size()) {
+			list.add(g);
+		}
+		return g;
+	}
+
+	private void clearGeometries() {
+		geometries.clear();
+		pixels = null;
+	}
+
+	/**
+	 * Image at a scan point with the geometry it was taken with
+	 */
+	private static class ScanImage {
+		private final int[] pos;
+		private final QSpace qspace;
+		private final PixelQSpace pixels;
+		private final MillerSpace mspace;
+		private final double divisor;
+		private Dataset image;
+
+		private ScanImage(int[] pos, QSpace qspace, PixelQSpace pixels, MillerSpace mspace, Dataset image, double divisor) {
+			this.pos = pos;
+			this.qspace = qspace;
+			this.pixels = pixels;
+			this.mspace = mspace;
+			this.image = image;
+			this.divisor = divisor;
+		}
+	}
+
+	private static final ScanImage END = new ScanImage(null, null, null, null, null, 1);
+
+	private ScanImage readImage(boolean mapQ, Tree tree, Dataset trans, ILazyDataset images, int index, int[] dpos, int[] pos, int[] stop, int[] ishape, boolean upsample) {
+		ScanPointGeometry g = getGeometry(tree, index, dpos);
+		DetectorProperties dp = g.detector.clone();
+		dp.setHPxSize(dp.getHPxSize() / scale);
+		dp.setVPxSize(dp.getVPxSize() / scale);
+		if (upsample) {
+			dp.setPx(ishape[0]);
+			dp.setPy(ishape[1]);
+		}
+		int srank = pos.length - 2;
+		for (int i = 0; i < srank; i++) {
+			stop[i] = pos[i] + 1;
+		}
+		DiffractionSample sample = g.sample;
+		DiffractionCrystalEnvironment env = sample.getDiffractionCrystalEnvironment();
+		QSpace qspace = new QSpace(dp, env);
+		MillerSpace mspace = mapQ ? null : new MillerSpace(sample.getUnitCell(), env.getOrientation());
+
+		// per-pixel values are calculated once the detector geometry is seen to repeat
+		if (pixels != null && pixels.matches(qspace, ishape)) {
+			pixels.calculate(qspace);
+		} else {
+			pixels = new PixelQSpace(qspace, ishape);
+		}
+		Dataset image = DatasetUtils.convertToDataset(images.getSlice(pos, stop, null));
+		double divisor = 1;
+		if (trans != null) {
+			divisor = trans.getSize() == 1 ? trans.getElementDoubleAbs(0) : trans.getDouble(dpos);
+		}
+		return new ScanImage(pos.clone(), qspace, pixels.isCalculated() ? pixels : null, mspace, image, divisor);
+	}
+
+	/**
+	 * Normalise and upsample image
+	 * @param si
+	 * @param srank scan rank
+	 * @param ishape upsampled shape
+	 * @param upSampler can be null
+	 * @return shape of image or null if image has no positive values
+	 */
+	private static int[] prepareImage(ScanImage si, int srank, int[] ishape, BicubicInterpolator upSampler) {
+		Dataset image = si.image;
+		if (si.divisor != 1) {
+			image.idivide(si.divisor);
+		}
+		int[] s = Arrays.copyOfRange(image.getShapeRef(), srank, srank + 2);
+		image.setShape(s);
+		if (image.max().doubleValue() <= 0) {
+			System.err.println("Skipping image at " + Arrays.toString(si.pos));
+			return null;
+		}
+		if (upSampler != null) {
+			si.image = upSampler.value(image).get(0);
+			s = ishape;
+		}
+		return s;
 	}
 
 	private static void minMax(double[] min, double[] max, Vector3d v) {
@@ -685,7 +974,8 @@ public class MillerSpaceMapper {
 		max[2] = Math.max(max[2], v.z);
 	}
 
-	private void mapImage(int[] s, QSpace qspace, MillerSpace mspace, Dataset image, DoubleDataset map, DoubleDataset weight) {
+	private void mapImage(int[] s, QSpace qspace, PixelQSpace pixels, MillerSpace mspace, Dataset image, VoxelVolume volume,
+			PixelSplitter splitter, int[] sMin, int[] sMax) {
 		int[] pos = new int[3]; // voxel position
 		Vector3d q = new Vector3d();
 		double value;
@@ -697,14 +987,18 @@ public class MillerSpaceMapper {
 				for (int x = 0; x < s[1]; x++) {
 					value = image.getDouble(y, x);
 					if (value > 0) {
-						qspace.qFromPixelPosition(x + 0.5, y + 0.5, q);
+						if (pixels == null) {
+							qspace.qFromPixelPosition(x + 0.5, y + 0.5, q);
+						} else {
+							pixels.qFromPixelPosition(x, y, q);
+						}
 	
 						if (convertToVoxel(q, dq, pos)) {
-							value /= qspace.calculateSolidAngle(x, y);
+							value /= pixels == null ? qspace.calculateSolidAngle(x, y) : pixels.calculateSolidAngle(x, y);
 							if (reduceToNonZeroBB) {
 								minMax(sMin, sMax, pos);
 							}
-							splitter.splitValue(map, weight, vDel, dq, pos, value);
+							splitter.splitValue(volume, vDel, dq, pos, value);
 						}
 					}
 				}
@@ -717,15 +1011,19 @@ public class MillerSpaceMapper {
 				for (int x = 0; x < s[1]; x++) {
 					value = image.getDouble(y, x);
 					if (value > 0) {
-						qspace.qFromPixelPosition(x + 0.5, y + 0.5, q);
+						if (pixels == null) {
+							qspace.qFromPixelPosition(x + 0.5, y + 0.5, q);
+						} else {
+							pixels.qFromPixelPosition(x, y, q);
+						}
 	
 						mspace.h(q, null, h);
 						if (convertToVoxel(h, dh, pos)) {
-							value /= qspace.calculateSolidAngle(x, y);
+							value /= pixels == null ? qspace.calculateSolidAngle(x, y) : pixels.calculateSolidAngle(x, y);
 							if (reduceToNonZeroBB) {
 								minMax(sMin, sMax, pos);
 							}
-							splitter.splitValue(map, weight, vDel, dh, pos, value);
+							splitter.splitValue(volume, vDel, dh, pos, value);
 						}
 					}
 				}
@@ -781,11 +1079,6 @@ public class MillerSpaceMapper {
 		return true;
 	}
 
-	private static void addToDataset(DoubleDataset d, final int[] pos, double v) {
-		final int index = d.get1DIndex(pos);
-		d.setAbs(index, d.getAbs(index) + v);
-	}
-
 	private void doImages(Tree tree, Dataset trans, ILazyDataset images, PositionIterator[] iters,
 			ILazyWriteableDataset lazy, int[] ishape, BicubicInterpolator upSampler) throws ScanFileHolderException {
 		PositionIterator diter = iters[0];
@@ -799,9 +1092,11 @@ public class MillerSpaceMapper {
 		int srank = rank - 2;
 		MillerSpace mspace = null;
 		DoubleDataset list = null;
+		int index = 0;
 
 		while (iter.hasNext() && diter.hasNext()) {
-			DetectorProperties dp = NexusTreeUtils.parseDetector(detectorPath, tree, dpos)[0];
+			ScanPointGeometry g = getGeometry(tree, index++, dpos);
+			DetectorProperties dp = g.detector.clone();
 			dp.setHPxSize(dp.getHPxSize() / scale);
 			dp.setVPxSize(dp.getVPxSize() / scale);
 			if (upSampler != null) {
@@ -811,7 +1106,7 @@ public class MillerSpaceMapper {
 			for (int i = 0; i < srank; i++) {
 				stop[i] = pos[i] + 1;
 			}
-			DiffractionSample sample = NexusTreeUtils.parseSample(samplePath, tree, dpos);
+			DiffractionSample sample = g.sample;
 			DiffractionCrystalEnvironment env = sample.getDiffractionCrystalEnvironment();
 			QSpace qspace = new QSpace(dp, env);
 			mspace = new MillerSpace(sample.getUnitCell(), env.getOrientation());
@@ -951,6 +1246,7 @@ public class MillerSpaceMapper {
 	 */
 	public void mapToVolumeFile() throws ScanFileHolderException {
 		hasDeleted = false; // reset state
+		clearGeometries();
 
 		Dataset[][] a = processBean();
 		if (qDel == null && hDel == null && !listMillerEntries) {
@@ -1004,6 +1300,7 @@ public class MillerSpaceMapper {
 		if (listMillerEntries) {
 			processTreesForList(trees, allIters, output);
 		}
+		clearGeometries();
 	}
 
 	private void processTrees(boolean mapQ, Tree[] trees, PositionIterator[][] allIters, String output, Dataset[] a) throws ScanFileHolderException {
@@ -1016,13 +1313,18 @@ public class MillerSpaceMapper {
 		}
 		String volPath = mapQ ? Q_VOLUME_DATA_PATH : MILLER_VOLUME_DATA_PATH;
 
+		if (sparse) {
+			processTreesSparsely(mapQ, trees, allIters, output, volPath, vShape, a);
+			return;
+		}
+
 		try {
 			DoubleDataset map = (DoubleDataset) DatasetFactory.zeros(vShape, Dataset.FLOAT64);
 			DoubleDataset weight = (DoubleDataset) DatasetFactory.zeros(vShape, Dataset.FLOAT64);
 
 			for (int i = 0; i < trees.length; i++) {
 				Tree tree = trees[i];
-				mapToASpace(mapQ, tree, allIters[i], map, weight);
+				mapToASpace(mapQ, tree, allIters[i], new DenseVoxelVolume(map, weight));
 			}
 			Maths.dividez(map, weight, map); // normalize by tally
 
@@ -1099,6 +1401,57 @@ public class MillerSpaceMapper {
 		}
 	}
 
+	/**
+	 * Map images to a sparse volume then write its bricks to the output file
+	 */
+	private void processTreesSparsely(boolean mapQ, Tree[] trees, PositionIterator[][] allIters, String output, String volPath, int[] vShape, Dataset[] a) throws ScanFileHolderException {
+		SparseVoxelVolume volume = new SparseVoxelVolume(vShape);
+		for (int i = 0; i < trees.length; i++) {
+			mapToASpace(mapQ, trees[i], allIters[i], volume);
+		}
+		logger.debug("Mapped to {} bricks of {} voxels cubed", volume.getNumberOfBricks(), SparseVoxelVolume.BRICK_LENGTH);
+
+		int[] start = new int[3];
+		int[] stop = vShape.clone();
+		if (reduceToNonZeroBB) {
+			int[][] bounds = volume.getNonZeroBounds();
+			if (bounds != null) {
+				start = bounds[0];
+				stop = bounds[1];
+			}
+			logger.debug("Reduced to non-zero bounding box: {} to {}", Arrays.toString(start), Arrays.toString(stop));
+			for (int i = 0; i < 3; i++) {
+				vMin[i] += start[i] * vDel[i];
+				vShape[i] = stop[i] - start[i];
+			}
+			logger.debug("so now start = {} for shape = {}", Arrays.toString(vMin), Arrays.toString(vShape));
+		}
+
+		if (findImageBB || reduceToNonZeroBB) {
+			if (mapQ) {
+				createQSpaceAxes(a, vShape, vMin, null, vDel);
+			} else {
+				createMillerSpaceAxes(a, vShape, vMin, null, vDel);
+			}
+		}
+		if (!hasDeleted) {
+			HDF5FileFactory.deleteFile(output);
+			hasDeleted = true;
+		}
+
+		int[] cShape = new int[3];
+		for (int i = 0; i < 3; i++) {
+			cShape[i] = Math.min(vShape[i], SparseVoxelVolume.BRICK_LENGTH);
+		}
+		LazyWriteableDataset lazy = HDF5Utils.createLazyDataset(output, volPath, VOLUME_NAME, vShape, null, cShape, Dataset.FLOAT64, null, false);
+		try {
+			volume.write(lazy, start, stop);
+		} catch (Exception e) {
+			throw new ScanFileHolderException("Could not save volume", e);
+		}
+		saveAxesAndAttributes(output, volPath, a);
+	}
+
 	private static void createQSpaceAxes(Dataset[] a, int[] mShape, double[] mStart, double[] mStop, double[] mDelta) {
 		createAxes(Q_VOLUME_AXES, a, mShape, mStart, mStop, mDelta);
 	}
@@ -1262,7 +1615,7 @@ public class MillerSpaceMapper {
 					upSampler = new BicubicInterpolator(ishape);
 				}
 
-				mapImages(mapQ, tree, trans, images, iters, map, weight, ishape, upSampler);
+				mapImages(mapQ, tree, trans, images, iters, new DenseVoxelVolume(map, weight), ishape, upSampler);
 			}
 			Maths.dividez(map, weight, map); // normalize by tally
 
@@ -1318,7 +1671,7 @@ public class MillerSpaceMapper {
 				upSampler = new BicubicInterpolator(ishape);
 			}
 
-			mapImages(mapQ, tree, trans, images, iters, map, weight, ishape, upSampler);
+			mapImages(mapQ, tree, trans, images, iters, new DenseVoxelVolume(map, weight), ishape, upSampler);
 		}
 		Maths.dividez(map, weight, map); // normalize by tally
 
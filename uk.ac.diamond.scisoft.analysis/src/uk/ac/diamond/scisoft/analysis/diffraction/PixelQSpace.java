@@ -0,0 +1,125 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import javax.vecmath.Vector3d;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+
+/**
+ * Precomputed q vectors (in the laboratory frame) of pixel centres and solid angles of pixels
+ * for a detector at a fixed position and beam of fixed wavelength. Once calculated, it is not
+ * modified so can be shared between threads.
+ * <p>
+ * Values are not held for images with more pixels than set by the system property
+ * {@value #MAX_PIXELS_PROPERTY} so they have to be calculated per pixel instead.
+ */
+class PixelQSpace {
+	static final String MAX_PIXELS_PROPERTY = "uk.ac.diamond.scisoft.analysis.diffraction.mapper.maxcachedpixels";
+	private static final int MAX_PIXELS = Integer.getInteger(MAX_PIXELS_PROPERTY, 4 * 1024 * 1024); // 128 MiB of values
+
+	private final DetectorProperties detector;
+	private final double wavelength;
+	private final int height;
+	private final int width;
+	private double[] q;
+	private double[] solidAngles;
+
+	/**
+	 * @param qspace
+	 * @param shape of image (rows and columns)
+	 */
+	PixelQSpace(QSpace qspace, int[] shape) {
+		detector = qspace.getDetectorProperties().clone();
+		wavelength = qspace.getWavelength();
+		height = shape[0];
+		width = shape[1];
+	}
+
+	/**
+	 * @return true if values have been calculated
+	 */
+	boolean isCalculated() {
+		return q != null;
+	}
+
+	/**
+	 * Calculate values if this has not been done and image is small enough
+	 * @param qspace that this matches
+	 */
+	void calculate(QSpace qspace) {
+		if (q != null) {
+			return;
+		}
+
+		long size = (long) height * width;
+		if (size > MAX_PIXELS) {
+			return;
+		}
+
+		int n = (int) size;
+		double[] q = new double[3 * n];
+		double[] solidAngles = new double[n];
+		Vector3d v = new Vector3d();
+		int i = 0;
+		int j = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				qspace.qFromPixelPosition(x + 0.5, y + 0.5, v);
+				q[j++] = v.x;
+				q[j++] = v.y;
+				q[j++] = v.z;
+				solidAngles[i++] = qspace.calculateSolidAngle(x, y);
+			}
+		}
+		this.solidAngles = solidAngles;
+		this.q = q;
+	}
+
+	/**
+	 * @param qspace
+	 * @param shape of image
+	 * @return true if this is for the same detector geometry, wavelength and image shape
+	 */
+	boolean matches(QSpace qspace, int[] shape) {
+		if (wavelength != qspace.getWavelength() || height != shape[0] || width != shape[1]) {
+			return false;
+		}
+		DetectorProperties dp = qspace.getDetectorProperties();
+		return detector.getPx() == dp.getPx() && detector.getPy() == dp.getPy()
+				&& detector.getStartX() == dp.getStartX() && detector.getStartY() == dp.getStartY()
+				&& detector.getHPxSize() == dp.getHPxSize() && detector.getVPxSize() == dp.getVPxSize()
+				&& detector.getOrigin().equals(dp.getOrigin())
+				&& detector.getBeamVector().equals(dp.getBeamVector())
+				&& detector.getOrientation().equals(dp.getOrientation());
+	}
+
+	/**
+	 * Get q vector of pixel centre. Must only be called once values have been calculated
+	 * @param x
+	 * @param y
+	 * @param v output q vector
+	 */
+	void qFromPixelPosition(int x, int y, Vector3d v) {
+		int j = 3 * (y * width + x);
+		v.x = q[j++];
+		v.y = q[j++];
+		v.z = q[j];
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return solid angle subtended by pixel
+	 */
+	double calculateSolidAngle(int x, int y) {
+		return solidAngles[y * width + x];
+	}
+}
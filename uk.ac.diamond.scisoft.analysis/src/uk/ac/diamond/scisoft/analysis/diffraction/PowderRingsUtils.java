@@ -14,6 +14,10 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.measure.unit.NonSI;
 import javax.vecmath.Vector3d;
@@ -51,6 +55,7 @@ import uk.ac.diamond.scisoft.analysis.fitting.Generic1DFitter;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.IdentifiedPeak;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.Polynomial;
 import uk.ac.diamond.scisoft.analysis.roi.ROIProfile;
+import uk.ac.diamond.scisoft.analysis.utils.ThreadUtils;
 
 /**
  * Utilities to fit powder rings
@@ -360,8 +365,8 @@ public class PowderRingsUtils {
 	 * @param maxPoints
 	 * @return list of ellipses
 	 */
-	public static List<EllipticalROI> findOtherEllipses(IMonitor mon, Dataset image, BooleanDataset mask, EllipticalROI roi,
-			double radialMin, double radialDelta, double arcLength, double trimDelta, int maxPoints) {
+	public static List<EllipticalROI> findOtherEllipses(final IMonitor mon, final Dataset image, final BooleanDataset mask, final EllipticalROI roi,
+			final double radialMin, final double radialDelta, final double arcLength, final double trimDelta, final int maxPoints) {
 		if (image.getRank() != 2) {
 			logger.error("Dataset must have two dimensions");
 			throw new IllegalArgumentException("Dataset must have two dimensions");
@@ -375,26 +380,65 @@ public class PowderRingsUtils {
 		final int[] shape = image.getShape();
 		final int h = shape[0];
 		final int w = shape[1];
-		double[] ec = roi.getPoint();
+		final double[] ec = roi.getPoint();
+		final double[][] directions = new double[][] {
+			{0 - ec[0], 0 - ec[1]}, // TL
+			{w - ec[0], 0 - ec[1]}, // TR
+			{w - ec[0], h - ec[1]}, // BR
+			{0 - ec[0], h - ec[1]}, // BL
+
+			{0, h - ec[1]}, // T
+			{w - ec[0], 0}, // R
+			{0, 0 - ec[1]}, // B
+			{0 - ec[0], 0}, // L
+		};
+
+		List<Future<List<Double>>> sweeps = new ArrayList<Future<List<Double>>>();
+		for (final double[] d : directions) {
+			sweeps.add(ExecutorHolder.executor.submit(new Callable<List<Double>>() {
+				@Override
+				public List<Double> call() throws Exception {
+					return findMajorAxes(mon, image, mask, roi, radialMin, radialDelta, ec, d[0], d[1]);
+				}
+			}));
+		}
 		TreeSet<Double> majors = new TreeSet<Double>();
+		for (List<Double> axes : getResults(sweeps)) {
+			majors.addAll(axes);
+		}
 
-		// TODO farm this out across several threads
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, 0 - ec[0], 0 - ec[1]); // TL
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, w - ec[0], 0 - ec[1]); // TR
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, w - ec[0], h - ec[1]); // BR
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, 0 - ec[0], h - ec[1]); // BL
-
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, 0, h - ec[1]); // T
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, w - ec[0], 0); // R
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, 0, 0 - ec[1]); // B
-		findMajorAxes(mon, majors, image, mask, roi, radialMin, radialDelta, ec, 0 - ec[0], 0); // L
+		// and finally find POIs: candidate rings are fitted concurrently then accepted in order of size
+		final double major = roi.getSemiAxis(0);
+		final double aspect = roi.getSemiAxis(0)/roi.getSemiAxis(1);
+		List<Future<RingFit>> candidates = new ArrayList<Future<RingFit>>();
+		for (final double a : majors) {
+			if (Math.abs(a - major) < RING_SEPARATION) {
+				candidates.add(null);
+				continue;
+			}
+			candidates.add(ExecutorHolder.executor.submit(new Callable<RingFit>() {
+				@Override
+				public RingFit call() throws Exception {
+					EllipticalROI er = new EllipticalROI(a, a/aspect, roi.getAngle(), ec[0], ec[1]);
+					try {
+						PolylineROI polyline = findPOIsNearEllipse(mon, image, mask, er, arcLength, 0.8*radialDelta, maxPoints);
+						if (polyline.getNumberOfPoints() > 2) {
+							return new RingFit(er, fitAndTrimOutliers(mon, polyline, trimDelta, roi.isCircular()), null);
+						}
+						return new RingFit(er, null, null);
+					} catch (IllegalArgumentException e) {
+						return new RingFit(er, null, e);
+					}
+				}
+			}));
+		}
+		List<RingFit> fits = getResults(candidates);
 
-		// and finally find POIs
 		List<EllipticalROI> ells = new ArrayList<EllipticalROI>();
-		double major = roi.getSemiAxis(0);
-		double aspect = roi.getSemiAxis(0)/roi.getSemiAxis(1);
 		double last = Double.NEGATIVE_INFINITY;
+		int i = 0;
 		for (double a : majors) {
+			RingFit fit = fits.get(i++);
 			System.err.println("Current " + a + ", last " + last);
 			if (a < last) {
 				System.err.println("Dropped as less than last");
@@ -410,11 +454,13 @@ public class PowderRingsUtils {
 				System.err.println("Add original");
 				ells.add(roi);
 			} else {
-				EllipticalROI er = new EllipticalROI(a, a/aspect, roi.getAngle(), ec[0], ec[1]);
-				try {
-					PolylineROI polyline = findPOIsNearEllipse(mon, image, mask, er, arcLength, 0.8*radialDelta, maxPoints);
-					if (polyline.getNumberOfPoints() > 2) {
-						er = fitAndTrimOutliers(mon, polyline, trimDelta, roi.isCircular());
+				EllipticalROI er = fit.ring;
+				if (fit.error != null) {
+					logger.debug("Problem with {}", er, fit.error);
+					last = a;
+				} else {
+					if (fit.fit != null) {
+						er = fit.fit;
 						double emaj = er.getSemiAxis(0);
 						if (Math.abs(emaj - last) < RING_SEPARATION) { // omit close rings
 							last = a;
@@ -435,9 +481,6 @@ public class PowderRingsUtils {
 					} else {
 						logger.warn("Could not find enough points at {}", er);
 					}
-				} catch (IllegalArgumentException e) {
-					logger.debug("Problem with {}", er, e);
-					last = a;
 				}
 				if (mon != null)
 					mon.worked(1);
@@ -447,11 +490,62 @@ public class PowderRingsUtils {
 		return ells;
 	}
 
+	/**
+	 * Outcome of searching near a candidate ring and fitting to the points found
+	 */
+	private static class RingFit {
+		private final EllipticalROI ring;
+		private final EllipticalROI fit; // null if too few points were found
+		private final IllegalArgumentException error;
+
+		private RingFit(EllipticalROI ring, EllipticalROI fit, IllegalArgumentException error) {
+			this.ring = ring;
+			this.fit = fit;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Wait for tasks to finish. If any fails, the others are cancelled
+	 * @param futures (can contain nulls)
+	 * @return results in same order as futures
+	 */
+	private static <T> List<T> getResults(List<Future<T>> futures) {
+		List<T> results = new ArrayList<T>(futures.size());
+		boolean done = false;
+		try {
+			for (Future<T> f : futures) {
+				results.add(f == null ? null : f.get());
+			}
+			done = true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted whilst finding rings", e);
+		} catch (ExecutionException e) {
+			Throwable c = e.getCause();
+			if (c instanceof RuntimeException) {
+				throw (RuntimeException) c;
+			}
+			if (c instanceof Error) {
+				throw (Error) c;
+			}
+			throw new IllegalStateException("Problem whilst finding rings", c);
+		} finally {
+			if (!done) {
+				for (Future<T> f : futures) {
+					if (f != null) {
+						f.cancel(true);
+					}
+				}
+			}
+		}
+		return results;
+	}
+
 	/**
 	 * Find major axes by looking along thick line given by relative coordinates to centre for
 	 * maximum intensity values
 	 * @param mon
-	 * @param axes
 	 * @param image
 	 * @param mask
 	 * @param roi
@@ -460,8 +554,9 @@ public class PowderRingsUtils {
 	 * @param centre
 	 * @param dx
 	 * @param dy
+	 * @return major axes
 	 */
-	private static void findMajorAxes(IMonitor mon, TreeSet<Double> axes, Dataset image, Dataset mask, EllipticalROI roi, double offset, double width, double[] centre, double dx, double dy) {
+	private static List<Double> findMajorAxes(IMonitor mon, Dataset image, Dataset mask, EllipticalROI roi, double offset, double width, double[] centre, double dx, double dy) {
 		RectangularROI rroi = new RectangularROI();
 		rroi.setPoint(centre);
 		rroi.setAngle(Math.atan2(dy, dx));
@@ -493,6 +588,7 @@ public class PowderRingsUtils {
 		logger.debug("Area: {}", stats);
 		logger.debug("Minimum threshold: {}", area);
 
+		List<Double> axes = new ArrayList<Double>();
 		double majorFactor = roi.getSemiAxis(0)/roi.getDistance(rroi.getAngle());
 		double maxFWHM = MAX_FWHM_FACTOR*width;
 		for (IdentifiedPeak p : peaks) {
@@ -513,6 +609,7 @@ public class PowderRingsUtils {
 		if (mon != null)
 			mon.worked(peaks.size());
 
+		return axes;
 	}
 
 	/**
@@ -1559,4 +1656,7 @@ public class PowderRingsUtils {
 		}
 	}
 
+	private static class ExecutorHolder {
+		static final ExecutorService executor = ThreadUtils.createDaemonThreadPool("Powder rings finder", ThreadUtils.getDefaultThreads());
+	}
 }
@@ -0,0 +1,325 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyWriteableDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+
+/**
+ * Volume held as cubic bricks of voxels which are only allocated when a voxel in them is first
+ * added to. This suits volumes that are mostly empty, e.g. maps of rod scans.
+ * <p>
+ * Partial volumes made by {@link #createEmpty()} share a budget of bricks. When adding to a
+ * partial volume would take the bricks held by all of them over that budget, its bricks are
+ * moved into a volume that is shared by the partial volumes and added to this one with them.
+ * So at most the budget of bricks plus two copies of the touched bricks are held at once.
+ */
+class SparseVoxelVolume implements VoxelVolume {
+	static final int BRICK_SHIFT = 4;
+	static final int BRICK_LENGTH = 1 << BRICK_SHIFT;
+	private static final int BRICK_MASK = BRICK_LENGTH - 1;
+	private static final int BRICK_SIZE = BRICK_LENGTH * BRICK_LENGTH * BRICK_LENGTH;
+	static final long BRICK_BYTES = 2 * 8 * BRICK_SIZE;
+
+	private static final long MIN_PARTIAL_BRICKS = 64;
+
+	private final int[] shape;
+	private final long[] bShape; // number of bricks in each dimension
+	private final Map<Long, Brick> bricks = new HashMap<>();
+
+	private long lastKey = -1;
+	private Brick last;
+
+	// for this volume's partial volumes
+	private SparseVoxelVolume merged;
+	private AtomicLong partialBricks;
+	private long partialBudget = -1;
+
+	// for a partial volume
+	private final SparseVoxelVolume spill;
+	private final AtomicLong held;
+	private final long budget;
+
+	private static class Brick implements Comparable<Brick> {
+		private final long key;
+		private final int[] origin;
+		private final double[] values = new double[BRICK_SIZE];
+		private final double[] weights = new double[BRICK_SIZE];
+
+		private Brick(long key, int[] origin) {
+			this.key = key;
+			this.origin = origin;
+		}
+
+		@Override
+		public int compareTo(Brick o) {
+			return Long.compare(key, o.key);
+		}
+	}
+
+	/**
+	 * @param shape of volume
+	 */
+	SparseVoxelVolume(int[] shape) {
+		this(shape, null, null, 0);
+	}
+
+	private SparseVoxelVolume(int[] shape, SparseVoxelVolume spill, AtomicLong held, long budget) {
+		this.shape = shape.clone();
+		bShape = new long[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			bShape[i] = (shape[i] + BRICK_LENGTH - 1) >> BRICK_SHIFT;
+		}
+		this.spill = spill;
+		this.held = held;
+		this.budget = budget;
+	}
+
+	/**
+	 * Set budget shared by partial volumes. This must be called before any are created
+	 * @param bricks maximum number of bricks held by all partial volumes
+	 */
+	void setPartialBudget(long bricks) {
+		partialBudget = bricks;
+	}
+
+	@Override
+	public int[] getShape() {
+		return shape;
+	}
+
+	@Override
+	public void add(int[] pos, double value, double weight) {
+		final int x = pos[0];
+		final int y = pos[1];
+		final int z = pos[2];
+		if (x < 0 || x >= shape[0] || y < 0 || y >= shape[1] || z < 0 || z >= shape[2]) {
+			return;
+		}
+
+		final long key = ((x >> BRICK_SHIFT) * bShape[1] + (y >> BRICK_SHIFT)) * bShape[2] + (z >> BRICK_SHIFT);
+		Brick b = key == lastKey ? last : getBrick(key, x, y, z);
+		final int i = (((x & BRICK_MASK) << BRICK_SHIFT) + (y & BRICK_MASK) << BRICK_SHIFT) + (z & BRICK_MASK);
+		b.values[i] += value;
+		b.weights[i] += weight;
+	}
+
+	private Brick getBrick(long key, int x, int y, int z) {
+		Brick b = bricks.get(key);
+		if (b == null) {
+			if (held != null && held.incrementAndGet() > budget && !bricks.isEmpty()) {
+				spill();
+			}
+			b = new Brick(key, new int[] {x & ~BRICK_MASK, y & ~BRICK_MASK, z & ~BRICK_MASK});
+			bricks.put(key, b);
+		}
+		lastKey = key;
+		last = b;
+		return b;
+	}
+
+	private static int index(Brick b, int[] pos) {
+		return (((pos[0] - b.origin[0]) << BRICK_SHIFT) + pos[1] - b.origin[1] << BRICK_SHIFT) + pos[2] - b.origin[2];
+	}
+
+	private Brick findBrick(int[] pos) {
+		long key = ((pos[0] >> BRICK_SHIFT) * bShape[1] + (pos[1] >> BRICK_SHIFT)) * bShape[2] + (pos[2] >> BRICK_SHIFT);
+		return bricks.get(key);
+	}
+
+	/**
+	 * @param pos
+	 * @return summed value at voxel
+	 */
+	double getValue(int[] pos) {
+		Brick b = findBrick(pos);
+		return b == null ? 0 : b.values[index(b, pos)];
+	}
+
+	/**
+	 * @param pos
+	 * @return summed weight at voxel
+	 */
+	double getWeight(int[] pos) {
+		Brick b = findBrick(pos);
+		return b == null ? 0 : b.weights[index(b, pos)];
+	}
+
+	/**
+	 * Move all bricks of this partial volume to the volume shared by partial volumes
+	 */
+	private void spill() {
+		long n = bricks.size();
+		synchronized (spill) {
+			spill.add(this);
+		}
+		held.addAndGet(-n);
+	}
+
+	/**
+	 * @return empty partial volume whose bricks are limited by a shared budget
+	 */
+	@Override
+	public synchronized SparseVoxelVolume createEmpty() {
+		if (merged == null) {
+			if (partialBudget < 0) {
+				Runtime rt = Runtime.getRuntime();
+				long available = rt.maxMemory() - rt.totalMemory() + rt.freeMemory();
+				partialBudget = Math.max(MIN_PARTIAL_BRICKS, available / (4 * BRICK_BYTES));
+			}
+			merged = new SparseVoxelVolume(shape);
+			partialBricks = new AtomicLong();
+		}
+		return new SparseVoxelVolume(shape, merged, partialBricks, partialBudget);
+	}
+
+	/**
+	 * Add other volume. Its bricks may be taken over so it must not be used afterwards. If it is a
+	 * partial volume of this one, the bricks that partial volumes have moved are added too
+	 */
+	@Override
+	public void add(VoxelVolume other) {
+		SparseVoxelVolume o = (SparseVoxelVolume) other;
+		if (o.spill != null && o.spill == merged) {
+			synchronized (merged) {
+				takeBricks(merged);
+			}
+		}
+		takeBricks(o);
+	}
+
+	private void takeBricks(SparseVoxelVolume o) {
+		for (Brick ob : o.bricks.values()) {
+			Brick b = bricks.get(ob.key);
+			if (b == null) {
+				bricks.put(ob.key, ob);
+			} else {
+				for (int i = 0; i < BRICK_SIZE; i++) {
+					b.values[i] += ob.values[i];
+					b.weights[i] += ob.weights[i];
+				}
+			}
+		}
+		o.bricks.clear();
+		o.lastKey = -1;
+		o.last = null;
+	}
+
+	/**
+	 * @return zero as bricks are allocated as needed and those of partial volumes are limited
+	 * by a shared budget
+	 */
+	@Override
+	public long getEmptyBytes() {
+		return 0;
+	}
+
+	/**
+	 * @return number of allocated bricks
+	 */
+	int getNumberOfBricks() {
+		return bricks.size();
+	}
+
+	/**
+	 * @return start and (exclusive) stop of smallest box containing all voxels with non-zero
+	 * weight or null if there are none
+	 */
+	int[][] getNonZeroBounds() {
+		int[] min = shape.clone();
+		int[] max = new int[] {-1, -1, -1};
+		int[] pos = new int[3];
+		for (Brick b : bricks.values()) {
+			int i = 0;
+			for (int x = 0; x < BRICK_LENGTH; x++) {
+				for (int y = 0; y < BRICK_LENGTH; y++) {
+					for (int z = 0; z < BRICK_LENGTH; z++, i++) {
+						if (b.weights[i] != 0) {
+							pos[0] = b.origin[0] + x;
+							pos[1] = b.origin[1] + y;
+							pos[2] = b.origin[2] + z;
+							for (int j = 0; j < 3; j++) {
+								min[j] = Math.min(min[j], pos[j]);
+								max[j] = Math.max(max[j], pos[j]);
+							}
+						}
+					}
+				}
+			}
+		}
+		if (max[0] < 0) {
+			return null;
+		}
+		for (int j = 0; j < 3; j++) {
+			max[j]++;
+		}
+		return new int[][] {min, max};
+	}
+
+	/**
+	 * Write each brick's values divided by its weights (or zero where weight is zero) that lie within
+	 * given box to a lazy dataset. Bricks are released as they are written so the volume is empty afterwards.
+	 * Voxels that are not in any brick are not written
+	 * @param output dataset with shape of box
+	 * @param start of box
+	 * @param stop of box (exclusive)
+	 * @throws Exception
+	 */
+	void write(ILazyWriteableDataset output, int[] start, int[] stop) throws Exception {
+		List<Brick> list = new ArrayList<>(bricks.values());
+		Collections.sort(list); // write in file order
+		bricks.clear();
+		lastKey = -1;
+		last = null;
+
+		int[] bStart = new int[3];
+		int[] bStop = new int[3];
+		int[] oStart = new int[3];
+		int[] oStop = new int[3];
+		int[] bLength = new int[3];
+		for (Brick b : list) {
+			boolean empty = false;
+			for (int j = 0; j < 3; j++) {
+				bStart[j] = Math.max(b.origin[j], start[j]);
+				bStop[j] = Math.min(b.origin[j] + BRICK_LENGTH, stop[j]);
+				if (bStart[j] >= bStop[j]) {
+					empty = true;
+					break;
+				}
+				bLength[j] = bStop[j] - bStart[j];
+				oStart[j] = bStart[j] - start[j];
+				oStop[j] = bStop[j] - start[j];
+			}
+			if (empty) {
+				continue;
+			}
+
+			double[] data = new double[bLength[0] * bLength[1] * bLength[2]];
+			int k = 0;
+			for (int x = bStart[0]; x < bStop[0]; x++) {
+				for (int y = bStart[1]; y < bStop[1]; y++) {
+					int i = ((x - b.origin[0] << BRICK_SHIFT) + y - b.origin[1] << BRICK_SHIFT) + bStart[2] - b.origin[2];
+					for (int z = bStart[2]; z < bStop[2]; z++, i++) {
+						double w = b.weights[i];
+						data[k++] = w == 0 ? 0 : b.values[i] / w;
+					}
+				}
+			}
+			output.setSlice(null, new DoubleDataset(data, bLength.clone()), oStart, oStop, null);
+		}
+	}
+}
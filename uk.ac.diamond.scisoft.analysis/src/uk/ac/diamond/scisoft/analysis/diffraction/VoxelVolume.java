@@ -0,0 +1,45 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction;
+
+/**
+ * Volume of voxels that accumulates split pixel values and their weights
+ */
+interface VoxelVolume {
+
+	/**
+	 * @return shape of volume (do not modify)
+	 */
+	public int[] getShape();
+
+	/**
+	 * Add to voxel
+	 * @param pos position in volume
+	 * @param value part of pixel value
+	 * @param weight relative contribution of pixel
+	 */
+	public void add(int[] pos, double value, double weight);
+
+	/**
+	 * @return empty volume of same kind and shape
+	 */
+	public VoxelVolume createEmpty();
+
+	/**
+	 * Add all values and weights of other volume which must have been created by {@link #createEmpty()}
+	 * @param other
+	 */
+	public void add(VoxelVolume other);
+
+	/**
+	 * @return estimated number of bytes needed by an empty volume of same kind
+	 */
+	public long getEmptyBytes();
+}
@@ -9,6 +9,7 @@
 
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 
 public interface IPixelIntegrationCache {
@@ -45,4 +46,12 @@ public interface IPixelIntegrationCache {
 	
 	boolean provideLookup();
 	
+	/**
+	 * Get the precomputed sparse pixel to bin table for this geometry and mask
+	 * 
+	 * @param mask may be null
+	 * @return table or null if the per-pixel integration should be used
+	 */
+	PixelIntegrationLookupTable getLookupTable(IDataset mask);
+	
 }
@@ -10,236 +10,268 @@
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
-import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.IntegerDataset;
 //import org.eclipse.dawnsci.analysis.dataset.impl.Outliers;
 
 public class PixelIntegration {
 
+	/**
+	 * Images smaller than this are always integrated on the calling thread
+	 */
+	private static final int MIN_PARALLEL_PIXELS = 1 << 16;
+
 	public static List<Dataset> integrate(IDataset data, IDataset mask, IPixelIntegrationCache bean) {
-		
+		return integrate(data, mask, bean, false);
+	}
+
+	/**
+	 * Integrate an image
+	 *
+	 * @param data
+	 * @param mask may be null
+	 * @param bean
+	 * @param parallel if true the image is split into row tiles which are integrated
+	 * on a fork-join pool and the partial histograms summed
+	 * @return list of axis, integrated intensity and (for 2D) second axis
+	 */
+	public static List<Dataset> integrate(IDataset data, IDataset mask, IPixelIntegrationCache bean, boolean parallel) {
+
+		PixelIntegrationLookupTable table = bean.getLookupTable(mask);
+		if (table != null) return lookupTable(data, table, bean, parallel);
+
 		if (bean.isTo1D()) {
-			if (bean.isPixelSplitting()) return pixelSplitting1D(data, mask, bean);
-			return nonPixelSplitting1D(data, mask, bean);
-		} 
-		
-		if (bean.isPixelSplitting()) return pixelSplitting2D(data, mask, bean);
-		return nonPixelSplitting2D(data, mask, bean);
-		
+			if (bean.isPixelSplitting()) return pixelSplitting1D(data, mask, bean, parallel);
+			return nonPixelSplitting1D(data, mask, bean, parallel);
+		}
+
+		if (bean.isPixelSplitting()) return pixelSplitting2D(data, mask, bean, parallel);
+		return nonPixelSplitting2D(data, mask, bean, parallel);
+
 	}
-	
-	private static List<Dataset> nonPixelSplitting1D(IDataset data, IDataset mask, IPixelIntegrationCache bean) {
-		
+
+	private static List<Dataset> lookupTable(IDataset data, PixelIntegrationLookupTable table, IPixelIntegrationCache bean, boolean parallel) {
+
 		List<Dataset> result = new ArrayList<Dataset>();
-		
-		Dataset d = DatasetUtils.convertToDataset(data);
-		Dataset e = d.getError();
-		
-		int nbins = bean.getNumberOfBinsXAxis();
-		
+
+		Dataset[] out = table.integrate(data, parallel);
+
+		processAndAddToResult(out[0], out[1], result, bean, !bean.isTo1D());
+
+		return result;
+	}
+
+	private static List<Dataset> nonPixelSplitting1D(IDataset data, IDataset mask, IPixelIntegrationCache bean, boolean parallel) {
+
+		List<Dataset> result = new ArrayList<Dataset>();
+
+		final Dataset d = DatasetUtils.convertToDataset(data);
+		final Dataset e = d.getError();
+
+		final int nbins = bean.getNumberOfBinsXAxis();
+
 		final double lo = bean.getXBinEdgeMin();
 		final double hi = bean.getXBinEdgeMax();
 		final double span = (hi - lo)/bean.getNumberOfBinsXAxis();
-		IntegerDataset histo = new IntegerDataset(nbins);
-		DoubleDataset intensity = new DoubleDataset(nbins);
-		DoubleDataset error = null;
-		double[] eb = null;
-		if (e != null) {
-			error = new DoubleDataset(nbins);
-			eb = error.getData();
-		}
-		
-		final int[] h = histo.getData();
-		final double[] in = intensity.getData();
-		
-		Dataset a = bean.getXAxisArray()[0];
-		
+
+		final Dataset a = bean.getXAxisArray()[0];
+
 		if (span <= 0 || a == null) {
-			h[0] = data.getSize();
+			IntegerDataset histo = new IntegerDataset(nbins);
+			histo.getData()[0] = data.getSize();
 			result.add(histo);
-			result.add(intensity);
+			result.add(new DoubleDataset(nbins));
 			return result;
 		}
-		
-		double[] integrationRange = bean.getYAxisRange();
-		Dataset m = DatasetUtils.convertToDataset(mask);
-		Dataset r =  null;
-		if (bean.getYAxisArray() != null) {
-			r = bean.getYAxisArray()[0];
-		}
+
+		final double[] integrationRange = bean.getYAxisRange();
+		final Dataset m = DatasetUtils.convertToDataset(mask);
+		final Dataset r = bean.getYAxisArray() != null ? bean.getYAxisArray()[0] : null;
 
 		//iterate over dataset, binning values per pixel
-		IndexIterator iter = a.getIterator();
-
-		while (iter.hasNext()) {
-			final double val = a.getElementDoubleAbs(iter.index);
-			final double sig = d.getElementDoubleAbs(iter.index);
-			
-			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
-			
-			if (integrationRange != null && r != null) {
-				final double ra = r.getElementDoubleAbs(iter.index);
-				if (ra > integrationRange[1] || ra < integrationRange[0]) continue;
-			}
+		Kernel kernel = new Kernel(nbins, e != null, false) {
+			@Override
+			void accumulate(int start, int end, Buffers b) {
+				final double[] h = b.h;
+				final double[] in = b.in;
+				final double[] eb = b.eb;
+
+				for (int index = start; index < end; index++) {
+					if (m != null && !m.getElementBooleanAbs(index)) continue;
+
+					if (integrationRange != null && r != null) {
+						final double ra = r.getElementDoubleAbs(index);
+						if (ra > integrationRange[1] || ra < integrationRange[0]) continue;
+					}
 
-			if (val < lo || val > hi) {
-				continue;
-			}
+					final double val = a.getElementDoubleAbs(index);
+
+					if (val < lo || val > hi) {
+						continue;
+					}
 
-			int p = (int) ((val-lo)/span);
-			
-			if(p < h.length){
-				h[p]++;
-				in[p] += sig;
-				if (e!=null) {
-					final double std = e.getElementDoubleAbs(iter.index);
-					eb[p] += (std*std);
+					int p = (int) ((val-lo)/span);
+
+					if(p < h.length){
+						h[p]++;
+						in[p] += d.getElementDoubleAbs(index);
+						if (e!=null) {
+							final double std = e.getElementDoubleAbs(index);
+							eb[p] += (std*std);
+						}
+					}
 				}
 			}
-		}
-		
-		if (eb != null) intensity.setErrorBuffer(eb);
-		
+		};
+
+		Buffers b = run(kernel, d, parallel);
+
+		DoubleDataset histo = new DoubleDataset(b.h, nbins);
+		DoubleDataset intensity = new DoubleDataset(b.in, nbins);
+		if (b.eb != null) intensity.setErrorBuffer(b.eb);
+
 		intensity.setName(data.getName() + "_integrated");
-		
+
 		processAndAddToResult(intensity, histo, result, bean,false);
-		
+
 		return result;
-		
+
 	}
-	
-	private static List<Dataset> pixelSplitting1D(IDataset data, IDataset mask, IPixelIntegrationCache bean){
-		
+
+	private static List<Dataset> pixelSplitting1D(IDataset data, IDataset mask, IPixelIntegrationCache bean, boolean parallel){
+
 		List<Dataset> result = new ArrayList<Dataset>();
-		
-		Dataset d = DatasetUtils.convertToDataset(data);
-		Dataset e = d.getError();
-		
-		int nbins = bean.getNumberOfBinsXAxis();
-		
+
+		final Dataset d = DatasetUtils.convertToDataset(data);
+		final Dataset e = d.getError();
+
+		final int nbins = bean.getNumberOfBinsXAxis();
+
 		final double lo = bean.getXBinEdgeMin();
 		final double hi = bean.getXBinEdgeMax();
 		final double span = (hi - lo)/bean.getNumberOfBinsXAxis();
-		DoubleDataset histo = new DoubleDataset(nbins);
-		DoubleDataset intensity = new DoubleDataset(nbins);
-		DoubleDataset error = null;
-		double[] eb = null;
-		if (e != null) {
-			error = new DoubleDataset(nbins);
-			eb = error.getData();
-		}
-		
-		final double[] h = histo.getData();
-		final double[] in = intensity.getData();
-		
-		Dataset[] a= bean.getXAxisArray();
-		
+
+		final Dataset[] a = bean.getXAxisArray();
+
 		if (span <= 0 || a == null) {
-			h[0] = data.getSize();
+			DoubleDataset histo = new DoubleDataset(nbins);
+			histo.getData()[0] = data.getSize();
 			result.add(histo);
-			result.add(intensity);
+			result.add(new DoubleDataset(nbins));
 			return result;
 		}
-		
-		double[] integrationRange = bean.getYAxisRange();
-		Dataset[] r = bean.getYAxisArray();
-		Dataset m = DatasetUtils.convertToDataset(mask);
+
+		final double[] integrationRange = bean.getYAxisRange();
+		final Dataset[] r = bean.getYAxisArray();
+		final Dataset m = DatasetUtils.convertToDataset(mask);
 
 		//iterate over dataset, binning values per pixel
-		IndexIterator iter = a[0].getIterator();
-		
-		double rMin = 0;
-		double rMax = 0;
-		
-		while (iter.hasNext()) {
+		Kernel kernel = new Kernel(nbins, e != null, false) {
+			@Override
+			void accumulate(int start, int end, Buffers b) {
+				final double[] h = b.h;
+				final double[] in = b.in;
+				final double[] eb = b.eb;
 
-			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
+				double rMin = 0;
+				double rMax = 0;
 
-			double rangeScale = 1;
+				for (int index = start; index < end; index++) {
 
-			if (integrationRange != null && r != null) {
-				rMin = r[0].getElementDoubleAbs(iter.index);
-				rMax = r[1].getElementDoubleAbs(iter.index);
+					if (m != null && !m.getElementBooleanAbs(index)) continue;
 
-				if (rMin > integrationRange[1]) continue;
-				if (rMax < integrationRange[0]) continue;
+					double rangeScale = 1;
 
-				double fullRange = rMax-rMin;
+					if (integrationRange != null && r != null) {
+						rMin = r[0].getElementDoubleAbs(index);
+						rMax = r[1].getElementDoubleAbs(index);
 
-				rMin = integrationRange[0] > rMin ? integrationRange[0] : rMin;
-				rMax = integrationRange[1] < rMax ? integrationRange[1] : rMax;
+						if (rMin > integrationRange[1]) continue;
+						if (rMax < integrationRange[0]) continue;
 
-				double reducedRange = rMax-rMin;
+						double fullRange = rMax-rMin;
 
-				rangeScale = reducedRange/fullRange;
+						rMin = integrationRange[0] > rMin ? integrationRange[0] : rMin;
+						rMax = integrationRange[1] < rMax ? integrationRange[1] : rMax;
 
-			}
+						double reducedRange = rMax-rMin;
 
-			double sig = d.getElementDoubleAbs(iter.index);
-			double qMin = a[0].getElementDoubleAbs(iter.index);
-			double qMax = a[1].getElementDoubleAbs(iter.index);
+						rangeScale = reducedRange/fullRange;
 
-			if (qMax < lo || qMin > hi) {
-				continue;
-			} 
+					}
 
-			double minBinExact = (qMin-lo)/span;
-			double maxBinExact = (qMax-lo)/span;
+					double sig = d.getElementDoubleAbs(index);
+					double qMin = a[0].getElementDoubleAbs(index);
+					double qMax = a[1].getElementDoubleAbs(index);
 
-			int minBin = (int)minBinExact;
-			int maxBin = (int)maxBinExact;
+					if (qMax < lo || qMin > hi) {
+						continue;
+					}
 
-			if (minBin == maxBin) {
-				h[minBin]+=rangeScale;
-				in[minBin] += (sig*rangeScale);
-				
-				if (e!=null) {
-					final double std = e.getElementDoubleAbs(iter.index)*rangeScale;
-					eb[minBin] += (std*std);
-				}
-				
-			} else {
+					double minBinExact = (qMin-lo)/span;
+					double maxBinExact = (qMax-lo)/span;
+
+					int minBin = (int)minBinExact;
+					int maxBin = (int)maxBinExact;
+
+					if (minBin == maxBin) {
+						h[minBin]+=rangeScale;
+						in[minBin] += (sig*rangeScale);
 
-				double range = maxBinExact-minBinExact;
+						if (e!=null) {
+							final double std = e.getElementDoubleAbs(index)*rangeScale;
+							eb[minBin] += (std*std);
+						}
 
-				double minFrac = 1-(minBinExact-minBin);
-				double maxFrac = maxBinExact-maxBin;
+					} else {
 
-				for (int i = minBin; i <= maxBin; i++) {
-					double modify = rangeScale;
-					if (i >= h.length || i < 0) continue;
-					if (i == minBin) modify *= minFrac;
-					if (i == maxBin) modify *= maxFrac;
-					modify /= range;
-					h[i]+=modify;
-					in[i] += (sig*modify);
-					if (e!=null) {
-						final double std = e.getElementDoubleAbs(iter.index)*modify;
-						eb[i] += (std*std);
+						double range = maxBinExact-minBinExact;
 
+						double minFrac = 1-(minBinExact-minBin);
+						double maxFrac = maxBinExact-maxBin;
+
+						for (int i = minBin; i <= maxBin; i++) {
+							double modify = rangeScale;
+							if (i >= h.length || i < 0) continue;
+							if (i == minBin) modify *= minFrac;
+							if (i == maxBin) modify *= maxFrac;
+							modify /= range;
+							h[i]+=modify;
+							in[i] += (sig*modify);
+							if (e!=null) {
+								final double std = e.getElementDoubleAbs(index)*modify;
+								eb[i] += (std*std);
+
+							}
+						}
 					}
 				}
 			}
-		}
-		
-		if (eb != null) intensity.setErrorBuffer(eb);
-		
+		};
+
+		Buffers b = run(kernel, d, parallel);
+
+		DoubleDataset histo = new DoubleDataset(b.h, nbins);
+		DoubleDataset intensity = new DoubleDataset(b.in, nbins);
+		if (b.eb != null) intensity.setErrorBuffer(b.eb);
+
 		processAndAddToResult(intensity, histo, result, bean,false);
-		
+
 		return result;
 	}
-	
-	private static List<Dataset> nonPixelSplitting2D(IDataset data, IDataset mask, IPixelIntegrationCache bean) {
+
+	private static List<Dataset> nonPixelSplitting2D(IDataset data, IDataset mask, IPixelIntegrationCache bean, boolean parallel) {
 
 		List<Dataset> result = new ArrayList<Dataset>();
-		
+
 		final double loQ = bean.getXBinEdgeMin();
 		final double hiQ = bean.getXBinEdgeMax();
 		final double spanQ = (hiQ - loQ)/(bean.getNumberOfBinsXAxis());
@@ -247,72 +279,73 @@ public class PixelIntegration {
 		final double loChi = bean.getYBinEdgeMin();
 		final double hiChi = bean.getYBinEdgeMax();
 		final double spanChi = (hiChi - loChi)/(bean.getNumberOfBinsYAxis());
-		
+
 		//TODO early exit if spans are z
 		final int nXBins = bean.getNumberOfBinsXAxis();
 		final int nYBins = bean.getNumberOfBinsYAxis();
 
-		IntegerDataset histo = (IntegerDataset) DatasetFactory.zeros(new int[]{nYBins,nXBins}, Dataset.INT32);
-		DoubleDataset intensity = (DoubleDataset) DatasetFactory.zeros(new int[]{nYBins,nXBins},Dataset.FLOAT64);
-		IntegerDataset lookup = null;
-		
-		if (bean.provideLookup()) {
-			lookup = (IntegerDataset) DatasetFactory.zeros(new int[]{nYBins,nXBins}, Dataset.INT32);
-			lookup.isubtract(1);
-		}
+		final Dataset x = DatasetUtils.convertToDataset(bean.getXAxisArray()[0]);
+		final Dataset y = DatasetUtils.convertToDataset(bean.getYAxisArray()[0]);
+		final Dataset b = DatasetUtils.convertToDataset(data);
+		final Dataset m = DatasetUtils.convertToDataset(mask);
+
+		Kernel kernel = new Kernel(nYBins*nXBins, false, bean.provideLookup()) {
+			@Override
+			void accumulate(int start, int end, Buffers buffers) {
+				final double[] h = buffers.h;
+				final double[] in = buffers.in;
+				final int[] lookup = buffers.lookup;
+
+				for (int index = start; index < end; index++) {
+					if (m != null && !m.getElementBooleanAbs(index)) {
+						continue;
+					}
 
-		Dataset x = DatasetUtils.convertToDataset(bean.getXAxisArray()[0]);
-		Dataset y = DatasetUtils.convertToDataset(bean.getYAxisArray()[0]);
-		Dataset b = DatasetUtils.convertToDataset(data);
-		Dataset m = DatasetUtils.convertToDataset(mask);
-		IndexIterator iter = x.getIterator();
+					final double valq = x.getElementDoubleAbs(index);
+					final double chi = y.getElementDoubleAbs(index);
 
-		while (iter.hasNext()) {
+					if (valq < loQ || valq > hiQ) {
+						continue;
+					}
 
-			final double valq = x.getElementDoubleAbs(iter.index);
-			final double sig = b.getElementDoubleAbs(iter.index);
-			final double chi = y.getElementDoubleAbs(iter.index);
-			if (m != null && !m.getElementBooleanAbs(iter.index)) {
-				continue;
-			}
+					if (chi < loChi || chi > hiChi) {
+						continue;
+					}
 
-			if (valq < loQ || valq > hiQ) {
-				continue;
-			}
+					int qPos = (int) ((valq-loQ)/spanQ);
+					int chiPos = (int) ((chi-loChi)/spanChi);
 
-			if (chi < loChi || chi > hiChi) {
-				continue;
+					if(qPos<nXBins && chiPos<nYBins){
+						int pos = chiPos*nXBins + qPos;
+						h[pos]++;
+						in[pos] += b.getElementDoubleAbs(index);
+						if (lookup != null) lookup[pos] = index;
+					}
+				}
 			}
+		};
 
-			int qPos = (int) ((valq-loQ)/spanQ);
-			int chiPos = (int) ((chi-loChi)/spanChi);
-
-			if(qPos<nXBins && chiPos<nYBins){
-				int cNum = histo.get(chiPos,qPos);
-				double cIn = intensity.get(chiPos,qPos);
-				histo.set(cNum+1, chiPos,qPos);
-				intensity.set(cIn+sig, chiPos,qPos);
-				if (lookup != null) lookup.set(iter.index, chiPos,qPos);
-			} 
+		Buffers buffers = run(kernel, b, parallel);
 
-		}
+		DoubleDataset histo = new DoubleDataset(buffers.h, nYBins, nXBins);
+		DoubleDataset intensity = new DoubleDataset(buffers.in, nYBins, nXBins);
 
 		processAndAddToResult(intensity, histo, result,bean, true);
 
-		if (lookup != null) result.add(lookup);
-		
+		if (buffers.lookup != null) result.add(new IntegerDataset(buffers.lookup, nYBins, nXBins));
+
 		return result;
-		
+
 	}
-	
-	
-	private static List<Dataset> pixelSplitting2D(IDataset data, IDataset mask, IPixelIntegrationCache bean) {
-		
+
+
+	private static List<Dataset> pixelSplitting2D(IDataset data, IDataset mask, IPixelIntegrationCache bean, boolean parallel) {
+
 		List<Dataset> result = new ArrayList<Dataset>();
-		
+
 		final int nXBins = bean.getNumberOfBinsXAxis();
 		final int nYBins = bean.getNumberOfBinsYAxis();
-		
+
 		final double minX = bean.getXBinEdgeMin();
 		final double maxX = bean.getXBinEdgeMax();
 		final double spanX = (maxX - minX)/nXBins;
@@ -321,108 +354,224 @@ public class PixelIntegration {
 		final double maxY = bean.getYBinEdgeMax();
 		final double spanY = (maxY - minY)/nYBins;
 
-		DoubleDataset histo = new DoubleDataset(nYBins, nXBins);
-		DoubleDataset intensity = new DoubleDataset(nYBins, nXBins);
-		//			final double[] h = histo.getData();
-		//			final double[] in = intensity.getData();
-		//			if (spanQ <= 0) {
-		//				h[0] = ds.getSize();
-		//				result.add(histo);
-		//				result.add(bins);
-		//				continue;
-		//			}
-
-		Dataset x0 = bean.getXAxisArray()[0];
-		Dataset x1 = bean.getXAxisArray()[1];
-		Dataset y0 = bean.getYAxisArray()[0];
-		Dataset y1 = bean.getYAxisArray()[1];
-		Dataset d = DatasetUtils.convertToDataset(data);
-		
-		Dataset m = DatasetUtils.convertToDataset(mask);
-		
-		IndexIterator iter = x0.getIterator();
-		while (iter.hasNext()) {
+		final Dataset x0 = bean.getXAxisArray()[0];
+		final Dataset x1 = bean.getXAxisArray()[1];
+		final Dataset y0 = bean.getYAxisArray()[0];
+		final Dataset y1 = bean.getYAxisArray()[1];
+		final Dataset d = DatasetUtils.convertToDataset(data);
 
-			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
-			double xPixMax = x1.getElementDoubleAbs(iter.index);
-			double xPixMin = x0.getElementDoubleAbs(iter.index);
-			double yPixMax = y1.getElementDoubleAbs(iter.index);
-			double yPixMin = y0.getElementDoubleAbs(iter.index);
+		final Dataset m = DatasetUtils.convertToDataset(mask);
 
-			double sig = d.getElementDoubleAbs(iter.index);
+		Kernel kernel = new Kernel(nYBins*nXBins, false, false) {
+			@Override
+			void accumulate(int start, int end, Buffers b) {
+				final double[] h = b.h;
+				final double[] in = b.in;
 
-			if (xPixMax < minX || xPixMin > maxX) {
-				continue;
-			} 
+				for (int index = start; index < end; index++) {
 
-			if (yPixMax < minY || yPixMin > maxY) {
-				continue;
-			}
+					if (m != null && !m.getElementBooleanAbs(index)) continue;
+					double xPixMax = x1.getElementDoubleAbs(index);
+					double xPixMin = x0.getElementDoubleAbs(index);
+					double yPixMax = y1.getElementDoubleAbs(index);
+					double yPixMin = y0.getElementDoubleAbs(index);
 
-			double minBinExactX = (xPixMin-minX)/spanX;
-			double maxBinExactX = (xPixMax-minX)/spanX;
-
-			double minBinExactY = (yPixMin-minY)/spanY;
-			double maxBinExactY = (yPixMax-minY)/spanY;
-
-			double partialScale = 1;
-			double iFull = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
-			
-			//Partial pixel if outside of range
-			minBinExactX = xPixMin < minX ? 0 : minBinExactX;
-			maxBinExactX = xPixMax > maxX ? nXBins : maxBinExactX;
-			minBinExactY = yPixMin < minY ? 0 : minBinExactY;
-			maxBinExactY = yPixMax > maxY ? nYBins : maxBinExactY;
-			
-			double iFraction = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
-			partialScale *= (iFraction/iFull);
-			
-			int minBinX = (int)minBinExactX;
-			int maxBinX= (int)maxBinExactX;
-			int minBinY = (int)minBinExactY;
-			int maxBinY = (int)maxBinExactY;
-			
-			double binArea = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
-			
-			double minFracX = 1-(minBinExactX-minBinX);
-			double maxFracX = maxBinExactX-maxBinX;
-			double minFracY = 1-(minBinExactY-minBinY);
-			double maxFracY = maxBinExactY-maxBinY;
-			
-			for (int i = minBinX ; i <= maxBinX; i++) {
-				if (i < 0 || i >= nXBins) continue;
-				for (int j = minBinY; j <= maxBinY; j++) {
-					if (j < 0 || j >= nYBins) continue;
-
-					int[] setPos = new int[]{j,i};
-					double val = histo.get(setPos);
-
-					double modify = partialScale;
-
-					if (i == minBinX && minBinX != maxBinX) modify *= (minFracX);
-					if (i == maxBinX && minBinX != maxBinX) modify *= (maxFracX);
-					if (j == minBinY && minBinY != maxBinY) modify *= (minFracY);
-					if (j == maxBinY && minBinY != maxBinY) modify *= (maxFracY);
-					
-					if (j == maxBinY && maxBinY == minBinY) modify*=(maxBinExactY-minBinExactY);
-					if (j == maxBinX && maxBinX == minBinX) modify*=(maxBinExactX-minBinExactX);
-					
-					modify /= binArea;
-					histo.set(val+modify, setPos);
-					double inVal = intensity.get(setPos);
-					intensity.set(inVal+sig*modify, setPos);
-				}
-				
+					double sig = d.getElementDoubleAbs(index);
+
+					if (xPixMax < minX || xPixMin > maxX) {
+						continue;
+					}
+
+					if (yPixMax < minY || yPixMin > maxY) {
+						continue;
+					}
+
+					double minBinExactX = (xPixMin-minX)/spanX;
+					double maxBinExactX = (xPixMax-minX)/spanX;
+
+					double minBinExactY = (yPixMin-minY)/spanY;
+					double maxBinExactY = (yPixMax-minY)/spanY;
+
+					double partialScale = 1;
+					double iFull = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+
+					//Partial pixel if outside of range
+					minBinExactX = xPixMin < minX ? 0 : minBinExactX;
+					maxBinExactX = xPixMax > maxX ? nXBins : maxBinExactX;
+					minBinExactY = yPixMin < minY ? 0 : minBinExactY;
+					maxBinExactY = yPixMax > maxY ? nYBins : maxBinExactY;
+
+					double iFraction = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+					partialScale *= (iFraction/iFull);
+
+					int minBinX = (int)minBinExactX;
+					int maxBinX= (int)maxBinExactX;
+					int minBinY = (int)minBinExactY;
+					int maxBinY = (int)maxBinExactY;
+
+					double binArea = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+
+					double minFracX = 1-(minBinExactX-minBinX);
+					double maxFracX = maxBinExactX-maxBinX;
+					double minFracY = 1-(minBinExactY-minBinY);
+					double maxFracY = maxBinExactY-maxBinY;
+
+					for (int i = minBinX ; i <= maxBinX; i++) {
+						if (i < 0 || i >= nXBins) continue;
+						for (int j = minBinY; j <= maxBinY; j++) {
+							if (j < 0 || j >= nYBins) continue;
 
+							double modify = partialScale;
+
+							if (i == minBinX && minBinX != maxBinX) modify *= (minFracX);
+							if (i == maxBinX && minBinX != maxBinX) modify *= (maxFracX);
+							if (j == minBinY && minBinY != maxBinY) modify *= (minFracY);
+							if (j == maxBinY && minBinY != maxBinY) modify *= (maxFracY);
+
+							if (j == maxBinY && maxBinY == minBinY) modify*=(maxBinExactY-minBinExactY);
+							if (j == maxBinX && maxBinX == minBinX) modify*=(maxBinExactX-minBinExactX);
+
+							modify /= binArea;
+							int pos = j*nXBins + i;
+							h[pos] += modify;
+							in[pos] += sig*modify;
+						}
+					}
+				}
 			}
-		}
+		};
+
+		Buffers b = run(kernel, d, parallel);
+
+		DoubleDataset histo = new DoubleDataset(b.h, nYBins, nXBins);
+		DoubleDataset intensity = new DoubleDataset(b.in, nYBins, nXBins);
 
 		processAndAddToResult(intensity, histo, result, bean, true);
-		
+
 		return result;
 	}
 
-	
+	/**
+	 * Run the kernel over the whole image, either in one pass or split into row tiles
+	 */
+	private static Buffers run(Kernel kernel, Dataset data, boolean parallel) {
+
+		final int size = data.getSize();
+
+		if (!parallel || size < MIN_PARALLEL_PIXELS) {
+			Buffers b = new Buffers(kernel);
+			kernel.accumulate(0, size, b);
+			return b;
+		}
+
+		int[] shape = data.getShapeRef();
+		int width = shape.length > 1 ? shape[shape.length-1] : size;
+		int rows = size/width;
+		int tiles = 2*getForkJoinPool().getParallelism();
+		int rowsPerTile = Math.max(1, (rows + tiles - 1)/tiles);
+
+		return getForkJoinPool().invoke(new TileTask(kernel, 0, rows, width, size, rowsPerTile));
+	}
+
+	/**
+	 * Binning loop over a contiguous range of pixels
+	 */
+	private static abstract class Kernel {
+
+		final int nBins;
+		final boolean errors;
+		final boolean lookup;
+
+		Kernel(int nBins, boolean errors, boolean lookup) {
+			this.nBins = nBins;
+			this.errors = errors;
+			this.lookup = lookup;
+		}
+
+		abstract void accumulate(int start, int end, Buffers b);
+	}
+
+	/**
+	 * Histogram, intensity, squared error and lookup buffers for one tile
+	 */
+	private static class Buffers {
+
+		final double[] h;
+		final double[] in;
+		final double[] eb;
+		final int[] lookup;
+
+		Buffers(Kernel kernel) {
+			h = new double[kernel.nBins];
+			in = new double[kernel.nBins];
+			eb = kernel.errors ? new double[kernel.nBins] : null;
+			if (kernel.lookup) {
+				lookup = new int[kernel.nBins];
+				Arrays.fill(lookup, -1);
+			} else {
+				lookup = null;
+			}
+		}
+
+		void add(Buffers other) {
+			for (int i = 0; i < h.length; i++) {
+				h[i] += other.h[i];
+				in[i] += other.in[i];
+			}
+			if (eb != null) {
+				for (int i = 0; i < eb.length; i++) eb[i] += other.eb[i];
+			}
+			//sequential integration keeps the last (largest) pixel index
+			if (lookup != null) {
+				for (int i = 0; i < lookup.length; i++) lookup[i] = Math.max(lookup[i], other.lookup[i]);
+			}
+		}
+	}
+
+	/**
+	 * Splits the image into row tiles, each tile accumulates into its own
+	 * buffers which are summed on the way back up
+	 */
+	private static class TileTask extends RecursiveTask<Buffers> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Kernel kernel;
+		private final int startRow;
+		private final int endRow;
+		private final int width;
+		private final int size;
+		private final int rowsPerTile;
+
+		TileTask(Kernel kernel, int startRow, int endRow, int width, int size, int rowsPerTile) {
+			this.kernel = kernel;
+			this.startRow = startRow;
+			this.endRow = endRow;
+			this.width = width;
+			this.size = size;
+			this.rowsPerTile = rowsPerTile;
+		}
+
+		@Override
+		protected Buffers compute() {
+
+			if (endRow - startRow <= rowsPerTile) {
+				Buffers b = new Buffers(kernel);
+				kernel.accumulate(startRow*width, Math.min(endRow*width, size), b);
+				return b;
+			}
+
+			int mid = startRow + (endRow - startRow)/2;
+			TileTask first = new TileTask(kernel, startRow, mid, width, size, rowsPerTile);
+			TileTask second = new TileTask(kernel, mid, endRow, width, size, rowsPerTile);
+			first.fork();
+			Buffers b = second.compute();
+			Buffers a = first.join();
+			a.add(b);
+			return a;
+		}
+	}
+
 	private static void processAndAddToResult(Dataset intensity, Dataset histo, List<Dataset> result, IPixelIntegrationCache bean, boolean is2d) {
 		
 		Dataset error = intensity.getError();
@@ -575,5 +724,15 @@ public class PixelIntegration {
 //		return mb;
 //		
 //	}
-}
 
+	/**
+	 * @return pool shared by parallel integrations
+	 */
+	static ForkJoinPool getForkJoinPool() {
+		return ForkJoinPoolHolder.pool;
+	}
+
+	private static class ForkJoinPoolHolder {
+		static final ForkJoinPool pool = new ForkJoinPool();
+	}
+}
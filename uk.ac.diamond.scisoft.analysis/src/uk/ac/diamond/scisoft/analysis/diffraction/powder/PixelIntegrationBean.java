@@ -20,6 +20,7 @@ public class PixelIntegrationBean {
 	private boolean to1D = true;
 	private boolean azimuthalIntegration = true;
 	private boolean usePixelSplitting = false;
+	private boolean useLookupTable = false;
 	private boolean isLog = false;
 	private double[] azimuthalRange = null;
 	private double[] radialRange = null;
@@ -66,6 +67,14 @@ public class PixelIntegrationBean {
 		this.usePixelSplitting = usePixelSplitting;
 	}
 
+	public boolean isUseLookupTable() {
+		return useLookupTable;
+	}
+
+	public void setUseLookupTable(boolean useLookupTable) {
+		this.useLookupTable = useLookupTable;
+	}
+
 	public boolean isLog() {
 		return isLog;
 	}
@@ -136,14 +145,68 @@ public class PixelIntegrationBean {
 		bean.to1D = to1D;
 		bean.azimuthalIntegration = azimuthalIntegration;
 		bean.usePixelSplitting = usePixelSplitting;
+		bean.useLookupTable = useLookupTable;
 		bean.isLog = isLog;
 		bean.azimuthalRange = azimuthalRange != null ? azimuthalRange.clone() : null;
 		bean.radialRange = radialRange != null ? radialRange.clone() : null;
 		bean.xAxis = xAxis;
+		bean.shape = shape != null ? shape.clone() : null;
 		
 		return bean;
 	}
 
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + nBinsAzimuthal;
+		result = prime * result + nBinsRadial;
+		result = prime * result + (to1D ? 1231 : 1237);
+		result = prime * result + (azimuthalIntegration ? 1231 : 1237);
+		result = prime * result + (usePixelSplitting ? 1231 : 1237);
+		result = prime * result + (useLookupTable ? 1231 : 1237);
+		result = prime * result + (isLog ? 1231 : 1237);
+		result = prime * result + Arrays.hashCode(azimuthalRange);
+		result = prime * result + Arrays.hashCode(radialRange);
+		result = prime * result + ((xAxis == null) ? 0 : xAxis.hashCode());
+		result = prime * result + Arrays.hashCode(shape);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		PixelIntegrationBean other = (PixelIntegrationBean) obj;
+		if (nBinsAzimuthal != other.nBinsAzimuthal)
+			return false;
+		if (nBinsRadial != other.nBinsRadial)
+			return false;
+		if (to1D != other.to1D)
+			return false;
+		if (azimuthalIntegration != other.azimuthalIntegration)
+			return false;
+		if (usePixelSplitting != other.usePixelSplitting)
+			return false;
+		if (useLookupTable != other.useLookupTable)
+			return false;
+		if (isLog != other.isLog)
+			return false;
+		if (!Arrays.equals(azimuthalRange, other.azimuthalRange))
+			return false;
+		if (!Arrays.equals(radialRange, other.radialRange))
+			return false;
+		if (xAxis != other.xAxis)
+			return false;
+		if (!Arrays.equals(shape, other.shape))
+			return false;
+		return true;
+	}
+
 	public int[] getShape() {
 		return shape;
 	}
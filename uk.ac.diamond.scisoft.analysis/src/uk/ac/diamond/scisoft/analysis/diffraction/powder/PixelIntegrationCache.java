@@ -9,6 +9,11 @@
 
 package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
@@ -34,6 +39,10 @@ public class PixelIntegrationCache implements IPixelIntegrationCache {
 	
 	private int longestOnDetector;
 	
+	// a shared cache can be used with several masks so keeps a few tables keyed by mask hash
+	private static final int MAX_LOOKUP_TABLES = 4;
+	private final Map<Integer, PixelIntegrationLookupTable> lookupTables = new LinkedHashMap<Integer, PixelIntegrationLookupTable>(8, 0.75f, true);
+	
 	QSpace qSpace = null;
 	
 	public PixelIntegrationCache(IDiffractionMetadata metadata, PixelIntegrationBean bean) {
@@ -347,6 +356,54 @@ public class PixelIntegrationCache implements IPixelIntegrationCache {
 		return false;
 	}
 	
+	/**
+	 * @return approximate memory held by the cached arrays and lookup table in bytes
+	 */
+	public long getNbytes() {
+		long bytes = 0;
+		for (Dataset[] arrays : new Dataset[][]{radialArray, azimuthalArray}) {
+			if (arrays == null) continue;
+			for (Dataset a : arrays) {
+				if (a != null) bytes += a.getNbytes();
+			}
+		}
+		synchronized (this) {
+			for (PixelIntegrationLookupTable table : lookupTables.values()) {
+				bytes += table.getNbytes();
+			}
+		}
+		return bytes;
+	}
+	
+	@Override
+	public PixelIntegrationLookupTable getLookupTable(IDataset mask) {
+		
+		if (!bean.isUseLookupTable()) return null;
+		
+		Integer key = PixelIntegrationLookupTable.getMaskHash(mask);
+		PixelIntegrationLookupTable table;
+		boolean built = false;
+		synchronized (this) {
+			table = lookupTables.get(key);
+			if (table == null || !table.isMaskEqual(mask)) {
+				table = PixelIntegrationLookupTable.create(this, mask);
+				if (table != null) {
+					lookupTables.put(key, table);
+					Iterator<PixelIntegrationLookupTable> it = lookupTables.values().iterator();
+					while (lookupTables.size() > MAX_LOOKUP_TABLES) {
+						it.next();
+						it.remove();
+					}
+					built = true;
+				}
+			}
+		}
+		// the tables are usually the largest part so the shared store must count them
+		if (built) PixelIntegrationCacheManager.updateBytes(this);
+		
+		return table;
+	}
+	
 	private void setUpPixelSplitting() {
 		
 		
@@ -0,0 +1,239 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.dawnsci.analysis.api.diffraction.DetectorProperties;
+import org.eclipse.dawnsci.analysis.api.metadata.IDiffractionMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Process-wide store of {@link PixelIntegrationCache}s keyed on detector geometry,
+ * wavelength and integration settings.
+ * <p>
+ * Generating the radial and azimuthal arrays for a large detector takes seconds so
+ * operations and pipelines working on the same experimental setup share them through
+ * here. The store is bounded by an approximate byte budget and evicts the least recently
+ * used caches first. The budget can be set with the system property
+ * {@value #CACHE_SIZE_PROPERTY} (in megabytes).
+ */
+public class PixelIntegrationCacheManager {
+
+	public static final String CACHE_SIZE_PROPERTY = "uk.ac.diamond.scisoft.analysis.diffraction.powder.cache.size";
+
+	private static final Logger logger = LoggerFactory.getLogger(PixelIntegrationCacheManager.class);
+
+	private static final Map<CacheKey, Entry> caches = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true);
+
+	private static long maximumBytes = Long.getLong(CACHE_SIZE_PROPERTY, 512)*1024*1024;
+
+	private static long hits = 0;
+	private static long misses = 0;
+
+	private PixelIntegrationCacheManager() {
+	}
+
+	/**
+	 * Get a cache for the given geometry and settings, creating it if necessary.
+	 * <p>
+	 * The bean is copied so may be reused by the caller.
+	 *
+	 * @param md
+	 * @param bean
+	 * @return cache
+	 */
+	public static PixelIntegrationCache getCache(IDiffractionMetadata md, PixelIntegrationBean bean) {
+
+		CacheKey key = new CacheKey(md, bean);
+		Entry entry;
+
+		synchronized (caches) {
+			entry = caches.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				caches.put(key, entry);
+				misses++;
+			} else {
+				hits++;
+			}
+		}
+
+		PixelIntegrationCache cache = entry.get(md, bean.clone());
+
+		synchronized (caches) {
+			if (caches.get(key) == entry) entry.bytes = cache.getNbytes();
+			evict(entry);
+		}
+
+		return cache;
+	}
+
+	/**
+	 * Measure a cache again after it has grown, as it does when its lookup table is built
+	 * on first use, and evict others if the store no longer fits in its budget
+	 *
+	 * @param cache
+	 */
+	static void updateBytes(PixelIntegrationCache cache) {
+		synchronized (caches) {
+			for (Entry e : caches.values()) {
+				if (e.cache == cache) {
+					e.bytes = cache.getNbytes();
+					evict(e);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove all caches
+	 */
+	public static void clear() {
+		synchronized (caches) {
+			caches.clear();
+		}
+	}
+
+	/**
+	 * @param bytes approximate maximum memory held by the store
+	 */
+	public static void setMaximumBytes(long bytes) {
+		synchronized (caches) {
+			maximumBytes = bytes;
+			evict(null);
+		}
+	}
+
+	public static long getMaximumBytes() {
+		synchronized (caches) {
+			return maximumBytes;
+		}
+	}
+
+	/**
+	 * @return approximate memory held by the store in bytes
+	 */
+	public static long getBytesHeld() {
+		synchronized (caches) {
+			long total = 0;
+			for (Entry e : caches.values()) total += e.bytes;
+			return total;
+		}
+	}
+
+	public static int getNumberOfCaches() {
+		synchronized (caches) {
+			return caches.size();
+		}
+	}
+
+	public static long getHitCount() {
+		synchronized (caches) {
+			return hits;
+		}
+	}
+
+	public static long getMissCount() {
+		synchronized (caches) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Drop least recently used caches until the store fits in its budget,
+	 * never dropping the one just used
+	 */
+	private static void evict(Entry keep) {
+		long total = 0;
+		for (Entry e : caches.values()) total += e.bytes;
+
+		Iterator<Entry> it = caches.values().iterator();
+		while (total > maximumBytes && it.hasNext()) {
+			Entry e = it.next();
+			if (e == keep) continue;
+			total -= e.bytes;
+			it.remove();
+			logger.debug("Evicted pixel integration cache of {} bytes", e.bytes);
+		}
+	}
+
+	/**
+	 * Holder which lets threads wanting the same cache wait on one another
+	 * without blocking threads wanting different caches
+	 */
+	private static class Entry {
+
+		private volatile PixelIntegrationCache cache;
+		private long bytes;
+
+		PixelIntegrationCache get(IDiffractionMetadata md, PixelIntegrationBean bean) {
+			PixelIntegrationCache c = cache;
+			if (c == null) {
+				synchronized (this) {
+					c = cache;
+					if (c == null) {
+						cache = c = new PixelIntegrationCache(md, bean);
+					}
+				}
+			}
+			return c;
+		}
+	}
+
+	private static class CacheKey {
+
+		private final DetectorProperties detector;
+		private final double wavelength;
+		private final PixelIntegrationBean bean;
+		private final int hash;
+
+		CacheKey(IDiffractionMetadata md, PixelIntegrationBean bean) {
+			this.detector = md.getDetector2DProperties().clone();
+			this.wavelength = md.getDiffractionCrystalEnvironment().getWavelength();
+			this.bean = bean.clone();
+
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + detector.hashCode();
+			long temp = Double.doubleToLongBits(wavelength);
+			result = prime * result + (int) (temp ^ (temp >>> 32));
+			result = prime * result + this.bean.hashCode();
+			hash = result;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (obj == null)
+				return false;
+			if (getClass() != obj.getClass())
+				return false;
+			CacheKey other = (CacheKey) obj;
+			if (hash != other.hash)
+				return false;
+			if (Double.doubleToLongBits(wavelength) != Double.doubleToLongBits(other.wavelength))
+				return false;
+			if (!detector.equals(other.detector))
+				return false;
+			return bean.equals(other.bean);
+		}
+	}
+}
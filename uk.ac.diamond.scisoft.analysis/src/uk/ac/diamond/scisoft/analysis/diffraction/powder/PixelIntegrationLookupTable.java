@@ -0,0 +1,539 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.diffraction.powder;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+
+/**
+ * Sparse pixel to bin weight matrix in compressed sparse row (CSR) form.
+ * <p>
+ * Each row is an output bin and holds the indices of the pixels contributing to it
+ * along with the fraction of the pixel which falls in the bin. The mask, azimuthal/radial
+ * range and pixel splitting fractions are all folded into the weights when the table is built,
+ * so integrating a frame is a single sparse matrix-vector product.
+ * <p>
+ * Tables are immutable once built and can be shared between threads.
+ */
+public class PixelIntegrationLookupTable {
+
+	private static final int MIN_PARALLEL_ENTRIES = 1 << 16;
+
+	private final int[] shape;
+	private final int[] binPointers;
+	private final int[] pixelIndices;
+	private final float[] weights;
+	private final double[] binWeights;
+	private final boolean[] mask;
+	private final int nPixels;
+	private final boolean propagateErrors;
+
+	// hash of mask dataset used to build table and last mask dataset found to match it
+	private volatile int maskHash;
+	private volatile IDataset matchedMask;
+
+	private PixelIntegrationLookupTable(int[] shape, int nPixels, Entries entries, boolean[] mask, boolean propagateErrors) {
+		this.shape = shape;
+		this.nPixels = nPixels;
+		this.mask = mask;
+		this.propagateErrors = propagateErrors;
+
+		int nBins = 1;
+		for (int s : shape) nBins *= s;
+
+		//counting sort of the entries by bin
+		binPointers = new int[nBins+1];
+		for (int i = 0; i < entries.size; i++) binPointers[entries.bins[i]+1]++;
+		for (int i = 0; i < nBins; i++) binPointers[i+1] += binPointers[i];
+
+		pixelIndices = new int[entries.size];
+		weights = new float[entries.size];
+		binWeights = new double[nBins];
+		int[] pos = Arrays.copyOf(binPointers, nBins);
+
+		for (int i = 0; i < entries.size; i++) {
+			int b = entries.bins[i];
+			int p = pos[b]++;
+			pixelIndices[p] = entries.pixels[i];
+			weights[p] = entries.weights[i];
+		}
+
+		for (int b = 0; b < nBins; b++) {
+			double sum = 0;
+			for (int k = binPointers[b]; k < binPointers[b+1]; k++) sum += weights[k];
+			binWeights[b] = sum;
+		}
+	}
+
+	/**
+	 * Build the lookup table for the geometry described by the cache
+	 *
+	 * @param cache
+	 * @param mask may be null
+	 * @return table, or null if the geometry cannot be integrated with a table
+	 */
+	public static PixelIntegrationLookupTable create(IPixelIntegrationCache cache, IDataset mask) {
+
+		if (cache.provideLookup()) return null;
+
+		Dataset m = mask == null ? null : DatasetUtils.convertToDataset(mask);
+
+		PixelIntegrationLookupTable table;
+		if (cache.isTo1D()) {
+			table = cache.isPixelSplitting() ? createPixelSplitting1D(cache, m) : createNonPixelSplitting1D(cache, m);
+		} else {
+			table = cache.isPixelSplitting() ? createPixelSplitting2D(cache, m) : createNonPixelSplitting2D(cache, m);
+		}
+
+		if (table != null && m != null) {
+			table.maskHash = getMaskHash(m);
+			table.matchedMask = mask;
+		}
+		return table;
+	}
+
+	/**
+	 * @return shape of the integrated output
+	 */
+	public int[] getShape() {
+		return shape.clone();
+	}
+
+	/**
+	 * @return number of non-zero entries in the table
+	 */
+	public int getNumberOfEntries() {
+		return pixelIndices.length;
+	}
+
+	/**
+	 * @return approximate size of the table in bytes
+	 */
+	public long getNbytes() {
+		long bytes = 4L*binPointers.length + 8L*pixelIndices.length + 8L*binWeights.length;
+		if (mask != null) bytes += mask.length;
+		return bytes;
+	}
+
+	/**
+	 * A dataset keeps its hash until its values are changed so this is only computed
+	 * again for a new mask or one that has been modified in place
+	 *
+	 * @param mask may be null
+	 * @return hash of mask values
+	 */
+	static int getMaskHash(IDataset mask) {
+		return mask == null ? 0 : DatasetUtils.convertToDataset(mask).hashCode();
+	}
+
+	/**
+	 * Check whether the table was built with the given mask applied. Masks with a different
+	 * hash do not match. The elements are only compared when the mask is not the dataset last
+	 * found to match
+	 *
+	 * @param mask may be null
+	 * @return true if the mask matches the one used to build the table
+	 */
+	public boolean isMaskEqual(IDataset mask) {
+		if (mask == null) return this.mask == null;
+		if (this.mask == null) return false;
+		if (getMaskHash(mask) != maskHash) return false;
+		if (mask == matchedMask) return true;
+
+		Dataset m = DatasetUtils.convertToDataset(mask);
+		if (m.getSize() != nPixels) return false;
+
+		for (int i = 0; i < nPixels; i++) {
+			if (m.getElementBooleanAbs(i) != this.mask[i]) return false;
+		}
+
+		matchedMask = mask;
+		return true;
+	}
+
+	/**
+	 * Integrate a frame using the table
+	 *
+	 * @param data
+	 * @return intensity (with errors if the data has them and the output is 1D) and histogram
+	 */
+	public Dataset[] integrate(IDataset data) {
+		return integrate(data, false);
+	}
+
+	/**
+	 * Integrate a frame using the table
+	 *
+	 * @param data
+	 * @param parallel if true ranges of bins are summed on a fork-join pool
+	 * @return intensity (with errors if the data has them and the output is 1D) and histogram
+	 */
+	public Dataset[] integrate(IDataset data, boolean parallel) {
+
+		Dataset d = DatasetUtils.convertToDataset(data);
+		Dataset e = propagateErrors ? d.getError() : null;
+
+		int nBins = binWeights.length;
+		DoubleDataset intensity = new DoubleDataset(shape);
+		DoubleDataset histo = new DoubleDataset(binWeights.clone(), shape);
+		double[] in = intensity.getData();
+		double[] eb = e != null ? new double[nBins] : null;
+
+		if (parallel && pixelIndices.length >= MIN_PARALLEL_ENTRIES) {
+			int binsPerTask = Math.max(1, nBins/(4*PixelIntegration.getForkJoinPool().getParallelism()));
+			PixelIntegration.getForkJoinPool().invoke(new BinRangeTask(0, nBins, binsPerTask, d, e, in, eb));
+		} else {
+			sumBins(0, nBins, d, e, in, eb);
+		}
+
+		if (eb != null) intensity.setErrorBuffer(eb);
+		intensity.setName(data.getName() + "_integrated");
+
+		return new Dataset[]{intensity, histo};
+	}
+
+	private void sumBins(int startBin, int endBin, Dataset d, Dataset e, double[] in, double[] eb) {
+
+		for (int b = startBin; b < endBin; b++) {
+			final int end = binPointers[b+1];
+			double sum = 0;
+			for (int k = binPointers[b]; k < end; k++) {
+				sum += weights[k] * d.getElementDoubleAbs(pixelIndices[k]);
+			}
+			in[b] = sum;
+
+			if (eb != null) {
+				double esum = 0;
+				for (int k = binPointers[b]; k < end; k++) {
+					final double std = e.getElementDoubleAbs(pixelIndices[k]) * weights[k];
+					esum += std*std;
+				}
+				eb[b] = esum;
+			}
+		}
+	}
+
+	/**
+	 * Each bin is written by exactly one task so no reduction is needed
+	 */
+	private class BinRangeTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int startBin;
+		private final int endBin;
+		private final int binsPerTask;
+		private final Dataset d;
+		private final Dataset e;
+		private final double[] in;
+		private final double[] eb;
+
+		BinRangeTask(int startBin, int endBin, int binsPerTask, Dataset d, Dataset e, double[] in, double[] eb) {
+			this.startBin = startBin;
+			this.endBin = endBin;
+			this.binsPerTask = binsPerTask;
+			this.d = d;
+			this.e = e;
+			this.in = in;
+			this.eb = eb;
+		}
+
+		@Override
+		protected void compute() {
+			if (endBin - startBin <= binsPerTask) {
+				sumBins(startBin, endBin, d, e, in, eb);
+				return;
+			}
+
+			int mid = startBin + (endBin - startBin)/2;
+			invokeAll(new BinRangeTask(startBin, mid, binsPerTask, d, e, in, eb),
+					new BinRangeTask(mid, endBin, binsPerTask, d, e, in, eb));
+		}
+	}
+
+	private static boolean[] copyMask(Dataset m, int size) {
+		if (m == null) return null;
+		boolean[] b = new boolean[size];
+		for (int i = 0; i < size; i++) b[i] = m.getElementBooleanAbs(i);
+		return b;
+	}
+
+	private static PixelIntegrationLookupTable createNonPixelSplitting1D(IPixelIntegrationCache cache, Dataset m) {
+
+		final int nbins = cache.getNumberOfBinsXAxis();
+		final double lo = cache.getXBinEdgeMin();
+		final double hi = cache.getXBinEdgeMax();
+		final double span = (hi - lo)/nbins;
+
+		Dataset a = cache.getXAxisArray()[0];
+
+		if (span <= 0 || a == null) return null;
+
+		double[] integrationRange = cache.getYAxisRange();
+		Dataset r = null;
+		if (cache.getYAxisArray() != null) {
+			r = cache.getYAxisArray()[0];
+		}
+
+		Entries entries = new Entries(a.getSize());
+		IndexIterator iter = a.getIterator();
+
+		while (iter.hasNext()) {
+			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
+
+			if (integrationRange != null && r != null) {
+				final double ra = r.getElementDoubleAbs(iter.index);
+				if (ra > integrationRange[1] || ra < integrationRange[0]) continue;
+			}
+
+			final double val = a.getElementDoubleAbs(iter.index);
+			if (val < lo || val > hi) continue;
+
+			int p = (int) ((val-lo)/span);
+			if (p < nbins) entries.add(p, iter.index, 1);
+		}
+
+		return new PixelIntegrationLookupTable(new int[]{nbins}, a.getSize(), entries, copyMask(m, a.getSize()), true);
+	}
+
+	private static PixelIntegrationLookupTable createPixelSplitting1D(IPixelIntegrationCache cache, Dataset m) {
+
+		final int nbins = cache.getNumberOfBinsXAxis();
+		final double lo = cache.getXBinEdgeMin();
+		final double hi = cache.getXBinEdgeMax();
+		final double span = (hi - lo)/nbins;
+
+		Dataset[] a = cache.getXAxisArray();
+
+		if (span <= 0 || a == null) return null;
+
+		double[] integrationRange = cache.getYAxisRange();
+		Dataset[] r = cache.getYAxisArray();
+
+		Entries entries = new Entries(a[0].getSize()*2);
+		IndexIterator iter = a[0].getIterator();
+
+		while (iter.hasNext()) {
+
+			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
+
+			double rangeScale = 1;
+
+			if (integrationRange != null && r != null) {
+				double rMin = r[0].getElementDoubleAbs(iter.index);
+				double rMax = r[1].getElementDoubleAbs(iter.index);
+
+				if (rMin > integrationRange[1]) continue;
+				if (rMax < integrationRange[0]) continue;
+
+				double fullRange = rMax-rMin;
+
+				rMin = integrationRange[0] > rMin ? integrationRange[0] : rMin;
+				rMax = integrationRange[1] < rMax ? integrationRange[1] : rMax;
+
+				rangeScale = (rMax-rMin)/fullRange;
+			}
+
+			double qMin = a[0].getElementDoubleAbs(iter.index);
+			double qMax = a[1].getElementDoubleAbs(iter.index);
+
+			if (qMax < lo || qMin > hi) continue;
+
+			double minBinExact = (qMin-lo)/span;
+			double maxBinExact = (qMax-lo)/span;
+
+			int minBin = (int)minBinExact;
+			int maxBin = (int)maxBinExact;
+
+			if (minBin == maxBin) {
+				if (minBin < nbins) entries.add(minBin, iter.index, rangeScale);
+			} else {
+
+				double range = maxBinExact-minBinExact;
+
+				double minFrac = 1-(minBinExact-minBin);
+				double maxFrac = maxBinExact-maxBin;
+
+				for (int i = minBin; i <= maxBin; i++) {
+					if (i >= nbins || i < 0) continue;
+					double modify = rangeScale;
+					if (i == minBin) modify *= minFrac;
+					if (i == maxBin) modify *= maxFrac;
+					modify /= range;
+					entries.add(i, iter.index, modify);
+				}
+			}
+		}
+
+		return new PixelIntegrationLookupTable(new int[]{nbins}, a[0].getSize(), entries, copyMask(m, a[0].getSize()), true);
+	}
+
+	private static PixelIntegrationLookupTable createNonPixelSplitting2D(IPixelIntegrationCache cache, Dataset m) {
+
+		final int nXBins = cache.getNumberOfBinsXAxis();
+		final int nYBins = cache.getNumberOfBinsYAxis();
+
+		final double loQ = cache.getXBinEdgeMin();
+		final double hiQ = cache.getXBinEdgeMax();
+		final double spanQ = (hiQ - loQ)/nXBins;
+
+		final double loChi = cache.getYBinEdgeMin();
+		final double hiChi = cache.getYBinEdgeMax();
+		final double spanChi = (hiChi - loChi)/nYBins;
+
+		Dataset x = DatasetUtils.convertToDataset(cache.getXAxisArray()[0]);
+		Dataset y = DatasetUtils.convertToDataset(cache.getYAxisArray()[0]);
+
+		Entries entries = new Entries(x.getSize());
+		IndexIterator iter = x.getIterator();
+
+		while (iter.hasNext()) {
+
+			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
+
+			final double valq = x.getElementDoubleAbs(iter.index);
+			final double chi = y.getElementDoubleAbs(iter.index);
+
+			if (valq < loQ || valq > hiQ) continue;
+			if (chi < loChi || chi > hiChi) continue;
+
+			int qPos = (int) ((valq-loQ)/spanQ);
+			int chiPos = (int) ((chi-loChi)/spanChi);
+
+			if (qPos < nXBins && chiPos < nYBins) {
+				entries.add(chiPos*nXBins + qPos, iter.index, 1);
+			}
+		}
+
+		return new PixelIntegrationLookupTable(new int[]{nYBins, nXBins}, x.getSize(), entries, copyMask(m, x.getSize()), false);
+	}
+
+	private static PixelIntegrationLookupTable createPixelSplitting2D(IPixelIntegrationCache cache, Dataset m) {
+
+		final int nXBins = cache.getNumberOfBinsXAxis();
+		final int nYBins = cache.getNumberOfBinsYAxis();
+
+		final double minX = cache.getXBinEdgeMin();
+		final double maxX = cache.getXBinEdgeMax();
+		final double spanX = (maxX - minX)/nXBins;
+
+		final double minY = cache.getYBinEdgeMin();
+		final double maxY = cache.getYBinEdgeMax();
+		final double spanY = (maxY - minY)/nYBins;
+
+		Dataset x0 = cache.getXAxisArray()[0];
+		Dataset x1 = cache.getXAxisArray()[1];
+		Dataset y0 = cache.getYAxisArray()[0];
+		Dataset y1 = cache.getYAxisArray()[1];
+
+		Entries entries = new Entries(x0.getSize()*2);
+		IndexIterator iter = x0.getIterator();
+
+		while (iter.hasNext()) {
+
+			if (m != null && !m.getElementBooleanAbs(iter.index)) continue;
+			double xPixMax = x1.getElementDoubleAbs(iter.index);
+			double xPixMin = x0.getElementDoubleAbs(iter.index);
+			double yPixMax = y1.getElementDoubleAbs(iter.index);
+			double yPixMin = y0.getElementDoubleAbs(iter.index);
+
+			if (xPixMax < minX || xPixMin > maxX) continue;
+			if (yPixMax < minY || yPixMin > maxY) continue;
+
+			double minBinExactX = (xPixMin-minX)/spanX;
+			double maxBinExactX = (xPixMax-minX)/spanX;
+
+			double minBinExactY = (yPixMin-minY)/spanY;
+			double maxBinExactY = (yPixMax-minY)/spanY;
+
+			double iFull = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+
+			//Partial pixel if outside of range
+			minBinExactX = xPixMin < minX ? 0 : minBinExactX;
+			maxBinExactX = xPixMax > maxX ? nXBins : maxBinExactX;
+			minBinExactY = yPixMin < minY ? 0 : minBinExactY;
+			maxBinExactY = yPixMax > maxY ? nYBins : maxBinExactY;
+
+			double iFraction = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+			double partialScale = iFraction/iFull;
+
+			int minBinX = (int)minBinExactX;
+			int maxBinX= (int)maxBinExactX;
+			int minBinY = (int)minBinExactY;
+			int maxBinY = (int)maxBinExactY;
+
+			double binArea = (maxBinExactX-minBinExactX)*(maxBinExactY-minBinExactY);
+
+			double minFracX = 1-(minBinExactX-minBinX);
+			double maxFracX = maxBinExactX-maxBinX;
+			double minFracY = 1-(minBinExactY-minBinY);
+			double maxFracY = maxBinExactY-maxBinY;
+
+			// must match PixelIntegration.pixelSplitting2D exactly
+			for (int i = minBinX ; i <= maxBinX; i++) {
+				if (i < 0 || i >= nXBins) continue;
+				for (int j = minBinY; j <= maxBinY; j++) {
+					if (j < 0 || j >= nYBins) continue;
+
+					double modify = partialScale;
+
+					if (i == minBinX && minBinX != maxBinX) modify *= (minFracX);
+					if (i == maxBinX && minBinX != maxBinX) modify *= (maxFracX);
+					if (j == minBinY && minBinY != maxBinY) modify *= (minFracY);
+					if (j == maxBinY && minBinY != maxBinY) modify *= (maxFracY);
+
+					if (j == maxBinY && maxBinY == minBinY) modify*=(maxBinExactY-minBinExactY);
+					if (j == maxBinX && maxBinX == minBinX) modify*=(maxBinExactX-minBinExactX);
+
+					modify /= binArea;
+					entries.add(j*nXBins + i, iter.index, modify);
+				}
+			}
+		}
+
+		return new PixelIntegrationLookupTable(new int[]{nYBins, nXBins}, x0.getSize(), entries, copyMask(m, x0.getSize()), false);
+	}
+
+	/**
+	 * Growable coordinate list used while building the table
+	 */
+	private static class Entries {
+		int[] bins;
+		int[] pixels;
+		float[] weights;
+		int size = 0;
+
+		Entries(int capacity) {
+			capacity = Math.max(capacity, 16);
+			bins = new int[capacity];
+			pixels = new int[capacity];
+			weights = new float[capacity];
+		}
+
+		void add(int bin, int pixel, double weight) {
+			if (size == bins.length) {
+				int n = size + (size >> 1);
+				bins = Arrays.copyOf(bins, n);
+				pixels = Arrays.copyOf(pixels, n);
+				weights = Arrays.copyOf(weights, n);
+			}
+			bins[size] = bin;
+			pixels[size] = pixel;
+			weights[size] = (float) weight;
+			size++;
+		}
+	}
+}
@@ -11,6 +11,7 @@ package uk.ac.diamond.scisoft.analysis.diffraction.powder;
 
 import java.util.Arrays;
 
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 
@@ -135,4 +136,10 @@ public class XYImagePixelCache implements IPixelIntegrationCache {
 	public boolean provideLookup() {
 		return true;
 	}
+
+
+	@Override
+	public PixelIntegrationLookupTable getLookupTable(IDataset mask) {
+		return null;
+	}
 }
@@ -16,6 +16,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IPeak;
 import org.eclipse.dawnsci.analysis.api.monitor.IMonitor;
@@ -34,6 +41,7 @@ import uk.ac.diamond.scisoft.analysis.fitting.functions.Offset;
 import uk.ac.diamond.scisoft.analysis.fitting.functions.StraightLine;
 import uk.ac.diamond.scisoft.analysis.optimize.GeneticAlg;
 import uk.ac.diamond.scisoft.analysis.optimize.IOptimizer;
+import uk.ac.diamond.scisoft.analysis.utils.ThreadUtils;
 
 public class Generic1DFitter implements Serializable {
 
@@ -210,7 +218,7 @@ public class Generic1DFitter implements Serializable {
 		}
 
 		List<CompositeFunction> fittedPeaks = fitFunction(peaks, peakClass, xdata, ydata, optimiser, numPeaks, threshold,
-				autoStopping, heightMeasure, monitor, FIT_LINEAR_BASELINE);
+				autoStopping, heightMeasure, monitor, FIT_LINEAR_BASELINE, null);
 
 		return fittedPeaks;
 	}
@@ -231,15 +239,47 @@ public class Generic1DFitter implements Serializable {
 			return null;
 		}
 		return fitFunction(peaks, peakClass, xdata, ydata, optimiser, numPeaks, threshold,
-				autoStopping, heightMeasure, monitor, fitLinearBaseline);
+				autoStopping, heightMeasure, monitor, fitLinearBaseline, null);
+	}
+
+	/**
+	 * Creates optimisers for fitting peaks concurrently
+	 */
+	public interface IOptimizerFactory {
+		/**
+		 * @return new optimiser that is not shared with any other thread
+		 * @throws Exception
+		 */
+		IOptimizer createOptimizer() throws Exception;
+	}
+
+	/**
+	 * As above but fits the peaks concurrently. Each thread fits its share of the peaks with its
+	 * own optimiser from the factory
+	 * @param factory creates an optimiser for each thread
+	 */
+	public static List<CompositeFunction> fitPeakFunctions(List<IdentifiedPeak> peaks, Dataset xdata, Dataset ydata, Class<? extends IPeak> peakClass,
+			IOptimizerFactory factory, int smoothing, int numPeaks, double threshold, boolean autoStopping,
+			boolean heightMeasure, IMonitor monitor, boolean fitLinearBaseline) throws Exception {
+		
+		if (peaks==null) {
+			peaks = parseDataDerivative(xdata, ydata, smoothing);
+		}
+		if (peaks == null || peaks.size() <= 0) {
+			logger.error("No peaks found");
+			return null;
+		}
+		return fitFunction(peaks, peakClass, xdata, ydata, factory.createOptimizer(), numPeaks, threshold,
+				autoStopping, heightMeasure, monitor, fitLinearBaseline, factory);
 	}
 
 	/**
 	 * This is the class which actually does the fitting. Do not make public.
+	 * @param factory if not null, used to create optimisers for fitting peaks concurrently
 	 */
 	private static List<CompositeFunction> fitFunction(List<IdentifiedPeak> initialPeaks, Class<? extends IPeak> peakClass, Dataset xData,
 			Dataset ydata, IOptimizer optimiser, int numPeaks, double threshold, boolean autoStopping,
-			boolean heightMeasure, IMonitor monitor, boolean fitLinearBaseline) {
+			boolean heightMeasure, IMonitor monitor, boolean fitLinearBaseline, IOptimizerFactory factory) {
 
 		ArrayList<CompositeFunction> peaks = new ArrayList<CompositeFunction>();
 		if (numPeaks == 0) {
@@ -248,75 +288,24 @@ public class Generic1DFitter implements Serializable {
 		if (numPeaks < 0) {
 			numPeaks = xData.getSize();
 		}
-		int fittedPeaks = 0;
-
-		for (IdentifiedPeak iniPeak : initialPeaks) {
-			if (fittedPeaks++ >= numPeaks) {
-				break;
-			}
-			if (monitor != null) {
-				monitor.worked(1);
-				if (monitor.isCancelled()) {
-					return peaks;
+		List<IdentifiedPeak> toFit = initialPeaks.size() > numPeaks ? initialPeaks.subList(0, numPeaks) : initialPeaks;
+
+		if (factory == null || toFit.size() < 2) {
+			for (IdentifiedPeak iniPeak : toFit) {
+				if (monitor != null) {
+					monitor.worked(1);
+					if (monitor.isCancelled()) {
+						return peaks;
+					}
 				}
-			}
 
-			int[] start = { iniPeak.getIndexOfDatasetAtMinPos() };
-			int[] stop = { iniPeak.getIndexOfDatasetAtMaxPos() + 1 };
-			int[] step = { 1 };
-			
-			if (xData.getSize() > 2 && xData.getDouble(0) > xData.getDouble(1)) {
-				start[0] = xData.getSize() - start[0] -1;
-				stop[0] = xData.getSize() - stop[0];
-				
-				if (start[0] > stop[0]) {
-					int tmp = start[0];
-					start[0] = stop[0];
-					stop[0] = tmp;
-				}
-			}
-			
-			Dataset y = ydata.getSlice(start, stop, step);
-			Dataset x = xData.getSlice(start, stop, step);
-
-			AFunction baseline = null;
-			try {
-				
-				if (fitLinearBaseline) {
-					double initm = (y.getDouble(0) - y.getDouble(-1))/(x.getDouble(0) - x.getDouble(-1));
-					double initc = y.getDouble(0) - initm * x.getDouble(0);
-					double stepx = Math.abs(x.getDouble(1) - x.getDouble(0));
-					double maxC = y.peakToPeak().doubleValue() / stepx;
-					double maxY = y.max().doubleValue();
-					baseline = new StraightLine(-maxC, maxC, initc - maxY, initc + maxY);
-					baseline.setParameterValues(initm,initc);
-				} else {
-					double lowOffset = y.min().doubleValue();
-					double highOffset = (Double) y.mean();
-					baseline = new Offset(lowOffset, highOffset);
+				CompositeFunction comp = fitPeak(iniPeak, peakClass, xData, ydata, optimiser, fitLinearBaseline);
+				if (comp != null) {
+					peaks.add(comp);
 				}
-
-				Constructor<? extends IPeak> ctor = peakClass.getConstructor(IdentifiedPeak.class);
-				IPeak localPeak = ctor.newInstance(iniPeak);
-				CompositeFunction comp = new CompositeFunction();
-				comp.addFunction(localPeak);
-				comp.addFunction(baseline);
-				optimiser.optimize(new Dataset[] { x }, y, comp);
-
-				peaks.add(comp);
-			} catch (IllegalArgumentException e1) {
-				logger.error("There was a problem optimising the peak", e1);
-			} catch (InstantiationException e1) {
-				logger.error("The function could not be created for fitting", e1);
-			} catch (NoSuchMethodException e1) {
-				logger.error("The peak function could not be created.", e1);
-			} catch (IllegalAccessException e1) {
-				logger.error("The function could not be created for fitting", e1);
-			} catch (InvocationTargetException e1) {
-				logger.error("The function could not be created for fitting", e1);
-			} catch (Exception e) {
-				logger.error("There was a problem creating the optimizer.", e);
 			}
+		} else if (!fitConcurrently(peaks, toFit, peakClass, xData, ydata, optimiser, factory, monitor, fitLinearBaseline)) {
+			return peaks;
 		}
 
 		if (autoStopping) {
@@ -357,6 +346,149 @@ public class Generic1DFitter implements Serializable {
 		return peaks;
 	}
 
+	/**
+	 * Fit peaks on shared pool, with one task per thread, and add fitted functions in order of given peaks
+	 * @param optimiser used by first task
+	 * @param factory creates optimisers for other tasks
+	 * @return false if cancelled by monitor
+	 */
+	private static boolean fitConcurrently(List<CompositeFunction> peaks, final List<IdentifiedPeak> toFit, final Class<? extends IPeak> peakClass,
+			final Dataset xData, final Dataset ydata, IOptimizer optimiser, final IOptimizerFactory factory, IMonitor monitor,
+			final boolean fitLinearBaseline) {
+		final int n = toFit.size();
+		final CompositeFunction[] fitted = new CompositeFunction[n];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		int tasks = Math.min(n, ThreadUtils.getDefaultThreads());
+		List<Future<?>> futures = new ArrayList<Future<?>>(tasks);
+		for (int t = 0; t < tasks; t++) {
+			final IOptimizer first = t == 0 ? optimiser : null;
+			futures.add(ExecutorHolder.executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					IOptimizer o = first == null ? factory.createOptimizer() : first;
+					int i;
+					while ((i = next.getAndIncrement()) < n && !Thread.currentThread().isInterrupted()) {
+						fitted[i] = fitPeak(toFit.get(i), peakClass, xData, ydata, o, fitLinearBaseline);
+						done.incrementAndGet();
+					}
+					return null;
+				}
+			}));
+		}
+
+		int reported = 0;
+		try {
+			for (Future<?> f : futures) {
+				boolean finished = false;
+				while (!finished) {
+					if (monitor != null) {
+						int d = done.get();
+						if (d > reported) {
+							monitor.worked(d - reported);
+							reported = d;
+						}
+						if (monitor.isCancelled()) {
+							return false;
+						}
+					}
+					try {
+						f.get(100, TimeUnit.MILLISECONDS);
+						finished = true;
+					} catch (TimeoutException e) {
+						// check monitor again
+					} catch (ExecutionException e) {
+						logger.error("There was a problem optimising the peaks", e.getCause());
+						finished = true;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			logger.error("Interrupted whilst fitting peaks", e);
+			return false;
+		} finally {
+			for (Future<?> f : futures) {
+				f.cancel(true);
+			}
+		}
+		if (monitor != null && n > reported) {
+			monitor.worked(n - reported);
+		}
+
+		for (CompositeFunction comp : fitted) {
+			if (comp != null) {
+				peaks.add(comp);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Fit a peak and baseline over the window of data given by the peak
+	 * @return fitted function or null if it could not be fitted
+	 */
+	private static CompositeFunction fitPeak(IdentifiedPeak iniPeak, Class<? extends IPeak> peakClass, Dataset xData,
+			Dataset ydata, IOptimizer optimiser, boolean fitLinearBaseline) {
+		int[] start = { iniPeak.getIndexOfDatasetAtMinPos() };
+		int[] stop = { iniPeak.getIndexOfDatasetAtMaxPos() + 1 };
+		int[] step = { 1 };
+		
+		if (xData.getSize() > 2 && xData.getDouble(0) > xData.getDouble(1)) {
+			start[0] = xData.getSize() - start[0] -1;
+			stop[0] = xData.getSize() - stop[0];
+			
+			if (start[0] > stop[0]) {
+				int tmp = start[0];
+				start[0] = stop[0];
+				stop[0] = tmp;
+			}
+		}
+		
+		Dataset y = ydata.getSlice(start, stop, step);
+		Dataset x = xData.getSlice(start, stop, step);
+
+		AFunction baseline = null;
+		try {
+			
+			if (fitLinearBaseline) {
+				double initm = (y.getDouble(0) - y.getDouble(-1))/(x.getDouble(0) - x.getDouble(-1));
+				double initc = y.getDouble(0) - initm * x.getDouble(0);
+				double stepx = Math.abs(x.getDouble(1) - x.getDouble(0));
+				double maxC = y.peakToPeak().doubleValue() / stepx;
+				double maxY = y.max().doubleValue();
+				baseline = new StraightLine(-maxC, maxC, initc - maxY, initc + maxY);
+				baseline.setParameterValues(initm,initc);
+			} else {
+				double lowOffset = y.min().doubleValue();
+				double highOffset = (Double) y.mean();
+				baseline = new Offset(lowOffset, highOffset);
+			}
+
+			Constructor<? extends IPeak> ctor = peakClass.getConstructor(IdentifiedPeak.class);
+			IPeak localPeak = ctor.newInstance(iniPeak);
+			CompositeFunction comp = new CompositeFunction();
+			comp.addFunction(localPeak);
+			comp.addFunction(baseline);
+			optimiser.optimize(new Dataset[] { x }, y, comp);
+
+			return comp;
+		} catch (IllegalArgumentException e1) {
+			logger.error("There was a problem optimising the peak", e1);
+		} catch (InstantiationException e1) {
+			logger.error("The function could not be created for fitting", e1);
+		} catch (NoSuchMethodException e1) {
+			logger.error("The peak function could not be created.", e1);
+		} catch (IllegalAccessException e1) {
+			logger.error("The function could not be created for fitting", e1);
+		} catch (InvocationTargetException e1) {
+			logger.error("The function could not be created for fitting", e1);
+		} catch (Exception e) {
+			logger.error("There was a problem creating the optimizer.", e);
+		}
+		return null;
+	}
+
 	/**
 	 * Find peaks in data
 	 * @param xdata
@@ -500,4 +632,8 @@ public class Generic1DFitter implements Serializable {
 		Dataset xs = x.getByBoolean(allowed);
 		return y == null ? new Dataset[] {xs} : new Dataset[] {xs, y.getByBoolean(allowed)};
 	}
+
+	private static class ExecutorHolder {
+		static final ExecutorService executor = ThreadUtils.createDaemonThreadPool("Peak fitter", ThreadUtils.getDefaultThreads());
+	}
 }
@@ -29,7 +29,8 @@ import org.slf4j.LoggerFactory;
 /**
  * Base abstract class for IFunction implementation. At a minimum, the fillWithValues() method needs
  * to be added. The fillWithPartialDerivativeValues() and/or calculatePartialDerivativeValues()
- * methods can be overridden if exact derivatives are needed.
+ * methods can be overridden if exact derivatives are needed. Point-wise functions can instead
+ * override calcValueAndPartialDerivatives() and delegate to the analytic helper methods.
  * 
  * Note, if the implemented function can alter the number of parameters then it should call its
  * parent operator's update parameters method.
@@ -459,6 +460,145 @@ public abstract class AFunction implements IFunction, Serializable {
 		calcNumericalDerivativeDataset(A_TOLERANCE, R_TOLERANCE, parameter, data, it);
 	}
 
+	/**
+	 * Fill dataset with values and datasets with partial derivatives with respect to the given parameters.
+	 * Implementations should reset the iterator before use
+	 * <p>
+	 * This implementation fills each dataset in turn. Override it if values and derivatives can be
+	 * calculated together in a single pass over the coordinates
+	 * @param parameters
+	 * @param data
+	 * @param derivatives datasets to fill (one for each parameter)
+	 * @param it
+	 */
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithValues(data, it);
+		for (int i = 0; i < parameters.length; i++) {
+			IParameter p = parameters[i];
+			if (indexOfParameter(p) < 0) {
+				derivatives[i].fill(0);
+			} else {
+				internalFillWithPartialDerivativeValues(p, derivatives[i], it);
+			}
+		}
+	}
+
+	/**
+	 * Calculate value and partial derivatives with respect to all parameters at a point. Functions
+	 * with analytic derivatives override this and call {@link #analyticPartialDeriv(IParameter, double...)},
+	 * {@link #fillWithAnalyticPartialDerivativeValues(IParameter, DoubleDataset, CoordinatesIterator)}
+	 * and {@link #fillWithAnalyticValuesAndPartialDerivatives(IParameter[], DoubleDataset, DoubleDataset[], CoordinatesIterator)}
+	 * from the corresponding public methods
+	 * <p>
+	 * This implementation uses numerical approximations of the partial derivatives
+	 * @param derivatives array to fill with partial derivatives (in parameter order)
+	 * @param values coordinates
+	 * @return value
+	 */
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		for (int i = 0; i < derivatives.length; i++) {
+			derivatives[i] = calcNumericalDerivative(A_TOLERANCE, R_TOLERANCE, getParameter(i), values);
+		}
+		return val(values);
+	}
+
+	/**
+	 * @param parameter
+	 * @param values
+	 * @return partial derivative from {@link #calcValueAndPartialDerivatives(double[], double...)} or
+	 * a numerical approximation if the parameter is duplicated
+	 */
+	protected double analyticPartialDeriv(IParameter parameter, double... values) {
+		if (isDuplicated(parameter))
+			return calcNumericalDerivative(A_TOLERANCE, R_TOLERANCE, parameter, values);
+
+		int j = indexOfParameter(parameter);
+		if (j < 0)
+			return 0;
+
+		double[] derivatives = new double[getNoOfParameters()];
+		calcValueAndPartialDerivatives(derivatives, values);
+		return derivatives[j];
+	}
+
+	/**
+	 * Fill dataset with partial derivatives from {@link #calcValueAndPartialDerivatives(double[], double...)}
+	 * or a numerical approximation if the parameter is duplicated
+	 * @param parameter
+	 * @param data
+	 * @param it
+	 */
+	protected void fillWithAnalyticPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		if (isDuplicated(parameter)) {
+			calcNumericalDerivativeDataset(A_TOLERANCE, R_TOLERANCE, parameter, data, it);
+			return;
+		}
+
+		int j = indexOfParameter(parameter);
+		if (j < 0) {
+			data.fill(0);
+			return;
+		}
+
+		double[] derivatives = new double[getNoOfParameters()];
+		it.reset();
+		double[] coords = it.getCoordinates();
+		int i = 0;
+		double[] buffer = data.getData();
+		while (it.hasNext()) {
+			calcValueAndPartialDerivatives(derivatives, coords);
+			buffer[i++] = derivatives[j];
+		}
+	}
+
+	/**
+	 * Fill datasets with values and partial derivatives in a single pass using
+	 * {@link #calcValueAndPartialDerivatives(double[], double...)}. Duplicated parameters
+	 * are numerically approximated afterwards
+	 * @param parameters
+	 * @param data
+	 * @param derivatives datasets to fill (one for each parameter)
+	 * @param it
+	 */
+	protected void fillWithAnalyticValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		int n = parameters.length;
+		int[] index = new int[n];
+		double[][] buffers = new double[n][];
+		for (int k = 0; k < n; k++) {
+			IParameter p = parameters[k];
+			index[k] = indexOfParameter(p);
+			if (index[k] < 0) {
+				derivatives[k].fill(0);
+			} else if (isDuplicated(p)) {
+				index[k] = -1;
+			} else {
+				buffers[k] = derivatives[k].getData();
+			}
+		}
+
+		double[] values = new double[getNoOfParameters()];
+		it.reset();
+		double[] coords = it.getCoordinates();
+		int i = 0;
+		double[] buffer = data.getData();
+		while (it.hasNext()) {
+			buffer[i] = calcValueAndPartialDerivatives(values, coords);
+			for (int k = 0; k < n; k++) {
+				if (buffers[k] != null) {
+					buffers[k][i] = values[index[k]];
+				}
+			}
+			i++;
+		}
+
+		for (int k = 0; k < n; k++) {
+			IParameter p = parameters[k];
+			if (buffers[k] == null && index[k] < 0 && indexOfParameter(p) >= 0) {
+				calcNumericalDerivativeDataset(A_TOLERANCE, R_TOLERANCE, p, derivatives[k], it);
+			}
+		}
+	}
+
 	/**
 	 * Calculate partial derivatives up to tolerances
 	 * @param abs
@@ -129,4 +129,59 @@ public class Add extends ANaryOperator implements IOperator, Serializable {
 			}
 		}
 	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		data.fill(0);
+		for (DoubleDataset d : derivatives) {
+			d.fill(0);
+		}
+
+		int n = parameters.length;
+		int[] shape = it.getShape();
+		DoubleDataset temp = null;
+		DoubleDataset[] temps = new DoubleDataset[n];
+		int[] index = new int[n];
+		for (int i = 0, imax = getNoOfFunctions(); i < imax; i++) {
+			IFunction f = getFunction(i);
+			if (f == null)
+				continue;
+
+			if (f instanceof AFunction) {
+				// only ask for parameters used by function
+				int m = 0;
+				for (int k = 0; k < n; k++) {
+					if (indexOfParameter(f, parameters[k]) >= 0) {
+						index[m++] = k;
+					}
+				}
+				IParameter[] fparams = new IParameter[m];
+				DoubleDataset[] fderivatives = new DoubleDataset[m];
+				for (int l = 0; l < m; l++) {
+					int k = index[l];
+					fparams[l] = parameters[k];
+					if (temps[k] == null) {
+						temps[k] = new DoubleDataset(shape);
+					}
+					fderivatives[l] = temps[k];
+				}
+				if (temp == null) {
+					temp = new DoubleDataset(shape);
+				}
+				((AFunction) f).fillWithValuesAndPartialDerivatives(fparams, temp, fderivatives, it);
+				data.iadd(temp);
+				for (int l = 0; l < m; l++) {
+					derivatives[index[l]].iadd(fderivatives[l]);
+				}
+			} else {
+				data.iadd(DatasetUtils.convertToDataset(f.calculateValues(it.getValues())));
+				for (int k = 0; k < n; k++) {
+					IParameter p = parameters[k];
+					if (indexOfParameter(f, p) >= 0) {
+						derivatives[k].iadd(DatasetUtils.convertToDataset(f.calculatePartialDerivativeValues(p, it.getValues())));
+					}
+				}
+			}
+		}
+	}
 }
@@ -85,13 +85,52 @@ public class Box extends AFunction {
 
 	@Override
 	public void fillWithValues(DoubleDataset data, CoordinatesIterator it) {
-		fermi1.fillWithValues(data, it);
+		if (isDirty())
+			calcCachedParameters();
+
+		fermi2.fillWithValues(data, it);
 
 		DoubleDataset temp = new DoubleDataset(it.getShape());
 		fermi1.fillWithValues(temp, it);
 		data.isubtract(temp);
 	}
 
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double position = values[0];
+		double arg1 = (position - mu1) / kT1;
+		double f1 = 1 / (Math.exp(arg1) + 1.0);
+		double g1 = f1 / (Math.exp(-arg1) + 1.0);
+		double arg2 = (position - mu2) / kT2;
+		double f2 = 1 / (Math.exp(arg2) + 1.0);
+		double g2 = f2 / (Math.exp(-arg2) + 1.0);
+
+		derivatives[0] = -scale * g1 / kT1;
+		derivatives[1] = -scale * g1 * arg1 / kT1;
+		derivatives[2] = scale * g2 / kT2;
+		derivatives[3] = scale * g2 * arg2 / kT2;
+		derivatives[4] = f2 - f1;
+		return scale * (f2 - f1);
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
+
 	public double getMu1() {
 		return mu1;
 	}
@@ -104,4 +104,35 @@ public class Fano extends AFunction {
 			buffer[i++] = sigma * num * num /(1 + arg * arg);
 		}
 	}
+
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double arg = (values[0] - r) / d; 
+		double num  = q + arg;
+		double den = 1 / (1 + arg * arg);
+		double da = 2 * sigma * num * (1 - q * arg) * den * den; // derivative with respect to arg
+		derivatives[0] = -da / d;
+		derivatives[1] = -0.5 * da * arg / d;
+		derivatives[2] = num * num * den;
+		derivatives[3] = 2 * sigma * num * den;
+		return sigma * num * num * den;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
 }
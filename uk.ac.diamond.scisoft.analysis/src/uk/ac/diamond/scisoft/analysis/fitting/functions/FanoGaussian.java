@@ -9,7 +9,6 @@
 
 package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
-import org.apache.commons.math3.complex.Complex;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 
@@ -94,6 +93,15 @@ public class FanoGaussian extends AFunction {
 
 	private transient double r, ft, fr, fq, zi;
 
+	private transient double[] w; // scratch for value of Faddeeva function
+
+	private double[] getScratch() {
+		if (w == null) {
+			w = new double[2];
+		}
+		return w;
+	}
+
 	protected void calcCachedParameters() {
 		r = getParameterValue(POSN);
 		double l = getParameterValue(FWHM) / 2.;
@@ -115,11 +123,10 @@ public class FanoGaussian extends AFunction {
 			calcCachedParameters();
 		}
 
-		Complex z = new Complex(fr * (values[0] - r), zi);
-		Complex w = Faddeeva.w(z, 0);
+		double[] w = getScratch();
+		Faddeeva.w(fr * (values[0] - r), zi, 0, w, 0);
 
-		double result = ft * (w.getReal() + fq * w.getImaginary());
-		return result;
+		return ft * (w[0] + fq * w[1]);
 	}
 
 	@Override
@@ -132,11 +139,11 @@ public class FanoGaussian extends AFunction {
 		double[] coords = it.getCoordinates();
 		int i = 0;
 		double[] buffer = data.getData();
+		double[] w = getScratch();
 		while (it.hasNext()) {
-			Complex z = new Complex(fr * (coords[0] - r), zi);
-			Complex w = Faddeeva.w(z, 0);
+			Faddeeva.w(fr * (coords[0] - r), zi, 0, w, 0);
 
-			buffer[i++] = ft * (w.getReal() + fq * w.getImaginary());
+			buffer[i++] = ft * (w[0] + fq * w[1]);
 		}
 
 	}
@@ -129,4 +129,35 @@ public class Fermi extends AFunction implements Serializable {
 			buffer[i++] = scale/(Math.exp(arg) + 1.0) + C;
 		}
 	}
+
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty()) {
+			calcCachedParameters();
+		}
+
+		double arg = (values[0] - mu) / kT;
+		double f = 1 / (Math.exp(arg) + 1.0);
+		double g = f / (Math.exp(-arg) + 1.0); // f * (1 - f) without cancellation
+		derivatives[0] = scale * g / kT;
+		derivatives[1] = scale * g * arg / kT;
+		derivatives[2] = f;
+		derivatives[3] = 1;
+		return scale * f + C;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
 }
@@ -14,7 +14,9 @@ import java.io.Serializable;
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
 import org.eclipse.dawnsci.analysis.dataset.impl.Signal;
 import org.slf4j.Logger;
@@ -141,13 +143,100 @@ public class FermiGauss extends AFunction implements Serializable {
 		Gaussian gauss = new Gaussian((double)xAxis.mean(), fwhm, 1.0);
 		DoubleDataset gaussDS = gauss.calculateValues(xAxis);
 		gaussDS.idivide(gaussDS.sum());
+
+		data.setSlice(convolve(fermiDS, gaussDS));
+	}
+
+	/**
+	 * Convolve with kernel after padding ends of dataset with its end values
+	 * @param fermiDS
+	 * @param kernel
+	 * @return convolution over length of dataset
+	 */
+	private static Dataset convolve(Dataset fermiDS, Dataset kernel) {
 		int length = fermiDS.getShapeRef()[0];
 		DoubleDataset s1 = DoubleDataset.ones(length*2-1);
 		s1.setSlice(fermiDS.getDouble(0), new int[] {0}, new int[] {length/2}, new int[] {1});
 		s1.setSlice(fermiDS, new int[] {length/2}, new int[] {length*3/2}, new int[] {1});
 		s1.setSlice(fermiDS.getDouble(length-1), new int[] {length*3/2}, new int[] {length*2-1}, new int[] {1});
 
-		data.setSlice(Signal.convolveForOverlap(s1, gaussDS, null));
+		return Signal.convolveForOverlap(s1, kernel, null);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithValuesAndPartialDerivatives(new IParameter[] {parameter}, new DoubleDataset(it.getShape()), new DoubleDataset[] {data}, it);
+	}
+
+	/**
+	 * As the convolution is linear, partial derivatives are the convolutions of the Fermi function's
+	 * derivatives with the Gaussian, except for the width which is the convolution of the Fermi
+	 * function with the derivative of the (normalised) Gaussian
+	 */
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		if (isDirty()) {
+			calcCachedParameters();
+		}
+
+		IDataset xAxis = it.getValues()[0];
+		Dataset fermiDS = getFermiDS(xAxis);
+
+		// derivatives before convolution with respect to mu, T, scaleM, scaleC
+		Dataset x = DatasetUtils.convertToDataset(xAxis);
+		int length = x.getSize();
+		DoubleDataset[] partials = new DoubleDataset[4];
+		double[][] buffers = new double[4][];
+		for (int j = 0; j < 4; j++) {
+			partials[j] = new DoubleDataset(length);
+			buffers[j] = partials[j].getData();
+		}
+		IndexIterator iter = x.getIterator();
+		int i = 0;
+		while (iter.hasNext()) {
+			double dx = x.getElementDoubleAbs(iter.index) - mu;
+			double arg = dx / kT;
+			double f = 1 / (Math.exp(arg) + 1.0);
+			double g = f / (Math.exp(-arg) + 1.0);
+			double line = scaleM * dx + scaleC;
+			buffers[0][i] = line * g / kT - scaleM * f;
+			buffers[1][i] = line * g * arg * K2EV_CONVERSION_FACTOR / kT;
+			buffers[2][i] = dx * f;
+			buffers[3][i] = f;
+			i++;
+		}
+
+		Dataset kernel = null;
+		Dataset dKernel = null;
+		if (fwhm != 0.0) {
+			Gaussian gauss = new Gaussian((double)xAxis.mean(), fwhm, 1.0);
+			DoubleDataset gaussDS = gauss.calculateValues(xAxis);
+			double sum = ((Number) gaussDS.sum()).doubleValue();
+			DoubleDataset dGaussDS = gauss.calculatePartialDerivativeValues(gauss.getParameter(1), xAxis);
+			double dSum = ((Number) dGaussDS.sum()).doubleValue();
+			kernel = gaussDS.idivide(sum);
+			dKernel = dGaussDS.isubtract(Maths.multiply(kernel, dSum)).idivide(sum);
+			data.setSlice(convolve(fermiDS, kernel));
+		} else {
+			data.setSlice(fermiDS);
+		}
+
+		for (int k = 0; k < parameters.length; k++) {
+			IParameter p = parameters[k];
+			int j = indexOfParameter(p);
+			DoubleDataset d = derivatives[k];
+			if (j < 0) {
+				d.fill(0);
+			} else if (isDuplicated(p) || (j == 5 && kernel == null)) {
+				calcNumericalDerivativeDataset(A_TOLERANCE, R_TOLERANCE, p, d, it);
+			} else if (j == 4) {
+				d.fill(1); // convolution of constant with normalised kernel
+			} else if (j == 5) {
+				d.setSlice(convolve(fermiDS, dKernel));
+			} else {
+				d.setSlice(kernel == null ? partials[j] : convolve(partials[j], kernel));
+			}
+		}
 	}
 
 	public Dataset getFermiDS(IDataset xAxis) {
@@ -115,26 +115,23 @@ public class Gaussian extends APeak {
 		}
 	}
 	
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double arg = fr * (values[0] - pos);
+		double ex = Math.exp(- arg * arg);
+		double v = height * ex;
+		derivatives[POSN] = 2 * arg * fr * v;
+		derivatives[FWHM] = (2 * arg * arg - 1) * v / getParameterValue(FWHM);
+		derivatives[AREA] = fr * ex / Math.sqrt(Math.PI);
+		return v;
+	}
+
 	@Override
 	public double partialDeriv(IParameter parameter, double... position) {
-		return super.partialDeriv(parameter, position);
-//		if (isDuplicated(parameter))
-//			return super.partialDeriv(parameter, position);
-//
-//		int i = indexOfParameter(parameter);
-//		final double x = position[0];
-//		switch (i) {
-//		case 0:
-//			return 2*height*fr*fr*(x-pos)*Math.exp(-(fr*fr)*(x-pos)*(x-pos));
-//		case 1:
-//			return -2*height*fr*fr*(x-pos)*Math.exp(-(fr*fr)*(x-pos)*(x-pos));
-//		case 2: {
-//			double arg = fr * (x - pos); 
-//			return height * Math.exp(- arg * arg);
-//		}
-//		default:
-//			return 0;
-//		}
+		return analyticPartialDeriv(parameter, position);
 	}
 
 	public void superFillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it){
@@ -143,33 +140,11 @@ public class Gaussian extends APeak {
 	
 	@Override
 	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
-		super.fillWithPartialDerivativeValues(parameter, data, it);
-//		int j = indexOfParameter(parameter);
-//
-//		it.reset();
-//		double[] coords = it.getCoordinates();
-//		int i = 0;
-//		double[] buffer = data.getData();
-//		switch (j) {
-//		case 0:
-//			while (it.hasNext()) {
-//				buffer[i++] = 2*height*fr*fr*(coords[0]-pos)*Math.exp(-(fr*fr)*(coords[0]-pos)*(coords[0]-pos));
-//			}
-//			break;
-//		case 1:
-//			while (it.hasNext()) {
-//				buffer[i++] = -2*height*fr*fr*(coords[0]-pos)*Math.exp(-(fr*fr)*(coords[0]-pos)*(coords[0]-pos));
-//			}
-//			break;
-//		case 2:{
-//			while (it.hasNext()) {
-//				double arg = fr * (coords[0] - pos); 
-//				buffer[i++] = height * Math.exp(- arg * arg);
-//			}
-//			break;
-//		}
-//		default:
-//			break;
-//		}
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
 	}
 }
@@ -116,4 +116,33 @@ public class Lorentzian extends APeak {
 			buffer[i++] = height / ( dist * dist + 1);
 		}
 	}
+
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double dist = (values[0] - pos) / halfw;
+		double u = 1 / (dist * dist + 1);
+		double v = height * u;
+		derivatives[POSN] = 2 * dist * u * v / halfw;
+		derivatives[FWHM] = (2 * dist * dist * u - 1) * v / (2 * halfw);
+		derivatives[AREA] = u / (Math.PI * halfw);
+		return v;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
 }
@@ -10,6 +10,7 @@
 package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
 import org.apache.commons.math3.special.Beta;
+import org.apache.commons.math3.special.Gamma;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 
@@ -116,15 +117,21 @@ public class PearsonVII extends APeak {
 		setNames(NAME, DESC, LOCAL_PARAM_NAMES);
 	}
 
-	private transient double pos, halfwp, power;
+	private transient double pos, halfwp, power, norm, dLogBeta, dLogHalfwp;
 
 	@Override
 	protected void calcCachedParameters() {
 		pos = getParameterValue(POSN);
 		power = getParameterValue(POWER);
-		halfwp = 0.5 * getParameterValue(FWHM) / Math.sqrt(Math.pow(2, 1. / power)  - 1);
+		double p2 = Math.pow(2, 1. / power);
+		halfwp = 0.5 * getParameterValue(FWHM) / Math.sqrt(p2  - 1);
 		double beta = Math.exp(Beta.logBeta(power - 0.5,  0.5));
-		height = getParameterValue(AREA) / (beta * halfwp);
+		norm = 1 / (beta * halfwp);
+		height = getParameterValue(AREA) * norm;
+
+		// derivatives of logarithms of beta function and scaled half-width with respect to power
+		dLogBeta = Gamma.digamma(power - 0.5) - Gamma.digamma(power);
+		dLogHalfwp = 0.5 * p2 * Math.log(2) / (power * power * (p2 - 1));
 
 		setDirty(false);
 	}
@@ -154,4 +161,36 @@ public class PearsonVII extends APeak {
 			buffer[i++] = height / Math.pow((1.0 + arg * arg), power);
 		}
 	}
+
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double arg = (values[0] - pos) / halfwp;
+		double a2 = arg * arg;
+		double u = 1 / Math.pow(1.0 + a2, power);
+		double v = height * u;
+		double r = 2 * power * a2 / (1 + a2);
+		derivatives[POSN] = 2 * power * arg * v / ((1 + a2) * halfwp);
+		derivatives[FWHM] = (r - 1) * v / getParameterValue(FWHM);
+		derivatives[AREA] = u * norm;
+		derivatives[POWER] = (- dLogBeta - dLogHalfwp - Math.log1p(a2) + r * dLogHalfwp) * v;
+		return v;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
 }
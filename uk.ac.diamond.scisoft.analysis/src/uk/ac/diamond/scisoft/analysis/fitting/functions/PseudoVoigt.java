@@ -156,7 +156,7 @@ public class PseudoVoigt extends APeak {
 	private static final double CONST_A = Math.sqrt(Math.log(2.));
 	private static final double CONST_B = Math.sqrt(Math.PI / Math.log(2.));
 
-	private transient double pos, halfwg, halfwl, mixing;
+	private transient double pos, halfwg, halfwl, mixing, denom;
 
 	@Override
 	protected void calcCachedParameters() {
@@ -165,8 +165,8 @@ public class PseudoVoigt extends APeak {
 		halfwg = getParameterValue(FWHMG) / 2.0;
 		mixing = getParameter(MIX).getValue();
 
-		height = getParameterValue(AREA) / (halfwl * Math.PI * mixing +
-				halfwg * CONST_B * (1 - mixing));
+		denom = halfwl * Math.PI * mixing + halfwg * CONST_B * (1 - mixing);
+		height = getParameterValue(AREA) / denom;
 
 		setDirty(false);
 	}
@@ -209,6 +209,44 @@ public class PseudoVoigt extends APeak {
 		}
 	}
 
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double delta = values[0] - pos;
+		// Lorentzian part
+		double dist = delta / halfwl;
+		double l = 1 / (dist * dist + 1);
+		// Gaussian part
+		double arg = CONST_A * delta / halfwg;
+		double g = Math.exp(- arg * arg);
+		double ex = mixing * l + (1 - mixing) * g;
+		double v = height * ex;
+
+		derivatives[POSN] = 2 * height * (mixing * dist * l * l / halfwl + (1 - mixing) * arg * g * CONST_A / halfwg);
+		derivatives[FWHM] = height * mixing * dist * dist * l * l / halfwl - v * Math.PI * mixing / (2 * denom);
+		derivatives[AREA] = ex / denom;
+		derivatives[FWHMG] = height * (1 - mixing) * arg * arg * g / halfwg - v * CONST_B * (1 - mixing) / (2 * denom);
+		derivatives[MIX] = height * (l - g) - v * (halfwl * Math.PI - halfwg * CONST_B) / denom;
+		return v;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
+
 	@Override
 	public double getFWHM() {
 		if (isDirty())
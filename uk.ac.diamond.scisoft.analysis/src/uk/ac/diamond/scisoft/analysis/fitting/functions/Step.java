@@ -194,4 +194,48 @@ public class Step extends AFunction {
 			buffer[i++] = x;
 		}
 	}
+
+	/**
+	 * Derivatives with respect to pmin, pmax, frac and offset are zero except at the
+	 * edges where they are undefined
+	 */
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty())
+			calcCachedParameters();
+
+		double position = values[0];
+		derivatives[0] = 1;
+		derivatives[1] = 0;
+		derivatives[2] = 0;
+		derivatives[5] = 0;
+		derivatives[6] = 0;
+		if (position <= pmin || position >= pmax) { // Test if outside outer peak
+			derivatives[3] = 0;
+			derivatives[4] = 0;
+			return base;
+		}
+		derivatives[3] = 1;
+		if (position <= start || position >= start + width) { // Inside outer peak; now test if outside inner peak
+			derivatives[4] = 0;
+			return outer;
+		}
+		derivatives[4] = 1;
+		return inner;
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
+	}
 }
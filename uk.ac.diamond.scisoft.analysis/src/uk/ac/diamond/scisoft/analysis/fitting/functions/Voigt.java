@@ -9,7 +9,6 @@
 
 package uk.ac.diamond.scisoft.analysis.fitting.functions;
 
-import org.apache.commons.math3.complex.Complex;
 import org.eclipse.dawnsci.analysis.api.fitting.functions.IParameter;
 import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 
@@ -75,7 +74,16 @@ public class Voigt extends APeak {
 
 	private static final double CONST = Math.sqrt(8 * Math.log(2.));
 
-	private transient double r, ft, fr, zi;
+	private transient double r, ft, fr, zi, invgw;
+
+	private transient double[] w; // scratch for value of Faddeeva function
+
+	private double[] getScratch() {
+		if (w == null) {
+			w = new double[2];
+		}
+		return w;
+	}
 
 	@Override
 	protected void calcCachedParameters() {
@@ -86,6 +94,7 @@ public class Voigt extends APeak {
 			sigma = 10 * Double.MIN_NORMAL;
 		}
 		fr = Math.sqrt(0.5) / sigma;
+		invgw = 1 / (sigma * CONST);
 		zi = fr * l;
 		ft = fr * getParameterValue(AREA) / Math.sqrt(Math.PI);
 		height = ft * Faddeeva.erfcx(zi);
@@ -98,11 +107,10 @@ public class Voigt extends APeak {
 			calcCachedParameters();
 		}
 
-		Complex z = new Complex(fr * (values[0] - r), zi);
-		Complex w = Faddeeva.w(z, 0);
+		double[] w = getScratch();
+		Faddeeva.w(fr * (values[0] - r), zi, 0, w, 0);
 
-		double result = ft * w.getReal();
-		return result;
+		return ft * w[0];
 	}
 
 	@Override
@@ -116,10 +124,50 @@ public class Voigt extends APeak {
 		int i = 0;
 		double[] buffer = data.getData();
 		while (it.hasNext()) {
-			Complex z = new Complex(fr * (coords[0] - r), zi);
-			Complex w = Faddeeva.w(z, 0);
+			buffer[i++] = fr * (coords[0] - r);
+		}
 
-			buffer[i++] = ft * w.getReal();
+		// evaluate in place as each real part is read before it is overwritten
+		Faddeeva.w(buffer, new double[] {zi}, 0, buffer, null);
+		for (int j = 0; j < i; j++) {
+			buffer[j] *= ft;
+		}
+	}
+
+	private static final double TWO_OVER_SQRT_PI = 2 / Math.sqrt(Math.PI);
+
+	@Override
+	protected double calcValueAndPartialDerivatives(double[] derivatives, double... values) {
+		if (isDirty()) {
+			calcCachedParameters();
 		}
+
+		double zr = fr * (values[0] - r);
+		double[] w = getScratch();
+		Faddeeva.w(zr, zi, 0, w, 0);
+		// w'(z) = -2 z w(z) + 2i/sqrt(pi)
+		double dwr = -2 * (zr * w[0] - zi * w[1]);
+		double dwi = -2 * (zr * w[1] + zi * w[0]) + TWO_OVER_SQRT_PI;
+
+		derivatives[POSN] = -ft * fr * dwr;
+		derivatives[FWHM] = -0.5 * ft * fr * dwi;
+		derivatives[AREA] = fr * w[0] / Math.sqrt(Math.PI);
+		derivatives[FWHMG] = -ft * invgw * (w[0] + zr * dwr - zi * dwi);
+		return ft * w[0];
+	}
+
+	@Override
+	public double partialDeriv(IParameter parameter, double... position) {
+		return analyticPartialDeriv(parameter, position);
+	}
+
+	@Override
+	public void fillWithPartialDerivativeValues(IParameter parameter, DoubleDataset data, CoordinatesIterator it) {
+		fillWithAnalyticPartialDerivativeValues(parameter, data, it);
+	}
+
+	@Override
+	public void fillWithValuesAndPartialDerivatives(IParameter[] parameters, DoubleDataset data, DoubleDataset[] derivatives, CoordinatesIterator it) {
+		fillWithAnalyticValuesAndPartialDerivatives(parameters, data, derivatives, it);
 	}
 }
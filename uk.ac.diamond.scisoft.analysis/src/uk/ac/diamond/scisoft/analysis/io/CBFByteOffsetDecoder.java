@@ -0,0 +1,226 @@
+/*-
+ * Copyright 2015 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+/**
+ * Pure Java decoder for the first binary section of a CBF file when it is compressed with
+ * the byte offset scheme (as written by Pilatus detectors).
+ * <p>
+ * The file is memory-mapped and values are decoded straight into the destination array
+ * so no intermediate buffer is needed. No native library or global state is involved so
+ * frames can be decoded concurrently by separate instances.
+ */
+public class CBFByteOffsetDecoder {
+
+	private static final String BINARY_SECTION = "--CIF-BINARY-FORMAT-SECTION--";
+	private static final byte[] DATA_START = {0x0c, 0x1a, 0x04, (byte) 0xd5};
+
+	private static final String CONVERSION = "x-CBF_BYTE_OFFSET";
+	private static final String ELEMENTS = "x-binary-number-of-elements:";
+	private static final String ELEMENT_TYPE = "x-binary-element-type:";
+	private static final String BYTE_ORDER = "x-binary-element-byte-order:";
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final ByteBuffer buffer;
+	private final int elements;
+
+	private int min;
+	private int max;
+
+	private CBFByteOffsetDecoder(ByteBuffer buffer, int elements) {
+		this.buffer = buffer;
+		this.elements = elements;
+	}
+
+	/**
+	 * @param fileName
+	 * @return decoder or null if the file's binary section is not byte offset compressed
+	 *  integers of up to 32 bits
+	 * @throws IOException
+	 */
+	public static CBFByteOffsetDecoder open(String fileName) throws IOException {
+		File f = new File(fileName);
+		FileInputStream fi = new FileInputStream(f);
+		try {
+			ByteBuffer fBuffer;
+			if (System.getProperty("os.name").contains("Windows")) {
+				// This is a workaround for bug 4715154, see http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4715154
+				long fileSizeLong = f.length();
+				if (fileSizeLong > Integer.MAX_VALUE)
+					throw new IOException("File too big " + f.getName());
+				int fileSize = (int) fileSizeLong;
+				byte[] bytes = new byte[fileSize];
+				int offset = 0;
+				while (offset < fileSize) {
+					int count = fi.read(bytes, offset, fileSize - offset);
+					if (count < 0)
+						throw new IOException("Can't read file " + f.getName());
+					offset += count;
+				}
+				fBuffer = ByteBuffer.wrap(bytes);
+			} else {
+				FileChannel fc = fi.getChannel();
+				fBuffer = fc.map(MapMode.READ_ONLY, 0, fc.size());
+			}
+			return create(fBuffer);
+		} finally {
+			fi.close();
+		}
+	}
+
+	/**
+	 * @param fBuffer contents of CBF file
+	 * @return decoder or null if the binary section is not byte offset compressed integers
+	 *  of up to 32 bits
+	 */
+	static CBFByteOffsetDecoder create(ByteBuffer fBuffer) {
+		int section = indexOf(fBuffer, BINARY_SECTION.getBytes(ASCII), 0);
+		if (section < 0)
+			return null;
+		int start = indexOf(fBuffer, DATA_START, section);
+		if (start < 0)
+			return null;
+
+		byte[] header = new byte[start - section];
+		ByteBuffer h = fBuffer.duplicate();
+		h.position(section);
+		h.get(header);
+
+		String text = new String(header, ASCII);
+		if (!text.contains(CONVERSION)) // conversions parameter of Content-Type can be on a continuation line
+			return null;
+
+		int elements = -1;
+		for (String line : text.split("\r?\n")) {
+			String l = line.trim();
+			String lower = l.toLowerCase();
+			if (lower.startsWith(ELEMENTS)) {
+				try {
+					elements = Integer.parseInt(l.substring(ELEMENTS.length()).trim());
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else if (lower.startsWith(ELEMENT_TYPE)) {
+				if (!isSupportedType(lower.substring(ELEMENT_TYPE.length()))) {
+					return null;
+				}
+			} else if (lower.startsWith(BYTE_ORDER)) {
+				if (!lower.contains("little_endian")) {
+					return null;
+				}
+			}
+		}
+		if (elements < 0)
+			return null;
+
+		ByteBuffer data = fBuffer.duplicate();
+		data.position(start + DATA_START.length);
+		return new CBFByteOffsetDecoder(data.slice().order(ByteOrder.LITTLE_ENDIAN), elements);
+	}
+
+	private static boolean isSupportedType(String type) {
+		type = type.replace("\"", "").trim();
+		return type.equals("signed 32-bit integer") || type.endsWith("8-bit integer") || type.endsWith("16-bit integer");
+	}
+
+	private static int indexOf(ByteBuffer buffer, byte[] pattern, int from) {
+		int end = buffer.limit() - pattern.length;
+		outer:
+		for (int i = from; i <= end; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (buffer.get(i + j) != pattern[j])
+					continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return number of elements in binary section
+	 */
+	public int getNumberOfElements() {
+		return elements;
+	}
+
+	/**
+	 * Decode all elements into given array. The file's elements are treated as rows of given
+	 * width and element at row r and column c is placed at index {@code first + r*rowStride + c*colStride}
+	 * so images can be flipped or transposed while they are decoded
+	 * @param out
+	 * @param first
+	 * @param rowStride
+	 * @param colStride
+	 * @param width
+	 * @throws IOException if the compressed data is truncated
+	 */
+	public void decode(int[] out, int first, int rowStride, int colStride, int width) throws IOException {
+		final ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int amax = Integer.MIN_VALUE;
+		int amin = Integer.MAX_VALUE;
+		int value = 0;
+		try {
+			for (int r = 0, p = 0; p < elements; r++) {
+				int index = first + r * rowStride;
+				final int end = Math.min(p + width, elements);
+				for (; p < end; p++) {
+					int delta = b.get();
+					if (delta == Byte.MIN_VALUE) {
+						delta = b.getShort();
+						if (delta == Short.MIN_VALUE) {
+							delta = b.getInt();
+							if (delta == Integer.MIN_VALUE) {
+								delta = (int) b.getLong();
+							}
+						}
+					}
+					value += delta;
+					out[index] = value;
+					index += colStride;
+					if (value > amax) {
+						amax = value;
+					}
+					if (value < amin) {
+						amin = value;
+					}
+				}
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("CBF binary section is shorter than expected", e);
+		}
+		max = amax;
+		min = amin;
+	}
+
+	/**
+	 * @return minimum value found by last decode
+	 */
+	public int getMin() {
+		return min;
+	}
+
+	/**
+	 * @return maximum value found by last decode
+	 */
+	public int getMax() {
+		return max;
+	}
+}
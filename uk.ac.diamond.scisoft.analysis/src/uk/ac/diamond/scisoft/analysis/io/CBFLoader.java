@@ -565,6 +565,10 @@ _diffrn_radiation_wavelength.wt 1.0
 			start += xLength - 1;
 		}
 
+		if (data instanceof IntegerDataset && readByteOffsetData((IntegerDataset) data, isRowsX, start, stride1, stride2)) {
+			return data;
+		}
+
 		int rows;
 		int cols;
 		int rstep;
@@ -698,6 +702,47 @@ _diffrn_radiation_wavelength.wt 1.0
 		return data;
 	}
 
+	/**
+	 * Decode byte offset compressed data in Java, placing each value straight into its
+	 * final position in the dataset
+	 * @return true if data was read, false if cbflib should be used instead
+	 */
+	private boolean readByteOffsetData(IntegerDataset data, boolean isRowsX, int start, int stride1, int stride2) {
+		int[] shape = data.getShapeRef();
+		int xLength = shape[1];
+		int yLength = shape[0];
+
+		CBFByteOffsetDecoder decoder;
+		try {
+			decoder = CBFByteOffsetDecoder.open(fileName);
+		} catch (IOException e) {
+			logger.debug("Could not open {} for decoding", fileName, e);
+			return false;
+		}
+		if (decoder == null || decoder.getNumberOfElements() != xLength * yLength) {
+			return false;
+		}
+
+		// The loop in readCBFBinaryData reads file position start + j*rstep + i*cstep into
+		// index j*cols + i. Invert that so file row r and column c give the index
+		int r0 = start / xLength;
+		int c0 = start % xLength;
+		int s1 = Integer.signum(stride1);
+		int s2 = Integer.signum(stride2);
+		int rowStride = isRowsX ? s1 * xLength : s1;
+		int colStride = isRowsX ? s2 : s2 * yLength;
+		try {
+			decoder.decode(data.getData(), -r0 * rowStride - c0 * colStride, rowStride, colStride, xLength);
+		} catch (IOException e) {
+			logger.warn("Could not decode {}, falling back to cbflib", fileName, e);
+			return false;
+		}
+
+		data.setStoredValue(AbstractDataset.STORE_MAX, decoder.getMax());
+		data.setStoredValue(AbstractDataset.STORE_MIN, decoder.getMin());
+		return true;
+	}
+
 
 	private int getInteger(String key) throws ScanFileHolderException {
 		try {
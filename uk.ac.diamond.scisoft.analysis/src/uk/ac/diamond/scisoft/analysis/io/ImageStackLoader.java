@@ -10,8 +10,18 @@
 package uk.ac.diamond.scisoft.analysis.io;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
 import org.eclipse.dawnsci.analysis.api.dataset.SliceND;
@@ -28,6 +38,8 @@ import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
 import org.eclipse.dawnsci.analysis.dataset.impl.SliceNDIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.StringDataset;
 
+import uk.ac.diamond.scisoft.analysis.utils.ThreadUtils;
+
 /**
  * Class to create dataset from a dataset of filenames.
  * 
@@ -35,9 +47,17 @@ import org.eclipse.dawnsci.analysis.dataset.impl.StringDataset;
  * the shape of the first image.
  * 
  * The type of the dataset is set to equal the type of the first image.
+ * 
+ * Images needed for a slice are loaded concurrently, with no more in flight than there
+ * are loader threads, and each is copied into the slice as soon as it is available. When
+ * slices are requested in file order, the next few images are read ahead. Both can be set per loader or
+ * with the system properties {@value #PARALLEL_PROPERTY} and {@value #READ_AHEAD_PROPERTY}.
  */
 public class ImageStackLoader implements ILazyLoader {
 
+	public static final String PARALLEL_PROPERTY = "uk.ac.diamond.scisoft.analysis.io.imagestack.parallel";
+	public static final String READ_AHEAD_PROPERTY = "uk.ac.diamond.scisoft.analysis.io.imagestack.readahead";
+
 	private StringDataset filenames;
 	private int[] fShape; // filename shape
 	private long[] mShape; // max total shape
@@ -45,8 +65,13 @@ public class ImageStackLoader implements ILazyLoader {
 	private int[] shape;
 	private int dtype;
 	private File parent = null;
-	private Class<? extends IFileLoader> loaderClass;
+	private volatile Class<? extends IFileLoader> loaderClass;
 	private boolean onlyOne;
+
+	private boolean parallel = !"false".equalsIgnoreCase(System.getProperty(PARALLEL_PROPERTY));
+	private int readAhead = Integer.getInteger(READ_AHEAD_PROPERTY, 2);
+	private final Map<Integer, Future<IDataset>> window = new LinkedHashMap<Integer, Future<IDataset>>();
+	private int lastIndex = -1;
 	
 	public int getDtype() {
 		return dtype;
@@ -187,25 +212,230 @@ public class ImageStackLoader implements ILazyLoader {
 		SliceNDIterator it = new SliceNDIterator(slice, missing);
 		Dataset result = onlyOne || AbstractDataset.calcSize(it.getShape()) == 1 ? null : DatasetFactory.zeros(newShape, dtype);
 
-		int[] pos = it.getUsedPos();
+		// load a bounded number of images ahead of the one being copied into the result
+		SliceNDIterator ahead = new SliceNDIterator(slice, missing);
+		int[] pos = ahead.getUsedPos();
+		int limit = result == null || !parallel ? 1 : ThreadUtils.getDefaultThreads();
+		Deque<Future<IDataset>> images = new ArrayDeque<Future<IDataset>>();
+		boolean submitted = false;
+		int first = -1;
+		int last = -1;
+
+		it = new SliceNDIterator(slice, missing);
 		SliceND iSlice = it.getOmittedSlice();
 		int[] iShape = iSlice.getShape();
 		SliceND dSlice = it.getOutputSlice();
-		while (it.hasNext()) {
-			IDataset image = getDatasetFromFile(pos, mon).getSliceView(iSlice);
-
-			image.setShape(iShape);
-			if (result == null) {
-				result = DatasetUtils.convertToDataset(image);
-				result.setShape(newShape);
-				break;
+		try {
+			while (it.hasNext()) {
+				while (!submitted && images.size() < limit) {
+					if (!ahead.hasNext()) {
+						submitted = true;
+						break;
+					}
+					last = getIndex(pos);
+					if (first < 0)
+						first = last;
+					images.add(submit(last, pos.clone(), mon));
+					if (result == null)
+						submitted = true;
+				}
+				if (submitted && first >= 0) {
+					readAhead(first, last, pos);
+					first = -1;
+				}
+
+				IDataset image = getImage(images.poll()).getSliceView(iSlice);
+
+				image.setShape(iShape);
+				if (result == null) {
+					result = DatasetUtils.convertToDataset(image);
+					result.setShape(newShape);
+					break;
+				}
+				result.setSlice(image, dSlice);
+			}
+		} finally {
+			for (Future<IDataset> f : images) {
+				f.cancel(false);
 			}
-			result.setSlice(image, dSlice);
 		}
 
 		return result;
 	}
 
+	/**
+	 * @param parallel if true, load images of a slice concurrently
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
+	public boolean isParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @param readAhead number of images to load in advance when slices are requested in order
+	 */
+	public void setReadAhead(int readAhead) {
+		this.readAhead = readAhead;
+		if (readAhead <= 0) {
+			synchronized (window) {
+				for (Future<IDataset> f : window.values()) {
+					f.cancel(false);
+				}
+				window.clear();
+			}
+		}
+	}
+
+	public int getReadAhead() {
+		return readAhead;
+	}
+
+	/**
+	 * @param pos
+	 * @return index of image file in flattened filenames dataset
+	 */
+	private int getIndex(int[] pos) {
+		int[] fs = filenames.getShapeRef();
+		int index = 0;
+		for (int i = 0; i < fs.length; i++) {
+			index = index * fs[i] + pos[i];
+		}
+		return index;
+	}
+
+	/**
+	 * Take image from read ahead window or start loading it
+	 */
+	private Future<IDataset> submit(int index, final int[] pos, final IMonitor mon) throws ScanFileHolderException {
+		synchronized (window) {
+			Future<IDataset> f = window.remove(index);
+			if (f != null)
+				return f;
+		}
+
+		Callable<IDataset> load = new Callable<IDataset>() {
+			@Override
+			public IDataset call() throws Exception {
+				return getDatasetFromFile(pos, mon);
+			}
+		};
+		if (!parallel) {
+			try {
+				return new CompletedFuture(load.call());
+			} catch (ScanFileHolderException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new ScanFileHolderException("Cannot load image in image stack", e);
+			}
+		}
+		return ExecutorHolder.executor.submit(load);
+	}
+
+	/**
+	 * Start loading images which follow a slice if slices are being requested in file order
+	 * @param first index of first image in slice
+	 * @param last index of last image in slice
+	 * @param template position array to copy
+	 */
+	private void readAhead(int first, int last, int[] template) {
+		boolean inOrder;
+		synchronized (window) {
+			inOrder = first == lastIndex + 1;
+			lastIndex = last;
+		}
+		if (inOrder) { // walking stack in order
+			for (int i = 1; i <= readAhead && last + i < filenames.getSize(); i++) {
+				prefetch(last + i, template);
+			}
+		}
+	}
+
+	/**
+	 * Start loading image into read ahead window
+	 * @param index
+	 * @param template position array to copy
+	 */
+	private void prefetch(int index, int[] template) {
+		synchronized (window) {
+			if (window.containsKey(index))
+				return;
+
+			final int[] pos = template.clone();
+			int[] fs = filenames.getShapeRef();
+			int j = index;
+			for (int i = fs.length - 1; i >= 0; i--) {
+				pos[i] = j % fs[i];
+				j /= fs[i];
+			}
+			window.put(index, ExecutorHolder.executor.submit(new Callable<IDataset>() {
+				@Override
+				public IDataset call() throws Exception {
+					return getDatasetFromFile(pos, null);
+				}
+			}));
+
+			// drop images which are now too far behind
+			Iterator<Map.Entry<Integer, Future<IDataset>>> it = window.entrySet().iterator();
+			while (window.size() > readAhead && it.hasNext()) {
+				it.next().getValue().cancel(false);
+				it.remove();
+			}
+		}
+	}
+
+	private static IDataset getImage(Future<IDataset> f) throws ScanFileHolderException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ScanFileHolderException("Interrupted while loading image in image stack", e);
+		} catch (ExecutionException e) {
+			Throwable c = e.getCause();
+			if (c instanceof ScanFileHolderException)
+				throw (ScanFileHolderException) c;
+			throw new ScanFileHolderException("Cannot load image in image stack", c);
+		}
+	}
+
+	/**
+	 * Future for an image loaded in calling thread
+	 */
+	private static class CompletedFuture implements Future<IDataset> {
+		private final IDataset image;
+
+		CompletedFuture(IDataset image) {
+			this.image = image;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return true;
+		}
+
+		@Override
+		public IDataset get() {
+			return image;
+		}
+
+		@Override
+		public IDataset get(long timeout, TimeUnit unit) {
+			return image;
+		}
+	}
+
 	public int[] getShape() {
 		return shape;
 	}
@@ -291,4 +521,8 @@ public class ImageStackLoader implements ILazyLoader {
 
 		return chunk;
 	}
+
+	private static class ExecutorHolder {
+		static final ExecutorService executor = ThreadUtils.createDaemonThreadPool("Image stack loader", ThreadUtils.getDefaultThreads());
+	}
 }
@@ -25,6 +25,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -88,9 +96,11 @@ public class LoaderFactory {
 		
 	}
 
-	private static final Map<String, List<Class<? extends IFileLoader>>> LOADERS;
+	private static final ConcurrentMap<String, List<Class<? extends IFileLoader>>> LOADERS;
 	private static final Map<String, Class<? extends InputStream>>     UNZIPPERS;
 	private static final DataCache<IDataHolder> dataCache;
+	private static final ConcurrentMap<Object, FutureTask<IDataHolder>> LOADING = new ConcurrentHashMap<Object, FutureTask<IDataHolder>>();
+	private static final long WAIT_POLL_MS = 100;
 	private static final Set<String> IGNORE_EXTS;
 
 	/**
@@ -109,7 +119,8 @@ public class LoaderFactory {
 	 */
 	static {
 		
-		LOADERS   = new HashMap<String, List<Class<? extends IFileLoader>>>(19);
+		// registration can happen while files are being loaded so lists are copied on write
+		LOADERS   = new ConcurrentHashMap<String, List<Class<? extends IFileLoader>>>(19);
 		UNZIPPERS = new HashMap<String, Class<? extends InputStream>>(3);
 		dataCache = new DataCache<IDataHolder>();
 		IGNORE_EXTS   = new HashSet<String>(3);
@@ -290,8 +301,9 @@ public class LoaderFactory {
 	 * all the loaders for a given extension if the extension is registered already. 
 	 * Otherwise it tries all loaders - in no particular order.
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Concurrent requests for the same file wait for a single load (loading twice is SLOW)
+	 *   while requests for different files load in parallel. The shared load
+	 *   uses the monitor of the first caller (see loadOnce).
 	 * 
 	 * @param path to file
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
@@ -320,8 +332,9 @@ public class LoaderFactory {
 	 * all the loaders for a given extension if the extension is registered already. 
 	 * Otherwise it tries all loaders - in no particular order.
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Concurrent requests for the same file wait for a single load (loading twice is SLOW)
+	 *   while requests for different files load in parallel. The shared load
+	 *   uses the monitor of the first caller (see loadOnce).
 	 * 
 	 * @param path to file
 	 * @param willLoadMetadata dictates whether metadata is not loaded (if possible)
@@ -332,7 +345,7 @@ public class LoaderFactory {
 	 * @return DataHolder
 	 * @throws Exception
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized  IDataHolder getData(final String   path,
+	public static IDataHolder getData(final String   path,
 																		  final boolean willLoadMetadata, 
 																		  final boolean loadImageStacks, 
 																		  final boolean lazily, 
@@ -357,11 +370,11 @@ public class LoaderFactory {
 		throw new Exception(path+" is not valid!");
 	}
 	
-	private static /*THIS IS REQUIRED:*/ synchronized  IDataHolder getFileData(final String   path,
-																				final boolean willLoadMetadata, 
-																				final boolean loadImageStacks, 
-																				final boolean lazily, 
-																				final IMonitor mon) throws Exception {
+	private static IDataHolder getFileData(final String   path,
+										   final boolean willLoadMetadata, 
+										   final boolean loadImageStacks, 
+										   final boolean lazily, 
+										   final IMonitor mon) throws Exception {
 
 		// IMPORTANT: DO NOT USE loadImageStacks in Key. 
 		// Instead when loadImageStacks=true, we add the stack to the already
@@ -374,40 +387,14 @@ public class LoaderFactory {
 		if (cachedObject!=null && cachedObject instanceof IDataHolder) holder = (IDataHolder)cachedObject;
 
 		if (holder==null) { // try and load it
-			final Iterator<Class<? extends IFileLoader>> it = getIterator(path);
-			if (it == null) return null;
-	
-			// Currently this method simply cycles through all loaders.
-			// When it finds one which does not give an exception on loading it
-			// returns the data from this loader.
-			while (it.hasNext()) {
-				final Class<? extends IFileLoader> clazz = it.next();
-				final IFileLoader loader = getLoader(clazz, path);
-				loader.setLoadMetadata(willLoadMetadata);
-				loader.setLoadAllLazily(lazily);
-				try {
-					// NOTE Assumes loader fails quickly and nicely
-					// if given the wrong file. If a loader does not
-					// do this it should not be registered with LoaderFactory
-					holder = loader.loadFile(mon);
-					holder.setLoaderClass(clazz);
-					holder.setFilePath(path);
-
-					if (!lazily) {
-						key.setMetadata(holder.getMetadata()!=null);
-						boolean cached = dataCache.recordSoftReference(key, holder);
-						if (!cached) System.err.println("Loader factory failed to cache "+path);
-					}
-					break;
-					
-				} catch (OutOfMemoryError ome) {
-					logger.error("There was not enough memory to load {}", path);
-					throw new ScanFileHolderException("Out of memory in loader factory", ome);
-				} catch (Throwable ne) {
-					logger.trace("Loader {} caused {}", loader, ne);
-					continue;
+			final Callable<IDataHolder> load = new Callable<IDataHolder>() {
+				@Override
+				public IDataHolder call() throws Exception {
+					return loadFileData(path, willLoadMetadata, lazily, mon);
 				}
-			}
+			};
+			// lazy holders are not cached so are not shared with other callers
+			holder = lazily ? load.call() : loadOnce(dataCache.createCacheKey(path, willLoadMetadata), load, mon);
 		}
 		
 		// For images, we can put another item in the data holder
@@ -415,9 +402,12 @@ public class LoaderFactory {
 		try {
 			if (loadImageStacks && holder!=null) {
 
-				if (holder.size()==1 && holder.getLazyDataset(0).getRank()==2 && !isH5(path)) {
-					final Map<String,ILazyDataset> stack = getImageStack(path, holder, mon);
-					if (stack!=null) for (String name : stack.keySet()) holder.addDataset(name, stack.get(name));
+				// the holder may be cached and shared so callers must not add to it at once
+				synchronized (holder) {
+					if (holder.size()==1 && holder.getLazyDataset(0).getRank()==2 && !isH5(path)) {
+						final Map<String,ILazyDataset> stack = getImageStack(path, holder, mon);
+						if (stack!=null) for (String name : stack.keySet()) holder.addDataset(name, stack.get(name));
+					}
 				}
 
 			}
@@ -428,11 +418,112 @@ public class LoaderFactory {
 	}
 
 	
+	private static IDataHolder loadFileData(final String   path,
+											final boolean willLoadMetadata, 
+											final boolean lazily, 
+											final IMonitor mon) throws Exception {
+
+		// A loader may have finished while we were waiting to start
+		final CacheKey key = dataCache.createCacheKey(path, willLoadMetadata);
+		if (!lazily) {
+			final Object cachedObject = dataCache.peekSoftReference(key);
+			if (cachedObject!=null && cachedObject instanceof IDataHolder) return (IDataHolder)cachedObject;
+			key.setMetadata(willLoadMetadata);
+		}
+
+		final Iterator<Class<? extends IFileLoader>> it = getIterator(path);
+		if (it == null) return null;
+
+		final long start = System.nanoTime();
+		IDataHolder holder = null;
+
+		// Currently this method simply cycles through all loaders.
+		// When it finds one which does not give an exception on loading it
+		// returns the data from this loader.
+		while (it.hasNext()) {
+			final Class<? extends IFileLoader> clazz = it.next();
+			final IFileLoader loader = getLoader(clazz, path);
+			loader.setLoadMetadata(willLoadMetadata);
+			loader.setLoadAllLazily(lazily);
+			try {
+				// NOTE Assumes loader fails quickly and nicely
+				// if given the wrong file. If a loader does not
+				// do this it should not be registered with LoaderFactory
+				holder = loader.loadFile(mon);
+				holder.setLoaderClass(clazz);
+				holder.setFilePath(path);
+
+				if (!lazily) {
+					dataCache.recordLoad(System.nanoTime() - start);
+					key.setMetadata(holder.getMetadata()!=null);
+					boolean cached = dataCache.recordSoftReference(key, holder);
+					if (!cached) reportNotCached(path, holder);
+				}
+				break;
+				
+			} catch (OutOfMemoryError ome) {
+				logger.error("There was not enough memory to load {}", path);
+				throw new ScanFileHolderException("Out of memory in loader factory", ome);
+			} catch (Throwable ne) {
+				logger.trace("Loader {} caused {}", loader, ne);
+				holder = null;
+				continue;
+			}
+		}
+		return holder;
+	}
+
+	/**
+	 * Load with the given task unless another thread is already loading the same
+	 * key, in which case wait for and share its result.
+	 * <p>
+	 * A shared load runs with the monitor of the caller that started it. Other callers
+	 * stop waiting when their own monitor is cancelled but cannot stop the load, and
+	 * if the first caller cancels, the callers waiting on it get its failure.
+	 * 
+	 * @param inFlightKey key of the load, must not be modified afterwards
+	 * @param load
+	 * @param mon of caller (can be null)
+	 * @return data holder (can be null)
+	 * @throws Exception
+	 */
+	private static IDataHolder loadOnce(final Object inFlightKey, final Callable<IDataHolder> load, final IMonitor mon) throws Exception {
+
+		FutureTask<IDataHolder> task = new FutureTask<IDataHolder>(load);
+		FutureTask<IDataHolder> existing = LOADING.putIfAbsent(inFlightKey, task);
+		if (existing == null) {
+			try {
+				task.run();
+			} finally {
+				LOADING.remove(inFlightKey, task);
+			}
+			existing = task;
+		}
+
+		try {
+			while (true) {
+				try {
+					return existing.get(WAIT_POLL_MS, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					if (mon != null && mon.isCancelled()) {
+						throw new ScanFileHolderException("Loader cancelled while waiting for another load of the same file");
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof Exception) throw (Exception) cause;
+			if (cause instanceof Error) throw (Error) cause;
+			throw e;
+		}
+	}
+
 	/**
 	 * Call to load file into memory with specific loader class
 	 * 
-	 *   *synchronized* is REQUIRED because multiple threads load data simultaneously and without
-	 *   a synchronized you can get data loaded twice which is SLOW.
+	 *   Concurrent requests for the same file wait for a single load (loading twice is SLOW)
+	 *   while requests for different files load in parallel. The shared load
+	 *   uses the monitor of the first caller (see loadOnce).
      *
 	 * @param clazz loader class
 	 * @param path to file
@@ -441,10 +532,10 @@ public class LoaderFactory {
 	 * @return data holder (can be null)
 	 * @throws ScanFileHolderException
 	 */
-	public static /*THIS IS REQUIRED:*/ synchronized IDataHolder getData(Class<? extends IFileLoader> clazz, 
-						                         String path, 
-			                                     boolean willLoadMetadata, 
-			                                     IMonitor mon) throws Exception {
+	public static IDataHolder getData(final Class<? extends IFileLoader> clazz, 
+						              final String path, 
+			                          final boolean willLoadMetadata, 
+			                          final IMonitor mon) throws Exception {
 		
 		if (!(new File(path)).exists()) throw new FileNotFoundException(path);
 
@@ -458,7 +549,25 @@ public class LoaderFactory {
 		IDataHolder holder = null;
 		if (cachedObject!=null && cachedObject instanceof IDataHolder) holder = (IDataHolder)cachedObject;
         if (holder!=null) return holder;
-		
+
+        return loadOnce(Arrays.asList(clazz, dataCache.createCacheKey(path, willLoadMetadata)), new Callable<IDataHolder>() {
+			@Override
+			public IDataHolder call() throws Exception {
+				return loadFileData(clazz, path, willLoadMetadata, mon);
+			}
+		}, mon);
+	}
+
+	private static IDataHolder loadFileData(Class<? extends IFileLoader> clazz, 
+						                    String path, 
+			                                boolean willLoadMetadata, 
+			                                IMonitor mon) throws Exception {
+
+		final CacheKey key = dataCache.createCacheKey(path, willLoadMetadata);
+		final Object cachedObject = dataCache.peekSoftReference(key);
+		if (cachedObject!=null && cachedObject instanceof IDataHolder) return (IDataHolder)cachedObject;
+		key.setMetadata(willLoadMetadata);
+
 		IFileLoader loader;
 		try {
 			loader = getLoader(clazz, path);
@@ -473,13 +582,15 @@ public class LoaderFactory {
 
 		loader.setLoadMetadata(willLoadMetadata);
 		try {
-			holder = loader.loadFile(mon);
+			final long start = System.nanoTime();
+			IDataHolder holder = loader.loadFile(mon);
 			holder.setLoaderClass(clazz);
 			holder.setFilePath(path);
+			dataCache.recordLoad(System.nanoTime() - start);
 			
 			key.setMetadata(holder.getMetadata()!=null);
 			boolean cached = dataCache.recordSoftReference(key, holder);
-			if (!cached) System.err.println("Loader factory failed to cache "+path);
+			if (!cached) reportNotCached(path, holder);
 			return holder;
 			
 		} catch (OutOfMemoryError ome) {
@@ -491,6 +602,17 @@ public class LoaderFactory {
 		}
 	}
 
+	/**
+	 * Data larger than the cache budget is skipped on purpose so only report other failures
+	 */
+	private static void reportNotCached(String path, IDataHolder holder) {
+		if (dataCache.isTooLarge(holder)) {
+			logger.debug("Data in {} is larger than the cache budget so is not cached", path);
+		} else {
+			System.err.println("Loader factory failed to cache "+path);
+		}
+	}
+
 	/**
 	 * Store data into cache
      *
@@ -739,9 +861,8 @@ public class LoaderFactory {
 
 		final String extension = FileUtils.getFileExtension(path).toLowerCase();
 
-		if (LOADERS.containsKey(extension)) {
-			final Collection<Class<? extends IFileLoader>> loaders = LOADERS.get(extension);
-
+		final Collection<Class<? extends IFileLoader>> loaders = LOADERS.get(extension);
+		if (loaders != null) {
 			for (Class<? extends IFileLoader> clazz : loaders) {
 				final IFileLoader loader = getLoader(clazz, path);
 				if (interfaceClass.isInstance(loader))
@@ -798,8 +919,10 @@ public class LoaderFactory {
 		final String extension = FileUtils.getFileExtension(path).toLowerCase();
 		Iterator<Class<? extends IFileLoader>> it = null;
 
-		if (LOADERS.containsKey(extension)) {
-			it = LOADERS.get(extension).iterator();
+		final List<Class<? extends IFileLoader>> loaders = LOADERS.get(extension);
+		if (loaders != null) {
+			// iterates over a snapshot so registration can carry on
+			it = loaders.iterator();
 		} else if (!IGNORE_EXTS.contains(extension)) {
 			// We may have a zipped file type that we support
 			final File file = new File(path);
@@ -816,8 +939,8 @@ public class LoaderFactory {
 			}
 
 			final Set<Class<? extends IFileLoader>> all = new HashSet<Class<? extends IFileLoader>>();
-			for (String ext : LOADERS.keySet())
-				all.addAll(LOADERS.get(ext));
+			for (List<Class<? extends IFileLoader>> l : LOADERS.values())
+				all.addAll(l);
 			it = all.iterator();
 		}
 		return it;
@@ -880,7 +1003,9 @@ public class LoaderFactory {
 
 		// Since not using set of loaders anymore must use contains to ensure
 		// that a memory leak does not occur.
-		if (!list.contains(loader)) list.add(loader);
+		synchronized (list) {
+			if (!list.contains(loader)) list.add(loader);
+		}
 	}
 
 	/**
@@ -905,7 +1030,9 @@ public class LoaderFactory {
 		List<Class<? extends IFileLoader>> list = prepareRegistration(extension, loader);
 		// Since not using set of loaders anymore must use contains to ensure
 		// that a memory leak does not occur.
-		if (!list.contains(loader)) list.add(position, loader);
+		synchronized (list) {
+			if (!list.contains(loader)) list.add(position, loader);
+		}
 	}
 
 	private static List<Class<? extends IFileLoader>> prepareRegistration(String extension, Class<? extends IFileLoader> loader) throws Exception {
@@ -921,8 +1048,9 @@ public class LoaderFactory {
 
 		List<Class<? extends IFileLoader>> list = LOADERS.get(extension);
 		if (list == null) {
-			list = new ArrayList<Class<? extends IFileLoader>>();
-			LOADERS.put(extension, list);
+			list = new CopyOnWriteArrayList<Class<? extends IFileLoader>>();
+			List<Class<? extends IFileLoader>> old = LOADERS.putIfAbsent(extension, list);
+			if (old != null) list = old;
 		}
 		return list;
 	}
@@ -993,4 +1121,11 @@ public class LoaderFactory {
 		dataCache.clear(filePath);
 	}
 
+	/**
+	 * @return cache used for loaded data, for its statistics and size settings
+	 */
+	public static DataCache<IDataHolder> getDataCache() {
+		return dataCache;
+	}
+
 }
@@ -12,45 +12,116 @@ package uk.ac.diamond.scisoft.analysis.io.cache;
 import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
-import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.dataset.ILazyDataset;
 import org.eclipse.dawnsci.analysis.api.io.IDataHolder;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 
 /**
  * Class to encapsulate data caching for LoaderFactory
+ * <p>
+ * By default items are held by soft references so the garbage collector decides when
+ * they are dropped. If a byte budget is set, with {@link #setMaximumBytes(long)} or the
+ * system property {@value #MAX_BYTES} (in megabytes), items are held strongly instead and
+ * the cache evicts by its {@link EvictionPolicy} to stay within that budget. The size of
+ * each item is estimated by a {@link Weigher}.
  */
 public class DataCache<T> {
 
 
 	private static final String NO_CACHING = "uk.ac.diamond.scisoft.analysis.io.nocaching";
+	private static final String MAX_ENTRIES = "uk.ac.diamond.scisoft.analysis.io.cache.maxentries";
+	public static final String MAX_BYTES = "uk.ac.diamond.scisoft.analysis.io.cache.maxbytes";
+	public static final String POLICY = "uk.ac.diamond.scisoft.analysis.io.cache.policy";
+
+	/**
+	 * Order in which items are dropped when the cache is full
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * least recently used first
+		 */
+		LRU,
+		/**
+		 * least frequently used first, ties broken by least recently used
+		 */
+		LFU,
+	}
+
+	/**
+	 * Estimates memory held by a cached item
+	 */
+	public interface Weigher<T> {
+		/**
+		 * @param value
+		 * @return approximate size in bytes
+		 */
+		public long weigh(T value);
+	}
+
 	/**
 	 * A caching mechanism using soft references. Soft references attempt to keep things
-	 * in memory until the system is short on memory. Hashtable used because it is synchronized
-	 * which should reduce chances of getting the wrong data for the key.
+	 * in memory until the system is short on memory. A concurrent map is used so that
+	 * lookups by different threads do not block one another. The number of entries
+	 * is bounded and the least recently used entry is dropped first.
 	 */
-	private final Map<CacheKey, Reference<T>> cache;
-	
+	private final Map<CacheKey, Entry<T>> cache;
+
+	private final Weigher<T> weigher;
+
+	private volatile int maximumEntries;
+	private volatile long maximumBytes;
+	private volatile EvictionPolicy policy;
+
+	private final AtomicLong clock     = new AtomicLong();
+	private final AtomicLong bytes     = new AtomicLong();
+	private final AtomicLong hits      = new AtomicLong();
+	private final AtomicLong misses    = new AtomicLong();
+	private final AtomicLong loads     = new AtomicLong();
+	private final AtomicLong loadTime  = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
 	public DataCache() {
-		cache = new Hashtable<CacheKey, Reference<T>>(89);
+		this(null);
 	}
 
 	/**
-	 * Used for synchronization.
+	 * @param weigher used to size items, if null then datasets in data holders are summed
 	 */
-	private final static Object LOCK = new Object();
-	
+	public DataCache(Weigher<T> weigher) {
+		cache = new ConcurrentHashMap<CacheKey, Entry<T>>(89);
+		this.weigher = weigher;
+		maximumEntries = Integer.getInteger(MAX_ENTRIES, 1000);
+		maximumBytes   = Long.getLong(MAX_BYTES, 0)*1024*1024;
+		policy         = EvictionPolicy.valueOf(System.getProperty(POLICY, EvictionPolicy.LRU.name()).toUpperCase());
+	}
+
 	public void clear() {
-		cache.clear();
+		for (CacheKey key : cache.keySet()) {
+			remove(key, null);
+		}
 	}
 	public void clear(String filePath) {
-		for (Iterator<CacheKey> it = cache.keySet().iterator();it.hasNext();) {
-			CacheKey key = it.next();
-			if (filePath.equals(key.getFilePath())) it.remove();
+		for (CacheKey key : cache.keySet()) {
+			if (filePath.equals(key.getFilePath())) remove(key, null);
 		}
 	}
-	
+
+	/**
+	 * Drop items whose files have been modified or deleted since they were cached
+	 */
+	public void clearModified() {
+		for (CacheKey key : cache.keySet()) {
+			if (key.getFilePath() == null) continue;
+			CacheKey current = createCacheKey(key.getFilePath(), key.hasMetadata());
+			if (!current.isSameFile(key)) remove(key, null);
+		}
+	}
+
 	public CacheKey createCacheKey(String path, boolean loadMeta) {
 		final CacheKey key = new CacheKey();
 		key.setFilePath(path);
@@ -65,14 +136,12 @@ public class DataCache<T> {
 	 */
 	public T getSoftReference(CacheKey key) {
 		T o = getReference(key);
-		if (o != null) {
-			return o;
-		}
-		if (key.hasMetadata()) { // wanted metadata but none there
-			return null;
+		if (o == null && !key.hasMetadata()) { // try with unwanted metadata
+			key.setMetadata(true);
+			o = getReference(key);
 		}
-		key.setMetadata(true); // try with unwanted metadata
-		return getReference(key);
+		count(o);
+		return o;
 	}
 
 	/**
@@ -82,12 +151,36 @@ public class DataCache<T> {
 	 */
 	public T getSoftReferenceWithMetadata(CacheKey key) {
 		T o = getReference(key);
-		if (o != null) return o;
+		if (o == null) {
+			CacheKey k = findKeyWithMetadata(key);
+			if (k != null) o = getReference(k);
+		}
+		count(o);
+		return o;
+	}
 
-		CacheKey k = findKeyWithMetadata(key);
-		return k == null ? null : getReference(k);
+	/**
+	 * As {@link #getSoftReference(CacheKey)} but not recorded in the hit and miss counts
+	 * @param key
+	 * @return the object referenced or null if it got garbaged or was not cached yet
+	 */
+	public T peekSoftReference(CacheKey key) {
+		T o = getReference(key);
+		if (o == null && !key.hasMetadata()) {
+			key.setMetadata(true);
+			o = getReference(key);
+		}
+		return o;
 	}
 
+	private void count(T o) {
+		if (Boolean.getBoolean(NO_CACHING)) return;
+		if (o == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+	}
 
 	/**
 	 * May be null
@@ -96,29 +189,30 @@ public class DataCache<T> {
 	 */
 	private T getReference(CacheKey key) {
 		if (Boolean.getBoolean(NO_CACHING)) return null;
-		synchronized (LOCK) {
-			try {
-		        final Reference<T> ref = cache.get(key);
-		        if (ref == null) return null;
-		        T got = ref.get();
-		        return got;
-			} catch (Throwable ne) {
-				return null;
-			}
+		try {
+	        final Entry<T> entry = cache.get(key);
+	        if (entry == null) return null;
+	        T got = entry.get();
+	        if (got == null) {
+	        	remove(key, entry);
+	        } else {
+	        	entry.lastAccess = clock.incrementAndGet();
+	        	entry.uses++;
+	        }
+	        return got;
+		} catch (Throwable ne) {
+			return null;
 		}
 	}
 
 	private CacheKey findKeyWithMetadata(CacheKey key) {
 		if (Boolean.getBoolean(NO_CACHING)) return null;
-		synchronized (LOCK) {
-			for (CacheKey k : cache.keySet()) {
-				if (k.isSameFile(key) && k.hasMetadata()) {
-					return k;
-				}
+		for (CacheKey k : cache.keySet()) {
+			if (k.isSameFile(key) && k.hasMetadata()) {
+				return k;
 			}
-			return null;
 		}
-
+		return null;
 	}
 
 	/**
@@ -126,23 +220,222 @@ public class DataCache<T> {
 	 * @param key
 	 * @param value
 	 * @return true if value has been stored
+	 * @see #isTooLarge(Object)
 	 */
 	public boolean recordSoftReference(CacheKey key, T value) {
 
 		if (Boolean.getBoolean(NO_CACHING)) return false;
-		synchronized (LOCK) {
-			try {
+		try {
+			final long size = weigh(value);
+			final long budget = maximumBytes;
+			if (budget > 0 && size > budget) return false;
+
+			final Entry<T> entry;
+			if (budget > 0) {
+				entry = new Entry<T>(value, null, size, clock.incrementAndGet());
+			} else {
 				Reference<T> ref = Boolean.getBoolean("uk.ac.diamond.scisoft.analysis.io.weakcaching")
 						         ? new WeakReference<T>(value)
 						         : new SoftReference<T>(value);
-				cache.put(key, ref);
-				return true;
-			} catch (Throwable ne) {
-				return false;
+				entry = new Entry<T>(null, ref, size, clock.incrementAndGet());
+			}
+
+			removeStale(key);
+			Entry<T> old = cache.put(key, entry);
+			bytes.addAndGet(size);
+			if (old != null) bytes.addAndGet(-old.bytes);
+
+			if (cache.size() > maximumEntries || (budget > 0 && bytes.get() > budget)) evict(key);
+			return true;
+		} catch (Throwable ne) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param value
+	 * @return true if value is larger than the byte budget so is deliberately not stored
+	 */
+	public boolean isTooLarge(T value) {
+		final long budget = maximumBytes;
+		return budget > 0 && weigh(value) > budget;
+	}
+
+	/**
+	 * Drop entries for earlier versions of the file referred to by the key
+	 */
+	private void removeStale(CacheKey key) {
+		if (key.getFilePath() == null) return;
+		for (CacheKey k : cache.keySet()) {
+			if (key.getFilePath().equals(k.getFilePath()) && k.getTimeStamp() != key.getTimeStamp()) {
+				remove(k, null);
+			}
+		}
+	}
+
+	/**
+	 * Remove entry and release its bytes
+	 * @param key
+	 * @param entry if null, remove whatever is mapped to key
+	 * @return true if removed
+	 */
+	private boolean remove(CacheKey key, Entry<T> entry) {
+		if (entry == null) {
+			entry = cache.remove(key);
+			if (entry == null) return false;
+		} else if (!cache.remove(key, entry)) {
+			return false;
+		}
+		bytes.addAndGet(-entry.bytes);
+		return true;
+	}
+
+	private long weigh(T value) {
+		if (weigher != null) return weigher.weigh(value);
+		if (!(value instanceof IDataHolder)) return 0;
+
+		IDataHolder holder = (IDataHolder) value;
+		long total = 0;
+		for (int i = 0, imax = holder.size(); i < imax; i++) {
+			ILazyDataset l = holder.getLazyDataset(i);
+			if (l instanceof Dataset) {
+				total += ((Dataset) l).getNbytes();
+			} else if (l instanceof IDataset) { // assume doubles
+				total += 8l * l.getSize();
+			} // lazy datasets have not been loaded so hold little
+		}
+		return total;
+	}
+
+	/**
+	 * Drop entries which have been garbage collected then ones chosen by the eviction
+	 * policy until the cache is within its maximum number of entries and bytes
+	 * @param keep key which is not to be evicted, may be null
+	 */
+	private synchronized void evict(CacheKey keep) {
+		for (Map.Entry<CacheKey, Entry<T>> e : cache.entrySet()) {
+			if (e.getValue().get() == null) remove(e.getKey(), e.getValue());
+		}
+
+		while (cache.size() > maximumEntries || (maximumBytes > 0 && bytes.get() > maximumBytes)) {
+			CacheKey victim = null;
+			Entry<T> victimEntry = null;
+			for (Map.Entry<CacheKey, Entry<T>> e : cache.entrySet()) {
+				if (e.getKey().equals(keep)) continue;
+				if (victimEntry == null || isBefore(e.getValue(), victimEntry)) {
+					victim = e.getKey();
+					victimEntry = e.getValue();
+				}
 			}
+			if (victim == null) break;
+			if (remove(victim, victimEntry)) evictions.incrementAndGet();
 		}
 	}
 
+	/**
+	 * @return true if a should be evicted before b
+	 */
+	private boolean isBefore(Entry<T> a, Entry<T> b) {
+		if (policy == EvictionPolicy.LFU && a.uses != b.uses) {
+			return a.uses < b.uses;
+		}
+		return a.lastAccess < b.lastAccess;
+	}
+
+	/**
+	 * Record time taken to load an item that was not in the cache
+	 * @param nanos
+	 */
+	public void recordLoad(long nanos) {
+		loads.incrementAndGet();
+		loadTime.addAndGet(nanos);
+	}
+
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	/**
+	 * @param maximumEntries maximum number of items held by the cache
+	 */
+	public void setMaximumEntries(int maximumEntries) {
+		this.maximumEntries = maximumEntries;
+		if (cache.size() > maximumEntries) evict(null);
+	}
+
+	/**
+	 * @return byte budget or zero if items are held by soft references
+	 */
+	public long getMaximumBytes() {
+		return maximumBytes;
+	}
+
+	/**
+	 * Set a byte budget. Items cached after this is set to a positive value are held
+	 * strongly until evicted; items cached after it is set to zero are held by soft references.
+	 * @param maximumBytes approximate maximum memory held by the cache
+	 */
+	public void setMaximumBytes(long maximumBytes) {
+		this.maximumBytes = maximumBytes;
+		if (maximumBytes > 0 && bytes.get() > maximumBytes) evict(null);
+	}
+
+	public EvictionPolicy getEvictionPolicy() {
+		return policy;
+	}
+
+	public void setEvictionPolicy(EvictionPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+	 * @return number of entries currently held (some may have been garbage collected)
+	 */
+	public int size() {
+		return cache.size();
+	}
+
+	/**
+	 * @return approximate memory held by the cache in bytes (some may have been garbage collected)
+	 */
+	public long getBytesHeld() {
+		return bytes.get();
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getLoadCount() {
+		return loads.get();
+	}
+
+	/**
+	 * @return total time spent loading data in nanoseconds
+	 */
+	public long getTotalLoadTime() {
+		return loadTime.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Reset hit, miss, load and eviction counters
+	 */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+		loads.set(0);
+		loadTime.set(0);
+		evictions.set(0);
+	}
+
 	/**
 	 * Store data into cache
      *
@@ -168,7 +461,7 @@ public class DataCache<T> {
 		}
 		key.setImageNumber(imageNumber);
 
-		if (!recordSoftReference(key, holder))
+		if (!recordSoftReference(key, holder) && !isTooLarge(holder))
 			System.err.println("Loader factory failed to cache "+key);
 	}
 
@@ -201,4 +494,25 @@ public class DataCache<T> {
 		return cachedObject;
 	}
 
+	/**
+	 * Either holds its value strongly (when within a byte budget) or by reference
+	 */
+	private static class Entry<T> {
+		final T value;
+		final Reference<T> ref;
+		final long bytes;
+		volatile long lastAccess;
+		volatile int uses; // approximate as increments may race
+
+		Entry(T value, Reference<T> ref, long bytes, long lastAccess) {
+			this.value = value;
+			this.ref = ref;
+			this.bytes = bytes;
+			this.lastAccess = lastAccess;
+		}
+
+		T get() {
+			return ref == null ? value : ref.get();
+		}
+	}
 }
@@ -95,18 +95,23 @@ public class ApacheOptimizer extends AbstractOptimizer implements ILeastSquaresO
 		final int size = coords[0].getSize();
 		final AFunction afn;
 		final CoordinatesIterator it;
-		final DoubleDataset vd, pvd;
+		final DoubleDataset vd;
+		final DoubleDataset[] pvds;
+		final IParameter[] ps = params.toArray(new IParameter[n]);
 		final double[][] dm = new double[size][n];
 		if (function instanceof AFunction) {
 			afn = (AFunction) function;
 			it = afn.getIterator(coords);
 			vd = (DoubleDataset) DatasetFactory.zeros(coords[0].getShapeRef(), Dataset.FLOAT64);
-			pvd = vd.clone();
+			pvds = new DoubleDataset[n];
+			for (int i = 0; i < n; i++) {
+				pvds[i] = vd.clone();
+			}
 		} else {
 			afn = null;
 			it = null;
 			vd = null;
-			pvd = null;
+			pvds = null;
 		}
 
 		MultivariateJacobianFunction f = new MultivariateJacobianFunction() {
@@ -127,11 +132,9 @@ public class ApacheOptimizer extends AbstractOptimizer implements ILeastSquaresO
 				if (afn != null) {
 					dv = vd.getData();
 					AFunction afn = (AFunction) function;
-					afn.fillWithValues(vd, it);
-					double[] pd = pvd.getData();
+					afn.fillWithValuesAndPartialDerivatives(ps, vd, pvds, it);
 					for (int i = 0; i < n; i++) { // assuming number of parameters is less than number of coordinates
-						IParameter p = params.get(i);
-						afn.fillWithPartialDerivativeValues(p, pvd, it);
+						double[] pd = pvds[i].getData();
 						for (int j = 0; j < size; j++) {
 							dm[j][i] = pd[j];
 						}
@@ -13,10 +13,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.AbstractDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.BooleanDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetFactory;
 import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.DoubleDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.FloatDataset;
 import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
 import org.eclipse.dawnsci.analysis.dataset.impl.Maths;
@@ -249,6 +251,39 @@ public class ROIProfile {
 		return profiles;
 	}
 
+	/**
+	 * Box profiles from a summed area table so that many boxes on the same frame can be profiled
+	 * without slicing and masking the data for each one. Rotated boxes fall back to
+	 * {@link #box(Dataset, Dataset, RectangularROI)} with the table's data and mask
+	 * @param table
+	 * @param rroi
+	 * @return box profile
+	 */
+	public static Dataset[] box(SummedAreaTable table, RectangularROI rroi) {
+		if (rroi.getAngle() != 0.0) {
+			return box(table.getData(), table.getMask(), rroi);
+		}
+
+		int[][] box = getBox(rroi);
+		double[] xProfile = table.getSumProfile(box[0], box[1], 0);
+		if (xProfile == null) {
+			return null;
+		}
+		int dtype = AbstractDataset.getBestFloatDType(table.getData().getDtype());
+		return new Dataset[] {new DoubleDataset(xProfile).cast(dtype),
+				new DoubleDataset(table.getSumProfile(box[0], box[1], 1)).cast(dtype)};
+	}
+
+	/**
+	 * @param rroi
+	 * @return start and stop of unrotated box in dataset order
+	 */
+	private static int[][] getBox(RectangularROI rroi) {
+		int[] spt = rroi.getIntPoint();
+		int[] len = rroi.getIntLengths();
+		return new int[][] {{spt[1], spt[0]}, {spt[1] + Math.max(len[1], 1), spt[0] + Math.max(len[0], 1)}};
+	}
+
 	/**
 	 * Returns the mean of the dataset given a RectangularROI
 	 * @param data
@@ -351,6 +386,27 @@ public class ROIProfile {
 		return profiles;
 	}
 
+	/**
+	 * Box mean profiles from a summed area table so that many boxes on the same frame can be profiled
+	 * without slicing the data for each one. Masked pixels and NaNs are ignored. Rotated boxes fall back
+	 * to {@link #boxMean(Dataset, Dataset, RectangularROI, boolean)} with the table's data and mask
+	 * @param table
+	 * @param rroi
+	 * @return box profile
+	 */
+	public static Dataset[] boxMean(SummedAreaTable table, RectangularROI rroi) {
+		if (rroi.getAngle() != 0.0) {
+			return boxMean(table.getData(), table.getMask(), rroi, true);
+		}
+
+		int[][] box = getBox(rroi);
+		double[] xProfile = table.getMeanProfile(box[0], box[1], 0);
+		if (xProfile == null) {
+			return null;
+		}
+		return new Dataset[] {new DoubleDataset(xProfile), new DoubleDataset(table.getMeanProfile(box[0], box[1], 1))};
+	}
+
 	/**
 	 * @param data
 	 * @param mask
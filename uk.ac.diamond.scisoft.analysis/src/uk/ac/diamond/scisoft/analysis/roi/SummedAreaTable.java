@@ -0,0 +1,250 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.roi;
+
+import org.eclipse.dawnsci.analysis.api.dataset.IDataset;
+import org.eclipse.dawnsci.analysis.api.metadata.MaskMetadata;
+import org.eclipse.dawnsci.analysis.dataset.impl.Dataset;
+import org.eclipse.dawnsci.analysis.dataset.impl.DatasetUtils;
+import org.eclipse.dawnsci.analysis.dataset.impl.IndexIterator;
+
+/**
+ * Summed area table (aka integral image) of a 2D dataset and of its pixel counts. Once created for
+ * a frame, the sum over any unrotated box is found in constant time and a box profile in time
+ * proportional to its length, without slicing or copying the data.
+ * <p>
+ * Pixels can be weighted by a mask where false or zero excludes them. NaNs are excluded too so sums
+ * match {@link uk.ac.diamond.scisoft.analysis.dataset.function.Integrate2D} and means ignore NaNs.
+ * <p>
+ * Boxes are given in dataset order, i.e. as start and (exclusive) stop of [row, column], and are
+ * clipped to the dataset.
+ * <p>
+ * A table takes two arrays the size of the frame so it is only worth creating when the boxes
+ * cover a large part of the frame, see {@link #isWorthwhile(int[], int[][], int[][])}.
+ */
+public class SummedAreaTable {
+	/**
+	 * Part of a frame that boxes must cover in total for a table to be quicker than
+	 * slicing and summing each box
+	 */
+	private static final double MIN_COVERAGE = 0.5;
+
+	private final Dataset data;
+	private final Dataset mask;
+	private final int rows;
+	private final int cols;
+	private final int stride;
+	private final double[] sums;   // (rows + 1) x (cols + 1) with zero first row and column
+	private final double[] counts;
+
+	/**
+	 * @param data 2D dataset
+	 */
+	public SummedAreaTable(Dataset data) {
+		this(data, null);
+	}
+
+	/**
+	 * @param data 2D dataset
+	 * @param mask can be null. It is ignored if not compatible with data
+	 */
+	public SummedAreaTable(Dataset data, Dataset mask) {
+		int[] shape = data.getShapeRef();
+		if (shape.length != 2) {
+			throw new IllegalArgumentException("Only 2D datasets are supported");
+		}
+		if (data.getElementsPerItem() != 1) {
+			throw new IllegalArgumentException("Only datasets with single element items are supported");
+		}
+		if (mask != null && !data.isCompatibleWith(mask)) {
+			mask = null;
+		}
+		this.data = data;
+		this.mask = mask;
+		rows = shape[0];
+		cols = shape[1];
+		stride = cols + 1;
+		sums = new double[(rows + 1) * stride];
+		counts = new double[sums.length];
+
+		IndexIterator it = data.getIterator();
+		IndexIterator mit = mask == null ? null : mask.getIterator();
+		for (int r = 0; r < rows; r++) {
+			int i = (r + 1) * stride + 1;
+			double rowSum = 0;
+			double rowCount = 0;
+			for (int c = 0; c < cols; c++, i++) {
+				it.hasNext();
+				double v = data.getElementDoubleAbs(it.index);
+				double w = 1;
+				if (mit != null) {
+					mit.hasNext();
+					w = mask.getElementDoubleAbs(mit.index);
+				}
+				if (w != 0 && !Double.isNaN(v)) {
+					rowSum += v * w;
+					rowCount += w;
+				}
+				sums[i] = sums[i - stride] + rowSum;
+				counts[i] = counts[i - stride] + rowCount;
+			}
+		}
+	}
+
+	/**
+	 * @param input 2D dataset that can have a mask in its metadata
+	 * @return summed area table of input and its mask
+	 */
+	public static SummedAreaTable create(IDataset input) {
+		Dataset mask = null;
+		MaskMetadata m = input.getFirstMetadata(MaskMetadata.class);
+		if (m != null && m.getMask() != null) {
+			mask = DatasetUtils.sliceAndConvertLazyDataset(m.getMask());
+		}
+
+		return new SummedAreaTable(DatasetUtils.convertToDataset(input), mask);
+	}
+
+	/**
+	 * @param shape of frame
+	 * @param starts of boxes
+	 * @param stops of boxes
+	 * @return true if boxes, clipped to the frame, cover enough of it to make a table worth creating
+	 */
+	public static boolean isWorthwhile(int[] shape, int[][] starts, int[][] stops) {
+		long area = 0;
+		for (int i = 0; i < starts.length; i++) {
+			long r = Math.min(stops[i][0], shape[0]) - Math.max(starts[i][0], 0);
+			long c = Math.min(stops[i][1], shape[1]) - Math.max(starts[i][1], 0);
+			if (r > 0 && c > 0) {
+				area += r * c;
+			}
+		}
+		return area >= MIN_COVERAGE * shape[0] * shape[1];
+	}
+
+	/**
+	 * @return dataset used to create table
+	 */
+	public Dataset getData() {
+		return data;
+	}
+
+	/**
+	 * @return mask used to create table (can be null)
+	 */
+	public Dataset getMask() {
+		return mask;
+	}
+
+	/**
+	 * @return shape of dataset
+	 */
+	public int[] getShape() {
+		return new int[] {rows, cols};
+	}
+
+	private double box(double[] table, int r0, int c0, int r1, int c1) {
+		return table[r1 * stride + c1] - table[r0 * stride + c1] - table[r1 * stride + c0] + table[r0 * stride + c0];
+	}
+
+	/**
+	 * @param start
+	 * @param stop
+	 * @return box clipped to dataset as {r0, c0, r1, c1} or null if empty
+	 */
+	private int[] clip(int[] start, int[] stop) {
+		int r0 = Math.max(start[0], 0);
+		int c0 = Math.max(start[1], 0);
+		int r1 = Math.min(stop[0], rows);
+		int c1 = Math.min(stop[1], cols);
+		return r0 < r1 && c0 < c1 ? new int[] {r0, c0, r1, c1} : null;
+	}
+
+	/**
+	 * @param start of box
+	 * @param stop of box
+	 * @return sum of (weighted) values in box
+	 */
+	public double getSum(int[] start, int[] stop) {
+		int[] b = clip(start, stop);
+		return b == null ? 0 : box(sums, b[0], b[1], b[2], b[3]);
+	}
+
+	/**
+	 * @param start of box
+	 * @param stop of box
+	 * @return number (or sum of weights) of pixels in box that are not excluded
+	 */
+	public double getCount(int[] start, int[] stop) {
+		int[] b = clip(start, stop);
+		return b == null ? 0 : box(counts, b[0], b[1], b[2], b[3]);
+	}
+
+	/**
+	 * @param start of box
+	 * @param stop of box
+	 * @return mean of values in box or NaN if all pixels are excluded
+	 */
+	public double getMean(int[] start, int[] stop) {
+		int[] b = clip(start, stop);
+		return b == null ? Double.NaN : box(sums, b[0], b[1], b[2], b[3]) / box(counts, b[0], b[1], b[2], b[3]);
+	}
+
+	/**
+	 * @param start of box
+	 * @param stop of box
+	 * @param axis to sum over
+	 * @return sums over given axis in (clipped) box or null if box is empty
+	 */
+	public double[] getSumProfile(int[] start, int[] stop, int axis) {
+		return getProfile(start, stop, axis, false);
+	}
+
+	/**
+	 * @param start of box
+	 * @param stop of box
+	 * @param axis to average over
+	 * @return means over given axis in (clipped) box or null if box is empty. Lines where all pixels
+	 * are excluded have NaN means
+	 */
+	public double[] getMeanProfile(int[] start, int[] stop, int axis) {
+		return getProfile(start, stop, axis, true);
+	}
+
+	private double[] getProfile(int[] start, int[] stop, int axis, boolean mean) {
+		int[] b = clip(start, stop);
+		if (b == null) {
+			return null;
+		}
+
+		double[] profile;
+		if (axis == 0) {
+			profile = new double[b[3] - b[1]];
+			for (int i = 0, c = b[1]; c < b[3]; i++, c++) {
+				profile[i] = box(sums, b[0], c, b[2], c + 1);
+				if (mean) {
+					profile[i] /= box(counts, b[0], c, b[2], c + 1);
+				}
+			}
+		} else if (axis == 1) {
+			profile = new double[b[2] - b[0]];
+			for (int i = 0, r = b[0]; r < b[2]; i++, r++) {
+				profile[i] = box(sums, r, b[1], r + 1, b[3]);
+				if (mean) {
+					profile[i] /= box(counts, r, b[1], r + 1, b[3]);
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("Axis must be 0 or 1");
+		}
+		return profile;
+	}
+}
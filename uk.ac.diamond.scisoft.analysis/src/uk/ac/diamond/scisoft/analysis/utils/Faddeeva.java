@@ -707,10 +707,55 @@ public class Faddeeva {
 	}
 
 	private static cmplx w_i(cmplx z, double relerr) {
-		if (creal(z) == 0.0)
-			return C(erfcx(cimag(z)), creal(z)); // give correct sign of 0 in cimag(w)
-		else if (cimag(z) == 0)
-			return C(exp(-sqr(creal(z))), wImaginary(creal(z)));
+		double[] out = new double[2];
+		w(z.r, z.i, relerr, out, 0);
+		return C(out[0], out[1]);
+	}
+
+	/**
+	 * Compute the Faddeeva or scaled complementary error function for arrays of complex numbers
+	 * @param zr real parts of z
+	 * @param zi imaginary parts of z. If this has a single element then it is used for all real parts
+	 * @param relerr
+	 * @param wr output real parts of w(z) (can be null)
+	 * @param wi output imaginary parts of w(z) (can be null)
+	 */
+	public static void w(double[] zr, double[] zi, double relerr, double[] wr, double[] wi) {
+		int n = zr.length;
+		if (zi.length != 1 && zi.length != n) {
+			throw new IllegalArgumentException("Imaginary parts must have a single element or match real parts in length");
+		}
+		boolean single = zi.length == 1;
+		double[] out = new double[2];
+		for (int i = 0; i < n; i++) {
+			w(zr[i], single ? zi[0] : zi[i], relerr, out, 0);
+			if (wr != null) {
+				wr[i] = out[0];
+			}
+			if (wi != null) {
+				wi[i] = out[1];
+			}
+		}
+	}
+
+	/**
+	 * Compute the Faddeeva or scaled complementary error function without creating any objects
+	 * @param zr real part of z
+	 * @param zi imaginary part of z
+	 * @param relerr
+	 * @param out array to hold real and imaginary parts of w(z) = exp(-z^2) erfc(-iz)
+	 * @param offset index in output array of real part (imaginary part follows it)
+	 */
+	public static void w(double zr, double zi, double relerr, double[] out, int offset) {
+		if (zr == 0.0) {
+			out[offset] = erfcx(zi);
+			out[offset + 1] = zr; // give correct sign of 0 in cimag(w)
+			return;
+		} else if (zi == 0) {
+			out[offset] = exp(-sqr(zr));
+			out[offset + 1] = wImaginary(zr);
+			return;
+		}
 
 		double a, a2, c;
 		if (relerr <= DBL_EPSILON) {
@@ -726,10 +771,10 @@ public class Faddeeva {
 			c = (2 / Math.PI) * a;
 			a2 = a * a;
 		}
-		double x = fabs(creal(z));
-		double y = cimag(z), ya = fabs(y);
+		double x = fabs(zr);
+		double y = zi, ya = fabs(y);
 
-		cmplx ret = ZERO; // return value
+		double retr = 0, reti = 0; // return value
 
 		double sum1 = 0, sum2 = 0, sum3 = 0, sum4 = 0, sum5 = 0;
 
@@ -754,25 +799,31 @@ public class Faddeeva {
 			that the estimated nu be >= minimum nu to attain machine precision.
 			I also separate the regions where nu == 2 and nu == 1. */
 			final double ispi = ONE_OVER_SQRT_PI; // 1 / sqrt(pi)
-			double xs = y < 0 ? -creal(z) : creal(z); // compute for -z if y < 0
+			double xs = y < 0 ? -zr : zr; // compute for -z if y < 0
 			if (x + ya > 4000) { // nu <= 2
 				if (x + ya > 1e7) { // nu == 1, w(z) = i/sqrt(pi) / z
 					// scale to avoid overflow
 					if (x > ya) {
 						double yax = ya / xs;
 						double denom = ispi / (xs + yax * ya);
-						ret = C(denom * yax, denom);
-					} else if (isinf(ya))
-						return ((isnan(x) || y < 0) ? C(NaN, NaN) : C(0, 0));
-					else {
+						retr = denom * yax;
+						reti = denom;
+					} else if (isinf(ya)) {
+						double v = (isnan(x) || y < 0) ? NaN : 0;
+						out[offset] = v;
+						out[offset + 1] = v;
+						return;
+					} else {
 						double xya = xs / ya;
 						double denom = ispi / (xya * xs + ya);
-						ret = C(denom, denom * xya);
+						retr = denom;
+						reti = denom * xya;
 					}
 				} else { // nu == 2, w(z) = i/sqrt(pi) * z / (z*z - 0.5)
 					double dr = xs * xs - ya * ya - 0.5, di = 2 * xs * ya;
 					double denom = ispi / (dr * dr + di * di);
-					ret = C(denom * (xs * di - ya * dr), denom * (xs * dr + ya * di));
+					retr = denom * (xs * di - ya * dr);
+					reti = denom * (xs * dr + ya * di);
 				}
 			} else { // compute nu(z) estimate and do general continued fraction
 				double c0 = 3.9, c1 = 11.398, c2 = 0.08254, c3 = 0.1421, c4 = 0.2023; // fit
@@ -786,18 +837,29 @@ public class Faddeeva {
 				}
 				{ // w(z) = i/sqrt(pi) / w:
 					double denom = ispi / (wr * wr + wi * wi);
-					ret = C(denom * wi, denom * wr);
+					retr = denom * wi;
+					reti = denom * wr;
 				}
 			}
 			if (y < 0) {
 				// use w(z) = 2.0*exp(-z*z) - w(-z),
 				// but be careful of overflow in exp(-z*z)
 				// = exp(-(xs*xs-ya*ya) -2*i*xs*ya)
-				System.err.println((ya - xs) + " * " + (xs + ya) + " = " + (ya - xs) * (xs + ya));
-				return csub(cmul(2.0, cexp(C((ya - xs) * (xs + ya), 2 * xs * y))), ret);
+				double er = exp((ya - xs) * (xs + ya));
+				if (er == 0) {
+					out[offset] = 0 - retr; // do not negate to keep sign of zero
+					out[offset + 1] = 0 - reti;
+					return;
+				}
+				double ei = 2 * xs * y;
+				out[offset] = 2 * (er * cos(ei)) - retr;
+				out[offset + 1] = 2 * (er * sin(ei)) - reti;
+				return;
 			}
 			// else
-			return ret;
+			out[offset] = retr;
+			out[offset + 1] = reti;
+			return;
 		}
 		// #else // !USE_CONTINUED_FRACTION
 		// #endif // !USE_CONTINUED_FRACTION
@@ -818,8 +880,11 @@ public class Faddeeva {
 			double prod2ax = 1, prodm2ax = 1;
 			double expx2;
 
-			if (isnan(y))
-				return C(y, y);
+			if (isnan(y)) {
+				out[offset] = y;
+				out[offset + 1] = y;
+				return;
+			}
 
 			/*- Somewhat ugly copy-and-paste duplication here, but I see significant
 			speedups from using the special-case code with the precomputed
@@ -906,24 +971,30 @@ public class Faddeeva {
 					? expx2 * erfcx(y) : 2 * exp(y * y - x * x);
 			if (y > 5) { // imaginary terms cancel
 				double sinxy = sin(x * y);
-				ret = C((expx2erfcxy - c * y * sum1) * cos(2 * x * y) + (c * x * expx2) * sinxy * sinc(x * y, sinxy));
+				retr = (expx2erfcxy - c * y * sum1) * cos(2 * x * y) + (c * x * expx2) * sinxy * sinc(x * y, sinxy);
 			} else {
-				double xs = creal(z);
+				double xs = zr;
 				double sinxy = sin(xs * y);
 				double sin2xy = sin(2 * xs * y), cos2xy = cos(2 * xs * y);
 				double coef1 = expx2erfcxy - c * y * sum1;
 				double coef2 = c * xs * expx2;
-				ret = C(coef1 * cos2xy + coef2 * sinxy * sinc(xs * y, sinxy),
-						coef2 * sinc(2 * xs * y, sin2xy) - coef1 * sin2xy);
+				retr = coef1 * cos2xy + coef2 * sinxy * sinc(xs * y, sinxy);
+				reti = coef2 * sinc(2 * xs * y, sin2xy) - coef1 * sin2xy;
 			}
 		} else { // x large: only sum3 & sum5 contribute (see above note)
-			if (isnan(x))
-				return C(x, x);
-			if (isnan(y))
-				return C(y, y);
+			if (isnan(x)) {
+				out[offset] = x;
+				out[offset + 1] = x;
+				return;
+			}
+			if (isnan(y)) {
+				out[offset] = y;
+				out[offset + 1] = y;
+				return;
+			}
 
 			// #if USE_CONTINUED_FRACTION
-			ret = C(exp(-x * x)); // |y| < 1e-10, so we only need exp(-x*x) term
+			retr = exp(-x * x); // |y| < 1e-10, so we only need exp(-x*x) term
 			// #else
 			// #endif
 			// (round instead of ceil as in original paper; note that x/a > 1 here)
@@ -957,7 +1028,8 @@ public class Faddeeva {
 			}
 		}
 		// finish:
-		return cadd(ret, C((0.5 * c) * y * (sum2 + sum3), (0.5 * c) * copysign(sum5 - sum4, creal(z))));
+		out[offset] = retr + (0.5 * c) * y * (sum2 + sum3);
+		out[offset + 1] = reti + (0.5 * c) * copysign(sum5 - sum4, zr);
 	}
 
 	/**-
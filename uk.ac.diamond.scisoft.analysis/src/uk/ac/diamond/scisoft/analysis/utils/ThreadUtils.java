@@ -0,0 +1,57 @@
+/*-
+ * Copyright 2016 Diamond Light Source Ltd.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+
+package uk.ac.diamond.scisoft.analysis.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates thread pools whose threads are named and do not stop the JVM from exiting
+ */
+public class ThreadUtils {
+
+	private ThreadUtils() {
+	}
+
+	/**
+	 * @return default number of threads for a pool: the number of processors but at least two
+	 */
+	public static int getDefaultThreads() {
+		return Math.max(2, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param name prefix of thread names, which are followed by a count
+	 * @return factory for daemon threads
+	 */
+	public static ThreadFactory createDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name + " " + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+	}
+
+	/**
+	 * @param name prefix of thread names, which are followed by a count
+	 * @param threads number of threads
+	 * @return fixed size pool of daemon threads
+	 */
+	public static ExecutorService createDaemonThreadPool(String name, int threads) {
+		return Executors.newFixedThreadPool(threads, createDaemonThreadFactory(name));
+	}
+}